@@ -577,6 +577,11 @@ LOCAL_STATIC_JAVA_LIBRARIES :=                          \
 # Loaded with System.loadLibrary by android.view.textclassifier
 LOCAL_REQUIRED_MODULES += libtextclassifier
 
+# Read by com.android.internal.os.ParallelClassPreloader, once it has been generated
+ifneq ($(wildcard $(LOCAL_PATH)/preloaded-classes-groups),)
+LOCAL_REQUIRED_MODULES += preloaded-classes-groups
+endif
+
 LOCAL_PROTOC_OPTIMIZE_TYPE := stream
 LOCAL_PROTOC_FLAGS := \
     -Iexternal/protobuf/src
@@ -599,6 +604,20 @@ $(framework_module): | $(dir $(framework_module))framework-res.apk
 
 framework_built := $(call java-lib-deps,framework)
 
+# Groups of preloaded classes whose static initializers depend on each other,
+# generated by tools/preload/WritePreloadedClassGroupsFile.java. Not checked in
+# until a class initialization log has been recorded; without it the zygote
+# preloads serially even when parallel preloading is enabled.
+# ============================================================
+ifneq ($(wildcard $(LOCAL_PATH)/preloaded-classes-groups),)
+include $(CLEAR_VARS)
+LOCAL_MODULE := preloaded-classes-groups
+LOCAL_SRC_FILES := preloaded-classes-groups
+LOCAL_MODULE_CLASS := ETC
+LOCAL_MODULE_PATH := $(TARGET_OUT_ETC)
+include $(BUILD_PREBUILT)
+endif
+
 # Copy AIDL files to be preprocessed and included in the SDK,
 # specified relative to the root of the build tree.
 # ============================================================
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.accounts;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures getAccountsByType() called concurrently by a number of threads, standing in for
+ * apps listing accounts at the same time.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class AccountManagerPerfTest {
+    @Parameters(name = "threads={0}")
+    public static Collection cases() {
+        return Arrays.asList(new Object[][] { { 1 }, { 4 }, { 16 } });
+    }
+
+    private static final int CALLS_PER_THREAD = 20;
+    private static final String ACCOUNT_TYPE = "com.google";
+
+    private final int mThreadCount;
+    private AccountManager mAccountManager;
+    private ExecutorService mExecutor;
+
+    public AccountManagerPerfTest(int threadCount) {
+        mThreadCount = threadCount;
+    }
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Before
+    public void setUp() {
+        mAccountManager = AccountManager.get(
+                InstrumentationRegistry.getInstrumentation().getTargetContext());
+        mExecutor = Executors.newFixedThreadPool(mThreadCount);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testGetAccountsByType() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final Callable<Integer> task = () -> {
+            int count = 0;
+            for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                count += mAccountManager.getAccountsByType(ACCOUNT_TYPE).length;
+            }
+            return count;
+        };
+        final Future<?>[] futures = new Future<?>[mThreadCount];
+        while (state.keepRunning()) {
+            for (int i = 0; i < mThreadCount; i++) {
+                futures[i] = mExecutor.submit(task);
+            }
+            for (int i = 0; i < mThreadCount; i++) {
+                futures[i].get();
+            }
+        }
+    }
+}
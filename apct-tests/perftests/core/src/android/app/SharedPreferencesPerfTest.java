@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Measures the latency of committing a single change to preferences of different sizes, with
+ * the XML and the binary storage.
+ */
+@RunWith(Parameterized.class)
+@LargeTest
+public class SharedPreferencesPerfTest {
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Parameters(name = "size={0},binary={1}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                { 10, false }, { 100, false }, { 1000, false },
+                { 10, true }, { 100, true }, { 1000, true } });
+    }
+
+    private final int mSize;
+    private final boolean mBinary;
+
+    private Context mContext;
+    private String mName;
+    private SharedPreferences mPrefs;
+
+    public SharedPreferencesPerfTest(int size, boolean binary) {
+        mSize = size;
+        mBinary = binary;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mName = "perftest_" + mSize + (mBinary ? "_binary" : "_xml");
+        mContext.deleteSharedPreferences(mName);
+        mPrefs = mContext.getSharedPreferences(mName,
+                mBinary ? Context.MODE_BINARY_PREFERENCES : Context.MODE_PRIVATE);
+
+        final SharedPreferences.Editor editor = mPrefs.edit();
+        for (int i = 0; i < mSize; i++) {
+            editor.putString("key" + i, "value of key number " + i);
+        }
+        editor.commit();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteSharedPreferences(mName);
+    }
+
+    @Test
+    public void timeCommitSingleChange() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mPrefs.edit().putInt("counter", i++).commit();
+        }
+    }
+
+    @Test
+    public void timeApplySingleChangeAndWait() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mPrefs.edit().putInt("counter", i++).apply();
+            // What an activity pausing right after the apply() would block on.
+            QueuedWork.waitToFinish();
+        }
+    }
+}
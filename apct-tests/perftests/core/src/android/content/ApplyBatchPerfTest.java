@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import static org.junit.Assert.assertEquals;
+
+import android.database.Cursor;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Measures inserting 100K rows into a provider running in another process, in batches the
+ * caller splits by hand and in chunks chosen by {@link ContentResolver#applyBatchInChunks}.
+ * Every other row back references the row inserted before it, and the operations allow a yield
+ * every {@link #MANUAL_BATCH_SIZE} rows, where the manual batches split them.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class ApplyBatchPerfTest {
+    private static final int ROW_COUNT = 100000;
+    private static final int MANUAL_BATCH_SIZE = 100;
+
+    private ContentResolver mResolver;
+    private ArrayList<ContentProviderOperation> mOperations;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getContentResolver();
+        mOperations = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            final ContentProviderOperation.Builder builder =
+                    ContentProviderOperation.newInsert(BatchPerfTestProvider.ITEMS_URI)
+                            .withValue("name", "Item number " + i)
+                            .withYieldAllowed(i % MANUAL_BATCH_SIZE == 0);
+            if (i % 2 == 1) {
+                builder.withValueBackReference("value", i - 1);
+            } else {
+                builder.withValue("value", i);
+            }
+            mOperations.add(builder.build());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(BatchPerfTestProvider.ITEMS_URI, null, null);
+    }
+
+    /** Checks that all the rows were inserted, then deletes them for the next run. */
+    private void checkAndDeleteRows() {
+        try (Cursor cursor = mResolver.query(BatchPerfTestProvider.ITEMS_URI, null, null, null,
+                null)) {
+            assertEquals(ROW_COUNT, cursor.getCount());
+        }
+        mResolver.delete(BatchPerfTestProvider.ITEMS_URI, null, null);
+    }
+
+    @Test
+    public void testManualBatches() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final ArrayList<ContentProviderOperation> batch = new ArrayList<>(MANUAL_BATCH_SIZE);
+        while (state.keepRunning()) {
+            // Batches of an even size keep the back references within a batch.
+            for (int start = 0; start < ROW_COUNT; start += MANUAL_BATCH_SIZE) {
+                batch.clear();
+                for (int i = start; i < start + MANUAL_BATCH_SIZE; i++) {
+                    batch.add(mOperations.get(i).getWithPreviousResults(null, start));
+                }
+                mResolver.applyBatch(BatchPerfTestProvider.AUTHORITY, batch);
+            }
+            state.pauseTiming();
+            checkAndDeleteRows();
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final ContentProviderResult[] results = mResolver.applyBatchInChunks(
+                    BatchPerfTestProvider.AUTHORITY, mOperations, null);
+            state.pauseTiming();
+            assertEquals(ROW_COUNT, results.length);
+            checkAndDeleteRows();
+            state.resumeTiming();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import java.util.ArrayList;
+
+/**
+ * A provider running in its own process that stores the inserted rows in an in-memory
+ * database, applying each batch in a transaction.
+ */
+public class BatchPerfTestProvider extends ContentProvider {
+    static final String AUTHORITY = "com.android.perftests.core.batch";
+    static final Uri ITEMS_URI = Uri.parse("content://" + AUTHORITY + "/items");
+
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    public boolean onCreate() {
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, value INTEGER)");
+        return true;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        mDatabase.beginTransaction();
+        try {
+            final ContentProviderResult[] results = super.applyBatch(operations);
+            mDatabase.setTransactionSuccessful();
+            return results;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        return mDatabase.query("items", projection, selection, selectionArgs, null, null,
+                sortOrder);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        return ContentUris.withAppendedId(uri, mDatabase.insert("items", null, values));
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        return mDatabase.delete("items", selection, selectionArgs);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return mDatabase.update("items", values, selection, selectionArgs);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Measures scrolling through a 100K row query result the way a client of a content provider
+ * does, with the cursor adapted to a bulk cursor on the provider side and back to a cursor on
+ * the client side, with and without streaming the windows.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class CrossProcessCursorPerfTest {
+    @Parameters(name = "{0}")
+    public static Collection cases() {
+        return Arrays.asList(new Object[][] {
+            { "streaming", true },
+            { "noStreaming", false },
+        });
+    }
+
+    private static final int ROW_COUNT = 100000;
+
+    private final boolean mStreaming;
+    private SQLiteDatabase mDatabase;
+
+    public CrossProcessCursorPerfTest(String metricKey, boolean streaming) {
+        mStreaming = streaming;
+    }
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Before
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, value INTEGER)");
+        mDatabase.beginTransaction();
+        try {
+            final SQLiteStatement insert =
+                    mDatabase.compileStatement("INSERT INTO items (name, value) VALUES (?, ?)");
+            for (int i = 0; i < ROW_COUNT; i++) {
+                insert.bindString(1, "Item number " + i);
+                insert.bindLong(2, i);
+                insert.executeInsert();
+            }
+            insert.close();
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    private Cursor queryThroughBulkCursor() {
+        final Cursor cursor = mDatabase.rawQuery(
+                "SELECT _id, name, value FROM items ORDER BY name", null);
+        final BulkCursorToCursorAdaptor client = new BulkCursorToCursorAdaptor();
+        final CursorToBulkCursorAdaptor provider = new CursorToBulkCursorAdaptor(
+                cursor, client.getObserver(), "perftest");
+        provider.setStreamingEnabled(mStreaming);
+        client.initialize(provider.getBulkCursorDescriptor());
+        return client;
+    }
+
+    @Test
+    public void testScroll() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final Cursor cursor = queryThroughBulkCursor();
+            long sum = 0;
+            while (cursor.moveToNext()) {
+                sum += cursor.getLong(2) + cursor.getString(1).length();
+            }
+            cursor.close();
+            if (sum == 0) {
+                throw new IllegalStateException("No rows read");
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Measures aggregating the numeric columns of a 50K row cursor, reading the values one at a
+ * time and in bulk.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class CursorBulkReadPerfTest {
+    @Parameters(name = "{0}")
+    public static Collection cases() {
+        return Arrays.asList(new Object[][] {
+            { "SQLiteCursor", false },
+            { "MatrixCursor", true },
+        });
+    }
+
+    private static final int ROW_COUNT = 50000;
+    private static final int BATCH_SIZE = 1024;
+
+    private final boolean mMatrixCursor;
+    private SQLiteDatabase mDatabase;
+    private AbstractCursor mCursor;
+
+    public CursorBulkReadPerfTest(String metricKey, boolean matrixCursor) {
+        mMatrixCursor = matrixCursor;
+    }
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Before
+    public void setUp() {
+        if (mMatrixCursor) {
+            final MatrixCursor cursor = new MatrixCursor(new String[] { "count", "price" },
+                    ROW_COUNT);
+            for (int i = 0; i < ROW_COUNT; i++) {
+                cursor.addRow(new Object[] { (long) i, i * 0.25 });
+            }
+            mCursor = cursor;
+            return;
+        }
+
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE items (count INTEGER, price REAL)");
+        mDatabase.beginTransaction();
+        try {
+            final SQLiteStatement insert =
+                    mDatabase.compileStatement("INSERT INTO items VALUES (?, ?)");
+            for (int i = 0; i < ROW_COUNT; i++) {
+                insert.bindLong(1, i);
+                insert.bindDouble(2, i * 0.25);
+                insert.executeInsert();
+            }
+            insert.close();
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        mCursor = (AbstractCursor) mDatabase.rawQuery("SELECT count, price FROM items", null);
+        // Fill the window ahead of the measurements.
+        mCursor.getCount();
+    }
+
+    @After
+    public void tearDown() {
+        mCursor.close();
+        if (mDatabase != null) {
+            mDatabase.close();
+        }
+    }
+
+    @Test
+    public void testSumLongs() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            long sum = 0;
+            mCursor.moveToPosition(-1);
+            while (mCursor.moveToNext()) {
+                sum += mCursor.getLong(0);
+            }
+            checkSum(sum);
+        }
+    }
+
+    @Test
+    public void testSumLongsInBulk() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final long[] values = new long[BATCH_SIZE];
+        while (state.keepRunning()) {
+            long sum = 0;
+            int position = 0;
+            int count;
+            while ((count = mCursor.getLongs(position, 0, values, 0, BATCH_SIZE)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    sum += values[i];
+                }
+                position += count;
+            }
+            checkSum(sum);
+        }
+    }
+
+    @Test
+    public void testSumDoubles() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            double sum = 0;
+            mCursor.moveToPosition(-1);
+            while (mCursor.moveToNext()) {
+                sum += mCursor.getDouble(1);
+            }
+            checkSum((long) sum);
+        }
+    }
+
+    @Test
+    public void testSumDoublesInBulk() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final double[] values = new double[BATCH_SIZE];
+        while (state.keepRunning()) {
+            double sum = 0;
+            int position = 0;
+            int count;
+            while ((count = mCursor.getDoubles(position, 1, values, 0, BATCH_SIZE)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    sum += values[i];
+                }
+                position += count;
+            }
+            checkSum((long) sum);
+        }
+    }
+
+    private static void checkSum(long sum) {
+        if (sum == 0) {
+            throw new IllegalStateException("No rows read");
+        }
+    }
+}
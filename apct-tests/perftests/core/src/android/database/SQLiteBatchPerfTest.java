@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatementBatch;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Measures writing rows to a database file with one transaction per statement and with a
+ * single batch, executed on the calling thread and on the database's executor.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class SQLiteBatchPerfTest {
+    @Parameters(name = "rows={0}")
+    public static Collection cases() {
+        return Arrays.asList(new Object[][] { { 10 }, { 100 }, { 1000 } });
+    }
+
+    private static final String DATABASE_NAME = "batch_perftest.db";
+
+    private final int mRowCount;
+    private Context mContext;
+    private SQLiteDatabase mDatabase;
+
+    public SQLiteBatchPerfTest(int rowCount) {
+        mRowCount = rowCount;
+    }
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        final File file = mContext.getDatabasePath(DATABASE_NAME);
+        file.getParentFile().mkdirs();
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(file, null);
+        mDatabase.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY, name TEXT, value INTEGER)");
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void testPerStatementTransactions() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final Object[] bindArgs = new Object[2];
+        while (state.keepRunning()) {
+            for (int i = 0; i < mRowCount; i++) {
+                bindArgs[0] = "Item number " + i;
+                bindArgs[1] = i;
+                mDatabase.execSQL("INSERT INTO items (name, value) VALUES (?, ?)", bindArgs);
+            }
+            state.pauseTiming();
+            mDatabase.execSQL("DELETE FROM items");
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void testBatch() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final SQLiteStatementBatch batch = new SQLiteStatementBatch();
+        while (state.keepRunning()) {
+            batch.clear();
+            for (int i = 0; i < mRowCount; i++) {
+                batch.add("INSERT INTO items (name, value) VALUES (?, ?)", "Item number " + i, i);
+            }
+            mDatabase.executeBatch(batch, null);
+            state.pauseTiming();
+            mDatabase.execSQL("DELETE FROM items");
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void testBatchAsync() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final SQLiteStatementBatch batch = new SQLiteStatementBatch();
+        while (state.keepRunning()) {
+            batch.clear();
+            for (int i = 0; i < mRowCount; i++) {
+                batch.add("INSERT INTO items (name, value) VALUES (?, ?)", "Item number " + i, i);
+            }
+            mDatabase.executeBatchAsync(batch, null, null, null).get();
+            state.pauseTiming();
+            mDatabase.execSQL("DELETE FROM items");
+            state.resumeTiming();
+        }
+    }
+}
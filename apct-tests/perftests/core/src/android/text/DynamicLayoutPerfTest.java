@@ -29,6 +29,7 @@ import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.LargeTest;
 import android.support.test.rule.ActivityTestRule;
 import android.support.test.runner.AndroidJUnit4;
+import android.text.style.RelativeSizeSpan;
 import android.text.style.ReplacementSpan;
 import android.util.ArraySet;
 
@@ -89,12 +90,18 @@ public class DynamicLayoutPerfTest {
 
     private final static String ALPHABETS = "abcdefghijklmnopqrstuvwxyz";
 
+    // About a megabyte of text.
+    private final static int LARGE_PARAGRAPH_COUNT = 10000;
+
     private SpannableStringBuilder getText() {
+        return getText(100);
+    }
+
+    private SpannableStringBuilder getText(int paragraphCount) {
         final long seed = 1234567890;
         final Random r = new Random(seed);
         final SpannableStringBuilder builder = new SpannableStringBuilder();
 
-        final int paragraphCount = 100;
         for (int i = 0; i < paragraphCount; i++) {
             final int wordCount = 5 + r.nextInt(20);
             final boolean containsReplacementSpan = r.nextFloat() < mProbability;
@@ -139,4 +146,84 @@ public class DynamicLayoutPerfTest {
             }
         }
     }
+
+    @Test
+    public void testInsertLargeText() {
+        final SpannableStringBuilder text = getText(LARGE_PARAGRAPH_COUNT);
+        final DynamicLayout layout = new DynamicLayout(text, new TextPaint(), 1000,
+                ALIGN_NORMAL, 0, 0, false);
+
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int offset = text.length() / 2;
+        while (state.keepRunning()) {
+            text.insert(offset, "a");
+            text.delete(offset, offset + 1);
+            layout.getLineCount();
+        }
+    }
+
+    @Test
+    public void testSetSpanLargeText() {
+        final SpannableStringBuilder text = getText(LARGE_PARAGRAPH_COUNT);
+        final DynamicLayout layout = new DynamicLayout(text, new TextPaint(), 1000,
+                ALIGN_NORMAL, 0, 0, false);
+        final RelativeSizeSpan span = new RelativeSizeSpan(2.0f);
+
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int offset = text.length() / 2;
+        while (state.keepRunning()) {
+            text.setSpan(span, offset, offset + 10, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            layout.getLineCount();
+            text.removeSpan(span);
+            layout.getLineCount();
+        }
+    }
+
+    @Test
+    public void testMoveSpanLargeText() {
+        final SpannableStringBuilder text = getText(LARGE_PARAGRAPH_COUNT);
+        final DynamicLayout layout = new DynamicLayout(text, new TextPaint(), 1000,
+                ALIGN_NORMAL, 0, 0, false);
+        final RelativeSizeSpan span = new RelativeSizeSpan(2.0f);
+        final int offset = text.length() / 2;
+        text.setSpan(span, offset, offset + 10, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            final int start = offset + (i++ % 10);
+            text.setSpan(span, start, start + 10, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            layout.getLineCount();
+        }
+    }
+
+    @Test
+    public void testManySpansLargeText() {
+        final SpannableStringBuilder text = getText(LARGE_PARAGRAPH_COUNT);
+        final DynamicLayout layout = new DynamicLayout(text, new TextPaint(), 1000,
+                ALIGN_NORMAL, 0, 0, false);
+        final int count = 20;
+        final RelativeSizeSpan[] spans = new RelativeSizeSpan[count];
+        for (int i = 0; i < count; i++) {
+            spans[i] = new RelativeSizeSpan(2.0f);
+        }
+
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int offset = text.length() / 2;
+        while (state.keepRunning()) {
+            // Styling consecutive words, as a formatting action on a selection would.
+            for (int i = 0; i < count; i++) {
+                text.setSpan(spans[i], offset + i * 5, offset + i * 5 + 4,
+                        Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+            layout.getLineCount();
+
+            state.pauseTiming();
+            for (int i = 0; i < count; i++) {
+                text.removeSpan(spans[i]);
+            }
+            layout.getLineCount();
+            state.resumeTiming();
+        }
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import static android.text.Layout.Alignment.ALIGN_NORMAL;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.text.style.UnderlineSpan;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Measures editing and querying a 100K character SpannableStringBuilder with many spans.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class SpannableStringBuilderPerfTest {
+    @Parameters(name = "{0}")
+    public static Collection cases() {
+        return Arrays.asList(new Object[][] {
+            { "1KSpans", 1000 },
+            { "10KSpans", 10000 },
+            { "30KSpans", 30000 },
+        });
+    }
+
+    private static final int LENGTH = 100000;
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+
+    private final int mSpanCount;
+
+    public SpannableStringBuilderPerfTest(String metricKey, int spanCount) {
+        mSpanCount = spanCount;
+    }
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private SpannableStringBuilder makeText() {
+        final Random r = new Random(1234567890);
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        while (builder.length() < LENGTH) {
+            final int wordCount = 5 + r.nextInt(20);
+            for (int j = 0; j < wordCount; j++) {
+                final int wordLength = 1 + r.nextInt(10);
+                for (int k = 0; k < wordLength; k++) {
+                    builder.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+                }
+                builder.append(' ');
+            }
+            builder.append('\n');
+        }
+
+        for (int i = 0; i < mSpanCount; i++) {
+            final int start = r.nextInt(builder.length() - 20);
+            final int end = start + 1 + r.nextInt(20);
+            final Object span;
+            switch (i % 3) {
+                case 0:
+                    span = new StyleSpan(Typeface.BOLD);
+                    break;
+                case 1:
+                    span = new ForegroundColorSpan(Color.RED);
+                    break;
+                default:
+                    span = new UnderlineSpan();
+                    break;
+            }
+            builder.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return builder;
+    }
+
+    private void timeTyping(SpannableStringBuilder text) {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final int offset = text.length() / 2;
+        while (state.keepRunning()) {
+            text.insert(offset, "a");
+            text.delete(offset, offset + 1);
+        }
+    }
+
+    @Test
+    public void testInsert() {
+        timeTyping(makeText());
+    }
+
+    @Test
+    public void testInsertWithDynamicLayout() {
+        // The layout watches the text and reflows on every change.
+        final SpannableStringBuilder text = makeText();
+        final DynamicLayout layout = new DynamicLayout(text, new TextPaint(), 1000,
+                ALIGN_NORMAL, 1.0f, 0.0f, false);
+        timeTyping(text);
+    }
+
+    @Test
+    public void testGetSpans() {
+        final SpannableStringBuilder text = makeText();
+        final Random r = new Random(0);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final int start = r.nextInt(text.length() - 100);
+            text.getSpans(start, start + 100, Object.class);
+        }
+    }
+
+    @Test
+    public void testNextSpanTransition() {
+        final SpannableStringBuilder text = makeText();
+        final Random r = new Random(0);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final int start = r.nextInt(text.length() - 1000);
+            final int limit = start + 1000;
+            for (int i = start; i < limit; i = text.nextSpanTransition(i, limit, Object.class)) {
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.content.Context;
+import android.content.res.ResourcesImpl;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.widget.FrameLayout;
+
+import com.android.perftests.core.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Measures inflating large view hierarchies, with and without the theme's cache of styled
+ * attributes.
+ */
+@RunWith(Parameterized.class)
+@LargeTest
+public class LayoutInflaterPerfTest {
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Parameters(name = "{0},cached={2}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                { "LargeHierarchy", R.layout.test_large_hierarchy, true },
+                { "LargeHierarchy", R.layout.test_large_hierarchy, false },
+                { "TwelveKey", R.layout.twelve_key_entry, true },
+                { "TwelveKey", R.layout.twelve_key_entry, false } });
+    }
+
+    private final int mLayoutId;
+    private final boolean mCached;
+
+    public LayoutInflaterPerfTest(String name, int layoutId, boolean cached) {
+        mLayoutId = layoutId;
+        mCached = cached;
+    }
+
+    @Before
+    public void setUp() {
+        ResourcesImpl.setStyledAttributesCacheEnabled(mCached);
+    }
+
+    @After
+    public void tearDown() {
+        ResourcesImpl.setStyledAttributesCacheEnabled(true);
+    }
+
+    @Test
+    public void testInflate() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final LayoutInflater inflater = LayoutInflater.from(context);
+        final FrameLayout root = new FrameLayout(context);
+        while (state.keepRunning()) {
+            inflater.inflate(mLayoutId, root, false);
+        }
+    }
+}
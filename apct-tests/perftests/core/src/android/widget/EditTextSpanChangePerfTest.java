@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import android.app.Activity;
+import android.graphics.Typeface;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.perftests.utils.StubActivity;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.text.Editable;
+import android.text.Spanned;
+import android.text.style.AbsoluteSizeSpan;
+import android.text.style.StyleSpan;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Measures span and width changes on a long text in an EditText, up to and including recording
+ * the text's display lists, the way a frame after the change would.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class EditTextSpanChangePerfTest {
+    @Parameters(name = "{0}")
+    public static Collection cases() {
+        return Arrays.asList(new Object[][] {
+            { "1Kx100", 1000, 100 },
+            { "10Kx100", 10000, 100 },
+        });
+    }
+
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 1000;
+    private static final int SPAN_COUNT = 50;
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+
+    private final int mParagraphs;
+    private final int mParagraphLength;
+
+    public EditTextSpanChangePerfTest(String metricKey, int paragraphs, int paragraphLength) {
+        mParagraphs = paragraphs;
+        mParagraphLength = paragraphLength;
+    }
+
+    @Rule
+    public ActivityTestRule<StubActivity> mActivityRule = new ActivityTestRule(StubActivity.class);
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private EditText setupEditText() {
+        final EditText editText = new EditText(mActivityRule.getActivity());
+
+        final Random r = new Random(1234567890);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mParagraphs; i++) {
+            for (int j = 0; j < mParagraphLength; j++) {
+                sb.append(j % 8 == 7 ? ' ' : ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+            }
+            sb.append('\n');
+        }
+
+        editText.setLayoutParams(new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+        final Activity activity = mActivityRule.getActivity();
+        activity.setContentView(editText);
+
+        editText.setText(sb.toString(), TextView.BufferType.EDITABLE);
+        layout(editText, WIDTH);
+        editText.updateDisplayListIfDirty();
+        return editText;
+    }
+
+    private static void layout(EditText editText, int width) {
+        editText.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        editText.layout(0, 0, width, HEIGHT);
+    }
+
+    @Test
+    public void testSetSpans() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            final EditText editText = setupEditText();
+            final Editable text = editText.getText();
+            final Random r = new Random(1234567890);
+            final Object[] spans = new Object[SPAN_COUNT];
+            while (state.keepRunning()) {
+                // Spans all over the text, as a spell checker or a syntax highlighter adds them.
+                for (int i = 0; i < SPAN_COUNT; i++) {
+                    final int start = r.nextInt(text.length() - 10);
+                    spans[i] = i % 2 == 0 ? new AbsoluteSizeSpan(30)
+                            : new StyleSpan(Typeface.BOLD);
+                    text.setSpan(spans[i], start, start + 10, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                }
+                editText.onPreDraw();
+                editText.updateDisplayListIfDirty();
+
+                state.pauseTiming();
+                for (int i = 0; i < SPAN_COUNT; i++) {
+                    text.removeSpan(spans[i]);
+                }
+                editText.onPreDraw();
+                editText.updateDisplayListIfDirty();
+                state.resumeTiming();
+            }
+        });
+    }
+
+    @Test
+    public void testChangeWidth() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            final EditText editText = setupEditText();
+            int width = WIDTH;
+            while (state.keepRunning()) {
+                width = width == WIDTH ? WIDTH * 9 / 10 : WIDTH;
+                layout(editText, width);
+                editText.updateDisplayListIfDirty();
+            }
+        });
+    }
+}
@@ -24,7 +24,9 @@ import android.perftests.utils.StubActivity;
 import android.support.test.annotation.UiThreadTest;
 import android.support.test.filters.LargeTest;
 import android.support.test.rule.ActivityTestRule;
+import android.view.MeasureStats;
 import android.view.View;
+import android.view.View.MeasureSpec;
 import android.view.ViewGroup;
 
 import com.android.perftests.core.R;
@@ -43,6 +45,7 @@ import static android.perftests.utils.LayoutUtils.requestLayoutForAllNodes;
 import static android.view.View.MeasureSpec.AT_MOST;
 import static android.view.View.MeasureSpec.EXACTLY;
 import static android.view.View.MeasureSpec.UNSPECIFIED;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 @LargeTest
@@ -105,4 +108,57 @@ public class LayoutPerfTest {
             }
         });
     }
+
+    /**
+     * Measures the hierarchy twice with the same spec in the same pass, with another spec in
+     * between, as a parent measuring its children in several passes does.
+     */
+    @Test
+    @UiThreadTest
+    public void testRemeasurePerf() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            Activity activity = mActivityRule.getActivity();
+            activity.setContentView(mLayoutId);
+
+            ViewGroup viewGroup = (ViewGroup) activity.findViewById(mViewId);
+
+            List<View> allNodes = gatherViewTree(viewGroup);
+            BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+
+            final int exactly = MeasureSpec.makeMeasureSpec(1000, EXACTLY);
+            final int atMost = MeasureSpec.makeMeasureSpec(1000, AT_MOST);
+            while (state.keepRunning()) {
+                requestLayoutForAllNodes(allNodes);
+
+                viewGroup.measure(atMost, atMost);
+                viewGroup.measure(exactly, exactly);
+                viewGroup.measure(atMost, atMost);
+                viewGroup.layout(0, 0, viewGroup.getMeasuredWidth(), viewGroup.getMeasuredHeight());
+            }
+        });
+    }
+
+    @Test
+    @UiThreadTest
+    public void testRemeasureUsesCache() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            Activity activity = mActivityRule.getActivity();
+            activity.setContentView(mLayoutId);
+
+            ViewGroup viewGroup = (ViewGroup) activity.findViewById(mViewId);
+            List<View> allNodes = gatherViewTree(viewGroup);
+            MeasureStats stats = viewGroup.getViewRootImpl().getMeasureStats();
+
+            final int exactly = MeasureSpec.makeMeasureSpec(1000, EXACTLY);
+            final int atMost = MeasureSpec.makeMeasureSpec(1000, AT_MOST);
+            requestLayoutForAllNodes(allNodes);
+            viewGroup.measure(atMost, atMost);
+            viewGroup.measure(exactly, exactly);
+
+            stats.startFrame();
+            viewGroup.measure(atMost, atMost);
+            assertEquals(0, stats.getOnMeasureCount());
+            assertEquals(1, stats.getCacheHitCount());
+        });
+    }
 }
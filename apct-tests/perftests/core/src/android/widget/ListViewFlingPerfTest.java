@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import android.app.Activity;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.perftests.utils.StubActivity;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+
+import com.android.perftests.core.R;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the UI thread time of the frames of a fling through a ListView of complex rows, with
+ * and without prefetching the upcoming rows between frames. The prefetching itself is not
+ * timed, as it runs in the idle time left after a frame.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class ListViewFlingPerfTest {
+    @Parameters(name = "{0}")
+    public static Collection cases() {
+        return Arrays.asList(new Object[][] {
+            { "prefetch", true },
+            { "noPrefetch", false },
+        });
+    }
+
+    private static final int ITEM_COUNT = 10000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    // How far each frame of the fling scrolls.
+    private static final int FRAME_SCROLL_DISTANCE = 100;
+    private static final long FRAME_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    private final boolean mPrefetch;
+
+    public ListViewFlingPerfTest(String metricKey, boolean prefetch) {
+        mPrefetch = prefetch;
+    }
+
+    @Rule
+    public ActivityTestRule<StubActivity> mActivityRule = new ActivityTestRule(StubActivity.class);
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private static class RowAdapter extends BaseAdapter {
+        private final LayoutInflater mInflater;
+
+        RowAdapter(LayoutInflater inflater) {
+            mInflater = inflater;
+        }
+
+        @Override
+        public int getCount() {
+            return ITEM_COUNT;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return position;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final View view = convertView != null ? convertView
+                    : mInflater.inflate(R.layout.test_large_hierarchy_row, parent, false);
+            ((TextView) view.findViewById(R.id.title)).setText("Title " + position);
+            ((TextView) view.findViewById(R.id.summary)).setText(
+                    "Summary of the item at position " + position);
+            return view;
+        }
+    }
+
+    private static void measureAndLayout(ListView listView) {
+        listView.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        listView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void testFling() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            final Activity activity = mActivityRule.getActivity();
+            final ListView listView = new ListView(activity);
+            listView.setItemPrefetchEnabled(mPrefetch);
+            listView.setAdapter(new RowAdapter(LayoutInflater.from(activity)));
+            activity.setContentView(listView);
+            measureAndLayout(listView);
+
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                // One frame of the fling.
+                listView.scrollListBy(FRAME_SCROLL_DISTANCE);
+
+                state.pauseTiming();
+                // The idle time before the next frame.
+                listView.prefetchItems(System.nanoTime() + FRAME_INTERVAL_NS);
+                if (listView.getLastVisiblePosition() == ITEM_COUNT - 1) {
+                    listView.setSelection(0);
+                    measureAndLayout(listView);
+                }
+                state.resumeTiming();
+            }
+        });
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.widget;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.perftests.utils.StubActivity;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.text.PrecomputedLayout;
+import android.view.View.MeasureSpec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Measures the UI thread time of showing a long paragraph in a TextView, when the TextView lays
+ * it out itself and when it attaches a layout precomputed on another thread. The precomputation
+ * is not timed, as it would run on a background thread.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class TextViewPrecomputedLayoutPerfTest {
+    @Parameters(name = "{0}")
+    public static Collection cases() {
+        return Arrays.asList(new Object[][] {
+            { "500Chars", 500 },
+            { "2KChars", 2000 },
+            { "10KChars", 10000 },
+        });
+    }
+
+    private static final int WIDTH = 1000;
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+
+    private final int mLength;
+    private final Random mRandom = new Random(1234567890);
+
+    public TextViewPrecomputedLayoutPerfTest(String metricKey, int length) {
+        mLength = length;
+    }
+
+    @Rule
+    public ActivityTestRule<StubActivity> mActivityRule = new ActivityTestRule(StubActivity.class);
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    /** A new paragraph each time, so that the word layout cache doesn't hide shaping costs. */
+    private String makeParagraph() {
+        final StringBuilder sb = new StringBuilder(mLength);
+        while (sb.length() < mLength) {
+            final int wordLength = 1 + mRandom.nextInt(10);
+            for (int i = 0; i < wordLength; i++) {
+                sb.append(ALPHABET.charAt(mRandom.nextInt(ALPHABET.length())));
+            }
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static void measureAndLayout(TextView textView) {
+        textView.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+        textView.layout(0, 0, WIDTH, textView.getMeasuredHeight());
+    }
+
+    @Test
+    public void testSetText() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            final TextView textView = new TextView(mActivityRule.getActivity());
+            while (state.keepRunning()) {
+                state.pauseTiming();
+                final String text = makeParagraph();
+                state.resumeTiming();
+
+                textView.setText(text);
+                measureAndLayout(textView);
+            }
+        });
+    }
+
+    @Test
+    public void testSetPrecomputedLayout() throws Throwable {
+        mActivityRule.runOnUiThread(() -> {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            final TextView textView = new TextView(mActivityRule.getActivity());
+            final int textWidth = WIDTH - textView.getCompoundPaddingLeft()
+                    - textView.getCompoundPaddingRight();
+            final PrecomputedLayout.Params params = textView.getPrecomputedLayoutParams();
+            while (state.keepRunning()) {
+                state.pauseTiming();
+                final PrecomputedLayout precomputed =
+                        PrecomputedLayout.create(makeParagraph(), params, textWidth);
+                state.resumeTiming();
+
+                textView.setPrecomputedLayout(precomputed);
+                measureAndLayout(textView);
+            }
+        });
+    }
+}
@@ -263,4 +263,14 @@ public abstract class ActivityManagerInternal {
      * Clears the previously saved activity manager ANR state.
      */
     public abstract void clearSavedANRState();
+
+    /**
+     * Called by {@link com.android.server.content.ContentService} when a change to the data of a
+     * content provider is notified, so that anything activity manager remembers about it, such
+     * as the MIME types of its uris, is dropped.
+     *
+     * @param userId the user the change was notified for, or
+     *     {@link android.os.UserHandle#USER_ALL}.
+     */
+    public abstract void notifyProviderChanged(String authority, int userId);
 }
@@ -1224,6 +1224,11 @@ public final class ActivityThread {
                 pw.print(assetAlloc);
             }
 
+            // ResourcesImpl cache.
+            pw.println(" ");
+            pw.println(" Resources Cache");
+            mResourcesManager.dump("  ", pw);
+
             // Unreachable native memory
             if (dumpUnreachable) {
                 boolean showContents = ((mBoundApplication != null)
@@ -5370,6 +5375,7 @@ public final class ActivityThread {
         }
 
         WindowManagerGlobal.getInstance().trimMemory(level);
+        mResourcesManager.trimMemory(level);
     }
 
     private void setupGraphicsSupport(Context context, File cacheDir) {
@@ -20,6 +20,7 @@ import static android.app.ActivityThread.DEBUG_CONFIGURATION;
 
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.content.ComponentCallbacks2;
 import android.content.pm.ActivityInfo;
 import android.content.res.AssetManager;
 import android.content.res.CompatResources;
@@ -34,6 +35,7 @@ import android.os.Trace;
 import android.util.ArrayMap;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.Pair;
 import android.util.Slog;
 import android.view.Display;
@@ -42,6 +44,8 @@ import android.view.DisplayAdjustments;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -86,6 +90,29 @@ public class ResourcesManager {
     private final ArrayMap<ResourcesKey, WeakReference<ResourcesImpl>> mResourceImpls =
             new ArrayMap<>();
 
+    /** How many recently used ResourcesImpls to keep strongly reachable. */
+    private static final int MAX_RECENT_RESOURCE_IMPLS = 6;
+    private static final int MAX_RECENT_RESOURCE_IMPLS_LOW_RAM = 2;
+
+    /**
+     * The ResourcesImpls most recently handed out, held strongly so that switching back and forth
+     * between overlays, splits or configurations (multi-window, rotation) doesn't rebuild an
+     * AssetManager every time the GC clears the weak reference in {@link #mResourceImpls}. Every
+     * entry here is also in {@link #mResourceImpls}, so it gets configuration updates.
+     */
+    private final LruCache<ResourcesKey, ResourcesImpl> mRecentResourceImpls =
+            new LruCache<>(ActivityManager.isLowRamDeviceStatic()
+                    ? MAX_RECENT_RESOURCE_IMPLS_LOW_RAM : MAX_RECENT_RESOURCE_IMPLS);
+
+    /** ResourcesImpl lookups that found a cached impl. */
+    private int mResourceImplHits;
+
+    /** ResourcesImpls created because no cached impl matched. */
+    private int mResourceImplMisses;
+
+    /** Misses for a key whose previous ResourcesImpl had been garbage collected. */
+    private int mResourceImplRebuilds;
+
     /**
      * A list of Resource references that can be reused.
      */
@@ -142,6 +169,94 @@ public class ResourcesManager {
         }
     }
 
+    /**
+     * Drops the strong references to recently used ResourcesImpls when memory gets low. Impls
+     * still used by a Resources object stay cached through their weak reference.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            synchronized (this) {
+                mRecentResourceImpls.evictAll();
+            }
+        }
+    }
+
+    /**
+     * Dumps the ResourcesImpl cache: hit and miss counts, and for each live ResourcesImpl the
+     * size of the APKs its AssetManager maps.
+     */
+    public void dump(String prefix, PrintWriter pw) {
+        final ArrayList<ResourcesKey> keys = new ArrayList<>();
+        final ArrayList<Boolean> recent = new ArrayList<>();
+        final int hits, misses, rebuilds, evictions, recentSize, recentMaxSize;
+        synchronized (this) {
+            // A snapshot, since get() would count as a use and reorder the LRU.
+            final Map<ResourcesKey, ResourcesImpl> recentImpls = mRecentResourceImpls.snapshot();
+            for (int i = 0; i < mResourceImpls.size(); i++) {
+                final WeakReference<ResourcesImpl> weakImplRef = mResourceImpls.valueAt(i);
+                if (weakImplRef != null && weakImplRef.get() != null) {
+                    final ResourcesKey key = mResourceImpls.keyAt(i);
+                    keys.add(key);
+                    recent.add(recentImpls.containsKey(key));
+                }
+            }
+            hits = mResourceImplHits;
+            misses = mResourceImplMisses;
+            rebuilds = mResourceImplRebuilds;
+            evictions = mRecentResourceImpls.evictionCount();
+            recentSize = mRecentResourceImpls.size();
+            recentMaxSize = mRecentResourceImpls.maxSize();
+        }
+
+        pw.print(prefix); pw.print("hits="); pw.print(hits);
+        pw.print(" misses="); pw.print(misses);
+        pw.print(" rebuiltAfterGc="); pw.print(rebuilds);
+        pw.print(" recent="); pw.print(recentSize); pw.print('/'); pw.print(recentMaxSize);
+        pw.print(" evictions="); pw.println(evictions);
+
+        // Stat the files outside of the lock, the main thread takes it for every getResources().
+        for (int i = 0; i < keys.size(); i++) {
+            final ResourcesKey key = keys.get(i);
+            pw.print(prefix); pw.print(recent.get(i) ? "* " : "  ");
+            pw.print(key.mResDir);
+            pw.print(" splits="); pw.print(key.mSplitResDirs != null ? key.mSplitResDirs.length : 0);
+            pw.print(" overlays=");
+            pw.print(key.mOverlayDirs != null ? key.mOverlayDirs.length : 0);
+            pw.print(" libs="); pw.print(key.mLibDirs != null ? key.mLibDirs.length : 0);
+            pw.print(" display="); pw.print(key.mDisplayId);
+            if (key.hasOverrideConfiguration()) {
+                pw.print(" override="); pw.print(key.mOverrideConfiguration);
+            }
+            pw.print(" apkFileSize="); pw.print(getBackingFileSizeKb(key)); pw.print(" kB");
+            pw.println();
+        }
+    }
+
+    /**
+     * Returns the total size of the APKs and idmaps the impl's AssetManager is built from.
+     * This is the size of the files on disk, not memory: the AssetManager maps them, but its
+     * native allocations aren't visible from here, so this isn't added to any memory total.
+     */
+    private static long getBackingFileSizeKb(@NonNull ResourcesKey key) {
+        long bytes = key.mResDir != null ? new File(key.mResDir).length() : 0;
+        bytes += getTotalLength(key.mSplitResDirs);
+        bytes += getTotalLength(key.mOverlayDirs);
+        bytes += getTotalLength(key.mLibDirs);
+        return bytes / 1024;
+    }
+
+    private static long getTotalLength(@Nullable String[] paths) {
+        long bytes = 0;
+        if (paths != null) {
+            for (String path : paths) {
+                bytes += new File(path).length();
+            }
+        }
+        return bytes;
+    }
+
     public Configuration getConfiguration() {
         synchronized (this) {
             return mResConfiguration;
@@ -255,6 +370,7 @@ public class ResourcesManager {
 
     private void cleanupResourceImpl(ResourcesKey removedKey) {
         // Remove resource key to resource impl mapping and flush cache
+        mRecentResourceImpls.remove(removedKey);
         final ResourcesImpl res = mResourceImpls.remove(removedKey).get();
 
         if (res != null) {
@@ -362,11 +478,31 @@ public class ResourcesManager {
         WeakReference<ResourcesImpl> weakImplRef = mResourceImpls.get(key);
         ResourcesImpl impl = weakImplRef != null ? weakImplRef.get() : null;
         if (impl != null && impl.getAssets().isUpToDate()) {
+            mResourceImplHits++;
+            // Refresh the entry's position in the LRU.
+            mRecentResourceImpls.put(key, impl);
             return impl;
         }
+        if (impl != null) {
+            // Stale; don't keep its assets alive.
+            mRecentResourceImpls.remove(key);
+        }
         return null;
     }
 
+    /**
+     * Caches a newly created ResourcesImpl for the given key.
+     */
+    private void putResourcesImplLocked(@NonNull ResourcesKey key, @NonNull ResourcesImpl impl) {
+        mResourceImplMisses++;
+        final WeakReference<ResourcesImpl> oldRef = mResourceImpls.get(key);
+        if (oldRef != null && oldRef.get() == null) {
+            mResourceImplRebuilds++;
+        }
+        mResourceImpls.put(key, new WeakReference<>(impl));
+        mRecentResourceImpls.put(key, impl);
+    }
+
     /**
      * Finds a cached ResourcesImpl object that matches the given ResourcesKey, or
      * creates a new one and caches it for future use.
@@ -379,7 +515,7 @@ public class ResourcesManager {
         if (impl == null) {
             impl = createResourcesImpl(key);
             if (impl != null) {
-                mResourceImpls.put(key, new WeakReference<>(impl));
+                putResourcesImplLocked(key, impl);
             }
         }
         return impl;
@@ -646,7 +782,7 @@ public class ResourcesManager {
                 resourcesImpl = existingResourcesImpl;
             } else {
                 // Add this ResourcesImpl to the cache.
-                mResourceImpls.put(key, new WeakReference<>(resourcesImpl));
+                putResourcesImplLocked(key, resourcesImpl);
             }
 
             final Resources resources;
@@ -815,7 +951,7 @@ public class ResourcesManager {
                     if (resourcesImpl == null) {
                         resourcesImpl = createResourcesImpl(newKey);
                         if (resourcesImpl != null) {
-                            mResourceImpls.put(newKey, new WeakReference<>(resourcesImpl));
+                            putResourcesImplLocked(newKey, resourcesImpl);
                         }
                     }
 
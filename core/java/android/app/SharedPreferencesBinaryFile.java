@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.os.FileUtils;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import libcore.io.IoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Binary storage for {@link SharedPreferencesImpl} when opened with
+ * {@link android.content.Context#MODE_BINARY_PREFERENCES}.
+ * <p>
+ * The file is a header followed by a log of per-key mutation records. A commit appends one
+ * record per modified key rather than rewriting the whole map, and the log is compacted into a
+ * snapshot of the current map (written to a temporary file and renamed into place) once it has
+ * grown to twice the size of the last snapshot. Every record carries its length and a CRC so a
+ * write torn by a crash is detected and dropped on the next load, together with anything after
+ * it.
+ * <p>
+ * A file that can't be read at all is moved aside, so that the next write starts a new file
+ * instead of appending to or replacing data that was never loaded.
+ * <p>
+ * Not thread safe; callers serialize access.
+ */
+final class SharedPreferencesBinaryFile {
+    private static final String TAG = "SharedPreferencesImpl";
+
+    private static final int MAGIC = 0x53505242; // SPRB
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /** Size of length and CRC preceding each record */
+    private static final int RECORD_OVERHEAD = 8;
+
+    /** Records larger than this are assumed to be corrupt */
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    /** Don't compact logs smaller than this, regardless of the last snapshot size */
+    @VisibleForTesting
+    static final long MIN_COMPACTION_SIZE = 16 * 1024;
+
+    private static final byte OP_PUT_STRING = 1;
+    private static final byte OP_PUT_INT = 2;
+    private static final byte OP_PUT_LONG = 3;
+    private static final byte OP_PUT_FLOAT = 4;
+    private static final byte OP_PUT_BOOLEAN = 5;
+    private static final byte OP_PUT_STRING_SET = 6;
+    private static final byte OP_REMOVE = 7;
+    private static final byte OP_CLEAR = 8;
+
+    /** Length written in place of a string's length for a null string */
+    private static final int NULL_STRING_LENGTH = -1;
+
+    private final File mFile;
+    private final File mTempFile;
+    private final File mUnreadableFile;
+
+    /** Whether the last read failed and the file couldn't be moved aside, so mustn't be written */
+    private boolean mUnreadable;
+
+    /** Length of the valid part of the file */
+    private long mLength;
+
+    /** Length of the file right after it was last compacted */
+    private long mSnapshotLength;
+
+    SharedPreferencesBinaryFile(File file) {
+        mFile = file;
+        mTempFile = new File(file.getPath() + ".tmp");
+        mUnreadableFile = new File(file.getPath() + ".unreadable");
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    boolean exists() {
+        return mFile.exists();
+    }
+
+    /**
+     * Read the file and replay its log. If the file can't be read, it is moved aside.
+     *
+     * @return the stored map, or {@code null} if the file doesn't exist
+     */
+    Map<String, Object> read() throws IOException {
+        mLength = 0;
+        mSnapshotLength = 0;
+        mUnreadable = false;
+        if (!mFile.exists()) {
+            return null;
+        }
+        try {
+            return readLog();
+        } catch (IOException e) {
+            if (mFile.renameTo(mUnreadableFile)) {
+                Log.w(TAG, "Moved unreadable " + mFile + " to " + mUnreadableFile);
+            } else {
+                Log.w(TAG, "Couldn't move unreadable " + mFile + " aside, not writing to it");
+                mUnreadable = true;
+            }
+            throw e;
+        }
+    }
+
+    private Map<String, Object> readLog() throws IOException {
+        final byte[] data = IoUtils.readFileAsByteArray(mFile.getPath());
+        final Map<String, Object> map = new HashMap<>();
+        if (data.length < HEADER_SIZE) {
+            throw new IOException("Truncated header in " + mFile);
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Bad header in " + mFile);
+        }
+
+        final CRC32 crc = new CRC32();
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_OVERHEAD <= data.length) {
+            final int size = readInt(data, offset);
+            final int expectedCrc = readInt(data, offset + 4);
+            if (size <= 0 || size > MAX_RECORD_SIZE
+                    || offset + RECORD_OVERHEAD + size > data.length) {
+                break;
+            }
+            crc.reset();
+            crc.update(data, offset + RECORD_OVERHEAD, size);
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            final DataInputStream record = new DataInputStream(new ByteArrayInputStream(
+                    data, offset + RECORD_OVERHEAD, size));
+            replayRecord(record, map);
+            offset += RECORD_OVERHEAD + size;
+        }
+
+        if (offset < data.length) {
+            Log.w(TAG, "Dropping " + (data.length - offset) + " bytes of torn or corrupt log in "
+                    + mFile);
+            try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+                raf.setLength(offset);
+            }
+        }
+        mLength = offset;
+        mSnapshotLength = offset;
+        return map;
+    }
+
+    private static void replayRecord(DataInputStream in, Map<String, Object> map)
+            throws IOException {
+        final byte op = in.readByte();
+        if (op == OP_CLEAR) {
+            map.clear();
+            return;
+        }
+        final String key = readString(in);
+        switch (op) {
+            case OP_PUT_STRING:
+                map.put(key, readString(in));
+                break;
+            case OP_PUT_INT:
+                map.put(key, in.readInt());
+                break;
+            case OP_PUT_LONG:
+                map.put(key, in.readLong());
+                break;
+            case OP_PUT_FLOAT:
+                map.put(key, in.readFloat());
+                break;
+            case OP_PUT_BOOLEAN:
+                map.put(key, in.readBoolean());
+                break;
+            case OP_PUT_STRING_SET: {
+                final int count = in.readInt();
+                final Set<String> set = new HashSet<>(count);
+                for (int i = 0; i < count; i++) {
+                    set.add(readString(in));
+                }
+                map.put(key, set);
+                break;
+            }
+            case OP_REMOVE:
+                map.remove(key);
+                break;
+            default:
+                throw new IOException("Unknown record type " + op);
+        }
+    }
+
+    /**
+     * Append the given changes to the log and sync it.
+     *
+     * @param changes new values by key, {@code null} meaning the key was removed
+     * @param clear whether the map was cleared before the changes were applied
+     */
+    boolean append(Map<String, Object> changes, boolean clear) {
+        if (mUnreadable) {
+            Log.w(TAG, "Not appending to unreadable " + mFile);
+            return false;
+        }
+        if (mLength == 0) {
+            // Nothing valid on disk yet, start a new file.
+            final Map<String, Object> map = new HashMap<>();
+            for (Map.Entry<String, Object> e : changes.entrySet()) {
+                if (e.getValue() != null) {
+                    map.put(e.getKey(), e.getValue());
+                }
+            }
+            return writeSnapshot(map);
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            final RecordWriter writer = new RecordWriter(bytes);
+            if (clear) {
+                writer.writeClear();
+            }
+            for (Map.Entry<String, Object> e : changes.entrySet()) {
+                writer.write(e.getKey(), e.getValue());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to serialize changes to " + mFile, e);
+            return false;
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mFile, true);
+            bytes.writeTo(out);
+            FileUtils.sync(out);
+            mLength += bytes.size();
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append to " + mFile, e);
+            // Drop whatever part of the append made it out so the log stays well formed.
+            try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+                raf.setLength(mLength);
+            } catch (IOException e2) {
+                Log.w(TAG, "Failed to truncate " + mFile, e2);
+            }
+            return false;
+        } finally {
+            IoUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Whether the log has grown enough that it should be replaced by a snapshot.
+     */
+    boolean needsCompaction() {
+        return mLength > Math.max(MIN_COMPACTION_SIZE, 2 * mSnapshotLength);
+    }
+
+    /**
+     * Replace the file with a snapshot of the given map.
+     */
+    boolean writeSnapshot(Map<String, Object> map) {
+        if (mUnreadable) {
+            Log.w(TAG, "Not replacing unreadable " + mFile);
+            return false;
+        }
+        FileOutputStream out = null;
+        try {
+            out = createFileOutputStream(mTempFile);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            final RecordWriter writer = new RecordWriter(bytes);
+            for (Map.Entry<String, Object> e : map.entrySet()) {
+                writer.write(e.getKey(), e.getValue());
+            }
+            bytes.writeTo(out);
+            FileUtils.sync(out);
+            out.close();
+            out = null;
+            if (!mTempFile.renameTo(mFile)) {
+                throw new IOException("Couldn't rename " + mTempFile + " to " + mFile);
+            }
+            mLength = bytes.size();
+            mSnapshotLength = mLength;
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write snapshot of " + mFile, e);
+            mTempFile.delete();
+            return false;
+        } finally {
+            IoUtils.closeQuietly(out);
+        }
+    }
+
+    private static FileOutputStream createFileOutputStream(File file) throws IOException {
+        final File parent = file.getParentFile();
+        if (!parent.exists() && parent.mkdir()) {
+            FileUtils.setPermissions(parent.getPath(),
+                    FileUtils.S_IRWXU | FileUtils.S_IRWXG | FileUtils.S_IXOTH, -1, -1);
+        }
+        return new FileOutputStream(file);
+    }
+
+    @VisibleForTesting
+    long getLength() {
+        return mLength;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == NULL_STRING_LENGTH) {
+            return null;
+        } else if (length < 0) {
+            throw new EOFException();
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serializes records, each framed by its length and CRC, to an output stream.
+     */
+    private static final class RecordWriter {
+        private final DataOutputStream mOut;
+        private final ByteArrayOutputStream mRecordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream mRecord = new DataOutputStream(mRecordBytes);
+        private final CRC32 mCrc = new CRC32();
+
+        RecordWriter(ByteArrayOutputStream out) {
+            mOut = new DataOutputStream(out);
+        }
+
+        void writeClear() throws IOException {
+            mRecord.writeByte(OP_CLEAR);
+            flushRecord();
+        }
+
+        void write(String key, Object value) throws IOException {
+            if (value == null) {
+                mRecord.writeByte(OP_REMOVE);
+                writeString(key);
+            } else if (value instanceof String) {
+                mRecord.writeByte(OP_PUT_STRING);
+                writeString(key);
+                writeString((String) value);
+            } else if (value instanceof Integer) {
+                mRecord.writeByte(OP_PUT_INT);
+                writeString(key);
+                mRecord.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                mRecord.writeByte(OP_PUT_LONG);
+                writeString(key);
+                mRecord.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                mRecord.writeByte(OP_PUT_FLOAT);
+                writeString(key);
+                mRecord.writeFloat((Float) value);
+            } else if (value instanceof Boolean) {
+                mRecord.writeByte(OP_PUT_BOOLEAN);
+                writeString(key);
+                mRecord.writeBoolean((Boolean) value);
+            } else if (value instanceof Set) {
+                mRecord.writeByte(OP_PUT_STRING_SET);
+                writeString(key);
+                final Set<?> set = (Set<?>) value;
+                mRecord.writeInt(set.size());
+                for (Object s : set) {
+                    writeString((String) s);
+                }
+            } else {
+                throw new IOException("Unsupported value type for " + key + ": "
+                        + value.getClass());
+            }
+            flushRecord();
+        }
+
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                // Like the XML format, which writes a null element of a string set as <null/>.
+                mRecord.writeInt(NULL_STRING_LENGTH);
+                return;
+            }
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            mRecord.writeInt(bytes.length);
+            mRecord.write(bytes);
+        }
+
+        private void flushRecord() throws IOException {
+            final byte[] record = mRecordBytes.toByteArray();
+            mCrc.reset();
+            mCrc.update(record);
+            mOut.writeInt(record.length);
+            mOut.writeInt((int) mCrc.getValue());
+            mOut.write(record);
+            mRecordBytes.reset();
+        }
+    }
+}
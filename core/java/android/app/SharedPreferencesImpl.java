@@ -17,12 +17,17 @@
 package android.app;
 
 import android.annotation.Nullable;
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.FileUtils;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.StructStat;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import com.google.android.collect.Maps;
@@ -67,6 +72,13 @@ final class SharedPreferencesImpl implements SharedPreferences {
     private final File mFile;
     private final File mBackupFile;
     private final int mMode;
+
+    /**
+     * Where the preferences are stored if opened with {@link Context#MODE_BINARY_PREFERENCES}.
+     * Only read or written while holding mWritingToDiskLock.
+     */
+    @Nullable
+    private final SharedPreferencesBinaryFile mBinaryFile;
     private final Object mLock = new Object();
     private final Object mWritingToDiskLock = new Object();
 
@@ -89,6 +101,25 @@ final class SharedPreferencesImpl implements SharedPreferences {
     private final WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners =
             new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
 
+    /**
+     * Changes committed to memory but not yet appended to {@link #mBinaryFile}, by key. A
+     * {@code null} value means the key was removed.
+     */
+    @GuardedBy("mLock")
+    private ArrayMap<String, Object> mPendingChanges = new ArrayMap<>();
+
+    /** Whether the map was cleared before {@link #mPendingChanges} were made */
+    @GuardedBy("mLock")
+    private boolean mPendingClear;
+
+    /** Set when the binary file may be behind memory by more than the pending changes */
+    @GuardedBy("mWritingToDiskLock")
+    private boolean mNeedsFullRewrite;
+
+    /** {@link #getBinaryWriteHandler() Lazily} created handler for binary file writes */
+    @GuardedBy("SharedPreferencesImpl.class")
+    private static Handler sBinaryWriteHandler;
+
     /** Current memory state (always increasing) */
     @GuardedBy("this")
     private long mCurrentMemoryStateGeneration;
@@ -106,6 +137,8 @@ final class SharedPreferencesImpl implements SharedPreferences {
         mFile = file;
         mBackupFile = makeBackupFile(file);
         mMode = mode;
+        mBinaryFile = (mode & Context.MODE_BINARY_PREFERENCES) != 0
+                ? new SharedPreferencesBinaryFile(makeBinaryFile(file)) : null;
         mLoaded = false;
         mMap = null;
         startLoadFromDisk();
@@ -133,37 +166,34 @@ final class SharedPreferencesImpl implements SharedPreferences {
             }
         }
 
-        // Debugging
-        if (mFile.exists() && !mFile.canRead()) {
-            Log.w(TAG, "Attempt to read preferences file " + mFile + " without permission");
-        }
-
         Map map = null;
         StructStat stat = null;
-        try {
-            stat = Os.stat(mFile.getPath());
-            if (mFile.canRead()) {
-                BufferedInputStream str = null;
-                try {
-                    str = new BufferedInputStream(
-                            new FileInputStream(mFile), 16*1024);
-                    map = XmlUtils.readMapXml(str);
-                } catch (Exception e) {
-                    Log.w(TAG, "Cannot read " + mFile.getAbsolutePath(), e);
-                } finally {
-                    IoUtils.closeQuietly(str);
-                }
+        if (mBinaryFile != null) {
+            synchronized (mWritingToDiskLock) {
+                map = readOrMigrateBinaryFileLocked();
+            }
+            try {
+                stat = Os.stat(mBinaryFile.getFile().getPath());
+            } catch (ErrnoException e) {
+                /* ignore */
+            }
+        } else {
+            try {
+                stat = Os.stat(mFile.getPath());
+                map = readXmlFile();
+            } catch (ErrnoException e) {
+                /* ignore */
             }
-        } catch (ErrnoException e) {
-            /* ignore */
         }
 
         synchronized (mLock) {
             mLoaded = true;
             if (map != null) {
                 mMap = map;
-                mStatTimestamp = stat.st_mtime;
-                mStatSize = stat.st_size;
+                if (stat != null) {
+                    mStatTimestamp = stat.st_mtime;
+                    mStatSize = stat.st_size;
+                }
             } else {
                 mMap = new HashMap<>();
             }
@@ -171,10 +201,71 @@ final class SharedPreferencesImpl implements SharedPreferences {
         }
     }
 
+    @Nullable
+    private Map<String, Object> readXmlFile() {
+        // Debugging
+        if (mFile.exists() && !mFile.canRead()) {
+            Log.w(TAG, "Attempt to read preferences file " + mFile + " without permission");
+        }
+
+        Map map = null;
+        if (mFile.canRead()) {
+            BufferedInputStream str = null;
+            try {
+                str = new BufferedInputStream(
+                        new FileInputStream(mFile), 16*1024);
+                map = XmlUtils.readMapXml(str);
+            } catch (Exception e) {
+                Log.w(TAG, "Cannot read " + mFile.getAbsolutePath(), e);
+            } finally {
+                IoUtils.closeQuietly(str);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Load the binary file, or if there is none yet, migrate the XML file to it.
+     */
+    @Nullable
+    private Map<String, Object> readOrMigrateBinaryFileLocked() {
+        Map<String, Object> map = null;
+        try {
+            map = mBinaryFile.read();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + mBinaryFile.getFile().getAbsolutePath(), e);
+        }
+        if (map != null || !mFile.exists()) {
+            return map;
+        }
+
+        map = readXmlFile();
+        if (map == null) {
+            return null;
+        }
+        if (mBinaryFile.writeSnapshot(map)) {
+            ContextImpl.setFilePermissionsFromMode(mBinaryFile.getFile().getPath(), mMode, 0);
+            mFile.delete();
+            if (DEBUG) Log.d(TAG, "Migrated " + mFile + " to " + mBinaryFile.getFile());
+        } else {
+            // Keep the XML file around and try again with the first write.
+            mNeedsFullRewrite = true;
+        }
+        return map;
+    }
+
     static File makeBackupFile(File prefsFile) {
         return new File(prefsFile.getPath() + ".bak");
     }
 
+    static File makeBinaryFile(File prefsFile) {
+        return new File(prefsFile.getPath() + ".bin");
+    }
+
+    private File getDataFile() {
+        return mBinaryFile != null ? mBinaryFile.getFile() : mFile;
+    }
+
     void startReloadIfChangedUnexpectedly() {
         synchronized (mLock) {
             // TODO: wait for any pending writes to disk?
@@ -203,7 +294,7 @@ final class SharedPreferencesImpl implements SharedPreferences {
              * violation, but we explicitly want this one.
              */
             BlockGuard.getThreadPolicy().onReadFromDisk();
-            stat = Os.stat(mFile.getPath());
+            stat = Os.stat(getDataFile().getPath());
         } catch (ErrnoException e) {
             return true;
         }
@@ -410,6 +501,22 @@ final class SharedPreferencesImpl implements SharedPreferences {
             final long startTime = System.currentTimeMillis();
 
             final MemoryCommitResult mcr = commitToMemory();
+            if (mBinaryFile != null) {
+                // Appends to the binary file are short and issued right away, so lifecycle
+                // transitions don't wait for them through QueuedWork.
+                SharedPreferencesImpl.this.enqueueDiskWrite(mcr, new Runnable() {
+                        public void run() {
+                            if (DEBUG && mcr.wasWritten) {
+                                Log.d(TAG, mFile.getName() + ":" + mcr.memoryStateGeneration
+                                        + " applied after "
+                                        + (System.currentTimeMillis() - startTime) + " ms");
+                            }
+                        }
+                    });
+                notifyListeners(mcr);
+                return;
+            }
+
             final Runnable awaitCommit = new Runnable() {
                     public void run() {
                         try {
@@ -454,10 +561,11 @@ final class SharedPreferencesImpl implements SharedPreferences {
                 // We optimistically don't make a deep copy until
                 // a memory commit comes in when we're already
                 // writing to disk.
-                if (mDiskWritesInFlight > 0) {
+                if (mDiskWritesInFlight > 0 && mBinaryFile == null) {
                     // We can't modify our mMap as a currently
                     // in-flight write owns it.  Clone it before
-                    // modifying it.
+                    // modifying it.  Binary writes only need the
+                    // pending changes, so they don't own it.
                     // noinspection unchecked
                     mMap = new HashMap<String, Object>(mMap);
                 }
@@ -477,6 +585,10 @@ final class SharedPreferencesImpl implements SharedPreferences {
                         if (!mMap.isEmpty()) {
                             changesMade = true;
                             mMap.clear();
+                            if (mBinaryFile != null) {
+                                mPendingChanges.clear();
+                                mPendingClear = true;
+                            }
                         }
                         mClear = false;
                     }
@@ -506,6 +618,9 @@ final class SharedPreferencesImpl implements SharedPreferences {
                         if (hasListeners) {
                             keysModified.add(k);
                         }
+                        if (mBinaryFile != null) {
+                            mPendingChanges.put(k, mMap.get(k));
+                        }
                     }
 
                     mModified.clear();
@@ -595,7 +710,11 @@ final class SharedPreferencesImpl implements SharedPreferences {
         final Runnable writeToDiskRunnable = new Runnable() {
                 public void run() {
                     synchronized (mWritingToDiskLock) {
-                        writeToFile(mcr, isFromSyncCommit);
+                        if (mBinaryFile != null) {
+                            writeToBinaryFile(mcr);
+                        } else {
+                            writeToFile(mcr, isFromSyncCommit);
+                        }
                     }
                     synchronized (mLock) {
                         mDiskWritesInFlight--;
@@ -619,7 +738,28 @@ final class SharedPreferencesImpl implements SharedPreferences {
             }
         }
 
-        QueuedWork.queue(writeToDiskRunnable, !isFromSyncCommit);
+        if (mBinaryFile != null) {
+            getBinaryWriteHandler().post(writeToDiskRunnable);
+        } else {
+            QueuedWork.queue(writeToDiskRunnable, !isFromSyncCommit);
+        }
+    }
+
+    /**
+     * Lazily create the handler writing binary files, on a separate thread. Unlike work queued
+     * through {@link QueuedWork} its writes aren't delayed, and not processed by
+     * {@link QueuedWork#waitToFinish()}.
+     */
+    private static Handler getBinaryWriteHandler() {
+        synchronized (SharedPreferencesImpl.class) {
+            if (sBinaryWriteHandler == null) {
+                HandlerThread handlerThread = new HandlerThread("SharedPreferencesImpl-write",
+                        Process.THREAD_PRIORITY_FOREGROUND);
+                handlerThread.start();
+                sBinaryWriteHandler = new Handler(handlerThread.getLooper());
+            }
+            return sBinaryWriteHandler;
+        }
     }
 
     private static FileOutputStream createFileOutputStream(File file) {
@@ -645,6 +785,78 @@ final class SharedPreferencesImpl implements SharedPreferences {
         return str;
     }
 
+    // Note: must hold mWritingToDiskLock
+    private void writeToBinaryFile(MemoryCommitResult mcr) {
+        // Writes are serialized, and each one takes all changes pending at the time, so an
+        // earlier write may have already covered this one.
+        if (mDiskStateGeneration >= mcr.memoryStateGeneration) {
+            mcr.setDiskWriteResult(false, true);
+            return;
+        }
+
+        final boolean rewrite = mNeedsFullRewrite || mBinaryFile.needsCompaction();
+        final long generation;
+        final ArrayMap<String, Object> changes;
+        final boolean clear;
+        Map<String, Object> snapshot = null;
+        synchronized (mLock) {
+            generation = mCurrentMemoryStateGeneration;
+            changes = mPendingChanges;
+            clear = mPendingClear;
+            mPendingChanges = new ArrayMap<>();
+            mPendingClear = false;
+            if (rewrite) {
+                snapshot = new HashMap<>(mMap);
+            }
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final boolean success = rewrite ? mBinaryFile.writeSnapshot(snapshot)
+                : mBinaryFile.append(changes, clear);
+        final long writeDuration = System.currentTimeMillis() - startTime;
+
+        if (!success) {
+            // The dropped changes are still in memory; persist everything next time.
+            mNeedsFullRewrite = true;
+            mcr.setDiskWriteResult(false, false);
+            return;
+        }
+        mNeedsFullRewrite = false;
+
+        if (rewrite) {
+            ContextImpl.setFilePermissionsFromMode(mBinaryFile.getFile().getPath(), mMode, 0);
+            // Whatever is left of the XML file has been superseded now.
+            if (mFile.exists()) {
+                mFile.delete();
+            }
+        }
+
+        try {
+            final StructStat stat = Os.stat(mBinaryFile.getFile().getPath());
+            synchronized (mLock) {
+                mStatTimestamp = stat.st_mtime;
+                mStatSize = stat.st_size;
+            }
+        } catch (ErrnoException e) {
+            // Do nothing
+        }
+
+        mDiskStateGeneration = generation;
+        mcr.setDiskWriteResult(true, true);
+
+        if (DEBUG) {
+            Log.d(TAG, "write: " + (rewrite ? "snapshot " : "append ") + writeDuration + " ms, "
+                    + changes.size() + " changes");
+        }
+
+        mSyncTimes.add(Long.valueOf(writeDuration).intValue());
+        mNumSync++;
+
+        if (DEBUG || mNumSync % 1024 == 0 || writeDuration > MAX_FSYNC_DURATION_MILLIS) {
+            mSyncTimes.log(TAG, "Time required to write and fsync " + getDataFile() + ": ");
+        }
+    }
+
     // Note: must hold mWritingToDiskLock
     private void writeToFile(MemoryCommitResult mcr, boolean isFromSyncCommit) {
         long startTime = 0;
@@ -28,6 +28,7 @@ import android.os.DeadObjectException;
 import android.os.Handler;
 import android.os.ICancellationSignal;
 import android.os.Looper;
+import android.os.Parcel;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.util.Log;
@@ -63,6 +64,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class ContentProviderClient implements AutoCloseable {
     private static final String TAG = "ContentProviderClient";
 
+    // Limits of the chunks sent by applyBatchInChunks(), well below the size of the binder
+    // transaction buffer that is shared by all the transactions in flight in the process.
+    private static final int MAX_BATCH_CHUNK_BYTES = 256 * 1024;
+    private static final int MAX_BATCH_CHUNK_OPERATIONS = 1000;
+
     @GuardedBy("ContentProviderClient.class")
     private static Handler sAnrHandler;
 
@@ -473,6 +479,108 @@ public class ContentProviderClient implements AutoCloseable {
         }
     }
 
+    /**
+     * Applies a batch of operations of any size in consecutive chunks, each sent to the
+     * provider in a single call to {@link ContentProvider#applyBatch}.
+     * <p>
+     * Chunks are kept small enough for a single transaction. A chunk preferably ends right before
+     * an operation that allows a yield, see {@link ContentProviderOperation#isYieldAllowed()}, so
+     * the chunks split the batch where the provider may commit anyway. When there is no yield
+     * point within the limits of a chunk, the chunk ends at the limits instead.
+     * </p><p>
+     * The batch is not applied atomically: if a chunk fails, the chunks before it remain applied,
+     * including the operations of the last one that were since the last yield point. Callers
+     * that need a batch to be applied as a whole must use {@link #applyBatch(ArrayList)} and keep
+     * it small enough for a single transaction. Back references may point to the results of
+     * operations of earlier chunks; they are resolved before the chunk is sent.
+     * </p>
+     *
+     * @param operations the operations to apply
+     * @param listener notified after each chunk is applied, or null
+     * @return the results of the applications
+     * @throws OperationApplicationException thrown if an operation fails. Its
+     * {@link OperationApplicationException#getNumSuccessfulYieldPoints()} counts the yield
+     * points of the whole batch that were passed, including those between the chunks that
+     * were applied.
+     * @hide
+     */
+    public @NonNull ContentProviderResult[] applyBatchInChunks(
+            @NonNull ArrayList<ContentProviderOperation> operations,
+            @Nullable BatchProgressListener listener)
+                    throws RemoteException, OperationApplicationException {
+        Preconditions.checkNotNull(operations, "operations");
+
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        final ArrayList<ContentProviderOperation> chunk = new ArrayList<>();
+        final Parcel parcel = Parcel.obtain();
+        try {
+            int start = 0;
+            // Yield points passed by the chunks applied so far.
+            int numYieldPoints = 0;
+            while (start < numOperations) {
+                chunk.clear();
+                parcel.setDataSize(0);
+                int end = start;
+                // The latest operation after the start the chunk may end before.
+                int lastYieldPoint = start;
+                while (end < numOperations) {
+                    final ContentProviderOperation original = operations.get(end);
+                    if (end > start && original.isYieldAllowed()) {
+                        if (chunk.size() >= MAX_BATCH_CHUNK_OPERATIONS
+                                || parcel.dataSize() > MAX_BATCH_CHUNK_BYTES) {
+                            break;
+                        }
+                        lastYieldPoint = end;
+                    }
+                    final ContentProviderOperation operation =
+                            original.getWithPreviousResults(results, start);
+                    operation.writeToParcel(parcel, 0);
+                    chunk.add(operation);
+                    end++;
+                    if (chunk.size() > MAX_BATCH_CHUNK_OPERATIONS
+                            || parcel.dataSize() > MAX_BATCH_CHUNK_BYTES) {
+                        if (lastYieldPoint > start) {
+                            // Too large, end the chunk at its last yield point instead.
+                            chunk.subList(lastYieldPoint - start, chunk.size()).clear();
+                            end = lastYieldPoint;
+                        } else if (chunk.size() > 1) {
+                            // No yield point to end the chunk at, end it before the operation
+                            // that made it too large.
+                            chunk.remove(chunk.size() - 1);
+                            end--;
+                        }
+                        break;
+                    }
+                }
+
+                final ContentProviderResult[] chunkResults;
+                try {
+                    chunkResults = applyBatch(chunk);
+                } catch (OperationApplicationException e) {
+                    final OperationApplicationException ex = new OperationApplicationException(
+                            e.getMessage() + " (" + start + " operations of the batch applied)",
+                            numYieldPoints + e.getNumSuccessfulYieldPoints());
+                    ex.initCause(e);
+                    throw ex;
+                }
+                System.arraycopy(chunkResults, 0, results, start, end - start);
+                for (int i = start + 1; i <= end && i < numOperations; i++) {
+                    if (operations.get(i).isYieldAllowed()) {
+                        numYieldPoints++;
+                    }
+                }
+                start = end;
+                if (listener != null) {
+                    listener.onBatchProgress(start, numOperations);
+                }
+            }
+        } finally {
+            parcel.recycle();
+        }
+        return results;
+    }
+
     /** See {@link ContentProvider#call(String, String, Bundle)} */
     public @Nullable Bundle call(@NonNull String method, @Nullable String arg,
             @Nullable Bundle extras) throws RemoteException {
@@ -562,6 +670,20 @@ public class ContentProviderClient implements AutoCloseable {
         }
     }
 
+    /**
+     * Receives the progress of {@link #applyBatchInChunks}.
+     * @hide
+     */
+    public interface BatchProgressListener {
+        /**
+         * Called after each chunk of the batch is applied.
+         *
+         * @param appliedCount the number of operations applied so far
+         * @param totalCount the number of operations in the batch
+         */
+        void onBatchProgress(int appliedCount, int totalCount);
+    }
+
     private final class CursorWrapperInner extends CrossProcessCursorWrapper {
         private final CloseGuard mCloseGuard = CloseGuard.get();
 
@@ -110,6 +110,80 @@ public class ContentProviderOperation implements Parcelable {
         mYieldAllowed = cpo.mYieldAllowed;
     }
 
+    private ContentProviderOperation(ContentProviderOperation cpo,
+            ContentProviderResult[] previousResults, int numPreviousResults) {
+        mType = cpo.mType;
+        mUri = cpo.mUri;
+        mSelection = cpo.mSelection;
+        mExpectedCount = cpo.mExpectedCount;
+        mYieldAllowed = cpo.mYieldAllowed;
+
+        ContentValues values = cpo.mValues;
+        ContentValues valuesBackReferences = null;
+        if (cpo.mValuesBackReferences != null) {
+            for (String key : cpo.mValuesBackReferences.keySet()) {
+                final int backRefIndex = cpo.mValuesBackReferences.getAsInteger(key);
+                if (backRefIndex < numPreviousResults) {
+                    if (values == cpo.mValues) {
+                        values = values != null ? new ContentValues(values) : new ContentValues();
+                    }
+                    values.put(key, cpo.backRefToValue(previousResults, numPreviousResults,
+                            backRefIndex));
+                } else {
+                    if (valuesBackReferences == null) {
+                        valuesBackReferences = new ContentValues();
+                    }
+                    valuesBackReferences.put(key, backRefIndex - numPreviousResults);
+                }
+            }
+        }
+        mValues = values;
+        mValuesBackReferences = valuesBackReferences;
+
+        String[] selectionArgs = cpo.mSelectionArgs;
+        Map<Integer, Integer> selectionArgsBackReferences = null;
+        if (cpo.mSelectionArgsBackReferences != null) {
+            for (Map.Entry<Integer, Integer> selectionArgBackRef
+                    : cpo.mSelectionArgsBackReferences.entrySet()) {
+                final int selectionArgIndex = selectionArgBackRef.getKey();
+                final int backRefIndex = selectionArgBackRef.getValue();
+                if (backRefIndex < numPreviousResults) {
+                    if (selectionArgs == cpo.mSelectionArgs) {
+                        selectionArgs = selectionArgs.clone();
+                    }
+                    selectionArgs[selectionArgIndex] = String.valueOf(
+                            cpo.backRefToValue(previousResults, numPreviousResults, backRefIndex));
+                } else {
+                    if (selectionArgsBackReferences == null) {
+                        selectionArgsBackReferences = new HashMap<Integer, Integer>();
+                    }
+                    selectionArgsBackReferences.put(selectionArgIndex,
+                            backRefIndex - numPreviousResults);
+                }
+            }
+        }
+        mSelectionArgs = selectionArgs;
+        mSelectionArgsBackReferences = selectionArgsBackReferences;
+    }
+
+    /**
+     * Returns this operation as it should be applied in a batch that continues a batch whose
+     * operations produced the given results: the back references to those results are replaced
+     * by their values, and the other back references are moved down by the number of results.
+     *
+     * @param previousResults the results of the operations that were already applied
+     * @param numPreviousResults the number of valid results in previousResults
+     * @hide
+     */
+    public ContentProviderOperation getWithPreviousResults(
+            ContentProviderResult[] previousResults, int numPreviousResults) {
+        if (numPreviousResults == 0
+                || (mValuesBackReferences == null && mSelectionArgsBackReferences == null)) {
+            return this;
+        }
+        return new ContentProviderOperation(this, previousResults, numPreviousResults);
+    }
+
     /** @hide */
     public ContentProviderOperation getWithoutUserIdInUri() {
         if (ContentProvider.uriHasUserId(mUri)) {
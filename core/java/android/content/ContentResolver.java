@@ -1581,6 +1581,30 @@ public abstract class ContentResolver {
         }
     }
 
+    /**
+     * Applies a batch of operations of any size to the provider of an authority, in chunks that
+     * each fit in a single transaction.
+     *
+     * @see ContentProviderClient#applyBatchInChunks
+     * @hide
+     */
+    public @NonNull ContentProviderResult[] applyBatchInChunks(@NonNull String authority,
+            @NonNull ArrayList<ContentProviderOperation> operations,
+            @Nullable ContentProviderClient.BatchProgressListener listener)
+                    throws RemoteException, OperationApplicationException {
+        Preconditions.checkNotNull(authority, "authority");
+        Preconditions.checkNotNull(operations, "operations");
+        ContentProviderClient provider = acquireContentProviderClient(authority);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown authority " + authority);
+        }
+        try {
+            return provider.applyBatchInChunks(operations, listener);
+        } finally {
+            provider.release();
+        }
+    }
+
     /**
      * Inserts multiple rows into a table at the given URL.
      *
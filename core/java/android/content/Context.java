@@ -101,6 +101,7 @@ public abstract class Context {
             MODE_WORLD_READABLE,
             MODE_WORLD_WRITEABLE,
             MODE_MULTI_PROCESS,
+            MODE_BINARY_PREFERENCES,
     })
     @Retention(RetentionPolicy.SOURCE)
     public @interface PreferencesMode {}
@@ -218,6 +219,22 @@ public abstract class Context {
      */
     public static final int MODE_NO_LOCALIZED_COLLATORS = 0x0010;
 
+    /**
+     * SharedPreference loading flag: when set, the preferences are stored in
+     * a binary file that each commit appends its changes to, instead of an
+     * XML file that is rewritten in full. {@link SharedPreferences.Editor#apply()}
+     * writes are issued immediately and activity and service lifecycle
+     * transitions no longer wait for them. An existing XML file of the same
+     * name is migrated the first time it is loaded this way.
+     *
+     * <p>The flag only takes effect when the preferences are first loaded in
+     * the process.
+     *
+     * @see #getSharedPreferences
+     * @hide
+     */
+    public static final int MODE_BINARY_PREFERENCES = 0x0020;
+
     /** @hide */
     @IntDef(flag = true,
             value = {
@@ -83,6 +83,15 @@ public class ResourcesImpl {
     private static boolean sPreloaded;
     private boolean mPreloading;
 
+    /** Whether themes cache attributes resolved without an AttributeSet. */
+    private static volatile boolean sStyledAttributesCacheEnabled = true;
+
+    /**
+     * Incremented whenever the AssetManager configuration changes, which invalidates the
+     * attributes cached by each theme.
+     */
+    private volatile int mConfigurationGeneration;
+
     // Information about preloaded resources.  Note that they are not
     // protected by a lock, because while preloading in zygote we are all
     // single-threaded, and after that these are immutable.
@@ -423,6 +432,7 @@ public class ResourcesImpl {
                         mConfiguration.screenWidthDp, mConfiguration.screenHeightDp,
                         mConfiguration.screenLayout, mConfiguration.uiMode,
                         mConfiguration.colorMode, Build.VERSION.RESOURCES_SDK_INT);
+                mConfigurationGeneration++;
 
                 if (DEBUG_CONFIG) {
                     Slog.i(TAG, "**** Updating config of " + this + ": final config is "
@@ -1120,6 +1130,14 @@ public class ResourcesImpl {
         return sPreloadedDrawables[0];
     }
 
+    /**
+     * Enables or disables the cache of styled attributes resolved against themes. Used to
+     * compare the two in performance tests.
+     */
+    public static void setStyledAttributesCacheEnabled(boolean enabled) {
+        sStyledAttributesCacheEnabled = enabled;
+    }
+
     ThemeImpl newThemeImpl() {
         return new ThemeImpl();
     }
@@ -1149,6 +1167,17 @@ public class ResourcesImpl {
          */
         private int mThemeResId = 0;
 
+        /**
+         * Attributes resolved without an AttributeSet, created on first use and guarded by
+         * mKey. Cleared whenever the native theme changes.
+         */
+        private StyledAttributesCache mStyledAttributesCache;
+
+        /**
+         * The configuration generation the cached attributes were resolved with.
+         */
+        private int mStyledAttributesGeneration;
+
         /*package*/ ThemeImpl() {
             mAssets = ResourcesImpl.this.mAssets;
             mTheme = mAssets.createTheme();
@@ -1178,6 +1207,7 @@ public class ResourcesImpl {
 
                 mThemeResId = resId;
                 mKey.append(resId, force);
+                clearStyledAttributesCacheLocked();
             }
         }
 
@@ -1188,6 +1218,7 @@ public class ResourcesImpl {
 
                     mThemeResId = other.mThemeResId;
                     mKey.setTo(other.getKey());
+                    clearStyledAttributesCacheLocked();
                 }
             }
         }
@@ -1207,16 +1238,48 @@ public class ResourcesImpl {
                 // out the attributes from the XML file (applying type information
                 // contained in the resources and such).
                 final XmlBlock.Parser parser = (XmlBlock.Parser) set;
+                array.mTheme = wrapper;
+                array.mXml = parser;
+
+                // Without an AttributeSet the values only depend on the theme and the
+                // arguments, so they can be reused.
+                final StyledAttributesCache cache = parser == null
+                        ? getStyledAttributesCacheLocked() : null;
+                if (cache != null && cache.get(attrs, defStyleAttr, defStyleRes, array)) {
+                    return array;
+                }
+
                 AssetManager.applyStyle(mTheme, defStyleAttr, defStyleRes,
                         parser != null ? parser.mParseState : 0,
                         attrs, attrs.length, array.mDataAddress, array.mIndicesAddress);
-                array.mTheme = wrapper;
-                array.mXml = parser;
 
+                if (cache != null) {
+                    cache.put(attrs, defStyleAttr, defStyleRes, array);
+                }
                 return array;
             }
         }
 
+        private StyledAttributesCache getStyledAttributesCacheLocked() {
+            if (!sStyledAttributesCacheEnabled) {
+                return null;
+            }
+            if (mStyledAttributesCache == null) {
+                mStyledAttributesCache = new StyledAttributesCache();
+                mStyledAttributesGeneration = mConfigurationGeneration;
+            } else if (mStyledAttributesGeneration != mConfigurationGeneration) {
+                mStyledAttributesCache.clear();
+                mStyledAttributesGeneration = mConfigurationGeneration;
+            }
+            return mStyledAttributesCache;
+        }
+
+        private void clearStyledAttributesCacheLocked() {
+            if (mStyledAttributesCache != null) {
+                mStyledAttributesCache.clear();
+            }
+        }
+
         @NonNull
         TypedArray resolveAttributes(@NonNull Resources.Theme wrapper,
                 @NonNull int[] values,
@@ -1286,6 +1349,7 @@ public class ResourcesImpl {
         void rebase() {
             synchronized (mKey) {
                 AssetManager.clearTheme(mTheme);
+                clearStyledAttributesCacheLocked();
 
                 // Reapply the same styles in the same order.
                 for (int i = 0; i < mKey.mCount; i++) {
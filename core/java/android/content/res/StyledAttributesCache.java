@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import java.util.Arrays;
+
+/**
+ * Class which caches attributes resolved against a theme, for
+ * {@link Resources.Theme#obtainStyledAttributes} calls that don't pass an AttributeSet.
+ * Those only depend on the theme, the default style attribute and resource, and the requested
+ * attributes, so the native style chain walk can be skipped when the same arguments come back,
+ * as they do for text appearances and theme attributes read by every inflated view.
+ * <p>
+ * Entries are looked up by the identity of the attribute array, which is normally a static
+ * styleable array, and checked against a copy of its contents. The owning theme must
+ * {@link #clear()} the cache whenever its styles or configuration change.
+ * <p>
+ * This class is not thread safe.
+ */
+final class StyledAttributesCache {
+    private static final int MAX_ENTRIES = 16;
+
+    private static final class Entry {
+        int[] attrsRef;
+        int[] attrs;
+        int defStyleAttr;
+        int defStyleRes;
+        int[] data;
+        int[] indices;
+    }
+
+    /** Most recently used first. */
+    private final Entry[] mEntries = new Entry[MAX_ENTRIES];
+    private int mSize;
+
+    /**
+     * Copies cached values for the given arguments into the array.
+     *
+     * @param attrs the requested attributes
+     * @param defStyleAttr the default style attribute
+     * @param defStyleRes the default style resource
+     * @param outArray the array to fill in, already sized for {@code attrs}
+     * @return {@code true} if the values were cached, {@code false} otherwise
+     */
+    boolean get(int[] attrs, int defStyleAttr, int defStyleRes, TypedArray outArray) {
+        for (int i = 0; i < mSize; i++) {
+            final Entry entry = mEntries[i];
+            if (entry.attrsRef == attrs && entry.defStyleAttr == defStyleAttr
+                    && entry.defStyleRes == defStyleRes) {
+                if (!Arrays.equals(entry.attrs, attrs)) {
+                    // The caller changed the contents of the array.
+                    remove(i);
+                    return false;
+                }
+                System.arraycopy(entry.data, 0, outArray.mData, 0, entry.data.length);
+                System.arraycopy(entry.indices, 0, outArray.mIndices, 0, entry.indices.length);
+                moveToFront(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Caches the values the array was just filled with for the given arguments.
+     */
+    void put(int[] attrs, int defStyleAttr, int defStyleRes, TypedArray array) {
+        final Entry entry;
+        if (mSize < MAX_ENTRIES) {
+            entry = new Entry();
+            mEntries[mSize++] = entry;
+        } else {
+            // Reuse the least recently used entry.
+            entry = mEntries[mSize - 1];
+        }
+
+        final int dataLen = attrs.length * AssetManager.STYLE_NUM_ENTRIES;
+        entry.attrsRef = attrs;
+        entry.attrs = attrs.clone();
+        entry.defStyleAttr = defStyleAttr;
+        entry.defStyleRes = defStyleRes;
+        entry.data = Arrays.copyOf(array.mData, dataLen);
+        entry.indices = Arrays.copyOf(array.mIndices, attrs.length + 1);
+        moveToFront(mSize - 1);
+    }
+
+    void clear() {
+        Arrays.fill(mEntries, 0, mSize, null);
+        mSize = 0;
+    }
+
+    private void moveToFront(int index) {
+        final Entry entry = mEntries[index];
+        System.arraycopy(mEntries, 0, mEntries, 1, index);
+        mEntries[0] = entry;
+    }
+
+    private void remove(int index) {
+        System.arraycopy(mEntries, index + 1, mEntries, index, mSize - index - 1);
+        mEntries[--mSize] = null;
+    }
+}
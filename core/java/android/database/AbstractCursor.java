@@ -23,6 +23,7 @@ import android.os.UserHandle;
 import android.util.Log;
 
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -248,6 +249,61 @@ public abstract class AbstractCursor implements CrossProcessCursor {
         DatabaseUtils.cursorFillWindow(this, position, window);
     }
 
+    /**
+     * Gets the values of a column for consecutive rows as <code>long</code>s, as if by
+     * calling {@link #getLong} on each row, and leaves the cursor on the last row read.
+     * Subclasses that can read many values at once should override this.
+     *
+     * @param position The position of the first row.
+     * @param columnIndex The zero-based index of the column.
+     * @param values The array to copy the values into.
+     * @param offset The index in <code>values</code> of the first value.
+     * @param count The maximum number of values to copy.
+     * @return The number of values copied, which is less than <code>count</code> if the
+     *         cursor has fewer rows.
+     * @hide
+     */
+    public int getLongs(int position, int columnIndex, long[] values, int offset, int count) {
+        Arrays.checkOffsetAndCount(values.length, offset, count);
+        int copied = 0;
+        while (copied < count && moveToPosition(position + copied)) {
+            values[offset + copied] = getLong(columnIndex);
+            copied++;
+        }
+        if (copied > 0) {
+            moveToPosition(position + copied - 1);
+        }
+        return copied;
+    }
+
+    /**
+     * Gets the values of a column for consecutive rows as <code>double</code>s, as if by
+     * calling {@link #getDouble} on each row, and leaves the cursor on the last row read.
+     * Subclasses that can read many values at once should override this.
+     *
+     * @param position The position of the first row.
+     * @param columnIndex The zero-based index of the column.
+     * @param values The array to copy the values into.
+     * @param offset The index in <code>values</code> of the first value.
+     * @param count The maximum number of values to copy.
+     * @return The number of values copied, which is less than <code>count</code> if the
+     *         cursor has fewer rows.
+     * @hide
+     */
+    public int getDoubles(int position, int columnIndex, double[] values, int offset,
+            int count) {
+        Arrays.checkOffsetAndCount(values.length, offset, count);
+        int copied = 0;
+        while (copied < count && moveToPosition(position + copied)) {
+            values[offset + copied] = getDouble(columnIndex);
+            copied++;
+        }
+        if (copied > 0) {
+            moveToPosition(position + copied - 1);
+        }
+        return copied;
+    }
+
     @Override
     public final boolean move(int offset) {
         return moveToPosition(mPos + offset);
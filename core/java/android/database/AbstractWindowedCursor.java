@@ -16,6 +16,8 @@
 
 package android.database;
 
+import java.util.Arrays;
+
 /**
  * A base class for Cursors that store their data in {@link CursorWindow}s.
  * <p>
@@ -87,6 +89,63 @@ public abstract class AbstractWindowedCursor extends AbstractCursor {
         return mWindow.getDouble(mPos, columnIndex);
     }
 
+    /**
+     * Reads the values of each window the rows span in a single call.
+     *
+     * @throws IllegalStateException if the window filled for a row doesn't contain it.
+     * @hide
+     */
+    @Override
+    public int getLongs(int position, int columnIndex, long[] values, int offset, int count) {
+        Arrays.checkOffsetAndCount(values.length, offset, count);
+        int copied = 0;
+        while (copied < count && moveToPosition(position + copied)) {
+            checkPosition();
+            final int read = mWindow.getLongs(position + copied, columnIndex, values,
+                    offset + copied, count - copied);
+            if (read == 0) {
+                throw new IllegalStateException("Couldn't read row " + (position + copied)
+                        + ", col " + columnIndex + " from CursorWindow.  Make sure the Cursor "
+                        + "is initialized correctly before accessing data from it.");
+            }
+            copied += read;
+        }
+        if (copied > 0) {
+            // Still in the window, so this does not refill it.
+            moveToPosition(position + copied - 1);
+        }
+        return copied;
+    }
+
+    /**
+     * Reads the values of each window the rows span in a single call.
+     *
+     * @throws IllegalStateException if the window filled for a row doesn't contain it.
+     * @hide
+     */
+    @Override
+    public int getDoubles(int position, int columnIndex, double[] values, int offset,
+            int count) {
+        Arrays.checkOffsetAndCount(values.length, offset, count);
+        int copied = 0;
+        while (copied < count && moveToPosition(position + copied)) {
+            checkPosition();
+            final int read = mWindow.getDoubles(position + copied, columnIndex, values,
+                    offset + copied, count - copied);
+            if (read == 0) {
+                throw new IllegalStateException("Couldn't read row " + (position + copied)
+                        + ", col " + columnIndex + " from CursorWindow.  Make sure the Cursor "
+                        + "is initialized correctly before accessing data from it.");
+            }
+            copied += read;
+        }
+        if (copied > 0) {
+            // Still in the window, so this does not refill it.
+            moveToPosition(position + copied - 1);
+        }
+        return copied;
+    }
+
     @Override
     public boolean isNull(int columnIndex) {
         checkPosition();
@@ -18,6 +18,9 @@ package android.database;
 
 import android.net.Uri;
 import android.os.*;
+import android.util.Log;
+
+import java.util.concurrent.RejectedExecutionException;
 
 
 /**
@@ -28,6 +31,14 @@ import android.os.*;
  * window to be filled and ensures it gets closed as needed during deactivation
  * and requeries.
  * </p>
+ * <p>
+ * When the client scrolls forward through the cursor one window after the other, the adaptor
+ * streams the rows instead: each window starts at the first row the client does not have yet,
+ * and the next window is filled on a background thread while the client reads the current one.
+ * Only one window is read ahead, the next one is not filled before the client asked for it.
+ * The background thread fills the window without holding the adaptor's lock; calls that use
+ * the cursor wait for it to finish, as the cursor must only be used by one thread at a time.
+ * </p>
  *
  * {@hide}
  */
@@ -52,6 +63,36 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
      */
     private CursorWindow mFilledWindow;
 
+    /**
+     * The position right after the last window returned to the client, or -1. The client asks
+     * for this position when it scrolls past the end of its window.
+     */
+    private int mWindowEnd = -1;
+
+    private boolean mStreamingEnabled = true;
+
+    /**
+     * The windows used when streaming: the one last returned to the client, and the one read
+     * ahead of it.
+     */
+    private CursorWindow mStreamWindow;
+    private CursorWindow mReadAheadWindow;
+    private int mReadAheadPosition = -1;
+    private boolean mReadAheadScheduled;
+
+    /**
+     * Whether the background thread is filling the read ahead window. It owns the cursor and
+     * that window until then.
+     */
+    private boolean mReadAheadInProgress;
+
+    private final Runnable mReadAhead = new Runnable() {
+        @Override
+        public void run() {
+            readAhead();
+        }
+    };
+
     private static final class ContentObserverProxy extends ContentObserver {
         protected IContentObserver mRemote;
 
@@ -106,7 +147,36 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         }
     }
 
+    /**
+     * Waits for the background thread to be done with the cursor. Must be called before
+     * using the cursor or the stream windows.
+     */
+    private void waitForReadAheadLocked() {
+        while (mReadAheadInProgress) {
+            try {
+                mLock.wait();
+            } catch (InterruptedException e) {
+                // Keep waiting, the cursor must not be used by two threads.
+            }
+        }
+    }
+
+    private void closeStreamWindowsLocked() {
+        if (mStreamWindow != null) {
+            mStreamWindow.close();
+            mStreamWindow = null;
+        }
+        if (mReadAheadWindow != null) {
+            mReadAheadWindow.close();
+            mReadAheadWindow = null;
+        }
+        mReadAheadPosition = -1;
+        mReadAheadScheduled = false;
+        mWindowEnd = -1;
+    }
+
     private void disposeLocked() {
+        waitForReadAheadLocked();
         if (mCursor != null) {
             unregisterObserverProxyLocked();
             mCursor.close();
@@ -114,6 +184,7 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         }
 
         closeFilledWindowLocked();
+        closeStreamWindowsLocked();
     }
 
     private void throwIfCursorIsClosed() {
@@ -136,6 +207,7 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
      */
     public BulkCursorDescriptor getBulkCursorDescriptor() {
         synchronized (mLock) {
+            waitForReadAheadLocked();
             throwIfCursorIsClosed();
 
             BulkCursorDescriptor d = new BulkCursorDescriptor();
@@ -148,6 +220,7 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
                 // Acquire a reference to the window because its reference count will be
                 // decremented when it is returned as part of the binder call reply parcel.
                 d.window.acquireReference();
+                mWindowEnd = d.window.getStartPosition() + d.window.getNumRows();
             }
             return d;
         }
@@ -156,10 +229,26 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
     @Override
     public CursorWindow getWindow(int position) {
         synchronized (mLock) {
+            waitForReadAheadLocked();
             throwIfCursorIsClosed();
 
+            if (mStreamingEnabled && position > 0 && position == mWindowEnd
+                    && !mCursor.getWantsAllOnMoveCalls()) {
+                final CursorWindow window = getNextStreamWindowLocked(position);
+                if (window != null) {
+                    // Acquire a reference to the window because its reference count will be
+                    // decremented when it is returned as part of the binder call reply parcel.
+                    window.acquireReference();
+                    return window;
+                }
+                // Not streamed, get the window the usual way.
+            }
+            mReadAheadScheduled = false;
+            mReadAheadPosition = -1;
+
             if (!mCursor.moveToPosition(position)) {
                 closeFilledWindowLocked();
+                mWindowEnd = -1;
                 return null;
             }
 
@@ -182,14 +271,141 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
                 // Acquire a reference to the window because its reference count will be
                 // decremented when it is returned as part of the binder call reply parcel.
                 window.acquireReference();
+                mWindowEnd = window.getStartPosition() + window.getNumRows();
+            } else {
+                mWindowEnd = -1;
             }
             return window;
         }
     }
 
+    /**
+     * Returns the window starting at the given position, which follows the last window returned
+     * to the client, and starts reading the window after it in the background. Returns null if
+     * the rows can't be streamed, for instance when the row does not fit in a window on its own,
+     * in which case the caller falls back to the cursor's own window.
+     */
+    private CursorWindow getNextStreamWindowLocked(int position) {
+        if (position >= mCursor.getCount()) {
+            return null;
+        }
+
+        // Reading ahead is the same work as filling the window now, so do it now if the
+        // background thread has not got to it yet.
+        if (mReadAheadScheduled) {
+            mReadAheadScheduled = false;
+            if (mReadAheadWindow == null) {
+                mReadAheadWindow = new CursorWindow(mProviderName);
+            }
+            if (!fillReadAheadWindow(mCursor, mReadAheadPosition, mReadAheadWindow)) {
+                mReadAheadPosition = -1;
+            }
+        }
+
+        CursorWindow window;
+        if (mReadAheadWindow != null && mReadAheadPosition == position
+                && mReadAheadWindow.getStartPosition() == position
+                && mReadAheadWindow.getNumRows() > 0) {
+            // The client is done with the previous window, so it can be filled again.
+            window = mReadAheadWindow;
+            mReadAheadWindow = mStreamWindow;
+            mStreamWindow = window;
+        } else {
+            window = mStreamWindow;
+            if (window == null) {
+                window = mStreamWindow = new CursorWindow(mProviderName);
+            }
+            mCursor.fillWindow(position, window);
+            if (window.getNumRows() == 0 || window.getStartPosition() != position) {
+                mReadAheadPosition = -1;
+                return null;
+            }
+        }
+        mReadAheadPosition = -1;
+        mWindowEnd = window.getStartPosition() + window.getNumRows();
+
+        if (mWindowEnd < mCursor.getCount()) {
+            mReadAheadPosition = mWindowEnd;
+            mReadAheadScheduled = true;
+            try {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(mReadAhead);
+            } catch (RejectedExecutionException e) {
+                // The pool is saturated; the next window is filled when the client asks for it,
+                // without reading ahead.
+                Log.w(TAG, "Not reading ahead the rows of " + mProviderName, e);
+                mReadAheadScheduled = false;
+                mReadAheadPosition = -1;
+            }
+        }
+        return window;
+    }
+
+    /**
+     * Fills the read ahead window on a background thread. The window is filled without holding
+     * the lock, and swapped back in under it.
+     */
+    private void readAhead() {
+        final CrossProcessCursor cursor;
+        final int position;
+        CursorWindow window;
+        synchronized (mLock) {
+            if (!mReadAheadScheduled || mCursor == null) {
+                return;
+            }
+            mReadAheadScheduled = false;
+            mReadAheadInProgress = true;
+            cursor = mCursor;
+            position = mReadAheadPosition;
+            window = mReadAheadWindow;
+            mReadAheadWindow = null;
+        }
+
+        if (window == null) {
+            window = new CursorWindow(mProviderName);
+        }
+        final boolean filled = fillReadAheadWindow(cursor, position, window);
+
+        synchronized (mLock) {
+            mReadAheadInProgress = false;
+            // Nothing else touched the cursor or the read ahead state while this was running.
+            mReadAheadWindow = window;
+            if (!filled) {
+                mReadAheadPosition = -1;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    private boolean fillReadAheadWindow(CrossProcessCursor cursor, int position,
+            CursorWindow window) {
+        try {
+            cursor.fillWindow(position, window);
+            return true;
+        } catch (RuntimeException e) {
+            // Let the client get the error when it asks for these rows.
+            Log.w(TAG, "Failed to read ahead the rows of " + mProviderName + " at "
+                    + position, e);
+            return false;
+        }
+    }
+
+    /**
+     * Sets whether windows are streamed to a client scrolling forward, for testing.
+     */
+    public void setStreamingEnabled(boolean enabled) {
+        synchronized (mLock) {
+            mStreamingEnabled = enabled;
+            if (!enabled) {
+                waitForReadAheadLocked();
+                closeStreamWindowsLocked();
+            }
+        }
+    }
+
     @Override
     public void onMove(int position) {
         synchronized (mLock) {
+            waitForReadAheadLocked();
             throwIfCursorIsClosed();
 
             mCursor.onMove(mCursor.getPosition(), position);
@@ -199,12 +415,14 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
     @Override
     public void deactivate() {
         synchronized (mLock) {
+            waitForReadAheadLocked();
             if (mCursor != null) {
                 unregisterObserverProxyLocked();
                 mCursor.deactivate();
             }
 
             closeFilledWindowLocked();
+            closeStreamWindowsLocked();
         }
     }
 
@@ -218,9 +436,11 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
     @Override
     public int requery(IContentObserver observer) {
         synchronized (mLock) {
+            waitForReadAheadLocked();
             throwIfCursorIsClosed();
 
             closeFilledWindowLocked();
+            closeStreamWindowsLocked();
 
             try {
                 if (!mCursor.requery()) {
@@ -265,6 +485,7 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
     @Override
     public Bundle getExtras() {
         synchronized (mLock) {
+            waitForReadAheadLocked();
             throwIfCursorIsClosed();
 
             return mCursor.getExtras();
@@ -274,6 +495,7 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
     @Override
     public Bundle respond(Bundle extras) {
         synchronized (mLock) {
+            waitForReadAheadLocked();
             throwIfCursorIsClosed();
 
             return mCursor.respond(extras);
@@ -29,6 +29,8 @@ import android.util.Log;
 import android.util.SparseIntArray;
 import android.util.LongSparseArray;
 
+import java.util.Arrays;
+
 /**
  * A buffer containing multiple cursor rows.
  * <p>
@@ -73,6 +75,10 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
     private static native String nativeGetString(long windowPtr, int row, int column);
     private static native long nativeGetLong(long windowPtr, int row, int column);
     private static native double nativeGetDouble(long windowPtr, int row, int column);
+    private static native void nativeGetLongs(long windowPtr, int row, int column,
+            long[] values, int offset, int count);
+    private static native void nativeGetDoubles(long windowPtr, int row, int column,
+            double[] values, int offset, int count);
     private static native void nativeCopyStringToBuffer(long windowPtr, int row, int column,
             CharArrayBuffer buffer);
 
@@ -546,6 +552,62 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
         }
     }
 
+    /**
+     * Gets the values of a column for consecutive rows as <code>long</code>s, converted as by
+     * {@link #getLong}, in a single call. Copies the values of at most <code>count</code> rows,
+     * stopping at the end of the window.
+     *
+     * @param row The zero-based index of the first row.
+     * @param column The zero-based column index.
+     * @param values The array to copy the values into.
+     * @param offset The index in <code>values</code> of the first value.
+     * @param count The maximum number of values to copy.
+     * @return The number of values copied.
+     * @hide
+     */
+    public int getLongs(int row, int column, long[] values, int offset, int count) {
+        Arrays.checkOffsetAndCount(values.length, offset, count);
+        acquireReference();
+        try {
+            count = Math.min(count, mStartPos + nativeGetNumRows(mWindowPtr) - row);
+            if (count <= 0) {
+                return 0;
+            }
+            nativeGetLongs(mWindowPtr, row - mStartPos, column, values, offset, count);
+            return count;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Gets the values of a column for consecutive rows as <code>double</code>s, converted as
+     * by {@link #getDouble}, in a single call. Copies the values of at most <code>count</code>
+     * rows, stopping at the end of the window.
+     *
+     * @param row The zero-based index of the first row.
+     * @param column The zero-based column index.
+     * @param values The array to copy the values into.
+     * @param offset The index in <code>values</code> of the first value.
+     * @param count The maximum number of values to copy.
+     * @return The number of values copied.
+     * @hide
+     */
+    public int getDoubles(int row, int column, double[] values, int offset, int count) {
+        Arrays.checkOffsetAndCount(values.length, offset, count);
+        acquireReference();
+        try {
+            count = Math.min(count, mStartPos + nativeGetNumRows(mWindowPtr) - row);
+            if (count <= 0) {
+                return 0;
+            }
+            nativeGetDoubles(mWindowPtr, row - mStartPos, column, values, offset, count);
+            return count;
+        } finally {
+            releaseReference();
+        }
+    }
+
     /**
      * Gets the value of the field at the specified row and column index as a
      * <code>short</code>.
@@ -17,6 +17,7 @@
 package android.database;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * A mutable cursor implementation backed by an array of {@code Object}s. Use
@@ -274,7 +275,10 @@ public class MatrixCursor extends AbstractCursor {
 
     @Override
     public long getLong(int column) {
-        Object value = get(column);
+        return toLong(get(column));
+    }
+
+    private static long toLong(Object value) {
         if (value == null) return 0;
         if (value instanceof Number) return ((Number) value).longValue();
         return Long.parseLong(value.toString());
@@ -290,12 +294,60 @@ public class MatrixCursor extends AbstractCursor {
 
     @Override
     public double getDouble(int column) {
-        Object value = get(column);
+        return toDouble(get(column));
+    }
+
+    private static double toDouble(Object value) {
         if (value == null) return 0.0d;
         if (value instanceof Number) return ((Number) value).doubleValue();
         return Double.parseDouble(value.toString());
     }
 
+    /**
+     * Returns the number of rows from the given position that can be read, at most count,
+     * after checking the column.
+     */
+    private int getReadableRowCount(int position, int column, int count) {
+        if (column < 0 || column >= columnCount) {
+            throw new CursorIndexOutOfBoundsException("Requested column: "
+                    + column + ", # of columns: " +  columnCount);
+        }
+        if (position < 0) {
+            return 0;
+        }
+        return Math.max(Math.min(count, rowCount - position), 0);
+    }
+
+    /** @hide */
+    @Override
+    public int getLongs(int position, int column, long[] values, int offset, int count) {
+        Arrays.checkOffsetAndCount(values.length, offset, count);
+        count = getReadableRowCount(position, column, count);
+        for (int i = 0, index = position * columnCount + column; i < count;
+                i++, index += columnCount) {
+            values[offset + i] = toLong(data[index]);
+        }
+        if (count > 0) {
+            moveToPosition(position + count - 1);
+        }
+        return count;
+    }
+
+    /** @hide */
+    @Override
+    public int getDoubles(int position, int column, double[] values, int offset, int count) {
+        Arrays.checkOffsetAndCount(values.length, offset, count);
+        count = getReadableRowCount(position, column, count);
+        for (int i = 0, index = position * columnCount + column; i < count;
+                i++, index += columnCount) {
+            values[offset + i] = toDouble(data[index]);
+        }
+        if (count > 0) {
+            moveToPosition(position + count - 1);
+        }
+        return count;
+    }
+
     @Override
     public byte[] getBlob(int column) {
         Object value = get(column);
@@ -103,8 +103,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private final PreparedStatementCache mPreparedStatementCache;
     private PreparedStatement mPreparedStatementPool;
 
+    // The number of times a statement was or was not found in the prepared statement cache.
+    private int mPreparedStatementCacheHitCount;
+    private int mPreparedStatementCacheMissCount;
+
     // The recent operations log.
-    private final OperationLog mRecentOperations = new OperationLog();
+    private final OperationLog mRecentOperations;
 
     // The native SQLiteConnection pointer.  (FOR INTERNAL USE ONLY)
     private long mConnectionPtr;
@@ -167,6 +171,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         mIsReadOnlyConnection = (configuration.openFlags & SQLiteDatabase.OPEN_READONLY) != 0;
         mPreparedStatementCache = new PreparedStatementCache(
                 mConfiguration.maxSqlCacheSize);
+        mRecentOperations = new OperationLog(pool != null ? pool.getStats() : null);
         mCloseGuard.open("close");
     }
 
@@ -878,6 +883,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         boolean skipCache = false;
         if (statement != null) {
             if (!statement.mInUse) {
+                mPreparedStatementCacheHitCount++;
                 return statement;
             }
             // The statement is already in the cache but is in use (this statement appears
@@ -896,6 +902,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                 mPreparedStatementCache.put(sql, statement);
                 statement.mInCache = true;
             }
+            mPreparedStatementCacheMissCount++;
         } catch (RuntimeException ex) {
             // Finalize the statement if an exception occurred and we did not add
             // it to the cache.  If it is already in the cache, then leave it there.
@@ -1084,6 +1091,22 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
     }
 
+    /**
+     * Returns the number of statements found in the prepared statement cache. May be called
+     * by a thread that does not own the connection, in which case the count may be stale.
+     */
+    int getPreparedStatementCacheHitCount() {
+        return mPreparedStatementCacheHitCount;
+    }
+
+    /**
+     * Returns the number of statements that had to be prepared. May be called by a thread that
+     * does not own the connection, in which case the count may be stale.
+     */
+    int getPreparedStatementCacheMissCount() {
+        return mPreparedStatementCacheMissCount;
+    }
+
     /**
      * Describes the currently executing operation, in the case where the
      * caller might not actually own the connection.
@@ -1295,9 +1318,14 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         private static final int COOKIE_INDEX_MASK = 0xff;
 
         private final Operation[] mOperations = new Operation[MAX_RECENT_OPERATIONS];
+        private final SQLiteConnectionPoolStats mPoolStats;
         private int mIndex;
         private int mGeneration;
 
+        OperationLog(SQLiteConnectionPoolStats poolStats) {
+            mPoolStats = poolStats;
+        }
+
         public int beginOperation(String kind, String sql, Object[] bindArgs) {
             synchronized (mOperations) {
                 final int index = (mIndex + 1) % MAX_RECENT_OPERATIONS;
@@ -1380,8 +1408,16 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                 }
                 operation.mEndTime = SystemClock.uptimeMillis();
                 operation.mFinished = true;
+                final long elapsedMillis = operation.mEndTime - operation.mStartTime;
+                if (mPoolStats != null
+                        && elapsedMillis >= SQLiteConnectionPoolStats.SLOW_OPERATION_MILLIS) {
+                    StringBuilder msg = new StringBuilder();
+                    msg.append("[").append(operation.getFormattedStartTime()).append("] ");
+                    operation.describe(msg, false);
+                    mPoolStats.onSlowOperation(msg.toString());
+                }
                 return SQLiteDebug.DEBUG_LOG_SLOW_QUERIES && SQLiteDebug.shouldLogSlowQuery(
-                                operation.mEndTime - operation.mStartTime);
+                                elapsedMillis);
             }
             return false;
         }
@@ -20,12 +20,19 @@ import dalvik.system.CloseGuard;
 
 import android.database.sqlite.SQLiteDebug.DbStats;
 import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
 import android.os.OperationCanceledException;
 import android.os.SystemClock;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.PrefixPrinter;
 import android.util.Printer;
 
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
+
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Map;
@@ -48,6 +55,12 @@ import java.util.concurrent.locks.LockSupport;
  * abandoned so that it can create new connections to replace them if needed.
  * </p><p>
  * The connection pool is thread-safe (but the connections themselves are not).
+ * </p><p>
+ * In WAL mode the pool opens non-primary connections as sessions need them, up to the
+ * size configured by {@link SQLiteGlobal#getWALConnectionPoolSize}.  When sessions still
+ * have to wait for a connection, the pool lets itself grow further, up to twice that size.
+ * Once the connections it grew by stay unused for a while, they are closed again, shrinking the
+ * pool back to its configured size.
  * </p>
  *
  * <h2>Exception safety</h2>
@@ -76,12 +89,31 @@ public final class SQLiteConnectionPool implements Closeable {
     // and logging a message about the connection pool being busy.
     private static final long CONNECTION_POOL_BUSY_MILLIS = 30 * 1000; // 30 seconds
 
+    // Amount of time in milliseconds after which an unused non-primary connection the pool
+    // grew by is closed.
+    private static final long IDLE_CONNECTION_TIMEOUT_MILLIS = 30 * 1000; // 30 seconds
+
+    // Message of the idle connection handler that closes idle connections.
+    @VisibleForTesting
+    static final int MSG_CLOSE_IDLE_CONNECTIONS = 1;
+
+    // A session that waited this long in milliseconds for a non-primary connection lets
+    // the pool grow by one connection.
+    private static final long CONTENTION_WAIT_MILLIS = 16;
+
+    // How many times its configured size the pool may grow to under contention.
+    private static final int MAX_POOL_GROWTH_FACTOR = 2;
+
     private final CloseGuard mCloseGuard = CloseGuard.get();
 
     private final Object mLock = new Object();
     private final AtomicBoolean mConnectionLeaked = new AtomicBoolean();
     private final SQLiteDatabaseConfiguration mConfiguration;
+    private final SQLiteConnectionPoolStats mStats = new SQLiteConnectionPoolStats();
+    private int mConfiguredConnectionPoolSize;
     private int mMaxConnectionPoolSize;
+    private IdleConnectionHandler mIdleConnectionHandler;
+    private long mIdleConnectionTimeoutMillis = IDLE_CONNECTION_TIMEOUT_MILLIS;
     private boolean mIsOpen;
     private int mNextConnectionId;
 
@@ -93,6 +125,9 @@ public final class SQLiteConnectionPool implements Closeable {
             new ArrayList<SQLiteConnection>();
     private SQLiteConnection mAvailablePrimaryConnection;
 
+    // When each available non-primary connection was released, by connection.
+    private final ArrayMap<SQLiteConnection, Long> mConnectionReleaseTimes = new ArrayMap<>();
+
     // Describes what should happen to an acquired connection when it is returned to the pool.
     enum AcquiredConnectionStatus {
         // The connection should be returned to the pool as usual.
@@ -213,6 +248,15 @@ public final class SQLiteConnectionPool implements Closeable {
             mCloseGuard.close();
         }
 
+        synchronized (mLock) {
+            // The idle connection handler posts to the shared background thread, so drop
+            // its pending messages rather than leave them queued once the pool is closed.
+            if (mIdleConnectionHandler != null) {
+                mIdleConnectionHandler.removeCallbacksAndMessages(null);
+                mIdleConnectionHandler = null;
+            }
+        }
+
         if (!finalized) {
             // Close all connections.  We don't need (or want) to do this
             // when finalized because we don't know what state the connections
@@ -382,6 +426,7 @@ public final class SQLiteConnectionPool implements Closeable {
             } else {
                 if (recycleConnectionLocked(connection, status)) {
                     mAvailableNonPrimaryConnections.add(connection);
+                    mConnectionReleaseTimes.put(connection, SystemClock.uptimeMillis());
                 }
                 wakeConnectionWaitersLocked();
             }
@@ -524,6 +569,8 @@ public final class SQLiteConnectionPool implements Closeable {
 
     // Can't throw.
     private void closeConnectionAndLogExceptionsLocked(SQLiteConnection connection) {
+        mStats.onConnectionClosed(connection);
+        mConnectionReleaseTimes.remove(connection);
         try {
             connection.close(); // might throw
         } catch (RuntimeException ex) {
@@ -532,6 +579,62 @@ public final class SQLiteConnectionPool implements Closeable {
         }
     }
 
+    // Can't throw.
+    private void closeIdleConnectionsLocked() {
+        // Only close as many connections as the pool grew by, oldest releases first.
+        final long now = SystemClock.uptimeMillis();
+        int i = 0;
+        while (i < mAvailableNonPrimaryConnections.size()
+                && mMaxConnectionPoolSize > mConfiguredConnectionPoolSize) {
+            final SQLiteConnection connection = mAvailableNonPrimaryConnections.get(i);
+            final Long releaseTime = mConnectionReleaseTimes.get(connection);
+            if (releaseTime == null || now - releaseTime < mIdleConnectionTimeoutMillis) {
+                i++;
+                continue;
+            }
+            mAvailableNonPrimaryConnections.remove(i);
+            closeConnectionAndLogExceptionsLocked(connection);
+            mMaxConnectionPoolSize -= 1;
+            mStats.onIdleConnectionClosed();
+        }
+
+        // Check again later for connections that were in use or not idle for long enough.
+        if (mMaxConnectionPoolSize > mConfiguredConnectionPoolSize) {
+            scheduleIdleConnectionSweepLocked();
+        }
+    }
+
+    // Can't throw.
+    private void scheduleIdleConnectionSweepLocked() {
+        final Handler handler = getIdleConnectionHandlerLocked();
+        if (!handler.hasMessages(MSG_CLOSE_IDLE_CONNECTIONS)) {
+            handler.sendEmptyMessageDelayed(MSG_CLOSE_IDLE_CONNECTIONS,
+                    mIdleConnectionTimeoutMillis);
+        }
+    }
+
+    // Can't throw.
+    private void growConnectionPoolLocked() {
+        // Only pools that may have non-primary connections at all, that is in WAL mode.
+        if (mConfiguredConnectionPoolSize > 1 && mMaxConnectionPoolSize
+                < mConfiguredConnectionPoolSize * MAX_POOL_GROWTH_FACTOR) {
+            mMaxConnectionPoolSize += 1;
+            mStats.onPoolGrown();
+            scheduleIdleConnectionSweepLocked();
+
+            // Let another waiter have the new connection.
+            wakeConnectionWaitersLocked();
+        }
+    }
+
+    private IdleConnectionHandler getIdleConnectionHandlerLocked() {
+        if (mIdleConnectionHandler == null) {
+            mIdleConnectionHandler = new IdleConnectionHandler(
+                    BackgroundThread.get().getLooper());
+        }
+        return mIdleConnectionHandler;
+    }
+
     // Can't throw.
     private void discardAcquiredConnectionsLocked() {
         markAcquiredConnectionsLocked(AcquiredConnectionStatus.DISCARD);
@@ -613,6 +716,7 @@ public final class SQLiteConnectionPool implements Closeable {
                 connection = tryAcquirePrimaryConnectionLocked(connectionFlags); // might throw
             }
             if (connection != null) {
+                mStats.onConnectionAcquired(false, 0);
                 return connection;
             }
 
@@ -678,15 +782,20 @@ public final class SQLiteConnectionPool implements Closeable {
 
                     final SQLiteConnection connection = waiter.mAssignedConnection;
                     final RuntimeException ex = waiter.mException;
+                    final long now = SystemClock.uptimeMillis();
                     if (connection != null || ex != null) {
+                        final long waitMillis = now - waiter.mStartTime;
                         recycleConnectionWaiterLocked(waiter);
                         if (connection != null) {
+                            mStats.onConnectionAcquired(true, waitMillis);
+                            if (!wantPrimaryConnection && waitMillis >= CONTENTION_WAIT_MILLIS) {
+                                growConnectionPoolLocked();
+                            }
                             return connection;
                         }
                         throw ex; // rethrow!
                     }
 
-                    final long now = SystemClock.uptimeMillis();
                     if (now < nextBusyTimeoutTime) {
                         busyTimeoutMillis = now - nextBusyTimeoutTime;
                     } else {
@@ -947,13 +1056,46 @@ public final class SQLiteConnectionPool implements Closeable {
 
     private void setMaxConnectionPoolSizeLocked() {
         if ((mConfiguration.openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0) {
-            mMaxConnectionPoolSize = SQLiteGlobal.getWALConnectionPoolSize();
+            mConfiguredConnectionPoolSize = SQLiteGlobal.getWALConnectionPoolSize();
         } else {
             // TODO: We don't actually need to restrict the connection pool size to 1
             // for non-WAL databases.  There might be reasons to use connection pooling
             // with other journal modes.  For now, enabling connection pooling and
             // using WAL are the same thing in the API.
-            mMaxConnectionPoolSize = 1;
+            mConfiguredConnectionPoolSize = 1;
+        }
+        mMaxConnectionPoolSize = mConfiguredConnectionPoolSize;
+    }
+
+    SQLiteConnectionPoolStats getStats() {
+        return mStats;
+    }
+
+    @VisibleForTesting
+    int getMaxConnectionPoolSize() {
+        synchronized (mLock) {
+            return mMaxConnectionPoolSize;
+        }
+    }
+
+    @VisibleForTesting
+    int getConfiguredConnectionPoolSize() {
+        synchronized (mLock) {
+            return mConfiguredConnectionPoolSize;
+        }
+    }
+
+    @VisibleForTesting
+    void setIdleConnectionTimeout(long timeoutMillis) {
+        synchronized (mLock) {
+            mIdleConnectionTimeoutMillis = timeoutMillis;
+        }
+    }
+
+    @VisibleForTesting
+    Handler getIdleConnectionHandler() {
+        synchronized (mLock) {
+            return mIdleConnectionHandler;
         }
     }
 
@@ -1003,7 +1145,8 @@ public final class SQLiteConnectionPool implements Closeable {
         synchronized (mLock) {
             printer.println("Connection pool for " + mConfiguration.path + ":");
             printer.println("  Open: " + mIsOpen);
-            printer.println("  Max connections: " + mMaxConnectionPoolSize);
+            printer.println("  Max connections: " + mMaxConnectionPoolSize
+                    + " (configured " + mConfiguredConnectionPoolSize + ")");
 
             printer.println("  Available primary connection:");
             if (mAvailablePrimaryConnection != null) {
@@ -1049,6 +1192,22 @@ public final class SQLiteConnectionPool implements Closeable {
             } else {
                 indentedPrinter.println("<none>");
             }
+
+            long cacheHitCount = 0;
+            long cacheMissCount = 0;
+            if (mAvailablePrimaryConnection != null) {
+                cacheHitCount += mAvailablePrimaryConnection.getPreparedStatementCacheHitCount();
+                cacheMissCount += mAvailablePrimaryConnection.getPreparedStatementCacheMissCount();
+            }
+            for (SQLiteConnection connection : mAvailableNonPrimaryConnections) {
+                cacheHitCount += connection.getPreparedStatementCacheHitCount();
+                cacheMissCount += connection.getPreparedStatementCacheMissCount();
+            }
+            for (SQLiteConnection connection : mAcquiredConnections.keySet()) {
+                cacheHitCount += connection.getPreparedStatementCacheHitCount();
+                cacheMissCount += connection.getPreparedStatementCacheMissCount();
+            }
+            mStats.dump(printer, cacheHitCount, cacheMissCount);
         }
     }
 
@@ -1057,6 +1216,26 @@ public final class SQLiteConnectionPool implements Closeable {
         return "SQLiteConnectionPool: " + mConfiguration.path;
     }
 
+    /**
+     * Periodically closes the non-primary connections the pool grew by once they have stayed
+     * available for a while, for as long as the pool is larger than its configured size.
+     */
+    private final class IdleConnectionHandler extends Handler {
+        IdleConnectionHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            synchronized (mLock) {
+                if (this != mIdleConnectionHandler || !mIsOpen) {
+                    return;
+                }
+                closeIdleConnectionsLocked();
+            }
+        }
+    }
+
     private static final class ConnectionWaiter {
         public ConnectionWaiter mNext;
         public Thread mThread;
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.util.Printer;
+
+/**
+ * Statistics about the use of a connection pool since it was opened: how long sessions waited
+ * for a connection, how often the connections found a prepared statement in their cache,
+ * how the pool was resized, and the recent slow operations.
+ * <p>
+ * The statistics are updated by the pool and by its connections, from any thread, and are
+ * printed by dumpsys dbinfo.
+ * </p>
+ *
+ * @hide
+ */
+final class SQLiteConnectionPoolStats {
+    /**
+     * Operations that take at least this long are kept in the slow operation log.
+     */
+    static final long SLOW_OPERATION_MILLIS = 100;
+
+    private static final int MAX_SLOW_OPERATIONS = 10;
+
+    // Exclusive upper bounds of the buckets of the wait time histogram, in milliseconds.
+    // The first bucket counts the acquisitions that did not wait, the last one the waits
+    // longer than the last bound.
+    private static final long[] WAIT_BUCKET_MILLIS = { 1, 4, 16, 64, 256, 1024 };
+
+    private final long[] mWaitCounts = new long[WAIT_BUCKET_MILLIS.length + 2];
+    private long mAcquireCount;
+    private long mWaitCount;
+    private long mTotalWaitMillis;
+    private long mMaxWaitMillis;
+
+    // Prepared statement cache counts of the connections that were closed.
+    private long mClosedCacheHitCount;
+    private long mClosedCacheMissCount;
+
+    private int mGrowCount;
+    private int mIdleCloseCount;
+
+    private final String[] mSlowOperations = new String[MAX_SLOW_OPERATIONS];
+    private int mSlowOperationIndex;
+
+    synchronized void onConnectionAcquired(boolean waited, long waitMillis) {
+        mAcquireCount++;
+        if (!waited) {
+            mWaitCounts[0]++;
+            return;
+        }
+        mWaitCount++;
+        mTotalWaitMillis += waitMillis;
+        mMaxWaitMillis = Math.max(mMaxWaitMillis, waitMillis);
+        int bucket = 0;
+        while (bucket < WAIT_BUCKET_MILLIS.length && waitMillis >= WAIT_BUCKET_MILLIS[bucket]) {
+            bucket++;
+        }
+        mWaitCounts[bucket + 1]++;
+    }
+
+    synchronized void onConnectionClosed(SQLiteConnection connection) {
+        mClosedCacheHitCount += connection.getPreparedStatementCacheHitCount();
+        mClosedCacheMissCount += connection.getPreparedStatementCacheMissCount();
+    }
+
+    synchronized void onPoolGrown() {
+        mGrowCount++;
+    }
+
+    synchronized void onIdleConnectionClosed() {
+        mIdleCloseCount++;
+    }
+
+    synchronized void onSlowOperation(String description) {
+        mSlowOperations[mSlowOperationIndex] = description;
+        mSlowOperationIndex = (mSlowOperationIndex + 1) % MAX_SLOW_OPERATIONS;
+    }
+
+    synchronized long getAcquireCount() {
+        return mAcquireCount;
+    }
+
+    synchronized long getWaitCount() {
+        return mWaitCount;
+    }
+
+    synchronized int getGrowCount() {
+        return mGrowCount;
+    }
+
+    synchronized int getIdleCloseCount() {
+        return mIdleCloseCount;
+    }
+
+    /**
+     * Dumps the statistics.
+     *
+     * @param printer The printer to receive the dump, not null.
+     * @param openCacheHitCount The prepared statement cache hits of the open connections.
+     * @param openCacheMissCount The prepared statement cache misses of the open connections.
+     */
+    synchronized void dump(Printer printer, long openCacheHitCount, long openCacheMissCount) {
+        printer.println("  Statistics:");
+        printer.println("    Connections acquired: " + mAcquireCount + ", after waiting: "
+                + mWaitCount + " (total " + mTotalWaitMillis + " ms, max "
+                + mMaxWaitMillis + " ms)");
+
+        StringBuilder msg = new StringBuilder("    Wait times: none=").append(mWaitCounts[0]);
+        for (int i = 0; i < WAIT_BUCKET_MILLIS.length; i++) {
+            msg.append(" <").append(WAIT_BUCKET_MILLIS[i]).append("ms=")
+                    .append(mWaitCounts[i + 1]);
+        }
+        msg.append(" >=").append(WAIT_BUCKET_MILLIS[WAIT_BUCKET_MILLIS.length - 1])
+                .append("ms=").append(mWaitCounts[mWaitCounts.length - 1]);
+        printer.println(msg.toString());
+
+        final long hits = mClosedCacheHitCount + openCacheHitCount;
+        final long lookups = hits + mClosedCacheMissCount + openCacheMissCount;
+        printer.println("    Prepared statement cache: " + hits + " hits in " + lookups
+                + " lookups" + (lookups > 0 ? " (" + (hits * 100 / lookups) + "%)" : ""));
+        printer.println("    Pool grown: " + mGrowCount + " times, idle connections closed: "
+                + mIdleCloseCount);
+
+        printer.println("    Slow operations (>= " + SLOW_OPERATION_MILLIS + " ms):");
+        int index = mSlowOperationIndex;
+        int n = 0;
+        for (int i = 0; i < MAX_SLOW_OPERATIONS; i++) {
+            index = (index + MAX_SLOW_OPERATIONS - 1) % MAX_SLOW_OPERATIONS;
+            final String operation = mSlowOperations[index];
+            if (operation == null) {
+                break;
+            }
+            printer.println("      " + n++ + ": " + operation);
+        }
+        if (n == 0) {
+            printer.println("      <none>");
+        }
+    }
+}
@@ -160,6 +160,18 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         }
     }
 
+    /**
+     * Reads the rows starting at the given position from the query straight into the window,
+     * rather than copying them one by one out of this cursor's own window.
+     */
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        if (position < 0 || position >= getCount()) {
+            return;
+        }
+        mQuery.fillWindow(window, position, position, false);
+    }
+
     @Override
     public int getColumnIndex(String columnName) {
         // Create mColumnNameMap on demand
@@ -26,6 +26,7 @@ import android.database.DefaultDatabaseErrorHandler;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDebug.DbStats;
 import android.os.CancellationSignal;
+import android.os.Handler;
 import android.os.Looper;
 import android.os.OperationCanceledException;
 import android.text.TextUtils;
@@ -44,6 +45,13 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Exposes methods to manage a SQLite database.
@@ -71,6 +79,9 @@ public final class SQLiteDatabase extends SQLiteClosable {
 
     private static final int EVENT_DB_CORRUPT = 75004;
 
+    // How long the thread that executes async batches stays around once it is idle.
+    private static final long BATCH_THREAD_KEEP_ALIVE_SECONDS = 10;
+
     // Stores reference to all databases opened in the current process.
     // (The referent Object is not used at this time.)
     // INVARIANT: Guarded by sActiveDatabases.
@@ -129,6 +140,11 @@ public final class SQLiteDatabase extends SQLiteClosable {
     // INVARIANT: Guarded by mLock.
     private boolean mHasAttachedDbsLocked;
 
+    // Runs the batches submitted to executeBatchAsync() one at a time, created on demand.
+    // Its queue is unbounded, so it never rejects a batch.
+    // INVARIANT: Guarded by mLock.
+    private ThreadPoolExecutor mBatchExecutorLocked;
+
     /**
      * When a constraint violation occurs, an immediate ROLLBACK occurs,
      * thus ending the current transaction, and the command aborts with a
@@ -1685,6 +1701,116 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    /**
+     * Executes a batch of statements in order, in a single transaction.
+     * <p>
+     * If any statement fails, or the operation is canceled, the transaction is rolled back and
+     * none of the statements of the batch take effect. If the calling thread already has a
+     * transaction in progress, the batch is executed in a nested transaction.
+     * </p>
+     *
+     * @param batch The statements to execute, not null.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * The signal is checked before each statement is executed.
+     * @return The result of each statement of the batch, see {@link SQLiteStatementBatch}.
+     * @throws SQLException if a statement fails.
+     * @throws OperationCanceledException if the operation was canceled.
+     * @hide
+     */
+    public long[] executeBatch(@NonNull SQLiteStatementBatch batch,
+            @Nullable CancellationSignal cancellationSignal) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch must not be null.");
+        }
+
+        acquireReference();
+        try {
+            final SQLiteSession session = getThreadSession();
+            final int connectionFlags = getThreadDefaultConnectionFlags(false /*readOnly*/);
+            session.beginTransaction(SQLiteSession.TRANSACTION_MODE_IMMEDIATE, null,
+                    connectionFlags, cancellationSignal);
+            try {
+                final int count = batch.size();
+                final long[] results = new long[count];
+                for (int i = 0; i < count; i++) {
+                    if (cancellationSignal != null) {
+                        cancellationSignal.throwIfCanceled();
+                    }
+                    final String sql = batch.getSql(i);
+                    final Object[] bindArgs = batch.getBindArgs(i);
+                    if (batch.isInsert(i)) {
+                        results[i] = session.executeForLastInsertedRowId(sql, bindArgs,
+                                connectionFlags, cancellationSignal);
+                    } else {
+                        results[i] = session.executeForChangedRowCount(sql, bindArgs,
+                                connectionFlags, cancellationSignal);
+                    }
+                }
+                session.setTransactionSuccessful();
+                return results;
+            } finally {
+                // Never pass the signal here, the transaction must end even when canceled.
+                session.endTransaction(null);
+            }
+        } catch (SQLiteDatabaseCorruptException ex) {
+            onCorruption();
+            throw ex;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Executes a batch of statements in a single transaction on a background thread.
+     * <p>
+     * The batches submitted to a database are executed one at a time, in the order they were
+     * submitted, on a thread of the database that exits once it is idle. Callers should not
+     * modify a batch until it has completed.
+     * </p><p>
+     * Canceling the returned future cancels the cancellation signal. A batch that has not
+     * started yet is canceled and never executed; the callback is told it failed with an
+     * {@link OperationCanceledException}. A batch that is being executed can't be canceled
+     * that way: {@link Future#cancel} returns false and the future completes with the actual
+     * outcome of the batch, which is rolled back with an {@link OperationCanceledException}
+     * unless it was already committed.
+     * </p>
+     *
+     * @param batch The statements to execute, not null.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null to
+     * create one.
+     * @param callback The callback to notify when the batch completes, or null if none.
+     * @param handler The handler on which to call the callback, or null to call it on the
+     * thread that executed the batch.
+     * @return A future for the result of each statement of the batch, see
+     * {@link SQLiteStatementBatch}.
+     * @hide
+     */
+    public Future<long[]> executeBatchAsync(@NonNull SQLiteStatementBatch batch,
+            @Nullable CancellationSignal cancellationSignal, @Nullable BatchCallback callback,
+            @Nullable Handler handler) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch must not be null.");
+        }
+
+        final BatchTask task = new BatchTask(batch,
+                cancellationSignal != null ? cancellationSignal : new CancellationSignal(),
+                callback, handler);
+        final ThreadPoolExecutor executor;
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+            if (mBatchExecutorLocked == null) {
+                final String threadName = "SQLiteBatch: " + mConfigurationLocked.label;
+                mBatchExecutorLocked = new ThreadPoolExecutor(1, 1,
+                        BATCH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), r -> new Thread(r, threadName));
+                mBatchExecutorLocked.allowCoreThreadTimeOut(true);
+            }
+            executor = mBatchExecutorLocked;
+        }
+        executor.execute(task);
+        return task;
+    }
+
     /**
      * Verifies that a SQL SELECT statement is valid by compiling it.
      * If the SQL statement is not valid, this method will throw a {@link SQLiteException}.
@@ -2201,6 +2327,113 @@ public final class SQLiteDatabase extends SQLiteClosable {
                 SQLiteQuery query);
     }
 
+    /**
+     * Receives the outcome of {@link #executeBatchAsync}.
+     * @hide
+     */
+    public interface BatchCallback {
+        /**
+         * Called when the batch has been committed.
+         *
+         * @param results The result of each statement of the batch.
+         */
+        void onBatchExecuted(long[] results);
+
+        /**
+         * Called when the batch has been rolled back, or was canceled before it was executed.
+         *
+         * @param error The cause of the failure, an {@link OperationCanceledException} if the
+         * batch was canceled.
+         */
+        void onBatchFailed(RuntimeException error);
+    }
+
+    /**
+     * Executes a batch and notifies its callback once it completes.
+     */
+    private final class BatchTask extends FutureTask<long[]> {
+        private final CancellationSignal mCancellationSignal;
+        private final BatchCallback mCallback;
+        private final Handler mHandler;
+
+        // True once the executor started running the task, after which only the batch itself
+        // completes the future. Guarded by this.
+        private boolean mStarted;
+
+        BatchTask(final SQLiteStatementBatch batch, final CancellationSignal cancellationSignal,
+                BatchCallback callback, Handler handler) {
+            super(() -> executeBatch(batch, cancellationSignal));
+            mCancellationSignal = cancellationSignal;
+            mCallback = callback;
+            mHandler = handler;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                mStarted = true;
+            }
+            if (isCancelled()) {
+                // Canceled before it started, notify from the executor like any other outcome.
+                dispatchCallback();
+                return;
+            }
+            super.run();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            mCancellationSignal.cancel();
+            synchronized (this) {
+                if (mStarted) {
+                    // The batch stops at its next statement, and sets the future to its outcome.
+                    return false;
+                }
+                return super.cancel(false);
+            }
+        }
+
+        @Override
+        protected void done() {
+            // A canceled task is reported when the executor gets to it, see run().
+            if (!isCancelled()) {
+                dispatchCallback();
+            }
+        }
+
+        private void dispatchCallback() {
+            if (mCallback == null) {
+                return;
+            }
+            if (mHandler != null) {
+                mHandler.post(this::notifyCallback);
+            } else {
+                notifyCallback();
+            }
+        }
+
+        private void notifyCallback() {
+            final long[] results;
+            try {
+                results = get();
+            } catch (CancellationException ex) {
+                mCallback.onBatchFailed(new OperationCanceledException());
+                return;
+            } catch (ExecutionException ex) {
+                final Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    mCallback.onBatchFailed((RuntimeException) cause);
+                    return;
+                }
+                throw new RuntimeException(cause);
+            } catch (InterruptedException ex) {
+                // Can't happen, the task is done.
+                throw new RuntimeException(ex);
+            }
+            mCallback.onBatchExecuted(results);
+        }
+    }
+
     /**
      * A callback interface for a custom sqlite3 function.
      * This can be used to create a function that can be called from
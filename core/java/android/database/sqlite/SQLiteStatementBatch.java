@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.database.DatabaseUtils;
+
+import java.util.ArrayList;
+
+/**
+ * A list of SQL statements that are executed in order, in a single transaction, by
+ * {@link SQLiteDatabase#executeBatch} or {@link SQLiteDatabase#executeBatchAsync}.
+ * <p>
+ * The result of each statement is the row id of the inserted row for an INSERT or REPLACE
+ * statement (-1 if no row was inserted), and the number of rows changed for any other
+ * statement.
+ * </p><p>
+ * Statements that begin or end a transaction and ATTACH statements cannot be part of a batch.
+ * A batch must not be modified while it is being executed.
+ * </p>
+ *
+ * @hide
+ */
+public final class SQLiteStatementBatch {
+    private final ArrayList<String> mSql = new ArrayList<>();
+    private final ArrayList<Object[]> mBindArgs = new ArrayList<>();
+    private final ArrayList<Boolean> mInserts = new ArrayList<>();
+
+    /**
+     * Adds a statement to the end of the batch.
+     *
+     * @param sql The SQL statement to execute, not null. Multiple statements separated by
+     * semicolons are not supported.
+     * @param bindArgs The arguments to bind to the statement, or null if none. Only byte[],
+     * String, Long and Double are supported.
+     * @return This batch.
+     */
+    public SQLiteStatementBatch add(String sql, Object... bindArgs) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+        switch (DatabaseUtils.getSqlStatementType(sql)) {
+            case DatabaseUtils.STATEMENT_BEGIN:
+            case DatabaseUtils.STATEMENT_COMMIT:
+            case DatabaseUtils.STATEMENT_ABORT:
+            case DatabaseUtils.STATEMENT_ATTACH:
+                throw new IllegalArgumentException("Statement not supported in a batch: " + sql);
+        }
+        mSql.add(sql);
+        mBindArgs.add(bindArgs);
+        mInserts.add(isInsert(sql));
+        return this;
+    }
+
+    /**
+     * Returns the number of statements in the batch.
+     */
+    public int size() {
+        return mSql.size();
+    }
+
+    /**
+     * Removes all the statements from the batch.
+     */
+    public void clear() {
+        mSql.clear();
+        mBindArgs.clear();
+        mInserts.clear();
+    }
+
+    String getSql(int index) {
+        return mSql.get(index);
+    }
+
+    Object[] getBindArgs(int index) {
+        return mBindArgs.get(index);
+    }
+
+    boolean isInsert(int index) {
+        return mInserts.get(index);
+    }
+
+    private static boolean isInsert(String sql) {
+        final String prefix = sql.trim();
+        return prefix.regionMatches(true, 0, "INSERT", 0, 6)
+                || prefix.regionMatches(true, 0, "REPLACE", 0, 7);
+    }
+}
@@ -27,6 +27,8 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.GrowingArrayUtils;
 
+import libcore.util.EmptyArray;
+
 import java.lang.ref.WeakReference;
 
 /**
@@ -196,10 +198,230 @@ public class DynamicLayout extends Layout
         }
     }
 
+    /**
+     * Changes the width the text is laid out to. Paragraphs that were broken into several lines,
+     * or whose single line no longer fits, are reflowed the next time they are queried. The other
+     * paragraphs keep their lines, which are not affected by the width.
+     *
+     * @hide
+     */
+    public void setWidth(int width) {
+        final int oldWidth = getWidth();
+        if (width == oldWidth) {
+            return;
+        }
+        // Measures the lines below on an up to date layout.
+        reflowPendingRanges();
+
+        final CharSequence text = mDisplay;
+        final int lineCount = getLineCount();
+        int[] starts = null;
+        int[] ends = null;
+        int count = 0;
+        if (mEllipsize) {
+            // Ellipsized lines are measured at the ellipsized width, not the layout's.
+            starts = new int[] { 0 };
+            ends = new int[] { text.length() };
+            count = 1;
+        } else {
+            int paragraphStartLine = 0;
+            for (int line = 0; line < lineCount; line++) {
+                final int end = getLineStart(line + 1);
+                if (line + 1 < lineCount && text.charAt(end - 1) != '\n') {
+                    // The paragraph goes on.
+                    continue;
+                }
+                if (line > paragraphStartLine || (width < oldWidth && getLineMax(line) > width)) {
+                    if (starts == null) {
+                        starts = ArrayUtils.newUnpaddedIntArray(16);
+                        ends = ArrayUtils.newUnpaddedIntArray(16);
+                    }
+                    starts = GrowingArrayUtils.append(starts, count,
+                            getLineStart(paragraphStartLine));
+                    ends = GrowingArrayUtils.append(ends, count, end);
+                    count++;
+                }
+                paragraphStartLine = line + 1;
+            }
+        }
+
+        replaceWith(getText(), getPaint(), width, getAlignment(), getSpacingMultiplier(),
+                getSpacingAdd());
+        if (!mEllipsize) {
+            mEllipsizedWidth = width;
+        }
+        for (int i = 0; i < count; i++) {
+            addPendingReflow(starts[i], ends[i]);
+        }
+    }
+
+    /**
+     * Reflows the text after the characters in [where, where + before) were replaced by
+     * after characters. Paragraphs still waiting to be reflowed because of span changes are
+     * reflowed along with this change if they overlap it, and moved along with the text otherwise.
+     */
+    private void reflowAfterTextChange(CharSequence s, int where, int before, int after) {
+        if (s != mBase)
+            return;
+
+        final int delta = after - before;
+        int kept = 0;
+        for (int i = 0; i < mPendingReflowCount; i++) {
+            int start = mPendingReflowStarts[i];
+            int end = mPendingReflowEnds[i];
+            if (start > where + before) {
+                start += delta;
+                end += delta;
+            } else if (end >= where) {
+                final int newWhere = Math.min(where, start);
+                final int oldEnd = Math.max(where + before, end);
+                before = oldEnd - newWhere;
+                after = oldEnd + delta - newWhere;
+                where = newWhere;
+                continue;
+            }
+            mPendingReflowStarts[kept] = start;
+            mPendingReflowEnds[kept] = end;
+            kept++;
+        }
+        mPendingReflowCount = kept;
+
+        reflow(s, where, before, after);
+    }
+
+    /**
+     * Records that the layout of the paragraphs covering [start, end) is stale because a span
+     * affecting it changed, without changing the text. They are reflowed the next time a line at
+     * or after them is queried, so that a run of span changes, or the old and new range of a
+     * moved span, only re-break each paragraph once.
+     */
+    private void invalidateRange(CharSequence s, int start, int end) {
+        if (s != mBase)
+            return;
+
+        addPendingReflow(start, end);
+    }
+
+    /**
+     * Adds the paragraphs covering [start, end) to the ones waiting to be reflowed. The pending
+     * ranges are kept sorted and disjoint, and each covers whole paragraphs, so that the
+     * paragraphs in between two of them keep their lines.
+     */
+    private void addPendingReflow(int start, int end) {
+        final CharSequence text = mDisplay;
+        final int len = text.length();
+        start = Math.min(start, len);
+        end = Math.max(start, Math.min(end, len));
+
+        final int find = TextUtils.lastIndexOf(text, '\n', start - 1);
+        start = find < 0 ? 0 : find + 1;
+        final int look = TextUtils.indexOf(text, '\n', end > start ? end - 1 : end);
+        end = look < 0 ? len : look + 1;
+
+        int first = 0;
+        while (first < mPendingReflowCount && mPendingReflowEnds[first] < start) {
+            first++;
+        }
+        int last = first;
+        while (last < mPendingReflowCount && mPendingReflowStarts[last] <= end) {
+            start = Math.min(start, mPendingReflowStarts[last]);
+            end = Math.max(end, mPendingReflowEnds[last]);
+            last++;
+        }
+        if (first == last) {
+            mPendingReflowStarts = GrowingArrayUtils.insert(mPendingReflowStarts,
+                    mPendingReflowCount, first, start);
+            mPendingReflowEnds = GrowingArrayUtils.insert(mPendingReflowEnds,
+                    mPendingReflowCount, first, end);
+            mPendingReflowCount++;
+        } else {
+            mPendingReflowStarts[first] = start;
+            mPendingReflowEnds[first] = end;
+            System.arraycopy(mPendingReflowStarts, last, mPendingReflowStarts, first + 1,
+                    mPendingReflowCount - last);
+            System.arraycopy(mPendingReflowEnds, last, mPendingReflowEnds, first + 1,
+                    mPendingReflowCount - last);
+            mPendingReflowCount -= last - first - 1;
+        }
+    }
+
+    /**
+     * Reflows all the pending paragraphs. Every method reading the line count, or state that
+     * depends on all the lines, like the block structure, must call this first.
+     */
+    private void reflowPendingRanges() {
+        reflowPendingRangesUpToOffset(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reflows the pending paragraphs starting at or before offset. The lines before the first
+     * pending paragraph are up to date, so off-screen paragraphs after the queried part of the
+     * text are left for later.
+     */
+    private void reflowPendingRangesUpToOffset(int offset) {
+        while (!mReflowing && mPendingReflowCount > 0 && mPendingReflowStarts[0] <= offset) {
+            reflowFirstPendingRange();
+        }
+    }
+
+    /** Reflows the pending paragraphs starting at or before line. */
+    private void reflowPendingRangesUpToLine(int line) {
+        while (!mReflowing && mPendingReflowCount > 0
+                && getLineForOffsetInternal(mPendingReflowStarts[0]) <= line) {
+            reflowFirstPendingRange();
+        }
+    }
+
+    /** Reflows the pending paragraphs starting at or above vertical. */
+    private void reflowPendingRangesUpToVertical(int vertical) {
+        while (!mReflowing && mPendingReflowCount > 0 && mInts.getValue(
+                getLineForOffsetInternal(mPendingReflowStarts[0]), TOP) <= vertical) {
+            reflowFirstPendingRange();
+        }
+    }
+
+    private void reflowFirstPendingRange() {
+        final int start = mPendingReflowStarts[0];
+        int end = mPendingReflowEnds[0];
+        mPendingReflowCount--;
+        System.arraycopy(mPendingReflowStarts, 1, mPendingReflowStarts, 0, mPendingReflowCount);
+        System.arraycopy(mPendingReflowEnds, 1, mPendingReflowEnds, 0, mPendingReflowCount);
+
+        // reflow() extends the range to the end of the paragraph containing its end, so stop
+        // before the last newline rather than reflowing the paragraph after it too.
+        if (end > start && mDisplay.charAt(end - 1) == '\n') {
+            end--;
+        }
+        reflow(mBase, start, end - start, end - start);
+    }
+
+    /**
+     * Same as {@link Layout#getLineForOffset}, on the lines as they are, without reflowing
+     * pending paragraphs.
+     */
+    private int getLineForOffsetInternal(int offset) {
+        int high = mInts.size() - 1, low = -1, guess;
+
+        while (high - low > 1) {
+            guess = (high + low) / 2;
+
+            if ((mInts.getValue(guess, START) & START_MASK) > offset)
+                high = guess;
+            else
+                low = guess;
+        }
+
+        return low < 0 ? 0 : low;
+    }
+
     private void reflow(CharSequence s, int where, int before, int after) {
         if (s != mBase)
             return;
 
+        // The layout queries below see the lines as they are: the pending paragraphs they may
+        // touch are either part of this range or not affected by it.
+        mReflowing = true;
+
         CharSequence text = mDisplay;
         int len = text.length();
 
@@ -389,6 +611,8 @@ public class DynamicLayout extends Layout
             sStaticLayout = reflowed;
             sBuilder = b;
         }
+
+        mReflowing = false;
     }
 
     private boolean contentMayProtrudeFromLineTopOrBottom(CharSequence text, int start, int end) {
@@ -437,6 +661,7 @@ public class DynamicLayout extends Layout
      * @hide
      */
     public ArraySet<Integer> getBlocksAlwaysNeedToBeRedrawn() {
+        reflowPendingRanges();
         return mBlocksAlwaysNeedToBeRedrawn;
     }
 
@@ -629,6 +854,7 @@ public class DynamicLayout extends Layout
      * @hide
      */
     public int[] getBlockEndLines() {
+        reflowPendingRanges();
         return mBlockEndLines;
     }
 
@@ -636,6 +862,7 @@ public class DynamicLayout extends Layout
      * @hide
      */
     public int[] getBlockIndices() {
+        reflowPendingRanges();
         return mBlockIndices;
     }
 
@@ -643,6 +870,7 @@ public class DynamicLayout extends Layout
      * @hide
      */
     public int getBlockIndex(int index) {
+        reflowPendingRanges();
         return mBlockIndices[index];
     }
 
@@ -651,6 +879,7 @@ public class DynamicLayout extends Layout
      * @param index
      */
     public void setBlockIndex(int index, int blockIndex) {
+        reflowPendingRanges();
         mBlockIndices[index] = blockIndex;
     }
 
@@ -658,6 +887,7 @@ public class DynamicLayout extends Layout
      * @hide
      */
     public int getNumberOfBlocks() {
+        reflowPendingRanges();
         return mNumberOfBlocks;
     }
 
@@ -665,6 +895,7 @@ public class DynamicLayout extends Layout
      * @hide
      */
     public int getIndexFirstChangedBlock() {
+        reflowPendingRanges();
         return mIndexFirstChangedBlock;
     }
 
@@ -672,51 +903,85 @@ public class DynamicLayout extends Layout
      * @hide
      */
     public void setIndexFirstChangedBlock(int i) {
+        reflowPendingRanges();
         mIndexFirstChangedBlock = i;
     }
 
+    @Override
+    public int getLineForOffset(int offset) {
+        reflowPendingRangesUpToOffset(offset);
+        return getLineForOffsetInternal(offset);
+    }
+
+    @Override
+    public int getLineForVertical(int vertical) {
+        reflowPendingRangesUpToVertical(vertical);
+
+        int high = mInts.size() - 1, low = -1, guess;
+
+        while (high - low > 1) {
+            guess = (high + low) / 2;
+
+            if (mInts.getValue(guess, TOP) > vertical)
+                high = guess;
+            else
+                low = guess;
+        }
+
+        return low < 0 ? 0 : low;
+    }
+
     @Override
     public int getLineCount() {
+        reflowPendingRanges();
         return mInts.size() - 1;
     }
 
     @Override
     public int getLineTop(int line) {
+        reflowPendingRangesUpToLine(line);
         return mInts.getValue(line, TOP);
     }
 
     @Override
     public int getLineDescent(int line) {
+        reflowPendingRangesUpToLine(line);
         return mInts.getValue(line, DESCENT);
     }
 
     @Override
     public int getLineStart(int line) {
+        reflowPendingRangesUpToLine(line);
         return mInts.getValue(line, START) & START_MASK;
     }
 
     @Override
     public boolean getLineContainsTab(int line) {
+        reflowPendingRangesUpToLine(line);
         return (mInts.getValue(line, TAB) & TAB_MASK) != 0;
     }
 
     @Override
     public int getParagraphDirection(int line) {
+        reflowPendingRangesUpToLine(line);
         return mInts.getValue(line, DIR) >> DIR_SHIFT;
     }
 
     @Override
     public final Directions getLineDirections(int line) {
+        reflowPendingRangesUpToLine(line);
         return mObjects.getValue(line, 0);
     }
 
     @Override
     public int getTopPadding() {
+        reflowPendingRangesUpToLine(0);
         return mTopPadding;
     }
 
     @Override
     public int getBottomPadding() {
+        reflowPendingRanges();
         return mBottomPadding;
     }
 
@@ -725,6 +990,7 @@ public class DynamicLayout extends Layout
      */
     @Override
     public int getHyphen(int line) {
+        reflowPendingRangesUpToLine(line);
         return mInts.getValue(line, HYPHEN) & HYPHEN_MASK;
     }
 
@@ -747,7 +1013,16 @@ public class DynamicLayout extends Layout
             DynamicLayout ml = mLayout.get();
 
             if (ml != null)
-                ml.reflow(s, where, before, after);
+                ml.reflowAfterTextChange(s, where, before, after);
+            else if (s instanceof Spannable)
+                ((Spannable) s).removeSpan(this);
+        }
+
+        private void invalidate(CharSequence s, int start, int end) {
+            DynamicLayout ml = mLayout.get();
+
+            if (ml != null)
+                ml.invalidateRange(s, start, end);
             else if (s instanceof Spannable)
                 ((Spannable) s).removeSpan(this);
         }
@@ -766,18 +1041,18 @@ public class DynamicLayout extends Layout
 
         public void onSpanAdded(Spannable s, Object o, int start, int end) {
             if (o instanceof UpdateLayout)
-                reflow(s, start, end - start, end - start);
+                invalidate(s, start, end);
         }
 
         public void onSpanRemoved(Spannable s, Object o, int start, int end) {
             if (o instanceof UpdateLayout)
-                reflow(s, start, end - start, end - start);
+                invalidate(s, start, end);
         }
 
         public void onSpanChanged(Spannable s, Object o, int start, int end, int nstart, int nend) {
             if (o instanceof UpdateLayout) {
-                reflow(s, start, end - start, end - start);
-                reflow(s, nstart, nend - nstart, nend - nstart);
+                invalidate(s, start, end);
+                invalidate(s, nstart, nend);
             }
         }
 
@@ -786,6 +1061,7 @@ public class DynamicLayout extends Layout
 
     @Override
     public int getEllipsisStart(int line) {
+        reflowPendingRangesUpToLine(line);
         if (mEllipsizeAt == null) {
             return 0;
         }
@@ -795,6 +1071,7 @@ public class DynamicLayout extends Layout
 
     @Override
     public int getEllipsisCount(int line) {
+        reflowPendingRangesUpToLine(line);
         if (mEllipsizeAt == null) {
             return 0;
         }
@@ -834,6 +1111,14 @@ public class DynamicLayout extends Layout
     // The first index of the blocks whose locations are changed
     private int mIndexFirstChangedBlock;
 
+    // Sorted, disjoint ranges of whole paragraphs whose lines are stale, because of span or width
+    // changes, and that have not been reflowed yet.
+    private int[] mPendingReflowStarts = EmptyArray.INT;
+    private int[] mPendingReflowEnds = EmptyArray.INT;
+    private int mPendingReflowCount;
+    // Set while reflow() runs, so that its layout queries don't reflow pending paragraphs.
+    private boolean mReflowing;
+
     private int mTopPadding, mBottomPadding;
 
     private Rect mTempRect = new Rect();
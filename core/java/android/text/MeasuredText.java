@@ -45,18 +45,18 @@ class MeasuredText {
         mWorkPaint = new TextPaint();
     }
 
-    private static final Object[] sLock = new Object[0];
-    private static final MeasuredText[] sCached = new MeasuredText[3];
+    // Pooled per thread, like TextLine, so background layouts don't contend with the UI thread.
+    private static final ThreadLocal<MeasuredText[]> sCached =
+            ThreadLocal.withInitial(() -> new MeasuredText[3]);
 
     static MeasuredText obtain() {
         MeasuredText mt;
-        synchronized (sLock) {
-            for (int i = sCached.length; --i >= 0;) {
-                if (sCached[i] != null) {
-                    mt = sCached[i];
-                    sCached[i] = null;
-                    return mt;
-                }
+        final MeasuredText[] cached = sCached.get();
+        for (int i = cached.length; --i >= 0;) {
+            if (cached[i] != null) {
+                mt = cached[i];
+                cached[i] = null;
+                return mt;
             }
         }
         mt = new MeasuredText();
@@ -68,13 +68,12 @@ class MeasuredText {
 
     static MeasuredText recycle(MeasuredText mt) {
         mt.finish();
-        synchronized(sLock) {
-            for (int i = 0; i < sCached.length; ++i) {
-                if (sCached[i] == null) {
-                    sCached[i] = mt;
-                    mt.mText = null;
-                    break;
-                }
+        final MeasuredText[] cached = sCached.get();
+        for (int i = 0; i < cached.length; ++i) {
+            if (cached[i] == null) {
+                cached[i] = mt;
+                mt.mText = null;
+                break;
             }
         }
         return null;
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.text.Layout.Alignment;
+import android.text.TextUtils.TruncateAt;
+
+import java.util.Objects;
+
+/**
+ * A {@link StaticLayout} computed ahead of time, so that the expensive shaping and line
+ * breaking of long text can happen on a background thread instead of on the thread that
+ * measures the view.
+ * <p>
+ * Take a {@link Params} snapshot of the view's text attributes on the UI thread, call
+ * {@link #create} on any thread, and hand the result back to the view on the UI thread. The
+ * view only uses the precomputed layout if the text, width and attributes it would have laid
+ * out with still match; otherwise it lays the text out itself as usual.
+ * <p>
+ * The layout is not copied when it is attached, so it belongs to the first view that uses it.
+ * Any other view given the same instance lays the text out itself.
+ *
+ * @hide
+ */
+public final class PrecomputedLayout {
+
+    /**
+     * The attributes a text is laid out with, other than the text and the width.
+     */
+    public static final class Params {
+        private final TextPaint mPaint;
+        private final Alignment mAlignment;
+        private final TextDirectionHeuristic mTextDir;
+        private final float mSpacingMult;
+        private final float mSpacingAdd;
+        private final boolean mIncludePad;
+        private final int mBreakStrategy;
+        private final int mHyphenationFrequency;
+        private final int mJustificationMode;
+        private final int mMaxLines;
+        private final TruncateAt mEllipsize;
+
+        /**
+         * @param paint the paint to measure with, copied so it can be used on another thread
+         */
+        public Params(@NonNull TextPaint paint, @NonNull Alignment alignment,
+                @NonNull TextDirectionHeuristic textDir, float spacingMult, float spacingAdd,
+                boolean includePad, int breakStrategy, int hyphenationFrequency,
+                int justificationMode, int maxLines, @Nullable TruncateAt ellipsize) {
+            mPaint = new TextPaint(paint);
+            mAlignment = alignment;
+            mTextDir = textDir;
+            mSpacingMult = spacingMult;
+            mSpacingAdd = spacingAdd;
+            mIncludePad = includePad;
+            mBreakStrategy = breakStrategy;
+            mHyphenationFrequency = hyphenationFrequency;
+            mJustificationMode = justificationMode;
+            mMaxLines = maxLines;
+            mEllipsize = ellipsize;
+        }
+    }
+
+    private final CharSequence mText;
+    private final int mWidth;
+    private final Params mParams;
+    private final StaticLayout mLayout;
+
+    // The paint of the view the layout was handed to, which it now draws with.
+    private TextPaint mOwnerPaint;
+
+    private PrecomputedLayout(CharSequence text, int width, Params params, StaticLayout layout) {
+        mText = text;
+        mWidth = width;
+        mParams = params;
+        mLayout = layout;
+    }
+
+    /**
+     * Lays out the text. This may be called on any thread.
+     *
+     * @param text the text, which must not be modified afterwards
+     * @param params the attributes to lay the text out with
+     * @param width the width available to the text, which is also its ellipsized width
+     */
+    public static PrecomputedLayout create(@NonNull CharSequence text, @NonNull Params params,
+            int width) {
+        // Each layout gets its own paint, as Layout changes it while drawing.
+        final StaticLayout.Builder builder = StaticLayout.Builder.obtain(text, 0, text.length(),
+                new TextPaint(params.mPaint), width)
+                .setAlignment(params.mAlignment)
+                .setTextDirection(params.mTextDir)
+                .setLineSpacing(params.mSpacingAdd, params.mSpacingMult)
+                .setIncludePad(params.mIncludePad)
+                .setBreakStrategy(params.mBreakStrategy)
+                .setHyphenationFrequency(params.mHyphenationFrequency)
+                .setJustificationMode(params.mJustificationMode)
+                .setMaxLines(params.mMaxLines);
+        if (params.mEllipsize != null) {
+            builder.setEllipsize(params.mEllipsize).setEllipsizedWidth(width);
+        }
+        return new PrecomputedLayout(text, width, params, builder.build());
+    }
+
+    public @NonNull CharSequence getText() {
+        return mText;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the layout, drawing with the given paint from now on, if it is what laying out
+     * the text with these arguments would produce, or null otherwise. Once the layout has been
+     * returned, it is only returned again for the same paint, i.e. to the same view.
+     */
+    public @Nullable StaticLayout getLayoutIfMatches(@NonNull CharSequence text,
+            @NonNull TextPaint paint, int width, @NonNull Alignment alignment,
+            @NonNull TextDirectionHeuristic textDir, float spacingMult, float spacingAdd,
+            boolean includePad, int breakStrategy, int hyphenationFrequency,
+            int justificationMode, int maxLines, @Nullable TruncateAt ellipsize,
+            int ellipsizedWidth) {
+        final Params p = mParams;
+        if (text != mText || width != mWidth || alignment != p.mAlignment
+                || textDir != p.mTextDir || spacingMult != p.mSpacingMult
+                || spacingAdd != p.mSpacingAdd || includePad != p.mIncludePad
+                || breakStrategy != p.mBreakStrategy
+                || hyphenationFrequency != p.mHyphenationFrequency
+                || justificationMode != p.mJustificationMode || maxLines != p.mMaxLines
+                || ellipsize != p.mEllipsize
+                || (ellipsize != null && ellipsizedWidth != mWidth)
+                || !hasSameMetrics(paint, p.mPaint)) {
+            return null;
+        }
+        if (mOwnerPaint != paint) {
+            if (mOwnerPaint != null) {
+                // Already drawing for another view, which may still be showing it.
+                return null;
+            }
+            mOwnerPaint = paint;
+            mLayout.replaceWith(mText, paint, mWidth, mLayout.getAlignment(),
+                    mLayout.getSpacingMultiplier(), mLayout.getSpacingAdd());
+        }
+        return mLayout;
+    }
+
+    /**
+     * Returns whether text measures the same with both paints.
+     */
+    private static boolean hasSameMetrics(TextPaint a, TextPaint b) {
+        return a.getTextSize() == b.getTextSize()
+                && a.getTextScaleX() == b.getTextScaleX()
+                && a.getTextSkewX() == b.getTextSkewX()
+                && a.getLetterSpacing() == b.getLetterSpacing()
+                && a.getFlags() == b.getFlags()
+                && a.getHinting() == b.getHinting()
+                && a.getTypeface() == b.getTypeface()
+                && Objects.equals(a.getTextLocales(), b.getTextLocales())
+                && Objects.equals(a.getFontFeatureSettings(), b.getFontFeatureSettings())
+                && Objects.equals(a.getFontVariationSettings(), b.getFontVariationSettings());
+    }
+}
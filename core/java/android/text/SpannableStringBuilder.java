@@ -594,6 +594,14 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     }
 
     private void sendToSpanWatchers(int replaceStart, int replaceEnd, int nbNewChars) {
+        // Every span after the change moved, so look the watchers up once instead of once for
+        // each of them. There are usually only a few, covering the whole text. A callback may
+        // add spans though, and a watcher added that way must see the rest of the edit, so look
+        // them up again whenever spans were added since.
+        SpanWatcher[] watchers = getSpans(0, length(), SpanWatcher.class);
+        int watchersSpanCount = mSpanCount;
+        int watchersInsertCount = mSpanInsertCount;
+
         for (int i = 0; i < mSpanCount; i++) {
             int spanFlags = mSpanFlags[i];
 
@@ -644,7 +652,13 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
             }
 
             if (spanChanged) {
-                sendSpanChanged(mSpans[i], previousSpanStart, previousSpanEnd, spanStart, spanEnd);
+                if (mSpanCount != watchersSpanCount || mSpanInsertCount != watchersInsertCount) {
+                    watchers = getSpans(0, length(), SpanWatcher.class);
+                    watchersSpanCount = mSpanCount;
+                    watchersInsertCount = mSpanInsertCount;
+                }
+                sendSpanChanged(watchers, mSpans[i], previousSpanStart, previousSpanEnd,
+                        spanStart, spanEnd);
             }
             mSpanFlags[i] &= ~SPAN_START_END_MASK;
         }
@@ -658,7 +672,12 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
                 int spanEnd = mSpanEnds[i];
                 if (spanStart > mGapStart) spanStart -= mGapLength;
                 if (spanEnd > mGapStart) spanEnd -= mGapLength;
-                sendSpanAdded(mSpans[i], spanStart, spanEnd);
+                if (mSpanCount != watchersSpanCount || mSpanInsertCount != watchersInsertCount) {
+                    watchers = getSpans(0, length(), SpanWatcher.class);
+                    watchersSpanCount = mSpanCount;
+                    watchersInsertCount = mSpanInsertCount;
+                }
+                sendSpanAdded(watchers, mSpans[i], spanStart, spanEnd);
             }
         }
     }
@@ -1293,6 +1312,48 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         }
     }
 
+    /**
+     * Same as {@link #sendSpanAdded(Object, int, int)}, but only considers the given watchers,
+     * in their order, instead of querying them.
+     */
+    private void sendSpanAdded(SpanWatcher[] watchers, Object what, int start, int end) {
+        for (int i = 0; i < watchers.length; i++) {
+            if (isWatching(watchers[i], start, end)) {
+                watchers[i].onSpanAdded(this, what, start, end);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #sendSpanChanged(Object, int, int, int, int)}, but only considers the given
+     * watchers, in their order, instead of querying them.
+     */
+    private void sendSpanChanged(SpanWatcher[] watchers, Object what, int oldStart, int oldEnd,
+            int start, int end) {
+        final int queryStart = Math.min(oldStart, start);
+        final int queryEnd = Math.min(Math.max(oldEnd, end), length());
+        for (int i = 0; i < watchers.length; i++) {
+            if (isWatching(watchers[i], queryStart, queryEnd)) {
+                watchers[i].onSpanChanged(this, what, oldStart, oldEnd, start, end);
+            }
+        }
+    }
+
+    /**
+     * Returns whether getSpans(queryStart, queryEnd, SpanWatcher.class) would return the
+     * watcher, which is false if an earlier callback removed it.
+     */
+    private boolean isWatching(SpanWatcher watcher, int queryStart, int queryEnd) {
+        final int spanStart = getSpanStart(watcher);
+        if (spanStart < 0) {
+            return false;
+        }
+        final int spanEnd = getSpanEnd(watcher);
+        return spanStart <= queryEnd && spanEnd >= queryStart
+                && (spanStart == spanEnd || queryStart == queryEnd
+                        || (spanStart != queryEnd && spanEnd != queryStart));
+    }
+
     private static String region(int start, int end) {
         return "(" + start + " ... " + end + ")";
     }
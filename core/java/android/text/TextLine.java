@@ -66,22 +66,26 @@ class TextLine {
     private final SpanSet<ReplacementSpan> mReplacementSpanSpanSet =
             new SpanSet<ReplacementSpan>(ReplacementSpan.class);
 
-    private static final TextLine[] sCached = new TextLine[3];
+    /**
+     * Pooled per thread, so that text laid out on background threads doesn't contend with the
+     * UI thread.
+     */
+    private static final ThreadLocal<TextLine[]> sCached =
+            ThreadLocal.withInitial(() -> new TextLine[3]);
 
     /**
-     * Returns a new TextLine from the shared pool.
+     * Returns a new TextLine from the calling thread's pool.
      *
      * @return an uninitialized TextLine
      */
     static TextLine obtain() {
         TextLine tl;
-        synchronized (sCached) {
-            for (int i = sCached.length; --i >= 0;) {
-                if (sCached[i] != null) {
-                    tl = sCached[i];
-                    sCached[i] = null;
-                    return tl;
-                }
+        final TextLine[] cached = sCached.get();
+        for (int i = cached.length; --i >= 0;) {
+            if (cached[i] != null) {
+                tl = cached[i];
+                cached[i] = null;
+                return tl;
             }
         }
         tl = new TextLine();
@@ -92,7 +96,7 @@ class TextLine {
     }
 
     /**
-     * Puts a TextLine back into the shared pool. Do not use this TextLine once
+     * Puts a TextLine back into the calling thread's pool. Do not use this TextLine once
      * it has been returned.
      * @param tl the textLine
      * @return null, as a convenience from clearing references to the provided
@@ -110,12 +114,11 @@ class TextLine {
         tl.mCharacterStyleSpanSet.recycle();
         tl.mReplacementSpanSpanSet.recycle();
 
-        synchronized(sCached) {
-            for (int i = 0; i < sCached.length; ++i) {
-                if (sCached[i] == null) {
-                    sCached[i] = tl;
-                    break;
-                }
+        final TextLine[] cached = sCached.get();
+        for (int i = 0; i < cached.length; ++i) {
+            if (cached[i] == null) {
+                cached[i] = tl;
+                break;
             }
         }
         return null;
@@ -115,4 +115,20 @@ final class FrameInfo {
         mFrameInfo[FLAGS] |= flags;
     }
 
+    long getVsync() {
+        return mFrameInfo[VSYNC];
+    }
+
+    long getInputHandlingStart() {
+        return mFrameInfo[HANDLE_INPUT_START];
+    }
+
+    long getAnimationsStart() {
+        return mFrameInfo[ANIMATION_START];
+    }
+
+    long getPerformTraversalsStart() {
+        return mFrameInfo[PERFORM_TRAVERSALS_START];
+    }
+
 }
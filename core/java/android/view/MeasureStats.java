@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.util.ArrayMap;
+
+import java.io.PrintWriter;
+
+/**
+ * Counts the measure work done in a window during a frame: how often
+ * {@link View#measure(int, int)} was called, how often it had to call
+ * {@link View#onMeasure(int, int)}, and how often it could use a cached result instead.
+ * Optionally also counts the onMeasure() calls of each view, to find the views measured
+ * more than once per frame.
+ *
+ * @hide
+ */
+public final class MeasureStats {
+    private static final int MAX_DUMPED_VIEWS = 10;
+
+    private int mMeasureCount;
+    private int mOnMeasureCount;
+    private int mCacheHitCount;
+    private ArrayMap<View, Integer> mOnMeasureCounts;
+
+    private int mLastMeasureCount;
+    private int mLastOnMeasureCount;
+    private int mLastCacheHitCount;
+    private ArrayMap<View, Integer> mLastOnMeasureCounts;
+
+    MeasureStats() {
+    }
+
+    void onMeasure(View view) {
+        mMeasureCount++;
+        mOnMeasureCount++;
+        if (mOnMeasureCounts != null) {
+            final Integer count = mOnMeasureCounts.get(view);
+            mOnMeasureCounts.put(view, count == null ? 1 : count + 1);
+        }
+    }
+
+    void onMeasureCacheHit() {
+        mMeasureCount++;
+        mCacheHitCount++;
+    }
+
+    void onMeasureSkipped() {
+        mMeasureCount++;
+    }
+
+    /**
+     * Keeps the counts of the frame that just ended and starts counting for a new one.
+     */
+    public void startFrame() {
+        mLastMeasureCount = mMeasureCount;
+        mLastOnMeasureCount = mOnMeasureCount;
+        mLastCacheHitCount = mCacheHitCount;
+        mMeasureCount = mOnMeasureCount = mCacheHitCount = 0;
+        if (mOnMeasureCounts != null) {
+            mLastOnMeasureCounts = mOnMeasureCounts;
+            mOnMeasureCounts = new ArrayMap<>();
+        }
+    }
+
+    /**
+     * Sets whether onMeasure() calls are also counted per view. This keeps the views of the
+     * last two frames reachable, so it should only be enabled while debugging.
+     */
+    public void setPerViewCountsEnabled(boolean enabled) {
+        if (enabled) {
+            if (mOnMeasureCounts == null) {
+                mOnMeasureCounts = new ArrayMap<>();
+            }
+        } else {
+            mOnMeasureCounts = null;
+            mLastOnMeasureCounts = null;
+        }
+    }
+
+    /** Returns the number of measure() calls in the current frame. */
+    public int getMeasureCount() {
+        return mMeasureCount;
+    }
+
+    /** Returns the number of onMeasure() calls in the current frame. */
+    public int getOnMeasureCount() {
+        return mOnMeasureCount;
+    }
+
+    /** Returns the number of measure() calls answered from a cache in the current frame. */
+    public int getCacheHitCount() {
+        return mCacheHitCount;
+    }
+
+    /**
+     * Returns the number of onMeasure() calls of the given view in the current frame, or 0 if
+     * per view counts are disabled.
+     */
+    public int getOnMeasureCount(View view) {
+        if (mOnMeasureCounts == null) {
+            return 0;
+        }
+        final Integer count = mOnMeasureCounts.get(view);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Returns the largest number of onMeasure() calls of a single view in the current frame, or
+     * 0 if per view counts are disabled.
+     */
+    public int getMaxOnMeasureCountPerView() {
+        int max = 0;
+        if (mOnMeasureCounts != null) {
+            for (int i = 0; i < mOnMeasureCounts.size(); i++) {
+                max = Math.max(max, mOnMeasureCounts.valueAt(i));
+            }
+        }
+        return max;
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.print("Last frame: measure="); writer.print(mLastMeasureCount);
+                writer.print(" onMeasure="); writer.print(mLastOnMeasureCount);
+                writer.print(" cacheHits="); writer.println(mLastCacheHitCount);
+        final ArrayMap<View, Integer> counts = mLastOnMeasureCounts;
+        if (counts == null) {
+            return;
+        }
+        // Only the views measured most often, as a frame measures most views once.
+        final ArrayMap<View, Integer> dumped = new ArrayMap<>(counts);
+        for (int n = 0; n < MAX_DUMPED_VIEWS && !dumped.isEmpty(); n++) {
+            int maxIndex = 0;
+            for (int i = 1; i < dumped.size(); i++) {
+                if (dumped.valueAt(i) > dumped.valueAt(maxIndex)) {
+                    maxIndex = i;
+                }
+            }
+            if (dumped.valueAt(maxIndex) < 2) {
+                break;
+            }
+            writer.print(prefix); writer.print("  "); writer.print(dumped.valueAt(maxIndex));
+                    writer.print("x "); writer.println(dumped.keyAt(maxIndex));
+            dumped.removeAt(maxIndex);
+        }
+    }
+}
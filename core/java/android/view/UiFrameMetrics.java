@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Data about the UI thread work of one frame of a window, as recorded by
+ * {@link UiFrameRecorder}.
+ * <p>
+ * Unlike {@link FrameMetrics}, which follows a frame through the RenderThread, this splits the
+ * UI thread part of the frame into its phases, and counts the objects allocated for it.
+ * </p>
+ *
+ * @hide
+ */
+public final class UiFrameMetrics {
+
+    /**
+     * Metric identifier for the vsync timestamp the frame was started for, in nanoseconds.
+     */
+    public static final int VSYNC_TIMESTAMP = 0;
+
+    /**
+     * Metric identifier for the number of nanoseconds elapsed issuing input handling
+     * callbacks.
+     */
+    public static final int INPUT_HANDLING_DURATION = 1;
+
+    /**
+     * Metric identifier for the number of nanoseconds elapsed issuing animation callbacks.
+     */
+    public static final int ANIMATION_DURATION = 2;
+
+    /**
+     * Metric identifier for the number of nanoseconds elapsed measuring the view hierarchy.
+     */
+    public static final int MEASURE_DURATION = 3;
+
+    /**
+     * Metric identifier for the number of nanoseconds elapsed laying out the view hierarchy,
+     * including measuring views that requested a layout during layout.
+     */
+    public static final int LAYOUT_DURATION = 4;
+
+    /**
+     * Metric identifier for the number of nanoseconds elapsed drawing the view hierarchy and
+     * handing it to the RenderThread.
+     */
+    public static final int DRAW_DURATION = 5;
+
+    /**
+     * Metric identifier for the number of nanoseconds elapsed from the start of input handling
+     * to the end of the traversal.
+     */
+    public static final int TOTAL_DURATION = 6;
+
+    /**
+     * Metric identifier for the number of objects the UI thread allocated since the previous
+     * frame, or -1 if allocations are not counted.
+     */
+    public static final int ALLOCATION_COUNT = 7;
+
+    static final int METRIC_COUNT = 8;
+
+    /**
+     * Identifiers for metrics available for each frame.
+     *
+     * {@see #getMetric(int)}
+     */
+    @IntDef({
+            VSYNC_TIMESTAMP,
+            INPUT_HANDLING_DURATION,
+            ANIMATION_DURATION,
+            MEASURE_DURATION,
+            LAYOUT_DURATION,
+            DRAW_DURATION,
+            TOTAL_DURATION,
+            ALLOCATION_COUNT,
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Metric {}
+
+    final long[] mMetrics = new long[METRIC_COUNT];
+
+    UiFrameMetrics() {
+    }
+
+    /**
+     * Retrieves the value associated with Metric identifier {@code id} for this frame.
+     *
+     * @param id the metric to retrieve
+     * @return the value of the metric or -1 if it is not available.
+     */
+    public long getMetric(@Metric int id) {
+        if (id < 0 || id >= METRIC_COUNT) {
+            return -1;
+        }
+        return mMetrics[id];
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.os.Debug;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the {@link UiFrameMetrics} of the last frames of a window in a ring buffer, without
+ * allocating. The UI thread records a frame at the end of each traversal; the frames can be
+ * read from any thread, and are printed by {@code dumpsys gfxinfo}.
+ * <p>
+ * Counting allocations needs the runtime to count them for the whole process, which slows
+ * allocations down, so it is optional.
+ * </p>
+ *
+ * @hide
+ */
+public final class UiFrameRecorder {
+    private static final int DEFAULT_CAPACITY = 120;
+
+    private static final Object sAllocCountingLock = new Object();
+    @GuardedBy("sAllocCountingLock")
+    private static int sAllocCountingUsers;
+
+    private final int mCapacity;
+    private final boolean mCountAllocations;
+
+    @GuardedBy("this")
+    private final long[] mFrames;
+    @GuardedBy("this")
+    private int mNextFrame;
+    @GuardedBy("this")
+    private int mFrameCount;
+
+    // The frame in progress, only accessed on the UI thread.
+    private long mMeasureNs;
+    private long mLayoutNs;
+    private long mDrawNs;
+    private int mLastAllocCount;
+
+    private boolean mReleased;
+
+    public UiFrameRecorder(boolean countAllocations) {
+        this(DEFAULT_CAPACITY, countAllocations);
+    }
+
+    public UiFrameRecorder(int capacity, boolean countAllocations) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mCountAllocations = countAllocations;
+        mFrames = new long[capacity * UiFrameMetrics.METRIC_COUNT];
+        if (countAllocations) {
+            synchronized (sAllocCountingLock) {
+                if (sAllocCountingUsers++ == 0) {
+                    Debug.startAllocCounting();
+                }
+            }
+            mLastAllocCount = Debug.getThreadAllocCount();
+        }
+    }
+
+    /**
+     * Stops counting allocations if this was the last recorder counting them. The recorder
+     * must not record frames afterwards.
+     */
+    public void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        if (mCountAllocations) {
+            synchronized (sAllocCountingLock) {
+                if (--sAllocCountingUsers == 0) {
+                    Debug.stopAllocCounting();
+                }
+            }
+        }
+    }
+
+    public boolean isCountingAllocations() {
+        return mCountAllocations;
+    }
+
+    void addMeasureTime(long durationNs) {
+        mMeasureNs += durationNs;
+    }
+
+    void addLayoutTime(long durationNs) {
+        mLayoutNs += durationNs;
+    }
+
+    void addDrawTime(long durationNs) {
+        mDrawNs += durationNs;
+    }
+
+    /**
+     * Records the frame whose traversal just ended.
+     */
+    void endFrame(FrameInfo frameInfo) {
+        final long endNs = System.nanoTime();
+        final long inputStart = frameInfo.getInputHandlingStart();
+        final long animationStart = frameInfo.getAnimationsStart();
+        final long traversalsStart = frameInfo.getPerformTraversalsStart();
+
+        long allocCount = -1;
+        if (mCountAllocations) {
+            final int count = Debug.getThreadAllocCount();
+            allocCount = count - mLastAllocCount;
+            mLastAllocCount = count;
+        }
+
+        synchronized (this) {
+            final int offset = mNextFrame * UiFrameMetrics.METRIC_COUNT;
+            final long[] frames = mFrames;
+            frames[offset + UiFrameMetrics.VSYNC_TIMESTAMP] = frameInfo.getVsync();
+            frames[offset + UiFrameMetrics.INPUT_HANDLING_DURATION] =
+                    animationStart - inputStart;
+            frames[offset + UiFrameMetrics.ANIMATION_DURATION] =
+                    traversalsStart - animationStart;
+            frames[offset + UiFrameMetrics.MEASURE_DURATION] = mMeasureNs;
+            frames[offset + UiFrameMetrics.LAYOUT_DURATION] = mLayoutNs;
+            frames[offset + UiFrameMetrics.DRAW_DURATION] = mDrawNs;
+            frames[offset + UiFrameMetrics.TOTAL_DURATION] = endNs - inputStart;
+            frames[offset + UiFrameMetrics.ALLOCATION_COUNT] = allocCount;
+            mNextFrame = (mNextFrame + 1) % mCapacity;
+            if (mFrameCount < mCapacity) {
+                mFrameCount++;
+            }
+        }
+
+        mMeasureNs = mLayoutNs = mDrawNs = 0;
+    }
+
+    /**
+     * Returns copies of the recorded frames, oldest first.
+     */
+    public List<UiFrameMetrics> getRecentFrames() {
+        synchronized (this) {
+            final List<UiFrameMetrics> result = new ArrayList<>(mFrameCount);
+            int frame = (mNextFrame - mFrameCount + mCapacity) % mCapacity;
+            for (int i = 0; i < mFrameCount; i++) {
+                final UiFrameMetrics metrics = new UiFrameMetrics();
+                System.arraycopy(mFrames, frame * UiFrameMetrics.METRIC_COUNT,
+                        metrics.mMetrics, 0, UiFrameMetrics.METRIC_COUNT);
+                result.add(metrics);
+                frame = (frame + 1) % mCapacity;
+            }
+            return result;
+        }
+    }
+
+    void dump(String prefix, PrintWriter pw) {
+        final List<UiFrameMetrics> frames = getRecentFrames();
+        pw.printf("%sUI thread frames (ms), oldest first: %d\n", prefix, frames.size());
+        if (frames.isEmpty()) {
+            return;
+        }
+        pw.printf("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n", prefix,
+                "Input", "Anim", "Measure", "Layout", "Draw", "Total", "Allocs");
+        long maxTotal = 0;
+        long sumTotal = 0;
+        for (int i = 0; i < frames.size(); i++) {
+            final UiFrameMetrics f = frames.get(i);
+            pw.printf("%s\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f\t%d\n", prefix,
+                    ms(f.getMetric(UiFrameMetrics.INPUT_HANDLING_DURATION)),
+                    ms(f.getMetric(UiFrameMetrics.ANIMATION_DURATION)),
+                    ms(f.getMetric(UiFrameMetrics.MEASURE_DURATION)),
+                    ms(f.getMetric(UiFrameMetrics.LAYOUT_DURATION)),
+                    ms(f.getMetric(UiFrameMetrics.DRAW_DURATION)),
+                    ms(f.getMetric(UiFrameMetrics.TOTAL_DURATION)),
+                    f.getMetric(UiFrameMetrics.ALLOCATION_COUNT));
+            final long total = f.getMetric(UiFrameMetrics.TOTAL_DURATION);
+            maxTotal = Math.max(maxTotal, total);
+            sumTotal += total;
+        }
+        pw.printf("%sAverage total: %.2fms, max total: %.2fms\n", prefix,
+                ms(sumTotal / frames.size()), ms(maxTotal));
+    }
+
+    private static float ms(long ns) {
+        return ns / 1000000.0f;
+    }
+}
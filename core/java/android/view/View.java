@@ -835,6 +835,14 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      */
     private static boolean sIgnoreMeasureCache = false;
 
+    /**
+     * Use the measure cache even when a layout was requested, for the results measured since.
+     * A view measured several times in the same frame with the same MeasureSpec, as the
+     * children of weighted LinearLayouts and of RelativeLayouts are, then only runs
+     * onMeasure() once.
+     */
+    private static boolean sUseMeasureCacheWhenForced = false;
+
     /**
      * Ignore an optimization that skips unnecessary EXACTLY layout passes.
      */
@@ -4548,6 +4556,10 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             // of whether a layout was requested on that View.
             sIgnoreMeasureCache = targetSdkVersion < Build.VERSION_CODES.KITKAT;
 
+            // Older apps may expect onMeasure() to be called on every measure pass of a view
+            // that requested a layout, even with a MeasureSpec it was already measured with.
+            sUseMeasureCacheWhenForced = targetSdkVersion > Build.VERSION_CODES.O;
+
             Canvas.sCompatibilityRestore = targetSdkVersion < Build.VERSION_CODES.M;
             Canvas.sCompatibilitySetBitmap = targetSdkVersion < Build.VERSION_CODES.O;
 
@@ -21920,12 +21932,25 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
 
         if (mParent != null && !mParent.isLayoutRequested()) {
             mParent.requestLayout();
+        } else if (sUseMeasureCacheWhenForced) {
+            // The ancestors already requested a layout, but may have cached results measured
+            // since, which depend on this view's old size.
+            clearAncestorMeasureCaches();
         }
         if (mAttachInfo != null && mAttachInfo.mViewRequestingLayout == this) {
             mAttachInfo.mViewRequestingLayout = null;
         }
     }
 
+    private void clearAncestorMeasureCaches() {
+        ViewParent parent = mParent;
+        while (parent instanceof View) {
+            final View view = (View) parent;
+            if (view.mMeasureCache != null) view.mMeasureCache.clear();
+            parent = view.mParent;
+        }
+    }
+
     /**
      * Forces this view to be laid out during the next layout pass.
      * This method does not call requestLayout() or forceLayout()
@@ -21992,16 +22017,23 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
 
             resolveRtlPropertiesIfNeeded();
 
-            int cacheIndex = forceLayout ? -1 : mMeasureCache.indexOfKey(key);
+            // requestLayout() and forceLayout() clear the cache, so when a layout is forced
+            // it only holds results measured since.
+            int cacheIndex = forceLayout && !sUseMeasureCacheWhenForced
+                    ? -1 : mMeasureCache.indexOfKey(key);
             if (cacheIndex < 0 || sIgnoreMeasureCache) {
                 // measure ourselves, this should set the measured dimension flag back
                 onMeasure(widthMeasureSpec, heightMeasureSpec);
                 mPrivateFlags3 &= ~PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
+                if (mAttachInfo != null) mAttachInfo.mMeasureStats.onMeasure(this);
             } else {
                 long value = mMeasureCache.valueAt(cacheIndex);
                 // Casting a long to int drops the high 32 bits, no mask needed
                 setMeasuredDimensionRaw((int) (value >> 32), (int) value);
-                mPrivateFlags3 |= PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
+                // Unless the view was last measured with this very spec, its content was
+                // measured for another size and must be measured again before layout.
+                if (specChanged) mPrivateFlags3 |= PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
+                if (mAttachInfo != null) mAttachInfo.mMeasureStats.onMeasureCacheHit();
             }
 
             // flag not set, setMeasuredDimension() was not invoked, we raise
@@ -22014,6 +22046,8 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             }
 
             mPrivateFlags |= PFLAG_LAYOUT_REQUIRED;
+        } else if (mAttachInfo != null) {
+            mAttachInfo.mMeasureStats.onMeasureSkipped();
         }
 
         mOldWidthMeasureSpec = widthMeasureSpec;
@@ -25486,6 +25520,11 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
          */
         View mViewRequestingLayout;
 
+        /**
+         * Counts the measure work done in this window.
+         */
+        final MeasureStats mMeasureStats = new MeasureStats();
+
         /**
          * Used to track views that need (at least) a partial relayout at their current size
          * during the next traversal.
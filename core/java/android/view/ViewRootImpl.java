@@ -151,6 +151,14 @@ public final class ViewRootImpl implements ViewParent,
      */
     private static final String PROPERTY_PROFILE_RENDERING = "viewroot.profile_rendering";
 
+    /**
+     * Set to 1 to record the UI thread timings of recent frames, or to 2 to also count their
+     * allocations. The frames are printed by dumpsys gfxinfo.
+     *
+     * @see UiFrameRecorder
+     */
+    private static final String PROPERTY_FRAME_RECORDER = "debug.view.frame_recorder";
+
     // properties used by emulator to determine display shape
     public static final String PROPERTY_EMULATOR_WIN_OUTSET_BOTTOM_PX =
             "ro.emu.win_outset_bottom_px";
@@ -449,6 +457,9 @@ public final class ViewRootImpl implements ViewParent,
     private final int mNoncompatDensity;
 
     private boolean mInLayout = false;
+
+    // Records the timings of recent frames when enabled, null otherwise.
+    private UiFrameRecorder mUiFrameRecorder;
     ArrayList<View> mLayoutRequesters = new ArrayList<View>();
     boolean mHandlingLayoutInLayoutRequest = false;
 
@@ -1385,6 +1396,10 @@ public final class ViewRootImpl implements ViewParent,
 
             performTraversals();
 
+            if (mUiFrameRecorder != null) {
+                mUiFrameRecorder.endFrame(mChoreographer.mFrameInfo);
+            }
+
             if (mProfile) {
                 Debug.stopMethodTracing();
                 mProfile = false;
@@ -1586,6 +1601,8 @@ public final class ViewRootImpl implements ViewParent,
         if (host == null || !mAdded)
             return;
 
+        mAttachInfo.mMeasureStats.startFrame();
+
         mIsInTraversal = true;
         mWillDrawSoon = true;
         boolean windowSizeMayChange = false;
@@ -2197,7 +2214,11 @@ public final class ViewRootImpl implements ViewParent,
         boolean triggerGlobalLayoutListener = didLayout
                 || mAttachInfo.mRecomputeGlobalAttributes;
         if (didLayout) {
+            final long layoutStart = mUiFrameRecorder != null ? System.nanoTime() : 0;
             performLayout(lp, mWidth, mHeight);
+            if (mUiFrameRecorder != null) {
+                mUiFrameRecorder.addLayoutTime(System.nanoTime() - layoutStart);
+            }
 
             // By this point all views have been sized and positioned
             // We can compute the transparent area
@@ -2344,7 +2365,11 @@ public final class ViewRootImpl implements ViewParent,
                 mPendingTransitions.clear();
             }
 
+            final long drawStart = mUiFrameRecorder != null ? System.nanoTime() : 0;
             performDraw();
+            if (mUiFrameRecorder != null) {
+                mUiFrameRecorder.addDrawTime(System.nanoTime() - drawStart);
+            }
         } else {
             if (isViewVisible) {
                 // Try again
@@ -2405,12 +2430,18 @@ public final class ViewRootImpl implements ViewParent,
         if (mView == null) {
             return;
         }
+        // Measures during layout are part of the layout time.
+        final boolean recordTime = mUiFrameRecorder != null && !mInLayout;
+        final long measureStart = recordTime ? System.nanoTime() : 0;
         Trace.traceBegin(Trace.TRACE_TAG_VIEW, "measure");
         try {
             mView.measure(childWidthMeasureSpec, childHeightMeasureSpec);
         } finally {
             Trace.traceEnd(Trace.TRACE_TAG_VIEW);
         }
+        if (recordTime) {
+            mUiFrameRecorder.addMeasureTime(System.nanoTime() - measureStart);
+        }
     }
 
     /**
@@ -2423,6 +2454,49 @@ public final class ViewRootImpl implements ViewParent,
         return mInLayout;
     }
 
+    /**
+     * Returns the counts of the measure work done in this window, which are reset at the start
+     * of every traversal.
+     *
+     * @hide
+     */
+    public MeasureStats getMeasureStats() {
+        return mAttachInfo.mMeasureStats;
+    }
+
+    /**
+     * Returns the recorder of the UI thread timings of recent frames of this window, or null if
+     * frames are not recorded.
+     *
+     * @hide
+     */
+    public UiFrameRecorder getUiFrameRecorder() {
+        return mUiFrameRecorder;
+    }
+
+    /**
+     * Starts or stops recording the UI thread timings of the frames of this window. Must be
+     * called on the UI thread.
+     *
+     * @param enabled whether to record frames
+     * @param countAllocations whether to also count the objects allocated for each frame,
+     *        which slows down all allocations of the process
+     *
+     * @hide
+     */
+    public void setUiFrameRecorderEnabled(boolean enabled, boolean countAllocations) {
+        if (mUiFrameRecorder != null) {
+            if (enabled && mUiFrameRecorder.isCountingAllocations() == countAllocations) {
+                return;
+            }
+            mUiFrameRecorder.release();
+            mUiFrameRecorder = null;
+        }
+        if (enabled) {
+            mUiFrameRecorder = new UiFrameRecorder(countAllocations);
+        }
+    }
+
     /**
      * Called by {@link android.view.View#requestLayout()} if the view hierarchy is currently
      * undergoing a layout pass. requestLayout() should not generally be called during layout,
@@ -3503,6 +3577,8 @@ public final class ViewRootImpl implements ViewParent,
 
         mDisplayManager.unregisterDisplayListener(mDisplayListener);
 
+        setUiFrameRecorderEnabled(false, false);
+
         unscheduleTraversals();
     }
 
@@ -6227,10 +6303,23 @@ public final class ViewRootImpl implements ViewParent,
 
         mChoreographer.dump(prefix, writer);
 
+        writer.print(prefix); writer.println("Measure Stats:");
+        mAttachInfo.mMeasureStats.dump(innerPrefix, writer);
+
         writer.print(prefix); writer.println("View Hierarchy:");
         dumpViewHierarchy(innerPrefix, writer, mView);
     }
 
+    /**
+     * Prints the recorded UI thread timings of recent frames, if any.
+     */
+    void dumpUiFrames(String prefix, PrintWriter writer) {
+        final UiFrameRecorder recorder = mUiFrameRecorder;
+        if (recorder != null) {
+            recorder.dump(prefix, writer);
+        }
+    }
+
     private void dumpViewHierarchy(String prefix, PrintWriter writer, View view) {
         writer.print(prefix);
         if (view == null) {
@@ -6358,6 +6447,10 @@ public final class ViewRootImpl implements ViewParent,
                     }
                 }
 
+                // Frame recording
+                final int frameRecorder = SystemProperties.getInt(PROPERTY_FRAME_RECORDER, 0);
+                setUiFrameRecorderEnabled(frameRecorder > 0, frameRecorder > 1);
+
                 // Layout debugging
                 boolean layout = SystemProperties.getBoolean(View.DEBUG_LAYOUT_PROPERTY, false);
                 if (layout != mAttachInfo.mDebugLayout) {
@@ -569,6 +569,14 @@ public final class WindowManagerGlobal {
                     }
                 }
 
+                for (int i = 0; i < count; i++) {
+                    ViewRootImpl root = mRoots.get(i);
+                    if (root.getUiFrameRecorder() != null) {
+                        pw.printf("\n  %s\n", getWindowName(root));
+                        root.dumpUiFrames("  ", pw);
+                    }
+                }
+
                 pw.println("\nView hierarchy:\n");
 
                 int viewsCount = 0;
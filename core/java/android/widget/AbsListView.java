@@ -44,6 +44,7 @@ import android.util.LongSparseArray;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 import android.util.StateSet;
+import android.view.Display;
 import android.view.ActionMode;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Gravity;
@@ -82,9 +83,11 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.RemoteViews.OnClickHandler;
 
 import com.android.internal.R;
+import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base class that can be used to implement virtualized lists of items. A list does
@@ -431,6 +434,33 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
      */
     AbsPositionScroller mPositionScroller;
 
+    /**
+     * Whether the views of the positions about to scroll into view are obtained from the
+     * adapter ahead of time, in the idle time left after scrolling frames.
+     */
+    private boolean mItemPrefetchEnabled;
+
+    /**
+     * Prefetches the next items after a scrolling frame.
+     */
+    private PrefetchItems mPrefetchItems;
+
+    /**
+     * Whether {@link #mPrefetchItems} is posted.
+     */
+    private boolean mPrefetchPosted;
+
+    /**
+     * The direction of the last scroll: 1 if it revealed positions below the visible ones,
+     * -1 if above, 0 if there was none.
+     */
+    private int mPrefetchDirection;
+
+    /**
+     * Running average of the time it takes to obtain the view of one item.
+     */
+    private long mPrefetchAverageNs;
+
     /**
      * The offset in pixels form the top of the AdapterView to the top
      * of the currently selected view. Used to save and restore state.
@@ -658,6 +688,17 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
      */
     private static final int INVALID_POINTER = -1;
 
+    /**
+     * Maximum number of positions prefetched ahead of the visible ones.
+     */
+    private static final int MAX_PREFETCHED_ITEMS = 2;
+
+    /**
+     * Time between two frames of the display, used to estimate when the next frame starts.
+     * Queried once, as it is expensive.
+     */
+    private static long sFrameIntervalNs;
+
     /**
      * Maximum distance to overscroll by during edge effects
      */
@@ -884,6 +925,10 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
         mOverflingDistance = configuration.getScaledOverflingDistance();
 
         mDensityScale = getContext().getResources().getDisplayMetrics().density;
+
+        // Older apps may not expect getView() to be called for items that aren't shown yet.
+        mItemPrefetchEnabled = getContext().getApplicationInfo().targetSdkVersion
+                > android.os.Build.VERSION_CODES.O;
     }
 
     @Override
@@ -2368,18 +2413,30 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
             return transientView;
         }
 
-        final View scrapView = mRecycler.getScrapView(position);
-        final View child = mAdapter.getView(position, scrapView, this);
-        if (scrapView != null) {
-            if (child != scrapView) {
-                // Failed to re-bind the data, return scrap to the heap.
-                mRecycler.addScrapView(scrapView, position);
-            } else if (child.isTemporarilyDetached()) {
+        final View child;
+        final View prefetchedView = mDataChanged ? null : mRecycler.getPrefetchedView(position);
+        if (prefetchedView != null) {
+            child = prefetchedView;
+            if (child.isTemporarilyDetached()) {
                 outMetadata[0] = true;
 
                 // Finish the temporary detach started in addScrapView().
                 child.dispatchFinishTemporaryDetach();
             }
+        } else {
+            final View scrapView = mRecycler.getScrapView(position);
+            child = mAdapter.getView(position, scrapView, this);
+            if (scrapView != null) {
+                if (child != scrapView) {
+                    // Failed to re-bind the data, return scrap to the heap.
+                    mRecycler.addScrapView(scrapView, position);
+                } else if (child.isTemporarilyDetached()) {
+                    outMetadata[0] = true;
+
+                    // Finish the temporary detach started in addScrapView().
+                    child.dispatchFinishTemporaryDetach();
+                }
+            }
         }
 
         if (mCacheColorHint != 0) {
@@ -2406,6 +2463,108 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
         return child;
     }
 
+    /**
+     * Sets whether the views of the positions about to scroll into view are obtained from the
+     * adapter ahead of time, in the idle time left after scrolling frames, so that the next
+     * frames don't have to. Enabled by default for apps targeting releases after O.
+     *
+     * @hide
+     */
+    public void setItemPrefetchEnabled(boolean enabled) {
+        mItemPrefetchEnabled = enabled;
+        if (!enabled) {
+            mRecycler.clearPrefetchedViews();
+        }
+    }
+
+    /**
+     * @hide
+     */
+    public boolean isItemPrefetchEnabled() {
+        return mItemPrefetchEnabled;
+    }
+
+    private void postPrefetchItems() {
+        if (mPrefetchPosted || !isAttachedToWindow()) {
+            return;
+        }
+        if (mPrefetchItems == null) {
+            mPrefetchItems = new PrefetchItems();
+        }
+        mPrefetchPosted = true;
+        // This runs after the current frame was handed to the RenderThread.
+        post(mPrefetchItems);
+    }
+
+    private class PrefetchItems implements Runnable {
+        @Override
+        public void run() {
+            mPrefetchPosted = false;
+
+            // Predict the start of the next frame from the last one.
+            final long lastFrameVsyncNs = TimeUnit.MILLISECONDS.toNanos(getDrawingTime());
+            if (lastFrameVsyncNs == 0 || sFrameIntervalNs == 0) {
+                return;
+            }
+            prefetchItems(lastFrameVsyncNs + sFrameIntervalNs);
+        }
+    }
+
+    /**
+     * Obtains the views of the positions about to scroll into view from the adapter, as long as
+     * that can be done before the given deadline.
+     *
+     * @param deadlineNs the {@link System#nanoTime()} by which to stop
+     * @hide
+     */
+    @VisibleForTesting
+    public void prefetchItems(long deadlineNs) {
+        final int childCount = getChildCount();
+        if (mAdapter == null || mDataChanged || mPrefetchDirection == 0 || childCount == 0) {
+            return;
+        }
+
+        final int firstPosition = mFirstPosition;
+        final int lastPosition = firstPosition + childCount - 1;
+        mRecycler.discardPrefetchedViews(firstPosition - MAX_PREFETCHED_ITEMS,
+                lastPosition + MAX_PREFETCHED_ITEMS);
+
+        Trace.traceBegin(Trace.TRACE_TAG_VIEW, "prefetchItems");
+        try {
+            for (int i = 1; i <= MAX_PREFETCHED_ITEMS; i++) {
+                final int position = mPrefetchDirection > 0
+                        ? lastPosition + i : firstPosition - i;
+                if (position < 0 || position >= mItemCount) {
+                    break;
+                }
+                // Headers, footers and views that can't be recycled are left alone.
+                if (mRecycler.hasPrefetchedView(position)
+                        || !mRecycler.shouldRecycleViewType(mAdapter.getItemViewType(position))) {
+                    continue;
+                }
+
+                final long startNs = System.nanoTime();
+                if (startNs + mPrefetchAverageNs > deadlineNs) {
+                    break;
+                }
+
+                final View scrapView = mRecycler.getScrapView(position);
+                final View child = mAdapter.getView(position, scrapView, this);
+                if (scrapView != null && child != scrapView) {
+                    // Failed to re-bind the data, return scrap to the heap.
+                    mRecycler.addScrapView(scrapView, position);
+                }
+                mRecycler.addPrefetchedView(position, child);
+
+                final long durationNs = System.nanoTime() - startNs;
+                mPrefetchAverageNs = mPrefetchAverageNs == 0
+                        ? durationNs : (mPrefetchAverageNs / 4 * 3) + (durationNs / 4);
+            }
+        } finally {
+            Trace.traceEnd(Trace.TRACE_TAG_VIEW);
+        }
+    }
+
     private void setItemViewLayoutParams(View child, int position) {
         final ViewGroup.LayoutParams vlp = child.getLayoutParams();
         LayoutParams lp;
@@ -2939,6 +3098,18 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
             mOldItemCount = mItemCount;
             mItemCount = mAdapter.getCount();
         }
+
+        if (mItemPrefetchEnabled && sFrameIntervalNs == 0) {
+            float refreshRate = 60.0f;
+            final Display display = getDisplay();
+            if (!isInEditMode() && display != null) {
+                final float displayRefreshRate = display.getRefreshRate();
+                if (displayRefreshRate >= 30.0f) {
+                    refreshRate = displayRefreshRate;
+                }
+            }
+            sFrameIntervalNs = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+        }
     }
 
     @Override
@@ -2987,6 +3158,11 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
             removeCallbacks(mClearScrollingCache);
         }
 
+        if (mPrefetchPosted) {
+            removeCallbacks(mPrefetchItems);
+            mPrefetchPosted = false;
+        }
+
         if (mPerformClick != null) {
             removeCallbacks(mPerformClick);
         }
@@ -5249,6 +5425,11 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
 
         mBlockLayoutRequests = false;
 
+        if (mItemPrefetchEnabled && incrementalDeltaY != 0) {
+            mPrefetchDirection = down ? 1 : -1;
+            postPrefetchItems();
+        }
+
         invokeOnItemScrollListener();
 
         return false;
@@ -5520,6 +5701,9 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
 
     @Override
     protected void handleDataChanged() {
+        // Prefetched views may show the old data, or be for the wrong position.
+        mRecycler.clearPrefetchedViews();
+
         int count = mItemCount;
         int lastHandledItemCount = mLastHandledItemCount;
         mLastHandledItemCount = mItemCount;
@@ -6641,6 +6825,12 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
         private SparseArray<View> mTransientStateViews;
         private LongSparseArray<View> mTransientStateViewsById;
 
+        /**
+         * Views obtained from the adapter ahead of time for positions that are not shown yet,
+         * by position.
+         */
+        private SparseArray<View> mPrefetchedViews;
+
         public void setViewTypeCount(int viewTypeCount) {
             if (viewTypeCount < 1) {
                 throw new IllegalArgumentException("Can't have a viewTypeCount < 1");
@@ -6706,6 +6896,7 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
             }
 
             clearTransientStateViews();
+            clearPrefetchedViews();
         }
 
         /**
@@ -6797,6 +6988,71 @@ public abstract class AbsListView extends AdapterView<ListAdapter> implements Te
             }
         }
 
+        void addPrefetchedView(int position, View view) {
+            if (mPrefetchedViews == null) {
+                mPrefetchedViews = new SparseArray<>();
+            }
+            mPrefetchedViews.put(position, view);
+        }
+
+        boolean hasPrefetchedView(int position) {
+            return mPrefetchedViews != null && mPrefetchedViews.indexOfKey(position) >= 0;
+        }
+
+        /**
+         * @return The view prefetched for the position, if any. It is removed from the
+         *         prefetched views.
+         */
+        View getPrefetchedView(int position) {
+            if (mPrefetchedViews == null) {
+                return null;
+            }
+            final int index = mPrefetchedViews.indexOfKey(position);
+            if (index < 0) {
+                return null;
+            }
+            final View result = mPrefetchedViews.valueAt(index);
+            mPrefetchedViews.removeAt(index);
+            return result;
+        }
+
+        /**
+         * Drops the prefetched views of positions outside of the given range, which are no
+         * longer about to be shown.
+         */
+        void discardPrefetchedViews(int firstPosition, int lastPosition) {
+            final SparseArray<View> views = mPrefetchedViews;
+            if (views == null) {
+                return;
+            }
+            for (int i = views.size() - 1; i >= 0; i--) {
+                final int position = views.keyAt(i);
+                if (position < firstPosition || position > lastPosition) {
+                    discardPrefetchedView(views.valueAt(i));
+                    views.removeAt(i);
+                }
+            }
+        }
+
+        void clearPrefetchedViews() {
+            final SparseArray<View> views = mPrefetchedViews;
+            if (views == null) {
+                return;
+            }
+            for (int i = 0; i < views.size(); i++) {
+                discardPrefetchedView(views.valueAt(i));
+            }
+            views.clear();
+        }
+
+        private void discardPrefetchedView(View view) {
+            // Views that were never attached can't go back to the scrap heap, as its views are
+            // expected to have been children of the list.
+            if (view.isTemporarilyDetached()) {
+                removeDetachedView(view, false);
+            }
+        }
+
         /**
          * @return A view from the ScrapViews collection. These are unordered.
          */
@@ -204,6 +204,11 @@ public class Editor {
         }
     }
     private TextRenderNode[] mTextRenderNodes;
+    // The character range whose text display lists are stale because of span changes, or -1 if
+    // there is none. It is resolved to blocks when drawing, after the layout is reflowed once for
+    // all the changes.
+    private int mDirtyTextStart = -1;
+    private int mDirtyTextEnd = -1;
 
     boolean mFrozenWithFocus;
     boolean mSelectionMoved;
@@ -1684,6 +1689,12 @@ public class Editor {
             }
 
             DynamicLayout dynamicLayout = (DynamicLayout) layout;
+            if (mDirtyTextStart >= 0) {
+                final int length = layout.getText().length();
+                invalidateTextDisplayListBlocks(dynamicLayout, Math.min(mDirtyTextStart, length),
+                        Math.min(mDirtyTextEnd, length));
+                mDirtyTextStart = mDirtyTextEnd = -1;
+            }
             int[] blockEndLines = dynamicLayout.getBlockEndLines();
             int[] blockIndices = dynamicLayout.getBlockIndices();
             final int numberOfBlocks = dynamicLayout.getNumberOfBlocks();
@@ -1863,38 +1874,69 @@ public class Editor {
     }
 
     /**
-     * Invalidates all the sub-display lists that overlap the specified character range
+     * Invalidates all the sub-display lists that overlap the specified character range. The
+     * range is only mapped to blocks on the next draw, so that the layout doesn't have to be
+     * reflowed for each of a series of span changes.
      */
     void invalidateTextDisplayList(Layout layout, int start, int end) {
         if (mTextRenderNodes != null && layout instanceof DynamicLayout) {
-            final int firstLine = layout.getLineForOffset(start);
-            final int lastLine = layout.getLineForOffset(end);
+            if (mDirtyTextStart < 0) {
+                mDirtyTextStart = start;
+                mDirtyTextEnd = end;
+            } else {
+                mDirtyTextStart = Math.min(mDirtyTextStart, start);
+                mDirtyTextEnd = Math.max(mDirtyTextEnd, end);
+            }
+        }
+    }
 
-            DynamicLayout dynamicLayout = (DynamicLayout) layout;
-            int[] blockEndLines = dynamicLayout.getBlockEndLines();
-            int[] blockIndices = dynamicLayout.getBlockIndices();
-            final int numberOfBlocks = dynamicLayout.getNumberOfBlocks();
+    /**
+     * Moves the range of stale sub-display lists along with the text, after the characters in
+     * [start, start + before) were replaced by after characters.
+     */
+    void updateTextDisplayListAfterTextChange(int start, int before, int after) {
+        if (mDirtyTextStart < 0) {
+            return;
+        }
+        final int delta = after - before;
+        if (mDirtyTextStart > start + before) {
+            mDirtyTextStart += delta;
+            mDirtyTextEnd += delta;
+        } else if (mDirtyTextEnd >= start) {
+            mDirtyTextEnd = Math.max(mDirtyTextEnd + delta, start + after);
+            mDirtyTextStart = Math.min(mDirtyTextStart, start);
+        }
+    }
 
-            int i = 0;
-            // Skip the blocks before firstLine
-            while (i < numberOfBlocks) {
-                if (blockEndLines[i] >= firstLine) break;
-                i++;
-            }
+    private void invalidateTextDisplayListBlocks(DynamicLayout layout, int start, int end) {
+        final int firstLine = layout.getLineForOffset(start);
+        final int lastLine = layout.getLineForOffset(end);
 
-            // Invalidate all subsequent blocks until lastLine is passed
-            while (i < numberOfBlocks) {
-                final int blockIndex = blockIndices[i];
-                if (blockIndex != DynamicLayout.INVALID_BLOCK_INDEX) {
-                    mTextRenderNodes[blockIndex].isDirty = true;
-                }
-                if (blockEndLines[i] >= lastLine) break;
-                i++;
+        int[] blockEndLines = layout.getBlockEndLines();
+        int[] blockIndices = layout.getBlockIndices();
+        final int numberOfBlocks = layout.getNumberOfBlocks();
+
+        int i = 0;
+        // Skip the blocks before firstLine
+        while (i < numberOfBlocks) {
+            if (blockEndLines[i] >= firstLine) break;
+            i++;
+        }
+
+        // Invalidate all subsequent blocks until lastLine is passed
+        while (i < numberOfBlocks) {
+            final int blockIndex = blockIndices[i];
+            if (blockIndex != DynamicLayout.INVALID_BLOCK_INDEX
+                    && mTextRenderNodes[blockIndex] != null) {
+                mTextRenderNodes[blockIndex].isDirty = true;
             }
+            if (blockEndLines[i] >= lastLine) break;
+            i++;
         }
     }
 
     void invalidateTextDisplayList() {
+        mDirtyTextStart = mDirtyTextEnd = -1;
         if (mTextRenderNodes != null) {
             for (int i = 0; i < mTextRenderNodes.length; i++) {
                 if (mTextRenderNodes[i] != null) mTextRenderNodes[i].isDirty = true;
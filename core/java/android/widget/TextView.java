@@ -76,6 +76,7 @@ import android.text.InputFilter;
 import android.text.InputType;
 import android.text.Layout;
 import android.text.ParcelableSpan;
+import android.text.PrecomputedLayout;
 import android.text.Selection;
 import android.text.SpanWatcher;
 import android.text.Spannable;
@@ -108,11 +109,13 @@ import android.text.method.TransformationMethod2;
 import android.text.method.WordIterator;
 import android.text.style.CharacterStyle;
 import android.text.style.ClickableSpan;
+import android.text.style.MetricAffectingSpan;
 import android.text.style.ParagraphStyle;
 import android.text.style.SpellCheckSpan;
 import android.text.style.SuggestionSpan;
 import android.text.style.URLSpan;
 import android.text.style.UpdateAppearance;
+import android.text.style.UpdateLayout;
 import android.text.util.Linkify;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
@@ -633,6 +636,8 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
     private boolean mUserSetTextScaleX;
     private Layout mLayout;
     private boolean mLocalesChanged = false;
+    // Layout of the current text computed elsewhere, see setPrecomputedLayout().
+    private PrecomputedLayout mPrecomputedLayout;
 
     // True if setKeyListener() has been explicitly called
     private boolean mListenerChanged = false;
@@ -5224,6 +5229,39 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         setTextKeepState(text, mBufferType);
     }
 
+    /**
+     * Returns the attributes this view currently lays its text out with, for
+     * {@link PrecomputedLayout#create} to lay text out on a background thread.
+     *
+     * @hide
+     */
+    public PrecomputedLayout.Params getPrecomputedLayoutParams() {
+        TruncateAt ellipsize = null;
+        if (mEllipsize != null && getKeyListener() == null) {
+            ellipsize = mEllipsize == TruncateAt.MARQUEE
+                    && mMarqueeFadeMode == MARQUEE_FADE_SWITCH_SHOW_ELLIPSIS
+                    ? TruncateAt.END_SMALL : mEllipsize;
+        }
+        return new PrecomputedLayout.Params(mTextPaint, getLayoutAlignment(),
+                mTextDir != null ? mTextDir : getTextDirectionHeuristic(),
+                mSpacingMult, mSpacingAdd, mIncludePad, mBreakStrategy, mHyphenationFrequency,
+                mJustificationMode, mMaxMode == LINES ? mMaximum : Integer.MAX_VALUE, ellipsize);
+    }
+
+    /**
+     * Sets the text of a layout computed with {@link PrecomputedLayout#create}, typically on a
+     * background thread. The layout is attached instead of laying the text out again, as long
+     * as this view's attributes and text width still match the ones it was computed with.
+     * The text is not copied into a Spannable, so the layout is not used if this view needs
+     * spannable or editable text. Only the first view to use a given layout attaches it.
+     *
+     * @hide
+     */
+    public void setPrecomputedLayout(@NonNull PrecomputedLayout layout) {
+        mPrecomputedLayout = layout;
+        setText(layout.getText());
+    }
+
     /**
      * Sets the text to be displayed and the {@link android.widget.TextView.BufferType}.
      * <p/>
@@ -5259,6 +5297,10 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
             text = "";
         }
 
+        if (mPrecomputedLayout != null && text != mPrecomputedLayout.getText()) {
+            mPrecomputedLayout = null;
+        }
+
         // If suggestions are not enabled, remove the suggestion spans from the text
         if (!isSuggestionsEnabled()) {
             text = removeSuggestionSpans(text);
@@ -7948,12 +7990,20 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
             Layout.Alignment alignment, boolean shouldEllipsize, TruncateAt effectiveEllipsize,
             boolean useSaved) {
         Layout result = null;
+        if (mPrecomputedLayout != null && !(mText instanceof Spannable)) {
+            // Also skips the isBoring() check, which measures the whole text.
+            result = mPrecomputedLayout.getLayoutIfMatches(mTransformed, mTextPaint, wantWidth,
+                    alignment, mTextDir, mSpacingMult, mSpacingAdd, mIncludePad,
+                    mBreakStrategy, mHyphenationFrequency, mJustificationMode,
+                    mMaxMode == LINES ? mMaximum : Integer.MAX_VALUE,
+                    shouldEllipsize ? effectiveEllipsize : null, ellipsisWidth);
+        }
         if (mText instanceof Spannable) {
             result = new DynamicLayout(mText, mTransformed, mTextPaint, wantWidth,
                     alignment, mTextDir, mSpacingMult, mSpacingAdd, mIncludePad,
                     mBreakStrategy, mHyphenationFrequency, mJustificationMode,
                     getKeyListener() == null ? effectiveEllipsize : null, ellipsisWidth);
-        } else {
+        } else if (result == null) {
             if (boring == UNKNOWN_BORING) {
                 boring = BoringLayout.isBoring(mTransformed, mTextPaint, mTextDir, mBoring);
                 if (boring != null) {
@@ -8222,6 +8272,14 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
             if (layoutChanged || maximumChanged) {
                 if (!maximumChanged && widthChanged) {
                     mLayout.increaseWidthTo(want);
+                } else if (!maximumChanged && mLayout instanceof DynamicLayout
+                        && mHint == null && mEllipsize == null) {
+                    // Only the paragraphs the new width breaks differently are reflowed, and
+                    // not before they are needed. All blocks are redrawn since the alignment of
+                    // their lines may depend on the width.
+                    ((DynamicLayout) mLayout).setWidth(want);
+                    mHighlightPathBogus = true;
+                    if (mEditor != null) mEditor.invalidateTextDisplayList();
                 } else {
                     makeNewLayout(want, hintWant, boring, hintBoring,
                             width - getCompoundPaddingLeft() - getCompoundPaddingRight(), false);
@@ -9442,6 +9500,7 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
             }
             ims.mChangedDelta += after - before;
         }
+        if (mEditor != null) mEditor.updateTextDisplayListAfterTextChange(start, before, after);
         resetErrorChangedFlag();
         sendOnTextChanged(buffer, start, before, after);
         onTextChanged(buffer, start, before, after);
@@ -9511,7 +9570,12 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
             if (ims == null || ims.mBatchEditNesting == 0) {
                 invalidate();
                 mHighlightPathBogus = true;
-                checkForResize();
+                // Only spans that change metrics can change the size of the text. Spans that
+                // only change its appearance don't need the layout to be reflowed here.
+                if (what instanceof MetricAffectingSpan || what instanceof ParagraphStyle
+                        || what instanceof UpdateLayout) {
+                    checkForResize();
+                }
             } else {
                 ims.mContentChanged = true;
             }
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.BootTimingsTraceLog;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import libcore.io.IoUtils;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Preloads classes for {@link ZygoteInit} using several threads.
+ * <p>
+ * Loading a class without initializing it can't deadlock, so all classes are first loaded in
+ * parallel. Running static initializers in parallel is only safe for classes whose initializers
+ * don't depend on each other: two threads initializing classes that need each other's
+ * initialization would deadlock. The dependencies come from a recorded profile, generated by
+ * {@code frameworks/base/tools/preload/WritePreloadedClassGroupsFile.java}, that lists groups of
+ * classes whose initializers may touch each other. Groups are initialized in parallel, each one
+ * on a single thread and in preload order; classes not covered by the profile are initialized
+ * afterwards on the calling thread, exactly as in a serial preload.
+ * <p>
+ * All worker threads have exited by the time {@link #preload} returns, as the zygote must be
+ * single threaded when it forks. If they don't exit in time, for instance because of a
+ * dependency missing from the profile, {@link #preload} throws a {@link WorkerTimeoutException}
+ * instead: the zygote can't continue with threads still running.
+ */
+class ParallelClassPreloader {
+    private static final String TAG = "Zygote";
+
+    /**
+     * The path of a file that lists groups of classes, one group per line, whose static
+     * initializers depend on each other.
+     */
+    static final String PRELOADED_CLASS_GROUPS = "/system/etc/preloaded-classes-groups";
+
+    /** Upper bound on the number of worker threads */
+    private static final int MAX_THREADS = 4;
+
+    /** How long to wait for workers before logging that they may be stuck */
+    private static final long STUCK_WORKER_TIMEOUT_MS = 10 * 1000;
+
+    /** How long to wait for all workers of a pass before giving up on them */
+    private static final long WORKER_TIMEOUT_MS = 60 * 1000;
+
+    /**
+     * Thrown when worker threads didn't finish preloading in time and are still running.
+     */
+    static class WorkerTimeoutException extends RuntimeException {
+        WorkerTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Loads and initializes a single class, returning whether it was loaded.
+     */
+    interface ClassInitializer {
+        boolean preloadClass(String className);
+    }
+
+    private ParallelClassPreloader() {
+    }
+
+    static int getThreadCount() {
+        return Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Reads the class groups profile.
+     *
+     * @return the groups, or null if there is no profile
+     */
+    static List<List<String>> readGroups(String path) {
+        final FileInputStream is;
+        try {
+            is = new FileInputStream(path);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            return parseGroups(new BufferedReader(new InputStreamReader(is), 256));
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + path + ".", e);
+            return null;
+        } finally {
+            IoUtils.closeQuietly(is);
+        }
+    }
+
+    @VisibleForTesting
+    static List<List<String>> parseGroups(BufferedReader reader) throws IOException {
+        final List<List<String>> groups = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith("#") || line.equals("")) {
+                continue;
+            }
+            final List<String> group = new ArrayList<>();
+            for (String name : line.split("\\s+")) {
+                group.add(name);
+            }
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Assigns groups to threads and works out which classes aren't covered by any group.
+     *
+     * @param classes all classes to preload, in preload order
+     * @param groups the class groups profile
+     * @param threadCount how many threads to balance the groups across
+     * @param outUngrouped receives classes not covered by any group, in preload order
+     * @return the classes each thread should initialize, in order
+     */
+    @VisibleForTesting
+    static List<List<String>> assignGroups(List<String> classes, List<List<String>> groups,
+            int threadCount, List<String> outUngrouped) {
+        final ArrayMap<String, Integer> order = new ArrayMap<>(classes.size());
+        for (int i = 0; i < classes.size(); i++) {
+            order.put(classes.get(i), i);
+        }
+
+        // Only keep classes that are actually preloaded, and only once.
+        final ArraySet<String> grouped = new ArraySet<>();
+        final List<List<String>> filtered = new ArrayList<>();
+        for (List<String> group : groups) {
+            final List<String> kept = new ArrayList<>();
+            for (String name : group) {
+                if (order.containsKey(name) && grouped.add(name)) {
+                    kept.add(name);
+                }
+            }
+            if (kept.isEmpty()) {
+                continue;
+            }
+            // Keep the relative order of the serial preload within a group.
+            Collections.sort(kept, (a, b) -> order.get(a) - order.get(b));
+            filtered.add(kept);
+        }
+
+        // Largest groups first, each onto the least loaded thread.
+        Collections.sort(filtered, (a, b) -> b.size() - a.size());
+        final List<List<String>> perThread = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            perThread.add(new ArrayList<>());
+        }
+        for (List<String> group : filtered) {
+            List<String> target = perThread.get(0);
+            for (int i = 1; i < threadCount; i++) {
+                if (perThread.get(i).size() < target.size()) {
+                    target = perThread.get(i);
+                }
+            }
+            target.addAll(group);
+        }
+
+        for (String name : classes) {
+            if (!grouped.contains(name)) {
+                outUngrouped.add(name);
+            }
+        }
+        return perThread;
+    }
+
+    /**
+     * Preloads the given classes.
+     *
+     * @return the number of classes loaded
+     */
+    static int preload(List<String> classes, List<List<String>> groups,
+            ClassInitializer initializer, BootTimingsTraceLog timings) {
+        final int threadCount = getThreadCount();
+
+        timings.traceBegin("PreloadClassesParallelLoad");
+        final List<List<String>> slices = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            slices.add(new ArrayList<>());
+        }
+        for (int i = 0; i < classes.size(); i++) {
+            slices.get(i % threadCount).add(classes.get(i));
+        }
+        runOnWorkers("preload-load", slices, WORKER_TIMEOUT_MS, (className) -> {
+            try {
+                Class.forName(className, false, null);
+            } catch (Throwable t) {
+                // Reported when the class is initialized below.
+            }
+            return true;
+        });
+        timings.traceEnd(); // PreloadClassesParallelLoad
+
+        final List<String> ungrouped = new ArrayList<>();
+        final List<List<String>> perThread = assignGroups(classes, groups, threadCount,
+                ungrouped);
+
+        timings.traceBegin("PreloadClassesParallelInit");
+        int count = runOnWorkers("preload-init", perThread, WORKER_TIMEOUT_MS, initializer);
+        timings.traceEnd(); // PreloadClassesParallelInit
+
+        timings.traceBegin("PreloadClassesSerialInit");
+        for (String className : ungrouped) {
+            if (initializer.preloadClass(className)) {
+                count++;
+            }
+        }
+        timings.traceEnd(); // PreloadClassesSerialInit
+
+        Log.i(TAG, "Preloaded " + (classes.size() - ungrouped.size()) + " grouped classes on "
+                + threadCount + " threads and " + ungrouped.size() + " ungrouped classes serially");
+        return count;
+    }
+
+    /**
+     * Runs the initializer over each list of classes on its own thread, and waits for all of
+     * the threads to exit. Errors thrown on a worker are rethrown on the calling thread.
+     *
+     * @param timeoutMs how long to wait for all of the threads
+     * @return the number of classes loaded
+     * @throws WorkerTimeoutException if a thread is still running after the timeout
+     */
+    @VisibleForTesting
+    static int runOnWorkers(String name, List<List<String>> work, long timeoutMs,
+            ClassInitializer initializer) {
+        final Worker[] workers = new Worker[work.size()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(name + "-" + i, work.get(i), initializer);
+            workers[i].start();
+        }
+
+        final long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        int count = 0;
+        Throwable failure = null;
+        for (Worker worker : workers) {
+            boolean interrupted = false;
+            while (worker.isAlive()) {
+                final long remainingMs = deadline - SystemClock.uptimeMillis();
+                if (remainingMs <= 0) {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new WorkerTimeoutException(worker.getName() + " did not finish"
+                            + " preloading within " + timeoutMs + " ms");
+                }
+                try {
+                    worker.join(Math.min(STUCK_WORKER_TIMEOUT_MS, remainingMs));
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                }
+                if (worker.isAlive()) {
+                    final StringBuilder stack = new StringBuilder();
+                    for (StackTraceElement element : worker.getStackTrace()) {
+                        stack.append("\n    at ").append(element);
+                    }
+                    Log.e(TAG, worker.getName() + " still preloading, possibly deadlocked on a"
+                            + " static initializer dependency missing from "
+                            + PRELOADED_CLASS_GROUPS + ":" + stack);
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            count += worker.mCount;
+            if (failure == null) {
+                failure = worker.mFailure;
+            }
+        }
+
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+        return count;
+    }
+
+    private static class Worker extends Thread {
+        private final List<String> mClasses;
+        private final ClassInitializer mInitializer;
+        int mCount;
+        Throwable mFailure;
+
+        Worker(String name, List<String> classes, ClassInitializer initializer) {
+            super(name);
+            mClasses = classes;
+            mInitializer = initializer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (String className : mClasses) {
+                    if (mInitializer.preloadClass(className)) {
+                        mCount++;
+                    }
+                }
+            } catch (Throwable t) {
+                mFailure = t;
+            }
+        }
+    }
+}
@@ -70,6 +70,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.security.Security;
 import java.security.Provider;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Startup class for the zygote process.
@@ -89,6 +91,7 @@ public class ZygoteInit {
     private static final String PROPERTY_DISABLE_OPENGL_PRELOADING = "ro.zygote.disable_gl_preload";
     private static final String PROPERTY_GFX_DRIVER = "ro.gfx.driver.0";
     private static final String PROPERTY_RUNNING_IN_CONTAINER = "ro.boot.container";
+    private static final String PROPERTY_PARALLEL_PRELOAD = "persist.zygote.parallel_preload";
 
     private static final int LOG_BOOT_PROGRESS_PRELOAD_START = 3020;
     private static final int LOG_BOOT_PROGRESS_PRELOAD_END = 3030;
@@ -127,7 +130,7 @@ public class ZygoteInit {
         beginIcuCachePinning();
         bootTimingsTraceLog.traceEnd(); // BeginIcuCachePinning
         bootTimingsTraceLog.traceBegin("PreloadClasses");
-        preloadClasses();
+        preloadClasses(bootTimingsTraceLog);
         bootTimingsTraceLog.traceEnd(); // PreloadClasses
         bootTimingsTraceLog.traceBegin("PreloadResources");
         preloadResources();
@@ -232,8 +235,12 @@ public class ZygoteInit {
      *
      * Most classes only cause a few hundred bytes to be allocated, but
      * a few will allocate a dozen Kbytes (in one case, 500+K).
+     *
+     * If {@value #PROPERTY_PARALLEL_PRELOAD} is set and there is a profile of
+     * static initializer dependencies, classes are preloaded on several threads
+     * by {@link ParallelClassPreloader}.
      */
-    private static void preloadClasses() {
+    private static void preloadClasses(BootTimingsTraceLog bootTimingsTraceLog) {
         final VMRuntime runtime = VMRuntime.getRuntime();
 
         InputStream is;
@@ -275,7 +282,7 @@ public class ZygoteInit {
             BufferedReader br
                 = new BufferedReader(new InputStreamReader(is), 256);
 
-            int count = 0;
+            List<String> classes = new ArrayList<>();
             String line;
             while ((line = br.readLine()) != null) {
                 // Skip comments and blank lines.
@@ -283,38 +290,42 @@ public class ZygoteInit {
                 if (line.startsWith("#") || line.equals("")) {
                     continue;
                 }
+                classes.add(line);
+            }
+
+            List<List<String>> groups = null;
+            if (SystemProperties.getBoolean(PROPERTY_PARALLEL_PRELOAD, false)) {
+                groups = ParallelClassPreloader.readGroups(
+                        ParallelClassPreloader.PRELOADED_CLASS_GROUPS);
+                if (groups == null) {
+                    Log.w(TAG, "Parallel preloading requested but "
+                            + ParallelClassPreloader.PRELOADED_CLASS_GROUPS + " is missing");
+                }
+            }
 
-                Trace.traceBegin(Trace.TRACE_TAG_DALVIK, line);
+            int count = 0;
+            if (groups != null) {
                 try {
-                    if (false) {
-                        Log.v(TAG, "Preloading " + line + "...");
-                    }
-                    // Load and explicitly initialize the given class. Use
-                    // Class.forName(String, boolean, ClassLoader) to avoid repeated stack lookups
-                    // (to derive the caller's class-loader). Use true to force initialization, and
-                    // null for the boot classpath class-loader (could as well cache the
-                    // class-loader of this class in a variable).
-                    Class.forName(line, true, null);
-                    count++;
-                } catch (ClassNotFoundException e) {
-                    Log.w(TAG, "Class not found for preloading: " + line);
-                } catch (UnsatisfiedLinkError e) {
-                    Log.w(TAG, "Problem preloading " + line + ": " + e);
-                } catch (Throwable t) {
-                    Log.e(TAG, "Error preloading " + line + ".", t);
-                    if (t instanceof Error) {
-                        throw (Error) t;
-                    }
-                    if (t instanceof RuntimeException) {
-                        throw (RuntimeException) t;
+                    count = ParallelClassPreloader.preload(classes, groups,
+                            ZygoteInit::preloadClass, bootTimingsTraceLog);
+                } catch (ParallelClassPreloader.WorkerTimeoutException e) {
+                    // The zygote can't fork with preload threads stuck, so restart it, and
+                    // preload serially from then on rather than getting stuck on every boot.
+                    Log.e(TAG, "Parallel preloading is stuck, disabling it", e);
+                    SystemProperties.set(PROPERTY_PARALLEL_PRELOAD, "false");
+                    throw e;
+                }
+            } else {
+                for (int i = 0; i < classes.size(); i++) {
+                    if (preloadClass(classes.get(i))) {
+                        count++;
                     }
-                    throw new RuntimeException(t);
                 }
-                Trace.traceEnd(Trace.TRACE_TAG_DALVIK);
             }
 
             Log.i(TAG, "...preloaded " + count + " classes in "
-                    + (SystemClock.uptimeMillis()-startTime) + "ms.");
+                    + (SystemClock.uptimeMillis()-startTime) + "ms"
+                    + (groups != null ? " in parallel." : "."));
         } catch (IOException e) {
             Log.e(TAG, "Error reading " + PRELOADED_CLASSES + ".", e);
         } finally {
@@ -339,6 +350,43 @@ public class ZygoteInit {
         }
     }
 
+    /**
+     * Loads and initializes a single class listed in {@link #PRELOADED_CLASSES}.
+     *
+     * @return whether the class was found
+     */
+    private static boolean preloadClass(String className) {
+        Trace.traceBegin(Trace.TRACE_TAG_DALVIK, className);
+        try {
+            if (false) {
+                Log.v(TAG, "Preloading " + className + "...");
+            }
+            // Load and explicitly initialize the given class. Use
+            // Class.forName(String, boolean, ClassLoader) to avoid repeated stack lookups
+            // (to derive the caller's class-loader). Use true to force initialization, and
+            // null for the boot classpath class-loader (could as well cache the
+            // class-loader of this class in a variable).
+            Class.forName(className, true, null);
+            return true;
+        } catch (ClassNotFoundException e) {
+            Log.w(TAG, "Class not found for preloading: " + className);
+        } catch (UnsatisfiedLinkError e) {
+            Log.w(TAG, "Problem preloading " + className + ": " + e);
+        } catch (Throwable t) {
+            Log.e(TAG, "Error preloading " + className + ".", t);
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            throw new RuntimeException(t);
+        } finally {
+            Trace.traceEnd(Trace.TRACE_TAG_DALVIK);
+        }
+        return false;
+    }
+
     /**
      * Load in commonly used resources, so they can be shared across
      * processes.
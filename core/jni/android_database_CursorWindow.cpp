@@ -18,6 +18,7 @@
 #define LOG_TAG "CursorWindow"
 #define LOG_NDEBUG 0
 
+#include <algorithm>
 #include <inttypes.h>
 #include <jni.h>
 #include <JNIHelp.h>
@@ -364,66 +365,133 @@ static void nativeCopyStringToBuffer(JNIEnv* env, jclass clazz, jlong windowPtr,
     }
 }
 
-static jlong nativeGetLong(JNIEnv* env, jclass clazz, jlong windowPtr,
-        jint row, jint column) {
-    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
-    LOG_WINDOW("Getting long for %d,%d from %p", row, column, window);
-
-    CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
-    if (!fieldSlot) {
-        throwExceptionWithRowCol(env, row, column);
-        return 0;
-    }
-
+// Converts the value of a field to a long as documented by CursorWindow.getLong().
+// Returns false with an exception pending if it cannot be converted.
+static bool getFieldSlotAsLong(JNIEnv* env, CursorWindow* window,
+        CursorWindow::FieldSlot* fieldSlot, jlong* outValue) {
     int32_t type = window->getFieldSlotType(fieldSlot);
     if (type == CursorWindow::FIELD_TYPE_INTEGER) {
-        return window->getFieldSlotValueLong(fieldSlot);
+        *outValue = window->getFieldSlotValueLong(fieldSlot);
     } else if (type == CursorWindow::FIELD_TYPE_STRING) {
         size_t sizeIncludingNull;
         const char* value = window->getFieldSlotValueString(fieldSlot, &sizeIncludingNull);
-        return sizeIncludingNull > 1 ? strtoll(value, NULL, 0) : 0L;
+        *outValue = sizeIncludingNull > 1 ? strtoll(value, NULL, 0) : 0L;
     } else if (type == CursorWindow::FIELD_TYPE_FLOAT) {
-        return jlong(window->getFieldSlotValueDouble(fieldSlot));
+        *outValue = jlong(window->getFieldSlotValueDouble(fieldSlot));
     } else if (type == CursorWindow::FIELD_TYPE_NULL) {
-        return 0;
+        *outValue = 0;
     } else if (type == CursorWindow::FIELD_TYPE_BLOB) {
         throw_sqlite3_exception(env, "Unable to convert BLOB to long");
-        return 0;
+        return false;
     } else {
         throwUnknownTypeException(env, type);
-        return 0;
+        return false;
     }
+    return true;
 }
 
-static jdouble nativeGetDouble(JNIEnv* env, jclass clazz, jlong windowPtr,
-        jint row, jint column) {
-    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
-    LOG_WINDOW("Getting double for %d,%d from %p", row, column, window);
-
-    CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
-    if (!fieldSlot) {
-        throwExceptionWithRowCol(env, row, column);
-        return 0.0;
-    }
-
+// Converts the value of a field to a double as documented by CursorWindow.getDouble().
+// Returns false with an exception pending if it cannot be converted.
+static bool getFieldSlotAsDouble(JNIEnv* env, CursorWindow* window,
+        CursorWindow::FieldSlot* fieldSlot, jdouble* outValue) {
     int32_t type = window->getFieldSlotType(fieldSlot);
     if (type == CursorWindow::FIELD_TYPE_FLOAT) {
-        return window->getFieldSlotValueDouble(fieldSlot);
+        *outValue = window->getFieldSlotValueDouble(fieldSlot);
     } else if (type == CursorWindow::FIELD_TYPE_STRING) {
         size_t sizeIncludingNull;
         const char* value = window->getFieldSlotValueString(fieldSlot, &sizeIncludingNull);
-        return sizeIncludingNull > 1 ? strtod(value, NULL) : 0.0;
+        *outValue = sizeIncludingNull > 1 ? strtod(value, NULL) : 0.0;
     } else if (type == CursorWindow::FIELD_TYPE_INTEGER) {
-        return jdouble(window->getFieldSlotValueLong(fieldSlot));
+        *outValue = jdouble(window->getFieldSlotValueLong(fieldSlot));
     } else if (type == CursorWindow::FIELD_TYPE_NULL) {
-        return 0.0;
+        *outValue = 0.0;
     } else if (type == CursorWindow::FIELD_TYPE_BLOB) {
         throw_sqlite3_exception(env, "Unable to convert BLOB to double");
-        return 0.0;
+        return false;
     } else {
         throwUnknownTypeException(env, type);
+        return false;
+    }
+    return true;
+}
+
+static jlong nativeGetLong(JNIEnv* env, jclass clazz, jlong windowPtr,
+        jint row, jint column) {
+    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
+    LOG_WINDOW("Getting long for %d,%d from %p", row, column, window);
+
+    CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
+    if (!fieldSlot) {
+        throwExceptionWithRowCol(env, row, column);
+        return 0;
+    }
+
+    jlong value;
+    return getFieldSlotAsLong(env, window, fieldSlot, &value) ? value : 0;
+}
+
+static jdouble nativeGetDouble(JNIEnv* env, jclass clazz, jlong windowPtr,
+        jint row, jint column) {
+    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
+    LOG_WINDOW("Getting double for %d,%d from %p", row, column, window);
+
+    CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
+    if (!fieldSlot) {
+        throwExceptionWithRowCol(env, row, column);
         return 0.0;
     }
+
+    jdouble value;
+    return getFieldSlotAsDouble(env, window, fieldSlot, &value) ? value : 0.0;
+}
+
+// The number of values the bulk getters convert before copying them to the Java array.
+static const size_t BULK_BUFFER_SIZE = 256;
+
+static void nativeGetLongs(JNIEnv* env, jclass clazz, jlong windowPtr,
+        jint row, jint column, jlongArray valuesObj, jint offset, jint count) {
+    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
+    LOG_WINDOW("Getting %d longs for %d,%d from %p", count, row, column, window);
+
+    jlong buffer[BULK_BUFFER_SIZE];
+    for (jint copied = 0; copied < count; ) {
+        const jint chunk = std::min(count - copied, jint(BULK_BUFFER_SIZE));
+        for (jint i = 0; i < chunk; i++) {
+            CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row + copied + i, column);
+            if (!fieldSlot) {
+                throwExceptionWithRowCol(env, row + copied + i, column);
+                return;
+            }
+            if (!getFieldSlotAsLong(env, window, fieldSlot, &buffer[i])) {
+                return;
+            }
+        }
+        env->SetLongArrayRegion(valuesObj, offset + copied, chunk, buffer);
+        copied += chunk;
+    }
+}
+
+static void nativeGetDoubles(JNIEnv* env, jclass clazz, jlong windowPtr,
+        jint row, jint column, jdoubleArray valuesObj, jint offset, jint count) {
+    CursorWindow* window = reinterpret_cast<CursorWindow*>(windowPtr);
+    LOG_WINDOW("Getting %d doubles for %d,%d from %p", count, row, column, window);
+
+    jdouble buffer[BULK_BUFFER_SIZE];
+    for (jint copied = 0; copied < count; ) {
+        const jint chunk = std::min(count - copied, jint(BULK_BUFFER_SIZE));
+        for (jint i = 0; i < chunk; i++) {
+            CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row + copied + i, column);
+            if (!fieldSlot) {
+                throwExceptionWithRowCol(env, row + copied + i, column);
+                return;
+            }
+            if (!getFieldSlotAsDouble(env, window, fieldSlot, &buffer[i])) {
+                return;
+            }
+        }
+        env->SetDoubleArrayRegion(valuesObj, offset + copied, chunk, buffer);
+        copied += chunk;
+    }
 }
 
 static jboolean nativePutBlob(JNIEnv* env, jclass clazz, jlong windowPtr,
@@ -541,6 +609,10 @@ static const JNINativeMethod sMethods[] =
             (void*)nativeGetLong },
     { "nativeGetDouble", "(JII)D",
             (void*)nativeGetDouble },
+    { "nativeGetLongs", "(JII[JII)V",
+            (void*)nativeGetLongs },
+    { "nativeGetDoubles", "(JII[DII)V",
+            (void*)nativeGetDoubles },
     { "nativeCopyStringToBuffer", "(JIILandroid/database/CharArrayBuffer;)V",
             (void*)nativeCopyStringToBuffer },
     { "nativePutBlob", "(J[BII)Z",
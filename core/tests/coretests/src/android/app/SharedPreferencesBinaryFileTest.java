@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.internal.util.XmlUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class SharedPreferencesBinaryFileTest {
+    private File mDir;
+
+    @Before
+    public void setUp() {
+        mDir = new File(InstrumentationRegistry.getContext().getFilesDir(), "binary_prefs_test");
+        deleteDir();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDir();
+    }
+
+    private void deleteDir() {
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private static Map<String, Object> changes(Object... keysAndValues) {
+        final Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final File file = new File(mDir, "prefs.xml.bin");
+        final SharedPreferencesBinaryFile binaryFile = new SharedPreferencesBinaryFile(file);
+        assertNull(binaryFile.read());
+
+        final Set<String> set = new HashSet<>(Arrays.asList("a", null, "c"));
+        assertTrue(binaryFile.append(changes("string", "value", "int", 1, "long", 2L,
+                "float", 3.0f, "boolean", true), false));
+        assertTrue(binaryFile.append(changes("set", set, "int", null), false));
+
+        final Map<String, Object> map = new SharedPreferencesBinaryFile(file).read();
+        assertEquals(5, map.size());
+        assertEquals("value", map.get("string"));
+        assertFalse(map.containsKey("int"));
+        assertEquals(2L, map.get("long"));
+        assertEquals(3.0f, map.get("float"));
+        assertEquals(true, map.get("boolean"));
+        assertEquals(set, map.get("set"));
+    }
+
+    @Test
+    public void testTruncatedTailIsDropped() throws Exception {
+        final File file = new File(mDir, "prefs.xml.bin");
+        final SharedPreferencesBinaryFile binaryFile = new SharedPreferencesBinaryFile(file);
+        assertTrue(binaryFile.writeSnapshot(changes("a", 1)));
+        assertTrue(binaryFile.append(changes("b", "two"), false));
+        final long validLength = binaryFile.getLength();
+        assertTrue(binaryFile.append(changes("c", 3), false));
+
+        // A crash in the middle of writing the last record.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3);
+        }
+
+        final SharedPreferencesBinaryFile reread = new SharedPreferencesBinaryFile(file);
+        final Map<String, Object> map = reread.read();
+        assertEquals(changes("a", 1, "b", "two"), map);
+        assertEquals(validLength, reread.getLength());
+        assertEquals(validLength, file.length());
+
+        // Appending continues from the last valid record.
+        assertTrue(reread.append(changes("c", 4), false));
+        assertEquals(changes("a", 1, "b", "two", "c", 4),
+                new SharedPreferencesBinaryFile(file).read());
+    }
+
+    @Test
+    public void testCorruptRecordIsDropped() throws Exception {
+        final File file = new File(mDir, "prefs.xml.bin");
+        final SharedPreferencesBinaryFile binaryFile = new SharedPreferencesBinaryFile(file);
+        assertTrue(binaryFile.writeSnapshot(changes("a", 1)));
+        final long validLength = binaryFile.getLength();
+        assertTrue(binaryFile.append(changes("b", "two"), false));
+
+        // Flip the last byte, so the record's CRC no longer matches.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(file.length() - 1);
+            final int last = raf.read();
+            raf.seek(file.length() - 1);
+            raf.write(last ^ 0xff);
+        }
+
+        final SharedPreferencesBinaryFile reread = new SharedPreferencesBinaryFile(file);
+        assertEquals(changes("a", 1), reread.read());
+        assertEquals(validLength, file.length());
+    }
+
+    private static void writeGarbage(File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+        }
+    }
+
+    @Test
+    public void testUnreadableFileIsMovedAside() throws Exception {
+        final File file = new File(mDir, "prefs.xml.bin");
+        writeGarbage(file);
+
+        final SharedPreferencesBinaryFile binaryFile = new SharedPreferencesBinaryFile(file);
+        try {
+            binaryFile.read();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+        final File unreadable = new File(file.getPath() + ".unreadable");
+        assertTrue(unreadable.exists());
+        assertEquals(9, unreadable.length());
+
+        // The next write starts a new file rather than overwriting the old one.
+        assertTrue(binaryFile.append(changes("a", 1), false));
+        assertEquals(changes("a", 1), new SharedPreferencesBinaryFile(file).read());
+        assertEquals(9, unreadable.length());
+    }
+
+    @Test
+    public void testUnreadableFileIsNotWritten() throws Exception {
+        final File file = new File(mDir, "prefs.xml.bin");
+        writeGarbage(file);
+        // A non-empty directory in the way keeps the file from being moved aside.
+        final File unreadable = new File(file.getPath() + ".unreadable");
+        final File blocker = new File(unreadable, "blocker");
+        unreadable.mkdir();
+        blocker.createNewFile();
+
+        try {
+            final SharedPreferencesBinaryFile binaryFile = new SharedPreferencesBinaryFile(file);
+            try {
+                binaryFile.read();
+                fail("Expected IOException");
+            } catch (IOException expected) {
+            }
+            assertFalse(binaryFile.append(changes("a", 1), false));
+            assertFalse(binaryFile.writeSnapshot(changes("a", 1)));
+            assertEquals(9, file.length());
+        } finally {
+            blocker.delete();
+            unreadable.delete();
+        }
+    }
+
+    @Test
+    public void testCompactionThreshold() throws Exception {
+        final File file = new File(mDir, "prefs.xml.bin");
+        final SharedPreferencesBinaryFile binaryFile = new SharedPreferencesBinaryFile(file);
+        final char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        final String value = new String(chars);
+
+        // Small logs aren't compacted, however much they grew since the snapshot.
+        assertTrue(binaryFile.writeSnapshot(changes("a", value)));
+        int i = 0;
+        while (binaryFile.getLength() <= SharedPreferencesBinaryFile.MIN_COMPACTION_SIZE) {
+            assertFalse(binaryFile.needsCompaction());
+            assertTrue(binaryFile.append(changes("a", value + i++), false));
+        }
+        assertTrue(binaryFile.needsCompaction());
+
+        // Larger snapshots are compacted once the log is twice their size.
+        final Map<String, Object> map = new HashMap<>();
+        for (i = 0; i < 20; i++) {
+            map.put("key" + i, value);
+        }
+        assertTrue(binaryFile.writeSnapshot(map));
+        final long snapshotLength = binaryFile.getLength();
+        assertTrue(snapshotLength > SharedPreferencesBinaryFile.MIN_COMPACTION_SIZE);
+        assertFalse(binaryFile.needsCompaction());
+        i = 0;
+        while (binaryFile.getLength() <= 2 * snapshotLength) {
+            assertFalse(binaryFile.needsCompaction());
+            assertTrue(binaryFile.append(changes("key0", value + i++), false));
+        }
+        assertTrue(binaryFile.needsCompaction());
+
+        assertTrue(binaryFile.writeSnapshot(new SharedPreferencesBinaryFile(file).read()));
+        assertFalse(binaryFile.needsCompaction());
+    }
+
+    @Test
+    public void testMigrationFromXml() throws Exception {
+        final File file = new File(mDir, "prefs.xml");
+        final Map<String, Object> map = new HashMap<>();
+        map.put("string", "value");
+        map.put("int", 1);
+        map.put("set", new HashSet<>(Arrays.asList("a", null)));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            XmlUtils.writeMapXml(map, out);
+        }
+
+        final int mode = Context.MODE_PRIVATE | Context.MODE_BINARY_PREFERENCES;
+        SharedPreferences prefs = new SharedPreferencesImpl(file, mode);
+        assertEquals("value", prefs.getString("string", null));
+        assertFalse(file.exists());
+        assertTrue(SharedPreferencesImpl.makeBinaryFile(file).exists());
+
+        assertTrue(prefs.edit().putInt("int", 2).commit());
+
+        prefs = new SharedPreferencesImpl(file, mode);
+        assertEquals("value", prefs.getString("string", null));
+        assertEquals(2, prefs.getInt("int", 0));
+        assertEquals(new HashSet<>(Arrays.asList("a", null)), prefs.getStringSet("set", null));
+        assertFalse(file.exists());
+    }
+}
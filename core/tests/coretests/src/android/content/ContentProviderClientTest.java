@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ContentProviderClientTest extends AndroidTestCase {
+    private static final String AUTHORITY = "android.content.ContentProviderClientTest";
+    private static final Uri ROWS_URI = Uri.parse("content://" + AUTHORITY + "/rows");
+    private static final Uri FAIL_URI = Uri.parse("content://" + AUTHORITY + "/fail");
+
+    /** Records the size of each batch it is asked to apply. */
+    public static class ChunkRecordingProvider extends ContentProvider {
+        final List<Integer> mChunkSizes = new ArrayList<>();
+        private int mNextId;
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            mChunkSizes.add(operations.size());
+            for (ContentProviderOperation operation : operations) {
+                if (FAIL_URI.equals(operation.getUri())) {
+                    throw new OperationApplicationException("failed", 0);
+                }
+            }
+            return super.applyBatch(operations);
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return ContentUris.withAppendedId(uri, mNextId++);
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    private ChunkRecordingProvider mProvider;
+    private ContentProviderClient mClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new ChunkRecordingProvider();
+        mProvider.attachInfo(getContext(), null);
+        final MockContentResolver resolver = new MockContentResolver(getContext());
+        resolver.addProvider(AUTHORITY, mProvider);
+        mClient = resolver.acquireContentProviderClient(AUTHORITY);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.release();
+        super.tearDown();
+    }
+
+    /**
+     * Returns inserts that allow a yield before every {@code yieldEvery}-th operation, or never
+     * if it is 0.
+     */
+    private static ArrayList<ContentProviderOperation> inserts(int count, int yieldEvery) {
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            operations.add(ContentProviderOperation.newInsert(ROWS_URI)
+                    .withValue("value", i)
+                    .withYieldAllowed(yieldEvery > 0 && i % yieldEvery == 0)
+                    .build());
+        }
+        return operations;
+    }
+
+    @SmallTest
+    public void testChunksEndAtYieldPoints() throws Exception {
+        final ContentProviderResult[] results =
+                mClient.applyBatchInChunks(inserts(2500, 300), null);
+        assertEquals(2500, results.length);
+        assertEquals(ContentUris.withAppendedId(ROWS_URI, 2499), results[2499].uri);
+        // The largest multiples of 300 that fit in 1000 operations.
+        assertEquals(Arrays.asList(900, 900, 700), mProvider.mChunkSizes);
+    }
+
+    @SmallTest
+    public void testBatchWithoutYieldPointsIsSplitAtLimits() throws Exception {
+        final ContentProviderResult[] results = mClient.applyBatchInChunks(inserts(2500, 0), null);
+        assertEquals(2500, results.length);
+        assertEquals(Arrays.asList(1000, 1000, 500), mProvider.mChunkSizes);
+    }
+
+    @SmallTest
+    public void testChunksEndAtLimitsBetweenYieldPoints() throws Exception {
+        // No yield point within the first 1000 operations.
+        mClient.applyBatchInChunks(inserts(2500, 1500), null);
+        assertEquals(Arrays.asList(1000, 500, 1000), mProvider.mChunkSizes);
+    }
+
+    @SmallTest
+    public void testFailureReportsCommittedYieldPoints() throws Exception {
+        final ArrayList<ContentProviderOperation> operations = inserts(2500, 100);
+        operations.set(1550, ContentProviderOperation.newInsert(FAIL_URI).build());
+        try {
+            mClient.applyBatchInChunks(operations, null);
+            fail("expected OperationApplicationException");
+        } catch (OperationApplicationException e) {
+            // The first chunk passed the yield points at 100, 200, ..., 1000.
+            assertEquals(10, e.getNumSuccessfulYieldPoints());
+            assertTrue(e.getMessage(), e.getMessage().contains("1000 operations"));
+        }
+        assertEquals(Arrays.asList(1000, 1000), mProvider.mChunkSizes);
+    }
+}
@@ -278,6 +278,42 @@ public class ContentProviderOperationTest extends TestCase {
         assertEquals("a,103,101,b,102", TextUtils.join(",", s2));
     }
 
+    public void testBackRefsToPreviousResults()
+            throws NoSuchFieldException, IllegalAccessException {
+        ContentProviderResult[] previousResults = new ContentProviderResult[2];
+        previousResults[0] = new ContentProviderResult(Uri.parse("content://authority/blah/7"));
+        previousResults[1] = new ContentProviderResult(101);
+
+        ContentValues values = new ContentValues();
+        values.put("a", "in1");
+
+        ContentProviderOperation op1 = ContentProviderOperation.newUpdate(sTestUri1)
+                .withValues(values)
+                .withValueBackReference("b", 0)
+                .withValueBackReference("c", 3)
+                .withSelection("unused", new String[] {"x", null, null})
+                .withSelectionBackReference(1, 1)
+                .withSelectionBackReference(2, 2)
+                .build();
+        ContentProviderOperation op2 = op1.getWithPreviousResults(previousResults, 2);
+
+        // The operation applied after the previous results sees the same values.
+        ContentProviderResult[] chunkResults = new ContentProviderResult[2];
+        chunkResults[0] = new ContentProviderResult(102);
+        chunkResults[1] = new ContentProviderResult(103);
+        ContentValues expectedValues = new ContentValues(values);
+        expectedValues.put("b", (long) 7);
+        expectedValues.put("c", (long) 103);
+        assertEquals(expectedValues, op2.resolveValueBackReferences(chunkResults, 2));
+        assertEquals("x,101,102", TextUtils.join(",",
+                op2.resolveSelectionArgsBackReferences(chunkResults, 2)));
+
+        // The original operation is left untouched.
+        assertEquals(values, operationGetValues(op1));
+        assertEquals(2, operationGetValuesBackReferences(op1).size());
+        assertSame(op1, op1.getWithPreviousResults(previousResults, 0));
+    }
+
     public void testParcelingOperation() throws NoSuchFieldException, IllegalAccessException,
             NoSuchMethodException, InvocationTargetException, InstantiationException {
         Parcel parcel = Parcel.obtain();
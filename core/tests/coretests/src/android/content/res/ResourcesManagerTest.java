@@ -27,6 +27,10 @@ import android.view.DisplayAdjustments;
 
 import junit.framework.TestCase;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+
 public class ResourcesManagerTest extends TestCase {
     private static final String APP_ONE_RES_DIR = "app_one.apk";
     private static final String APP_ONE_RES_SPLIT_DIR = "app_one_split.apk";
@@ -256,4 +260,45 @@ public class ResourcesManagerTest extends TestCase {
         expectedConfig2.orientation = Configuration.ORIENTATION_LANDSCAPE;
         assertEquals(expectedConfig2, resources2.getConfiguration());
     }
+
+    @SmallTest
+    public void testRecentlyUsedImplSurvivesGc() {
+        Resources resources = mResourcesManager.getResources(
+                null, APP_ONE_RES_DIR, null, null, null, Display.DEFAULT_DISPLAY, null,
+                CompatibilityInfo.DEFAULT_COMPATIBILITY_INFO, null);
+        assertNotNull(resources);
+        final WeakReference<ResourcesImpl> implRef = new WeakReference<>(resources.getImpl());
+        resources = null;
+
+        Runtime.getRuntime().gc();
+        Runtime.getRuntime().runFinalization();
+        Runtime.getRuntime().gc();
+        assertNotNull(implRef.get());
+
+        resources = mResourcesManager.getResources(
+                null, APP_ONE_RES_DIR, null, null, null, Display.DEFAULT_DISPLAY, null,
+                CompatibilityInfo.DEFAULT_COMPATIBILITY_INFO, null);
+        assertSame(implRef.get(), resources.getImpl());
+    }
+
+    @SmallTest
+    public void testDumpCountsHitsAndMisses() {
+        Resources resources1 = mResourcesManager.getResources(
+                null, APP_ONE_RES_DIR, null, null, null, Display.DEFAULT_DISPLAY, null,
+                CompatibilityInfo.DEFAULT_COMPATIBILITY_INFO, null);
+        Resources resources2 = mResourcesManager.getResources(
+                null, APP_ONE_RES_DIR, null, null, null, Display.DEFAULT_DISPLAY, null,
+                CompatibilityInfo.DEFAULT_COMPATIBILITY_INFO, null);
+        assertSame(resources1, resources2);
+
+        final StringWriter sw = new StringWriter();
+        final PrintWriter pw = new PrintWriter(sw);
+        mResourcesManager.dump("", pw);
+        pw.flush();
+        final String dump = sw.toString();
+        assertTrue(dump, dump.contains("hits=1 misses=1 "));
+        assertTrue(dump, dump.contains(APP_ONE_RES_DIR));
+        assertTrue(dump, dump.contains(" apkFileSize="));
+        assertFalse(dump, dump.contains("Total"));
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class StyledAttributesCacheTest extends AndroidTestCase {
+    private static final int[] ATTRS = new int[] {
+            android.R.attr.colorForeground, android.R.attr.colorBackground };
+
+    private int getColor(Resources.Theme theme, int[] attrs, int index) {
+        final TypedArray a = theme.obtainStyledAttributes(attrs);
+        try {
+            return a.getColor(index, 0);
+        } finally {
+            a.recycle();
+        }
+    }
+
+    @SmallTest
+    public void testRepeatedCallsReturnSameValues() {
+        final Resources.Theme theme = getContext().getResources().newTheme();
+        theme.applyStyle(android.R.style.Theme_Material, true);
+
+        final int foreground = getColor(theme, ATTRS, 0);
+        final int background = getColor(theme, ATTRS, 1);
+        assertEquals(foreground, getColor(theme, ATTRS, 0));
+        assertEquals(background, getColor(theme, ATTRS, 1));
+    }
+
+    @SmallTest
+    public void testApplyStyleInvalidatesCachedValues() {
+        final Resources.Theme theme = getContext().getResources().newTheme();
+        theme.applyStyle(android.R.style.Theme_Material, true);
+        final int dark = getColor(theme, ATTRS, 0);
+
+        theme.applyStyle(android.R.style.Theme_Material_Light, true);
+        final int light = getColor(theme, ATTRS, 0);
+        assertTrue(dark != light);
+
+        final Resources.Theme other = getContext().getResources().newTheme();
+        other.applyStyle(android.R.style.Theme_Material, true);
+        theme.setTo(other);
+        assertEquals(dark, getColor(theme, ATTRS, 0));
+    }
+
+    @SmallTest
+    public void testChangedAttributeArrayIsResolvedAgain() {
+        final Resources.Theme theme = getContext().getResources().newTheme();
+        theme.applyStyle(android.R.style.Theme_Material, true);
+
+        final int[] attrs = ATTRS.clone();
+        final int background = getColor(theme, attrs, 1);
+        attrs[0] = android.R.attr.colorBackground;
+        assertEquals(background, getColor(theme, attrs, 0));
+    }
+}
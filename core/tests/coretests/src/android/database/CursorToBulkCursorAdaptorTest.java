@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import android.content.res.Resources;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Reads cursors through a {@link CursorToBulkCursorAdaptor} the way a client in another process
+ * does: every call, and every window, goes through a parcel.
+ */
+public class CursorToBulkCursorAdaptorTest extends TestCase {
+    private static final int WINDOW_SIZE = Resources.getSystem().getInteger(
+            com.android.internal.R.integer.config_cursorWindowSize) * 1024;
+
+    private static Cursor remote(Cursor cursor, boolean streaming) {
+        final BulkCursorToCursorAdaptor client = new BulkCursorToCursorAdaptor();
+        final CursorToBulkCursorAdaptor provider = new CursorToBulkCursorAdaptor(
+                cursor, client.getObserver(), "test");
+        provider.setStreamingEnabled(streaming);
+        final BulkCursorDescriptor d = provider.getBulkCursorDescriptor();
+        // Transactions on the local binder through a proxy are parcelled, as across processes.
+        d.cursor = new BulkCursorProxy(provider.asBinder());
+        client.initialize(d);
+        return client;
+    }
+
+    private static byte[] blob(int row, int size) {
+        final byte[] blob = new byte[size];
+        Arrays.fill(blob, (byte) row);
+        return blob;
+    }
+
+    @MediumTest
+    public void testStreamedWindows() {
+        // Several windows worth of rows.
+        final int rowSize = 1024;
+        final int count = 3 * WINDOW_SIZE / rowSize;
+        final MatrixCursor cursor = new MatrixCursor(new String[] {"_id", "data"});
+        for (int i = 0; i < count; i++) {
+            cursor.addRow(new Object[] {i, blob(i, rowSize)});
+        }
+
+        final Cursor client = remote(cursor, true);
+        int rows = 0;
+        while (client.moveToNext()) {
+            assertEquals(rows, client.getInt(0));
+            assertTrue(Arrays.equals(blob(rows, rowSize), client.getBlob(1)));
+            rows++;
+        }
+        assertEquals(count, rows);
+        client.close();
+    }
+
+    @MediumTest
+    public void testRowLargerThanWindow() {
+        final int bigRow = 10;
+        for (boolean streaming : new boolean[] {false, true}) {
+            final MatrixCursor cursor = new MatrixCursor(new String[] {"_id", "data"});
+            for (int i = 0; i < 15; i++) {
+                cursor.addRow(new Object[] {i, blob(i, i == bigRow ? WINDOW_SIZE + 1 : 16)});
+            }
+            final Cursor client = remote(cursor, streaming);
+            for (int i = 0; i < bigRow; i++) {
+                assertTrue(client.moveToNext());
+                assertEquals(i, client.getInt(0));
+            }
+
+            // The client asks for the row right after its window, which is the streamed case.
+            // The row doesn't fit in any window, so reading it fails like it always did.
+            assertTrue(client.moveToNext());
+            try {
+                client.getInt(0);
+                fail("expected IllegalStateException, streaming=" + streaming);
+            } catch (IllegalStateException expected) {
+            }
+
+            // The rows after it can still be read.
+            for (int i = bigRow + 1; i < 15; i++) {
+                assertTrue(client.moveToNext());
+                assertEquals(i, client.getInt(0));
+            }
+            assertFalse(client.moveToNext());
+            client.close();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package android.database;
 
 import android.test.suitebuilder.annotation.SmallTest;
+import android.database.AbstractWindowedCursor;
 import android.database.CursorWindow;
 import android.test.PerformanceTestCase;
 
@@ -106,4 +107,69 @@ public class CursorWindowTest extends TestCase implements PerformanceTestCase {
         assertTrue(window.putBlob(blob, 0, 6));
         assertTrue(Arrays.equals(blob, window.getBlob(0, 6)));
     }
+
+    @SmallTest
+    public void testGetLongsAndDoubles() {
+        CursorWindow window = new CursorWindow("MyWindow");
+        window.setStartPosition(10);
+        assertTrue(window.setNumColumns(2));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(window.allocRow());
+            assertTrue(window.putLong(i, 10 + i, 0));
+            assertTrue(window.putString(Double.toString(i + 0.5), 10 + i, 1));
+        }
+
+        long[] longs = new long[6];
+        assertEquals(3, window.getLongs(12, 0, longs, 1, 5));
+        assertTrue(Arrays.equals(new long[] {0, 2, 3, 4, 0, 0}, longs));
+
+        double[] doubles = new double[5];
+        assertEquals(5, window.getDoubles(10, 1, doubles, 0, 5));
+        assertTrue(Arrays.equals(new double[] {0.5, 1.5, 2.5, 3.5, 4.5}, doubles));
+        assertEquals(5, window.getDoubles(10, 0, doubles, 0, 5));
+        assertTrue(Arrays.equals(new double[] {0, 1, 2, 3, 4}, doubles));
+
+        assertEquals(0, window.getLongs(15, 0, longs, 0, 1));
+        window.close();
+    }
+
+    @SmallTest
+    public void testCursorGetLongsStopsAtWindowEnd() {
+        CursorWindow window = new CursorWindow("MyWindow");
+        assertTrue(window.setNumColumns(1));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(window.allocRow());
+            assertTrue(window.putLong(i, i, 0));
+        }
+
+        // Claims more rows than the window holds, and never refills it.
+        AbstractWindowedCursor cursor = new AbstractWindowedCursor() {
+            @Override
+            public int getCount() {
+                return 8;
+            }
+
+            @Override
+            public String[] getColumnNames() {
+                return new String[] {"value"};
+            }
+        };
+        cursor.setWindow(window);
+
+        long[] longs = new long[8];
+        try {
+            cursor.getLongs(0, 0, longs, 0, 8);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(Arrays.equals(new long[] {0, 1, 2, 3, 4, 0, 0, 0}, longs));
+
+        double[] doubles = new double[8];
+        try {
+            cursor.getDoubles(0, 0, doubles, 0, 8);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        cursor.close();
+    }
 }
@@ -192,6 +192,30 @@ public class MatrixCursorTest extends TestCase {
         }
     }
 
+    public void testGetLongsAndDoubles() {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "a", "b" });
+        for (int i = 0; i < 5; i++) {
+            cursor.addRow(new Object[] { i, i == 2 ? null : Double.toString(i + 0.5) });
+        }
+
+        long[] longs = new long[4];
+        assertEquals(3, cursor.getLongs(2, 0, longs, 1, 3));
+        MoreAsserts.assertEquals(new long[] { 0, 2, 3, 4 }, longs);
+        assertEquals(4, cursor.getPosition());
+
+        double[] doubles = new double[5];
+        assertEquals(5, cursor.getDoubles(0, 1, doubles, 0, 5));
+        MoreAsserts.assertEquals(new double[] { 0.5, 1.5, 0, 3.5, 4.5 }, doubles);
+
+        assertEquals(0, cursor.getLongs(5, 0, longs, 0, 1));
+        try {
+            cursor.getLongs(0, 2, longs, 0, 1);
+            fail();
+        } catch (CursorIndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
     private MatrixCursor newMatrixCursor() {
         return new MatrixCursor(new String[] {
                 "string", "short", "int", "long", "float", "double", "blob" });
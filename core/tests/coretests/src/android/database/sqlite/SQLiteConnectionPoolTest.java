@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.StringBuilderPrinter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SQLiteConnectionPoolTest extends AndroidTestCase {
+    private File mDatabaseFile;
+    private SQLiteConnectionPool mPool;
+    private final ArrayList<SQLiteConnection> mHeld = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabaseFile = getContext().getDatabasePath("connection_pool_test.db");
+        mDatabaseFile.getParentFile().mkdirs();
+        SQLiteDatabase.deleteDatabase(mDatabaseFile);
+        mPool = SQLiteConnectionPool.open(new SQLiteDatabaseConfiguration(
+                mDatabaseFile.getPath(), SQLiteDatabase.CREATE_IF_NECESSARY
+                        | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        releaseAll();
+        try {
+            mPool.close();
+        } catch (IllegalStateException ex) {
+            // Already closed by the test.
+        }
+        SQLiteDatabase.deleteDatabase(mDatabaseFile);
+        super.tearDown();
+    }
+
+    private void releaseAll() {
+        for (int i = mHeld.size() - 1; i >= 0; i--) {
+            mPool.releaseConnection(mHeld.remove(i));
+        }
+    }
+
+    private SQLiteConnection acquireReadOnly() {
+        return mPool.acquireConnection("SELECT 1", SQLiteConnectionPool.CONNECTION_FLAG_READ_ONLY,
+                null);
+    }
+
+    /**
+     * Acquires every connection the pool may have right now: the primary one, then as many
+     * non-primary ones as fit.
+     */
+    private void acquireAll() {
+        if (mHeld.isEmpty()) {
+            mHeld.add(mPool.acquireConnection("SELECT 1", 0, null));
+        }
+        while (mHeld.size() < mPool.getMaxConnectionPoolSize()) {
+            mHeld.add(acquireReadOnly());
+        }
+    }
+
+    /**
+     * Has another thread wait for a non-primary connection for longer than the pool tolerates,
+     * then hands it one of the held connections.
+     */
+    private void acquireAfterContention() throws Exception {
+        final AtomicReference<SQLiteConnection> acquired = new AtomicReference<>();
+        final Thread waiter = new Thread(() -> acquired.set(acquireReadOnly()));
+        waiter.start();
+        while (waiter.getState() != Thread.State.TIMED_WAITING) {
+            SystemClock.sleep(1);
+        }
+        SystemClock.sleep(50);
+        mPool.releaseConnection(mHeld.remove(mHeld.size() - 1));
+        waiter.join();
+        assertNotNull(acquired.get());
+        mHeld.add(acquired.get());
+    }
+
+    @MediumTest
+    public void testPoolGrowsUnderContention() throws Exception {
+        final int configured = mPool.getConfiguredConnectionPoolSize();
+        if (configured < 2) {
+            return; // No non-primary connections on this device.
+        }
+        assertEquals(configured, mPool.getMaxConnectionPoolSize());
+
+        for (int i = 1; i <= configured; i++) {
+            acquireAll();
+            acquireAfterContention();
+            assertEquals(configured + i, mPool.getMaxConnectionPoolSize());
+            assertEquals(i, mPool.getStats().getGrowCount());
+        }
+
+        // Twice the configured size is the limit.
+        acquireAll();
+        acquireAfterContention();
+        assertEquals(configured * 2, mPool.getMaxConnectionPoolSize());
+        assertEquals(configured, mPool.getStats().getGrowCount());
+    }
+
+    @MediumTest
+    public void testIdleConnectionsShrinkPool() throws Exception {
+        final int configured = mPool.getConfiguredConnectionPoolSize();
+        if (configured < 2) {
+            return;
+        }
+        mPool.setIdleConnectionTimeout(20);
+        acquireAll();
+        acquireAfterContention();
+        acquireAll();
+        assertEquals(configured + 1, mPool.getMaxConnectionPoolSize());
+
+        releaseAll();
+        final long deadline = SystemClock.uptimeMillis() + 5000;
+        while (mPool.getMaxConnectionPoolSize() > configured
+                && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+        }
+        // Only the connection the pool grew by is closed.
+        assertEquals(configured, mPool.getMaxConnectionPoolSize());
+        assertEquals(1, mPool.getStats().getIdleCloseCount());
+        SystemClock.sleep(100);
+        assertEquals(1, mPool.getStats().getIdleCloseCount());
+        assertFalse(mPool.getIdleConnectionHandler().hasMessages(
+                SQLiteConnectionPool.MSG_CLOSE_IDLE_CONNECTIONS));
+    }
+
+    @MediumTest
+    public void testNoIdleSweepAtConfiguredSize() {
+        if (mPool.getConfiguredConnectionPoolSize() < 2) {
+            return;
+        }
+        acquireAll();
+        releaseAll();
+        assertNull(mPool.getIdleConnectionHandler());
+    }
+
+    @MediumTest
+    public void testCloseRemovesIdleMessages() throws Exception {
+        if (mPool.getConfiguredConnectionPoolSize() < 2) {
+            return;
+        }
+        acquireAll();
+        acquireAfterContention();
+        releaseAll();
+        final Handler handler = mPool.getIdleConnectionHandler();
+        assertTrue(handler.hasMessages(SQLiteConnectionPool.MSG_CLOSE_IDLE_CONNECTIONS));
+
+        mPool.close();
+        assertFalse(handler.hasMessages(SQLiteConnectionPool.MSG_CLOSE_IDLE_CONNECTIONS));
+        assertNull(mPool.getIdleConnectionHandler());
+    }
+
+    @SmallTest
+    public void testStatsDump() {
+        final SQLiteConnectionPoolStats stats = new SQLiteConnectionPoolStats();
+        stats.onConnectionAcquired(false, 0);
+        stats.onConnectionAcquired(true, 20);
+        stats.onConnectionAcquired(true, 2000);
+        stats.onPoolGrown();
+        stats.onIdleConnectionClosed();
+        stats.onSlowOperation("slow query");
+        assertEquals(3, stats.getAcquireCount());
+        assertEquals(2, stats.getWaitCount());
+
+        final StringBuilder sb = new StringBuilder();
+        stats.dump(new StringBuilderPrinter(sb), 3, 1);
+        final String dump = sb.toString();
+        assertTrue(dump, dump.contains(
+                "Connections acquired: 3, after waiting: 2 (total 2020 ms, max 2000 ms)"));
+        assertTrue(dump, dump.contains("none=1 "));
+        assertTrue(dump, dump.contains("<64ms=1 "));
+        assertTrue(dump, dump.contains(">=1024ms=1"));
+        assertTrue(dump, dump.contains("3 hits in 4 lookups (75%)"));
+        assertTrue(dump, dump.contains("Pool grown: 1 times, idle connections closed: 1"));
+        assertTrue(dump, dump.contains("0: slow query"));
+    }
+}
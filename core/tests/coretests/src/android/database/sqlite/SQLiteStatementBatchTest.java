@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.database.DatabaseUtils;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SQLiteStatementBatchTest extends AndroidTestCase {
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE t (_id INTEGER PRIMARY KEY, name TEXT UNIQUE)");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    private long countRows() {
+        return DatabaseUtils.queryNumEntries(mDatabase, "t");
+    }
+
+    @SmallTest
+    public void testExecuteBatch() {
+        final SQLiteStatementBatch batch = new SQLiteStatementBatch()
+                .add("INSERT INTO t (name) VALUES (?)", "a")
+                .add("  insert into t (name) VALUES (?)", "b")
+                .add("UPDATE t SET name = name || 'x'")
+                .add("DELETE FROM t WHERE name = ?", "ax");
+
+        final long[] results = mDatabase.executeBatch(batch, null);
+        assertEquals(4, results.length);
+        assertEquals(1, results[0]);
+        assertEquals(2, results[1]);
+        assertEquals(2, results[2]);
+        assertEquals(1, results[3]);
+        assertEquals(1, countRows());
+    }
+
+    @SmallTest
+    public void testFailedBatchIsRolledBack() {
+        final SQLiteStatementBatch batch = new SQLiteStatementBatch()
+                .add("INSERT INTO t (name) VALUES (?)", "a")
+                .add("INSERT INTO t (name) VALUES (?)", "a");
+        try {
+            mDatabase.executeBatch(batch, null);
+            fail("Expected SQLiteConstraintException");
+        } catch (SQLiteConstraintException expected) {
+        }
+        assertEquals(0, countRows());
+    }
+
+    @SmallTest
+    public void testCanceledBatchIsRolledBack() {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        cancellationSignal.cancel();
+        final SQLiteStatementBatch batch = new SQLiteStatementBatch()
+                .add("INSERT INTO t (name) VALUES (?)", "a");
+        try {
+            mDatabase.executeBatch(batch, cancellationSignal);
+            fail("Expected OperationCanceledException");
+        } catch (OperationCanceledException expected) {
+        }
+        assertEquals(0, countRows());
+        assertFalse(mDatabase.inTransaction());
+    }
+
+    @SmallTest
+    public void testRejectsTransactionStatements() {
+        final SQLiteStatementBatch batch = new SQLiteStatementBatch();
+        try {
+            batch.add("BEGIN TRANSACTION");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            batch.add("COMMIT");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, batch.size());
+    }
+
+    @SmallTest
+    public void testExecuteBatchAsync() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<long[]> callbackResults = new AtomicReference<>();
+        final SQLiteDatabase.BatchCallback callback = new SQLiteDatabase.BatchCallback() {
+            @Override
+            public void onBatchExecuted(long[] results) {
+                callbackResults.set(results);
+                latch.countDown();
+            }
+
+            @Override
+            public void onBatchFailed(RuntimeException error) {
+                latch.countDown();
+            }
+        };
+
+        final Future<long[]> first = mDatabase.executeBatchAsync(new SQLiteStatementBatch()
+                .add("INSERT INTO t (name) VALUES (?)", "a"), null, null, null);
+        final Future<long[]> second = mDatabase.executeBatchAsync(new SQLiteStatementBatch()
+                .add("INSERT INTO t (name) VALUES (?)", "b"), null, callback, null);
+
+        assertEquals(1, first.get(5, TimeUnit.SECONDS)[0]);
+        assertEquals(2, second.get(5, TimeUnit.SECONDS)[0]);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, callbackResults.get()[0]);
+    }
+
+    @SmallTest
+    public void testExecuteBatchAsyncFailure() throws Exception {
+        final Future<long[]> future = mDatabase.executeBatchAsync(new SQLiteStatementBatch()
+                .add("INSERT INTO missing (name) VALUES (?)", "a"), null, null, null);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof SQLiteException);
+        }
+    }
+
+    @SmallTest
+    public void testCancelDuringExecuteBatchAsync() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch canceled = new CountDownLatch(1);
+        mDatabase.addCustomFunction("wait_for_cancel", 0, args -> {
+            started.countDown();
+            try {
+                canceled.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<RuntimeException> callbackError = new AtomicReference<>();
+        final AtomicBoolean callbackOnTestThread = new AtomicBoolean();
+        final Thread testThread = Thread.currentThread();
+        final SQLiteDatabase.BatchCallback callback = new SQLiteDatabase.BatchCallback() {
+            @Override
+            public void onBatchExecuted(long[] results) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onBatchFailed(RuntimeException error) {
+                callbackError.set(error);
+                callbackOnTestThread.set(Thread.currentThread() == testThread);
+                latch.countDown();
+            }
+        };
+
+        final Future<long[]> future = mDatabase.executeBatchAsync(new SQLiteStatementBatch()
+                .add("INSERT INTO t (name) VALUES (wait_for_cancel())")
+                .add("INSERT INTO t (name) VALUES (?)", "b"), null, callback, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // The batch is running, so the future completes with its outcome rather than canceled.
+        assertFalse(future.cancel(false));
+        canceled.countDown();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof OperationCanceledException);
+        }
+        assertFalse(future.isCancelled());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(callbackError.get() instanceof OperationCanceledException);
+        assertFalse(callbackOnTestThread.get());
+        assertEquals(0, countRows());
+    }
+}
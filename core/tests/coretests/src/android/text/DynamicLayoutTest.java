@@ -17,6 +17,7 @@
 package android.text;
 
 import static android.text.Layout.Alignment.ALIGN_NORMAL;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -28,6 +29,7 @@ import static org.mockito.Mockito.when;
 
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
+import android.text.style.AbsoluteSizeSpan;
 import android.text.style.ReplacementSpan;
 
 import org.junit.Test;
@@ -109,4 +111,87 @@ public class DynamicLayoutTest {
         assertFalse(layout.getBlocksAlwaysNeedToBeRedrawn().contains(0));
         assertTrue(layout.getBlocksAlwaysNeedToBeRedrawn().isEmpty());
     }
+
+    @Test
+    public void testSpanChangesMatchStaticLayout() {
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append("abcd efg hijk lmn\n");
+        }
+        final TextPaint paint = new TextPaint();
+        final int width = 60;
+        final DynamicLayout layout = new DynamicLayout(builder, paint, width,
+                ALIGN_NORMAL, 1.0f, 0, false);
+
+        // Span changes close to each other, far apart, and interleaved with text changes.
+        final AbsoluteSizeSpan near = new AbsoluteSizeSpan(40);
+        final AbsoluteSizeSpan far = new AbsoluteSizeSpan(60);
+        builder.setSpan(near, 5, 12, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(far, builder.length() - 10, builder.length() - 2,
+                Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(near, 20, 40, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.insert(0, "xyz ");
+        builder.removeSpan(far);
+        builder.delete(30, 35);
+        builder.setSpan(far, 100, 150, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        assertMatchesStaticLayout(builder, paint, width, layout);
+    }
+
+    @Test
+    public void testDeferredSpanChangesMatchStaticLayout() {
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append("abcd efg hijk lmn\n");
+        }
+        final TextPaint paint = new TextPaint();
+        final int width = 60;
+        final DynamicLayout layout = new DynamicLayout(builder, paint, width,
+                ALIGN_NORMAL, 1.0f, 0, false);
+        final int firstLineBottom = layout.getLineTop(1);
+
+        // Spans changed far below the first lines don't affect them, and are moved along with
+        // the text changed above them before they are reflowed.
+        final AbsoluteSizeSpan far = new AbsoluteSizeSpan(60);
+        builder.setSpan(far, 1000, 1010, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(new AbsoluteSizeSpan(40), 1500, 1510, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertEquals(0, layout.getLineForOffset(3));
+        assertEquals(firstLineBottom, layout.getLineTop(1));
+        builder.insert(0, "xyz\n");
+        assertEquals(1, layout.getLineForOffset(5));
+        builder.setSpan(far, 200, 210, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        assertMatchesStaticLayout(builder, paint, width, layout);
+    }
+
+    @Test
+    public void testSetWidthMatchesStaticLayout() {
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        for (int i = 0; i < 50; i++) {
+            builder.append("abcd\n");
+            builder.append("abcd efg hijk lmn opq rst\n");
+        }
+        builder.setSpan(new AbsoluteSizeSpan(40), 100, 120, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        final TextPaint paint = new TextPaint();
+        final DynamicLayout layout = new DynamicLayout(builder, paint, 100,
+                ALIGN_NORMAL, 1.0f, 0, false);
+
+        for (int width : new int[] {60, 20, 500, 100}) {
+            layout.setWidth(width);
+            assertEquals(width, layout.getWidth());
+            assertMatchesStaticLayout(builder, paint, width, layout);
+        }
+    }
+
+    private static void assertMatchesStaticLayout(CharSequence text, TextPaint paint, int width,
+            DynamicLayout layout) {
+        final StaticLayout expected = new StaticLayout(text, paint, width,
+                ALIGN_NORMAL, 1.0f, 0, false);
+        assertEquals(expected.getLineCount(), layout.getLineCount());
+        for (int i = 0; i < expected.getLineCount(); i++) {
+            assertEquals(expected.getLineStart(i), layout.getLineStart(i));
+            assertEquals(expected.getLineTop(i), layout.getLineTop(i));
+        }
+        assertEquals(expected.getHeight(), layout.getHeight());
+    }
 }
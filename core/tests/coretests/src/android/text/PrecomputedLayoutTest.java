@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.text;
+
+import static android.text.Layout.Alignment.ALIGN_NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PrecomputedLayoutTest {
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog. "
+            + "The quick brown fox jumps over the lazy dog.";
+    private static final int WIDTH = 200;
+
+    private static PrecomputedLayout.Params params(TextPaint paint) {
+        return new PrecomputedLayout.Params(paint, ALIGN_NORMAL,
+                TextDirectionHeuristics.FIRSTSTRONG_LTR, 1.0f, 0.0f, true,
+                Layout.BREAK_STRATEGY_SIMPLE, Layout.HYPHENATION_FREQUENCY_NONE,
+                Layout.JUSTIFICATION_MODE_NONE, Integer.MAX_VALUE, null);
+    }
+
+    private static StaticLayout getLayout(PrecomputedLayout precomputed, CharSequence text,
+            TextPaint paint, int width) {
+        return precomputed.getLayoutIfMatches(text, paint, width, ALIGN_NORMAL,
+                TextDirectionHeuristics.FIRSTSTRONG_LTR, 1.0f, 0.0f, true,
+                Layout.BREAK_STRATEGY_SIMPLE, Layout.HYPHENATION_FREQUENCY_NONE,
+                Layout.JUSTIFICATION_MODE_NONE, Integer.MAX_VALUE, null, width);
+    }
+
+    @Test
+    public void testMatchingLayoutDrawsWithGivenPaint() throws Exception {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(20.0f);
+        final PrecomputedLayout.Params params = params(paint);
+
+        // Lay out on another thread, like a real caller would.
+        final AtomicReference<PrecomputedLayout> precomputed = new AtomicReference<>();
+        final Thread thread = new Thread(
+                () -> precomputed.set(PrecomputedLayout.create(TEXT, params, WIDTH)));
+        thread.start();
+        thread.join();
+
+        final StaticLayout expected = StaticLayout.Builder.obtain(TEXT, 0, TEXT.length(),
+                paint, WIDTH).build();
+        final StaticLayout layout = getLayout(precomputed.get(), TEXT, paint, WIDTH);
+        assertNotNull(layout);
+        assertSame(paint, layout.getPaint());
+        assertEquals(expected.getLineCount(), layout.getLineCount());
+        for (int i = 0; i < expected.getLineCount(); i++) {
+            assertEquals(expected.getLineEnd(i), layout.getLineEnd(i));
+        }
+    }
+
+    @Test
+    public void testMismatchIsRejected() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(20.0f);
+        final PrecomputedLayout precomputed =
+                PrecomputedLayout.create(TEXT, params(paint), WIDTH);
+
+        assertNull(getLayout(precomputed, TEXT, paint, WIDTH + 1));
+        assertNull(getLayout(precomputed, new String(TEXT), paint, WIDTH));
+
+        final TextPaint biggerPaint = new TextPaint(paint);
+        biggerPaint.setTextSize(30.0f);
+        assertNull(getLayout(precomputed, TEXT, biggerPaint, WIDTH));
+    }
+
+    @Test
+    public void testOnlyFirstOwnerGetsLayout() {
+        final TextPaint paint = new TextPaint();
+        paint.setTextSize(20.0f);
+        final PrecomputedLayout precomputed =
+                PrecomputedLayout.create(TEXT, params(paint), WIDTH);
+
+        final StaticLayout layout = getLayout(precomputed, TEXT, paint, WIDTH);
+        assertNotNull(layout);
+        // Same metrics, but another view's paint.
+        assertNull(getLayout(precomputed, TEXT, new TextPaint(paint), WIDTH));
+        assertSame(paint, layout.getPaint());
+        // Laying out again for the owner reuses it.
+        assertSame(layout, getLayout(precomputed, TEXT, paint, WIDTH));
+    }
+}
@@ -16,9 +16,60 @@
 
 package android.text;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public class SpannableStringBuilderTest extends SpannableTest {
 
     protected Spannable newSpannableWithText(String text) {
         return new SpannableStringBuilder(text);
     }
+
+    private static class RecordingWatcher implements SpanWatcher {
+        final List<Object> mChanged = new ArrayList<>();
+
+        @Override
+        public void onSpanAdded(Spannable text, Object what, int start, int end) {
+        }
+
+        @Override
+        public void onSpanRemoved(Spannable text, Object what, int start, int end) {
+        }
+
+        @Override
+        public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart,
+                int nend) {
+            mChanged.add(what);
+        }
+    }
+
+    @Test
+    public void testWatcherAddedDuringEditSeesRestOfEdit() {
+        final SpannableStringBuilder builder = new SpannableStringBuilder("abcdef");
+        final Object first = new Object();
+        final Object second = new Object();
+        builder.setSpan(first, 2, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        builder.setSpan(second, 4, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        final RecordingWatcher added = new RecordingWatcher();
+        builder.setSpan(new RecordingWatcher() {
+            @Override
+            public void onSpanChanged(Spannable text, Object what, int ostart, int oend,
+                    int nstart, int nend) {
+                if (what == first && text.getSpanStart(added) < 0) {
+                    text.setSpan(added, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+                }
+            }
+        }, 0, 6, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+
+        // Moves both spans; the watcher added while the first one is reported sees the second.
+        builder.insert(0, "x");
+        assertFalse(added.mChanged.contains(first));
+        assertTrue(added.mChanged.contains(second));
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class UiFrameRecorderTest {
+
+    private static void recordFrame(UiFrameRecorder recorder, long vsync, long measureNs) {
+        final FrameInfo frameInfo = new FrameInfo();
+        frameInfo.setVsync(vsync, vsync);
+        frameInfo.markInputHandlingStart();
+        frameInfo.markAnimationsStart();
+        frameInfo.markPerformTraversalsStart();
+        recorder.addMeasureTime(measureNs);
+        recorder.addLayoutTime(2);
+        recorder.addDrawTime(3);
+        recorder.endFrame(frameInfo);
+    }
+
+    @Test
+    public void testRecordsPhases() {
+        final UiFrameRecorder recorder = new UiFrameRecorder(4, false);
+        recordFrame(recorder, 100, 1);
+
+        final List<UiFrameMetrics> frames = recorder.getRecentFrames();
+        assertEquals(1, frames.size());
+        final UiFrameMetrics frame = frames.get(0);
+        assertEquals(100, frame.getMetric(UiFrameMetrics.VSYNC_TIMESTAMP));
+        assertEquals(1, frame.getMetric(UiFrameMetrics.MEASURE_DURATION));
+        assertEquals(2, frame.getMetric(UiFrameMetrics.LAYOUT_DURATION));
+        assertEquals(3, frame.getMetric(UiFrameMetrics.DRAW_DURATION));
+        assertTrue(frame.getMetric(UiFrameMetrics.INPUT_HANDLING_DURATION) >= 0);
+        assertTrue(frame.getMetric(UiFrameMetrics.TOTAL_DURATION) >= 0);
+        assertEquals(-1, frame.getMetric(UiFrameMetrics.ALLOCATION_COUNT));
+        assertEquals(-1, frame.getMetric(UiFrameMetrics.METRIC_COUNT));
+    }
+
+    @Test
+    public void testPhasesResetBetweenFrames() {
+        final UiFrameRecorder recorder = new UiFrameRecorder(4, false);
+        recordFrame(recorder, 100, 5);
+        recordFrame(recorder, 200, 7);
+
+        final List<UiFrameMetrics> frames = recorder.getRecentFrames();
+        assertEquals(5, frames.get(0).getMetric(UiFrameMetrics.MEASURE_DURATION));
+        assertEquals(7, frames.get(1).getMetric(UiFrameMetrics.MEASURE_DURATION));
+        assertEquals(2, frames.get(1).getMetric(UiFrameMetrics.LAYOUT_DURATION));
+    }
+
+    @Test
+    public void testKeepsMostRecentFrames() {
+        final UiFrameRecorder recorder = new UiFrameRecorder(3, false);
+        for (int i = 1; i <= 5; i++) {
+            recordFrame(recorder, i, i);
+        }
+
+        final List<UiFrameMetrics> frames = recorder.getRecentFrames();
+        assertEquals(3, frames.size());
+        assertEquals(3, frames.get(0).getMetric(UiFrameMetrics.VSYNC_TIMESTAMP));
+        assertEquals(4, frames.get(1).getMetric(UiFrameMetrics.VSYNC_TIMESTAMP));
+        assertEquals(5, frames.get(2).getMetric(UiFrameMetrics.VSYNC_TIMESTAMP));
+    }
+
+    @Test
+    public void testCountsAllocations() {
+        final UiFrameRecorder recorder = new UiFrameRecorder(4, true);
+        try {
+            recordFrame(recorder, 100, 1);
+            final List<Object> allocated = new ArrayList<>(100);
+            for (int i = 0; i < 100; i++) {
+                allocated.add(new Object());
+            }
+            recordFrame(recorder, 200, 1);
+
+            final List<UiFrameMetrics> frames = recorder.getRecentFrames();
+            assertTrue(frames.get(1).getMetric(UiFrameMetrics.ALLOCATION_COUNT) >= 100);
+        } finally {
+            recorder.release();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.BootTimingsTraceLog;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@SmallTest
+public class ParallelClassPreloaderTest extends TestCase {
+
+    public void testParseGroups() throws Exception {
+        final List<List<String>> groups = ParallelClassPreloader.parseGroups(new BufferedReader(
+                new StringReader("# comment\n\na.A a.B\n  c.C\n")));
+        assertEquals(Arrays.asList(Arrays.asList("a.A", "a.B"), Arrays.asList("c.C")), groups);
+    }
+
+    public void testAssignGroups() {
+        final List<String> classes = Arrays.asList("A", "B", "C", "D", "E", "F");
+        final List<List<String>> groups = Arrays.asList(
+                Arrays.asList("C", "A", "Unknown"),
+                Arrays.asList("D"),
+                Arrays.asList("E", "A"));
+        final List<String> ungrouped = new ArrayList<>();
+
+        final List<List<String>> perThread =
+                ParallelClassPreloader.assignGroups(classes, groups, 2, ungrouped);
+
+        // Groups keep preload order, and a class only goes to the first group listing it.
+        assertEquals(Arrays.asList("A", "C"), perThread.get(0));
+        assertTrue(perThread.get(1).containsAll(Arrays.asList("D", "E")));
+        assertEquals(2, perThread.get(1).size());
+        assertEquals(Arrays.asList("B", "F"), ungrouped);
+    }
+
+    public void testPreloadInitializesEveryClassOnce() {
+        final List<String> classes = Arrays.asList(
+                "java.lang.String", "java.util.ArrayList", "java.util.HashMap",
+                "does.not.Exist");
+        final List<List<String>> groups = Arrays.asList(
+                Arrays.asList("java.util.ArrayList"),
+                Arrays.asList("java.util.HashMap"));
+        final List<String> initialized = Collections.synchronizedList(new ArrayList<>());
+
+        final int count = ParallelClassPreloader.preload(classes, groups, (className) -> {
+            initialized.add(className);
+            return !className.startsWith("does.not");
+        }, new BootTimingsTraceLog("ParallelClassPreloaderTest", 0));
+
+        assertEquals(3, count);
+        assertEquals(4, initialized.size());
+        assertTrue(initialized.containsAll(classes));
+        // Ungrouped classes are initialized last, on the calling thread.
+        assertEquals("does.not.Exist", initialized.get(3));
+    }
+
+    public void testStuckWorkerTimesOut() throws Exception {
+        final CountDownLatch stuck = new CountDownLatch(1);
+        try {
+            ParallelClassPreloader.runOnWorkers("test", Arrays.asList(
+                    Arrays.asList("java.lang.String"), Arrays.asList("Stuck")), 100,
+                    (className) -> {
+                        if (className.equals("Stuck")) {
+                            try {
+                                stuck.await();
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                        return true;
+                    });
+            fail("Expected WorkerTimeoutException");
+        } catch (ParallelClassPreloader.WorkerTimeoutException expected) {
+        } finally {
+            stuck.countDown();
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import android.os.SystemClock;
+import android.service.LockContentionDumpProto;
+import android.service.LockContentionHistogramBucketProto;
+import android.service.LockContentionProto;
+import android.util.ArrayMap;
+import android.util.Slog;
+import android.util.proto.ProtoOutputStream;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Sampling profiler for monitor contention inside the system server.
+ * <p>
+ * While enabled, a background thread periodically looks at every binder thread. Threads found
+ * {@link Thread.State#BLOCKED} are attributed to one of the well-known {@link LockGuard} locks
+ * based on where they are blocked, and to the thread currently holding that lock if it's one
+ * whose holder is tracked through {@link ThreadPriorityBooster}. Consecutive samples of the same
+ * thread blocked at the same place are merged into a single wait, and waits are aggregated into
+ * histograms keyed by lock, blocked call site and holder call site. Waits for the well-known
+ * locks are also reported to {@link LockGuard}, which totals them per lock next to hold times.
+ * <p>
+ * The overhead while disabled is a volatile read per boosted locked section. Enable it with
+ * {@code dumpsys activity locks --contention on}, and get the aggregated data with
+ * {@code dumpsys activity locks} or {@code dumpsys activity locks --proto}.
+ */
+public class LockContentionProfiler {
+    private static final String TAG = "LockContentionProfiler";
+
+    static final long SAMPLE_INTERVAL_MS = 20;
+
+    /** Upper bounds of the wait histogram buckets; the last bucket is open-ended. */
+    @VisibleForTesting
+    static final long[] BUCKET_UPPER_BOUNDS_MS = { 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+    /** Upper bound on the number of distinct contention entries kept. */
+    private static final int MAX_ENTRIES = 512;
+
+    private static final String BINDER_THREAD_PREFIX = "Binder:";
+
+    private static final String UNKNOWN = "unknown";
+
+    private static LockContentionProfiler sInstance;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private Thread mSamplerThread;
+
+    @GuardedBy("mLock")
+    private final ArrayMap<String, ContentionStats> mStats = new ArrayMap<>();
+
+    @GuardedBy("mLock")
+    private int mDroppedEntries;
+
+    @GuardedBy("mLock")
+    private long mSampleCount;
+
+    /** Waits in progress, by blocked thread. */
+    @GuardedBy("mLock")
+    private final ArrayMap<Thread, Wait> mWaits = new ArrayMap<>();
+
+    @GuardedBy("mLock")
+    private Thread[] mThreads = new Thread[64];
+
+    public static synchronized LockContentionProfiler getInstance() {
+        if (sInstance == null) {
+            sInstance = new LockContentionProfiler();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    LockContentionProfiler() {
+    }
+
+    /** A thread that has been seen blocked at the same place in consecutive samples. */
+    private static class Wait {
+        String key;
+        int lockIndex;
+        String lock;
+        String blockedSite;
+        String holderThread;
+        String holderSite;
+        long startUptime;
+        long lastSeenUptime;
+    }
+
+    @VisibleForTesting
+    static class ContentionStats {
+        final String lock;
+        final String blockedSite;
+        final String holderThread;
+        final String holderSite;
+        final int[] buckets = new int[BUCKET_UPPER_BOUNDS_MS.length + 1];
+        int count;
+        long totalMs;
+        long maxMs;
+
+        ContentionStats(String lock, String blockedSite, String holderThread, String holderSite) {
+            this.lock = lock;
+            this.blockedSite = blockedSite;
+            this.holderThread = holderThread;
+            this.holderSite = holderSite;
+        }
+
+        void add(long waitMs) {
+            count++;
+            totalMs += waitMs;
+            if (waitMs > maxMs) {
+                maxMs = waitMs;
+            }
+            buckets[getBucket(waitMs)]++;
+        }
+    }
+
+    @VisibleForTesting
+    static int getBucket(long waitMs) {
+        for (int i = 0; i < BUCKET_UPPER_BOUNDS_MS.length; i++) {
+            if (waitMs <= BUCKET_UPPER_BOUNDS_MS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_UPPER_BOUNDS_MS.length;
+    }
+
+    public boolean isEnabled() {
+        synchronized (mLock) {
+            return mSamplerThread != null;
+        }
+    }
+
+    /**
+     * Start or stop periodic sampling. Data already collected is kept until {@link #reset()}.
+     */
+    public void setEnabled(boolean enabled) {
+        synchronized (mLock) {
+            if (enabled == (mSamplerThread != null)) {
+                return;
+            }
+            LockGuard.setHolderTrackingEnabled(enabled);
+            if (enabled) {
+                mSamplerThread = new Thread(this::runSampler, TAG);
+                mSamplerThread.setDaemon(true);
+                mSamplerThread.start();
+            } else {
+                mSamplerThread.interrupt();
+                mSamplerThread = null;
+                // Record the waits in progress, and drop the references to their threads.
+                finishAllWaitsLocked();
+                mWaits.clear();
+            }
+        }
+    }
+
+    public void reset() {
+        synchronized (mLock) {
+            mStats.clear();
+            mWaits.clear();
+            mDroppedEntries = 0;
+            mSampleCount = 0;
+        }
+    }
+
+    private void runSampler() {
+        final Thread self = Thread.currentThread();
+        while (true) {
+            synchronized (mLock) {
+                if (mSamplerThread != self) {
+                    return;
+                }
+            }
+            sample();
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                // Checked at the top of the loop.
+            }
+        }
+    }
+
+    /**
+     * Take a single sample of all binder threads. Called periodically while enabled, and by
+     * {@link Watchdog} when the system looks stuck regardless of whether periodic sampling is on.
+     * While periodic sampling is off, each blocked thread seen is recorded as a wait right away
+     * rather than tracked until a later sample.
+     */
+    public void sampleOnce() {
+        synchronized (mLock) {
+            sample();
+            if (mSamplerThread == null) {
+                finishAllWaitsLocked();
+            }
+        }
+    }
+
+    /** Number of waits in progress. */
+    @VisibleForTesting
+    int getWaitCount() {
+        synchronized (mLock) {
+            return mWaits.size();
+        }
+    }
+
+    @VisibleForTesting
+    void sample() {
+        final long now = SystemClock.uptimeMillis();
+        synchronized (mLock) {
+            final int threadCount = enumerateThreadsLocked();
+            mSampleCount++;
+            for (int i = 0; i < threadCount; i++) {
+                final Thread thread = mThreads[i];
+                mThreads[i] = null;
+                if (thread == null || !thread.getName().startsWith(BINDER_THREAD_PREFIX)) {
+                    continue;
+                }
+                if (thread.getState() != Thread.State.BLOCKED) {
+                    finishWaitLocked(thread);
+                    continue;
+                }
+                final String blockedSite = getTopFrame(thread);
+                Wait wait = mWaits.get(thread);
+                if (wait != null && wait.blockedSite.equals(blockedSite)) {
+                    wait.lastSeenUptime = now;
+                    continue;
+                }
+                finishWaitLocked(thread);
+                wait = new Wait();
+                final int index = getLockIndex(blockedSite);
+                final Thread holder = index >= 0 ? LockGuard.getLockHolder(index) : null;
+                wait.lockIndex = index;
+                wait.lock = index >= 0 ? LockGuard.lockToString(index) : UNKNOWN;
+                wait.blockedSite = blockedSite;
+                wait.holderThread = holder != null ? holder.getName() : UNKNOWN;
+                wait.holderSite = holder != null ? getTopFrame(holder) : UNKNOWN;
+                wait.key = wait.lock + '|' + wait.blockedSite + '|' + wait.holderThread + '|'
+                        + wait.holderSite;
+                wait.startUptime = now;
+                wait.lastSeenUptime = now;
+                mWaits.put(thread, wait);
+            }
+            // Threads that have exited since the last sample.
+            for (int i = mWaits.size() - 1; i >= 0; i--) {
+                if (!mWaits.keyAt(i).isAlive()) {
+                    finishWaitLocked(mWaits.keyAt(i));
+                }
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private int enumerateThreadsLocked() {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group.getParent() != null) {
+            group = group.getParent();
+        }
+        int count;
+        while ((count = group.enumerate(mThreads, true)) == mThreads.length) {
+            mThreads = new Thread[mThreads.length * 2];
+        }
+        return count;
+    }
+
+    @GuardedBy("mLock")
+    private void finishWaitLocked(Thread thread) {
+        final Wait wait = mWaits.remove(thread);
+        if (wait == null) {
+            return;
+        }
+        // A thread seen blocked once was blocked for up to one sample interval.
+        final long waitMs = wait.lastSeenUptime - wait.startUptime + SAMPLE_INTERVAL_MS;
+        if (wait.lockIndex >= 0) {
+            LockGuard.noteLockWaited(wait.lockIndex, waitMs * 1000000);
+        }
+        ContentionStats stats = mStats.get(wait.key);
+        if (stats == null) {
+            if (mStats.size() >= MAX_ENTRIES) {
+                mDroppedEntries++;
+                return;
+            }
+            stats = new ContentionStats(wait.lock, wait.blockedSite, wait.holderThread,
+                    wait.holderSite);
+            mStats.put(wait.key, stats);
+        }
+        stats.add(waitMs);
+    }
+
+    @GuardedBy("mLock")
+    private void finishAllWaitsLocked() {
+        for (int i = mWaits.size() - 1; i >= 0; i--) {
+            finishWaitLocked(mWaits.keyAt(i));
+        }
+    }
+
+    /**
+     * Returns the innermost frame of the thread's stack outside of the priority boosting
+     * machinery.
+     */
+    private static String getTopFrame(Thread thread) {
+        final StackTraceElement[] stack = thread.getStackTrace();
+        for (int i = 0; i < stack.length; i++) {
+            final String className = stack[i].getClassName();
+            final String methodName = stack[i].getMethodName();
+            if (className.startsWith(ThreadPriorityBooster.class.getName())
+                    || className.equals(LockGuard.class.getName())
+                    || methodName.equals("boostPriorityForLockedSection")
+                    || methodName.equals("resetPriorityAfterLockedSection")) {
+                continue;
+            }
+            return stack[i].toString();
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Best-effort guess of the well-known lock a thread blocked at the given frame is waiting
+     * for, based on which service the frame belongs to.
+     */
+    @VisibleForTesting
+    static int getLockIndex(String frame) {
+        if (frame.startsWith("com.android.server.am.")) {
+            return LockGuard.INDEX_ACTIVITY;
+        } else if (frame.startsWith("com.android.server.wm.")) {
+            return LockGuard.INDEX_WINDOW;
+        } else if (frame.startsWith("com.android.server.pm.UserManagerService")) {
+            return LockGuard.INDEX_USER;
+        } else if (frame.startsWith("com.android.server.pm.")) {
+            return LockGuard.INDEX_PACKAGES;
+        } else if (frame.startsWith("com.android.server.power.")) {
+            return LockGuard.INDEX_POWER;
+        } else if (frame.startsWith("com.android.server.AppOpsService")) {
+            return LockGuard.INDEX_APP_OPS;
+        } else if (frame.startsWith("com.android.server.StorageManagerService")) {
+            return LockGuard.INDEX_STORAGE;
+        }
+        return -1;
+    }
+
+    private ArrayList<ContentionStats> getSortedStatsLocked() {
+        final ArrayList<ContentionStats> sorted = new ArrayList<>(mStats.values());
+        Collections.sort(sorted, (a, b) -> Long.compare(b.totalMs, a.totalMs));
+        return sorted;
+    }
+
+    /**
+     * Log the worst contention seen so far, e.g. before the watchdog kills the system.
+     */
+    public void logSummary(String tag, int maxEntries) {
+        synchronized (mLock) {
+            finishAllWaitsLocked();
+            final ArrayList<ContentionStats> sorted = getSortedStatsLocked();
+            for (int i = 0; i < sorted.size() && i < maxEntries; i++) {
+                final ContentionStats stats = sorted.get(i);
+                Slog.w(tag, "Lock contention on " + stats.lock + " at " + stats.blockedSite
+                        + ", held by " + stats.holderThread + " at " + stats.holderSite
+                        + ": count=" + stats.count + " total=" + stats.totalMs + "ms max="
+                        + stats.maxMs + "ms");
+            }
+        }
+    }
+
+    void dump(PrintWriter pw, String[] args) {
+        for (int i = 0; args != null && i < args.length - 1; i++) {
+            if ("--contention".equals(args[i])) {
+                final String action = args[i + 1];
+                if ("on".equals(action)) {
+                    setEnabled(true);
+                } else if ("off".equals(action)) {
+                    setEnabled(false);
+                } else if ("reset".equals(action)) {
+                    reset();
+                } else {
+                    pw.println("Unknown --contention action: " + action);
+                }
+            }
+        }
+        synchronized (mLock) {
+            pw.print("Lock contention (");
+            pw.print(mSamplerThread != null ? "sampling every " + SAMPLE_INTERVAL_MS + "ms"
+                    : "not sampling");
+            pw.print(", "); pw.print(mSampleCount); pw.println(" samples):");
+            final ArrayList<ContentionStats> sorted = getSortedStatsLocked();
+            for (int i = 0; i < sorted.size(); i++) {
+                final ContentionStats stats = sorted.get(i);
+                pw.print("  "); pw.print(stats.lock); pw.print(" at "); pw.println(stats.blockedSite);
+                pw.print("    held by "); pw.print(stats.holderThread); pw.print(" at ");
+                pw.println(stats.holderSite);
+                pw.print("    count="); pw.print(stats.count);
+                pw.print(" total="); pw.print(stats.totalMs);
+                pw.print("ms max="); pw.print(stats.maxMs); pw.println("ms");
+                pw.print("    histogram:");
+                for (int j = 0; j < stats.buckets.length; j++) {
+                    if (j < BUCKET_UPPER_BOUNDS_MS.length) {
+                        pw.print(" <="); pw.print(BUCKET_UPPER_BOUNDS_MS[j]);
+                    } else {
+                        pw.print(" >"); pw.print(BUCKET_UPPER_BOUNDS_MS[j - 1]);
+                    }
+                    pw.print("ms:"); pw.print(stats.buckets[j]);
+                }
+                pw.println();
+            }
+            if (mDroppedEntries > 0) {
+                pw.print("  Dropped entries: "); pw.println(mDroppedEntries);
+            }
+            pw.println();
+        }
+    }
+
+    void dumpProto(FileDescriptor fd) {
+        final ProtoOutputStream proto = new ProtoOutputStream(fd);
+        synchronized (mLock) {
+            proto.write(LockContentionDumpProto.SAMPLING, mSamplerThread != null);
+            proto.write(LockContentionDumpProto.SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS);
+            proto.write(LockContentionDumpProto.SAMPLE_COUNT, mSampleCount);
+            proto.write(LockContentionDumpProto.DROPPED_ENTRIES, mDroppedEntries);
+            final ArrayList<ContentionStats> sorted = getSortedStatsLocked();
+            for (int i = 0; i < sorted.size(); i++) {
+                final ContentionStats stats = sorted.get(i);
+                final long token = proto.start(LockContentionDumpProto.CONTENTIONS);
+                proto.write(LockContentionProto.LOCK, stats.lock);
+                proto.write(LockContentionProto.BLOCKED_SITE, stats.blockedSite);
+                proto.write(LockContentionProto.HOLDER_THREAD, stats.holderThread);
+                proto.write(LockContentionProto.HOLDER_SITE, stats.holderSite);
+                proto.write(LockContentionProto.COUNT, stats.count);
+                proto.write(LockContentionProto.TOTAL_MS, stats.totalMs);
+                proto.write(LockContentionProto.MAX_MS, stats.maxMs);
+                for (int j = 0; j < stats.buckets.length; j++) {
+                    final long bucketToken = proto.start(LockContentionProto.HISTOGRAM);
+                    // The open-ended last bucket has no upper bound.
+                    if (j < BUCKET_UPPER_BOUNDS_MS.length) {
+                        proto.write(LockContentionHistogramBucketProto.UPPER_BOUND_MS,
+                                BUCKET_UPPER_BOUNDS_MS[j]);
+                    }
+                    proto.write(LockContentionHistogramBucketProto.COUNT, stats.buckets[j]);
+                    proto.end(bucketToken);
+                }
+                proto.end(token);
+            }
+        }
+        proto.flush();
+    }
+}
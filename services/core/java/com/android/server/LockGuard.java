@@ -19,6 +19,9 @@ package com.android.server;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Slog;
+import android.util.TimeUtils;
+
+import com.android.internal.annotations.GuardedBy;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
@@ -56,6 +59,13 @@ import java.io.PrintWriter;
  * <p>
  * This class also supports a second simpler mode of operation where well-known
  * locks are explicitly registered and checked via indexes.
+ * <p>
+ * Separately, sections guarded by well-known locks whose priority is boosted
+ * through {@link ThreadPriorityBooster} can report how long the lock was held.
+ * This is off by default and toggled at runtime with
+ * {@code dumpsys activity locks --hold-stats on|off|reset}. The holders of
+ * those locks can also be tracked for {@link LockContentionProfiler}, which in
+ * turn reports how long threads waited for them, shown next to the hold times.
  */
 public class LockGuard {
     private static final String TAG = "LockGuard";
@@ -78,6 +88,62 @@ public class LockGuard {
 
     private static ArrayMap<Object, LockInfo> sKnown = new ArrayMap<>(0, true);
 
+    /** Holds longer than this are attributed to the call site that released the lock. */
+    private static final long SLOW_HOLD_THRESHOLD_NANOS = 5 * 1000 * 1000;
+
+    /** Upper bound on the number of distinct call sites tracked for slow holds. */
+    private static final int MAX_SLOW_HOLD_SITES = 256;
+
+    private static volatile boolean sHoldStatsEnabled;
+
+    private static final Object sHoldStatsLock = new Object();
+
+    @GuardedBy("sHoldStatsLock")
+    private static final HoldStats[] sFixedHoldStats = new HoldStats[INDEX_ACTIVITY + 1];
+
+    @GuardedBy("sHoldStatsLock")
+    private static final HoldStats[] sFixedWaitStats = new HoldStats[INDEX_ACTIVITY + 1];
+
+    @GuardedBy("sHoldStatsLock")
+    private static final ArrayMap<String, HoldStats> sSlowHoldSites = new ArrayMap<>();
+
+    @GuardedBy("sHoldStatsLock")
+    private static int sDroppedSlowHoldSites;
+
+    private static volatile boolean sHolderTrackingEnabled;
+
+    /**
+     * Thread currently holding each well-known lock, as far as reported by
+     * {@link ThreadPriorityBooster}. Only maintained while holder tracking is enabled and only
+     * read for best-effort sampling, so no synchronization is used.
+     */
+    private static final Thread[] sFixedHolders = new Thread[INDEX_ACTIVITY + 1];
+
+    private static class HoldStats {
+        int count;
+        int slowCount;
+        long totalNanos;
+        long maxNanos;
+
+        void add(long heldNanos) {
+            count++;
+            totalNanos += heldNanos;
+            if (heldNanos > maxNanos) {
+                maxNanos = heldNanos;
+            }
+            if (heldNanos >= SLOW_HOLD_THRESHOLD_NANOS) {
+                slowCount++;
+            }
+        }
+
+        void dump(PrintWriter pw) {
+            pw.print("count="); pw.print(count);
+            pw.print(" total="); TimeUtils.formatDuration(totalNanos / 1000000, pw);
+            pw.print(" max="); TimeUtils.formatDuration(maxNanos / 1000000, pw);
+            pw.print(" slow="); pw.println(slowCount);
+        }
+    }
+
     private static class LockInfo {
         /** Friendly label to describe this lock */
         public String label;
@@ -175,6 +241,171 @@ public class LockGuard {
         return lock;
     }
 
+    /**
+     * Whether hold times of well-known locks are currently being recorded.
+     */
+    public static boolean isHoldStatsEnabled() {
+        return sHoldStatsEnabled;
+    }
+
+    /**
+     * Report that the lock with the given well-known index was just released by the calling
+     * thread after being held for the given duration.
+     */
+    public static void noteLockHeld(int index, long heldNanos) {
+        final boolean slow = heldNanos >= SLOW_HOLD_THRESHOLD_NANOS;
+        // Only walk the stack for slow holds; this is the expensive part.
+        final String site = slow ? findReleaseSite() : null;
+        synchronized (sHoldStatsLock) {
+            if (sFixedHoldStats[index] == null) {
+                sFixedHoldStats[index] = new HoldStats();
+            }
+            sFixedHoldStats[index].add(heldNanos);
+            if (site != null) {
+                final String key = lockToString(index) + " " + site;
+                HoldStats stats = sSlowHoldSites.get(key);
+                if (stats == null) {
+                    if (sSlowHoldSites.size() >= MAX_SLOW_HOLD_SITES) {
+                        sDroppedSlowHoldSites++;
+                        return;
+                    }
+                    stats = new HoldStats();
+                    sSlowHoldSites.put(key, stats);
+                }
+                stats.add(heldNanos);
+            }
+        }
+    }
+
+    /**
+     * Report that a thread waited for the given duration before acquiring the lock with the
+     * given well-known index. Waits are measured by {@link LockContentionProfiler} while it is
+     * sampling, so they are only as precise as its sampling interval.
+     */
+    public static void noteLockWaited(int index, long waitedNanos) {
+        synchronized (sHoldStatsLock) {
+            if (sFixedWaitStats[index] == null) {
+                sFixedWaitStats[index] = new HoldStats();
+            }
+            sFixedWaitStats[index].add(waitedNanos);
+        }
+    }
+
+    /**
+     * Returns the first frame of the calling thread's stack outside of the priority boosting
+     * machinery, i.e. the method whose locked section just ended.
+     */
+    private static String findReleaseSite() {
+        final StackTraceElement[] stack = new Throwable().getStackTrace();
+        for (int i = 0; i < stack.length; i++) {
+            final String className = stack[i].getClassName();
+            if (className.equals(LockGuard.class.getName())
+                    || className.startsWith(ThreadPriorityBooster.class.getName())
+                    || stack[i].getMethodName().equals("resetPriorityAfterLockedSection")) {
+                continue;
+            }
+            return stack[i].toString();
+        }
+        return "unknown";
+    }
+
+    /**
+     * Whether the holders of well-known locks are currently being tracked.
+     */
+    public static boolean isHolderTrackingEnabled() {
+        return sHolderTrackingEnabled;
+    }
+
+    /**
+     * Start or stop tracking which thread holds each well-known lock. Used by
+     * {@link LockContentionProfiler} to attribute contention to a holder.
+     */
+    public static void setHolderTrackingEnabled(boolean enabled) {
+        sHolderTrackingEnabled = enabled;
+        if (!enabled) {
+            for (int i = 0; i < sFixedHolders.length; i++) {
+                sFixedHolders[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Report that the calling thread just acquired the lock with the given well-known index.
+     */
+    public static void noteLockAcquired(int index) {
+        sFixedHolders[index] = Thread.currentThread();
+    }
+
+    /**
+     * Report that the calling thread is about to release the lock with the given well-known
+     * index.
+     */
+    public static void noteLockReleased(int index) {
+        if (sFixedHolders[index] == Thread.currentThread()) {
+            sFixedHolders[index] = null;
+        }
+    }
+
+    /**
+     * Returns the thread last reported as holding the lock with the given well-known index, or
+     * null if it isn't known to be held.
+     */
+    public static Thread getLockHolder(int index) {
+        return sFixedHolders[index];
+    }
+
+    private static void setHoldStatsEnabled(boolean enabled) {
+        synchronized (sHoldStatsLock) {
+            sHoldStatsEnabled = enabled;
+        }
+    }
+
+    private static void resetHoldStats() {
+        synchronized (sHoldStatsLock) {
+            for (int i = 0; i < sFixedHoldStats.length; i++) {
+                sFixedHoldStats[i] = null;
+                sFixedWaitStats[i] = null;
+            }
+            sSlowHoldSites.clear();
+            sDroppedSlowHoldSites = 0;
+        }
+    }
+
+    private static void dumpHoldStats(PrintWriter pw) {
+        // The profiler reports waits with its own lock held, so don't take it under ours.
+        final boolean sampling = LockContentionProfiler.getInstance().isEnabled();
+        synchronized (sHoldStatsLock) {
+            pw.print("Lock hold and wait times (holds ");
+            pw.print(sHoldStatsEnabled ? "recording" : "not recording");
+            pw.print(", waits ");
+            pw.print(sampling ? "sampling" : "not sampling");
+            pw.println("):");
+            for (int i = 0; i < sFixedHoldStats.length; i++) {
+                if (sFixedHoldStats[i] == null && sFixedWaitStats[i] == null) continue;
+                pw.print("  "); pw.print(lockToString(i)); pw.println(":");
+                if (sFixedHoldStats[i] != null) {
+                    pw.print("    held: "); sFixedHoldStats[i].dump(pw);
+                }
+                if (sFixedWaitStats[i] != null) {
+                    pw.print("    waited: "); sFixedWaitStats[i].dump(pw);
+                }
+            }
+            if (sSlowHoldSites.size() > 0) {
+                pw.print("  Holds of "); TimeUtils.formatDuration(
+                        SLOW_HOLD_THRESHOLD_NANOS / 1000000, pw);
+                pw.println(" or more by releasing call site:");
+                for (int i = 0; i < sSlowHoldSites.size(); i++) {
+                    pw.print("    "); pw.println(sSlowHoldSites.keyAt(i));
+                    pw.print("      "); sSlowHoldSites.valueAt(i).dump(pw);
+                }
+            }
+            if (sDroppedSlowHoldSites > 0) {
+                pw.print("  Dropped call sites: "); pw.println(sDroppedSlowHoldSites);
+            }
+            pw.println();
+        }
+    }
+
     private static String lockToString(Object lock) {
         final LockInfo info = sKnown.get(lock);
         if (info != null) {
@@ -184,7 +415,7 @@ public class LockGuard {
         }
     }
 
-    private static String lockToString(int index) {
+    static String lockToString(int index) {
         switch (index) {
             case INDEX_APP_OPS: return "APP_OPS";
             case INDEX_POWER: return "POWER";
@@ -198,6 +429,28 @@ public class LockGuard {
     }
 
     public static void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        for (int i = 0; args != null && i < args.length; i++) {
+            if ("--proto".equals(args[i])) {
+                LockContentionProfiler.getInstance().dumpProto(fd);
+                return;
+            }
+        }
+        for (int i = 0; args != null && i < args.length - 1; i++) {
+            if ("--hold-stats".equals(args[i])) {
+                final String action = args[i + 1];
+                if ("on".equals(action)) {
+                    setHoldStatsEnabled(true);
+                } else if ("off".equals(action)) {
+                    setHoldStatsEnabled(false);
+                } else if ("reset".equals(action)) {
+                    resetHoldStats();
+                } else {
+                    pw.println("Unknown --hold-stats action: " + action);
+                }
+            }
+        }
+        dumpHoldStats(pw);
+        LockContentionProfiler.getInstance().dump(pw, args);
         for (int i = 0; i < sKnown.size(); i++) {
             final Object lock = sKnown.keyAt(i);
             final LockInfo info = sKnown.valueAt(i);
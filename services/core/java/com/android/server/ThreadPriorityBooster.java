@@ -49,6 +49,13 @@ public class ThreadPriorityBooster {
                 setThreadPriority(tid, mBoostToPriority);
             }
         }
+        if (state.regionCounter == 0 && LockGuard.isHoldStatsEnabled()) {
+            state.holdStartNanos = System.nanoTime();
+        }
+        if (state.regionCounter == 0 && LockGuard.isHolderTrackingEnabled()) {
+            LockGuard.noteLockAcquired(mLockGuardIndex);
+            state.trackingHolder = true;
+        }
         state.regionCounter++;
         if (LockGuard.ENABLED) {
             LockGuard.guard(mLockGuardIndex);
@@ -62,6 +69,14 @@ public class ThreadPriorityBooster {
         if (state.regionCounter == 0 && state.prevPriority != currentPriority) {
             setThreadPriority(myTid(), state.prevPriority);
         }
+        if (state.regionCounter == 0 && state.holdStartNanos != 0) {
+            LockGuard.noteLockHeld(mLockGuardIndex, System.nanoTime() - state.holdStartNanos);
+            state.holdStartNanos = 0;
+        }
+        if (state.regionCounter == 0 && state.trackingHolder) {
+            LockGuard.noteLockReleased(mLockGuardIndex);
+            state.trackingHolder = false;
+        }
     }
 
     /**
@@ -94,5 +109,17 @@ public class ThreadPriorityBooster {
          * The thread's previous priority before boosting.
          */
         int prevPriority;
+
+        /**
+         * When the outermost locked region was entered, or 0 if hold times aren't being recorded
+         * for it.
+         */
+        long holdStartNanos;
+
+        /**
+         * Whether this thread was reported to {@link LockGuard} as the lock holder when the
+         * outermost locked region was entered.
+         */
+        boolean trackingHolder;
     }
 }
\ No newline at end of file
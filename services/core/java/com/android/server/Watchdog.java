@@ -270,6 +270,10 @@ public class Watchdog extends Thread {
         context.registerReceiver(new RebootRequestReceiver(),
                 new IntentFilter(Intent.ACTION_REBOOT),
                 android.Manifest.permission.REBOOT, null);
+
+        if (SystemProperties.getBoolean("persist.sys.lock_contention_profiler", false)) {
+            LockContentionProfiler.getInstance().setEnabled(true);
+        }
     }
 
     public void processStarted(String name, int pid) {
@@ -448,6 +452,7 @@ public class Watchdog extends Thread {
                     if (!waitedHalf) {
                         // We've waited half the deadlock-detection interval.  Pull a stack
                         // trace and wait another half.
+                        LockContentionProfiler.getInstance().sampleOnce();
                         ArrayList<Integer> pids = new ArrayList<Integer>();
                         pids.add(Process.myPid());
                         ActivityManagerService.dumpStackTraces(true, pids, null, null,
@@ -535,6 +540,9 @@ public class Watchdog extends Thread {
                 Slog.w(TAG, "Restart not allowed: Watchdog is *not* killing the system process");
             } else {
                 Slog.w(TAG, "*** WATCHDOG KILLING SYSTEM PROCESS: " + subject);
+                final LockContentionProfiler profiler = LockContentionProfiler.getInstance();
+                profiler.sampleOnce();
+                profiler.logSummary(TAG, 10);
                 for (int i=0; i<blockedCheckers.size(); i++) {
                     Slog.w(TAG, blockedCheckers.get(i).getName() + " stack trace:");
                     StackTraceElement[] stackTrace
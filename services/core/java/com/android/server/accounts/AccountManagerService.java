@@ -214,6 +214,15 @@ public class AccountManagerService
         private final TokenCache accountTokenCaches = new TokenCache();
         /** protected by the {@link #cacheLock} */
         private final Map<Account, Map<String, Integer>> visibilityCache = new HashMap<>();
+        /**
+         * protected by the {@link #cacheLock}
+         *
+         * The grants of all the accounts, account -> (grantee uid -> auth token types), so that
+         * the permission checks made when listing accounts do not query the database. Loaded
+         * along with the accounts and kept in sync by every write to the grants table, null
+         * until loaded.
+         */
+        private Map<Account, Map<Integer, Set<String>>> grantsCache;
 
         /** protected by the {@link #mReceiversForType},
          *  type -> (packageName -> number of active receivers)
@@ -250,6 +259,10 @@ public class AccountManagerService
     }
 
     private final SparseArray<UserAccounts> mUsers = new SparseArray<>();
+    // The users of mUsers whose accounts are validated and whose CE database is attached, so
+    // that getUserAccounts() has nothing left to do for them and can skip the mUsers lock.
+    // Copy-on-write, only replaced while holding the mUsers lock.
+    private volatile SparseArray<UserAccounts> mReadyUsers = new SparseArray<>();
     private final SparseBooleanArray mLocalUnlockedUsers = new SparseBooleanArray();
     // Not thread-safe. Only use in synchronized context
     private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -1185,6 +1198,9 @@ public class AccountManagerService
                             accounts.authTokenCache.remove(account);
                             accounts.accountTokenCaches.remove(account);
                             accounts.visibilityCache.remove(account);
+                            if (accounts.grantsCache != null) {
+                                accounts.grantsCache.remove(account);
+                            }
 
                             for (Entry<String, Integer> packageToVisibility :
                                     packagesToVisibility.entrySet()) {
@@ -1215,6 +1231,7 @@ public class AccountManagerService
                         accounts.accountCache.put(accountType, accountsForType);
                     }
                     accounts.visibilityCache.putAll(accountsDb.findAllVisibilityValues());
+                    accounts.grantsCache = accountsDb.findAllGrants();
                 } finally {
                     if (accountDeleted) {
                         sendAccountsChangedBroadcast(accounts.userId);
@@ -1263,6 +1280,12 @@ public class AccountManagerService
     }
 
     protected UserAccounts getUserAccounts(int userId) {
+        // Fast path - the user is already set up, avoid contending on mUsers with the binder
+        // calls made on behalf of other users
+        final UserAccounts readyAccounts = mReadyUsers.get(userId);
+        if (readyAccounts != null) {
+            return readyAccounts;
+        }
         synchronized (mUsers) {
             UserAccounts accounts = mUsers.get(userId);
             boolean validateAccounts = false;
@@ -1289,10 +1312,27 @@ public class AccountManagerService
             if (validateAccounts) {
                 validateAccountsInternal(accounts, true /* invalidateAuthenticatorCache */);
             }
+            if (accounts.accountsDb.isCeDatabaseAttached()) {
+                setReadyUserLocked(userId, accounts);
+            }
             return accounts;
         }
     }
 
+    @GuardedBy("mUsers")
+    private void setReadyUserLocked(int userId, UserAccounts accounts) {
+        if (mReadyUsers.get(userId) == accounts) {
+            return;
+        }
+        final SparseArray<UserAccounts> readyUsers = mReadyUsers.clone();
+        if (accounts != null) {
+            readyUsers.put(userId, accounts);
+        } else {
+            readyUsers.remove(userId);
+        }
+        mReadyUsers = readyUsers;
+    }
+
     private void syncDeCeAccountsLocked(UserAccounts accounts) {
         Preconditions.checkState(Thread.holdsLock(mUsers), "mUsers lock must be held");
         List<Account> accountsToRemove = accounts.accountsDb.findCeAccountsNotInDe();
@@ -1328,6 +1368,12 @@ public class AccountManagerService
                     Log.d(TAG, "deleting grants for UID " + uid
                             + " because its package is no longer installed");
                     accounts.accountsDb.deleteGrantsByUid(uid);
+                    if (accounts.grantsCache != null) {
+                        for (Map<Integer, Set<String>> grantsForAccount
+                                : accounts.grantsCache.values()) {
+                            grantsForAccount.remove(uid);
+                        }
+                    }
                 }
             }
         }
@@ -1367,6 +1413,7 @@ public class AccountManagerService
         synchronized (mUsers) {
             accounts = mUsers.get(userId);
             mUsers.remove(userId);
+            setReadyUserLocked(userId, null);
             mLocalUnlockedUsers.delete(userId);
         }
         if (accounts != null) {
@@ -2027,6 +2074,8 @@ public class AccountManagerService
                 Map<String, String> tmpData = accounts.userDataCache.get(accountToRename);
                 Map<String, String> tmpTokens = accounts.authTokenCache.get(accountToRename);
                 Map<String, Integer> tmpVisibility = accounts.visibilityCache.get(accountToRename);
+                Map<Integer, Set<String>> tmpGrants = accounts.grantsCache != null
+                        ? accounts.grantsCache.get(accountToRename) : null;
                 removeAccountFromCacheLocked(accounts, accountToRename);
             /*
              * Update the cached data associated with the renamed
@@ -2035,6 +2084,9 @@ public class AccountManagerService
                 accounts.userDataCache.put(renamedAccount, tmpData);
                 accounts.authTokenCache.put(renamedAccount, tmpTokens);
                 accounts.visibilityCache.put(renamedAccount, tmpVisibility);
+                if (tmpGrants != null) {
+                    accounts.grantsCache.put(renamedAccount, tmpGrants);
+                }
                 accounts.previousNameCache.put(
                         renamedAccount,
                         new AtomicReference<>(accountToRename.name));
@@ -5501,27 +5553,79 @@ public class AccountManagerService
             return true;
         }
         UserAccounts accounts = getUserAccounts(UserHandle.getUserId(callerUid));
-        synchronized (accounts.dbLock) {
-            synchronized (accounts.cacheLock) {
-                long grantsCount;
-                if (authTokenType != null) {
-                    grantsCount = accounts.accountsDb
-                            .findMatchingGrantsCount(callerUid, authTokenType, account);
-                } else {
-                    grantsCount = accounts.accountsDb.findMatchingGrantsCountAnyToken(callerUid,
-                            account);
+        boolean permissionGranted = false;
+        boolean cached = false;
+        // Fast path - check the cached grants
+        synchronized (accounts.cacheLock) {
+            if (accounts.grantsCache != null) {
+                permissionGranted = isGrantedInCacheLocked(accounts, account, authTokenType,
+                        callerUid);
+                cached = true;
+            }
+        }
+        if (!cached) {
+            // If not cached yet - do slow path and sync with db if necessary
+            synchronized (accounts.dbLock) {
+                synchronized (accounts.cacheLock) {
+                    if (accounts.grantsCache == null) {
+                        accounts.grantsCache = accounts.accountsDb.findAllGrants();
+                    }
+                    permissionGranted = isGrantedInCacheLocked(accounts, account, authTokenType,
+                            callerUid);
                 }
-                final boolean permissionGranted = grantsCount > 0;
+            }
+        }
 
-                if (!permissionGranted && ActivityManager.isRunningInTestHarness()) {
-                    // TODO: Skip this check when running automated tests. Replace this
-                    // with a more general solution.
-                    Log.d(TAG, "no credentials permission for usage of " + account + ", "
-                            + authTokenType + " by uid " + callerUid
-                            + " but ignoring since device is in test harness.");
-                    return true;
-                }
-                return permissionGranted;
+        if (!permissionGranted && ActivityManager.isRunningInTestHarness()) {
+            // TODO: Skip this check when running automated tests. Replace this
+            // with a more general solution.
+            Log.d(TAG, "no credentials permission for usage of " + account + ", "
+                    + authTokenType + " by uid " + callerUid
+                    + " but ignoring since device is in test harness.");
+            return true;
+        }
+        return permissionGranted;
+    }
+
+    /** protected by the {@code cacheLock} */
+    private static boolean isGrantedInCacheLocked(UserAccounts accounts, Account account,
+            String authTokenType, int callerUid) {
+        final Map<Integer, Set<String>> grantsForAccount = accounts.grantsCache.get(account);
+        if (grantsForAccount == null) {
+            return false;
+        }
+        final Set<String> authTokenTypes = grantsForAccount.get(callerUid);
+        if (authTokenTypes == null || authTokenTypes.isEmpty()) {
+            return false;
+        }
+        return authTokenType == null || authTokenTypes.contains(authTokenType);
+    }
+
+    /** protected by the {@code dbLock}, {@code cacheLock} */
+    private static void writeGrantIntoCacheLocked(UserAccounts accounts, Account account,
+            String authTokenType, int uid, boolean granted) {
+        if (accounts.grantsCache == null) {
+            return;
+        }
+        Map<Integer, Set<String>> grantsForAccount = accounts.grantsCache.get(account);
+        if (grantsForAccount == null) {
+            if (!granted) {
+                return;
+            }
+            grantsForAccount = new HashMap<>();
+            accounts.grantsCache.put(account, grantsForAccount);
+        }
+        Set<String> authTokenTypes = grantsForAccount.get(uid);
+        if (granted) {
+            if (authTokenTypes == null) {
+                authTokenTypes = new HashSet<>();
+                grantsForAccount.put(uid, authTokenTypes);
+            }
+            authTokenTypes.add(authTokenType);
+        } else if (authTokenTypes != null) {
+            authTokenTypes.remove(authTokenType);
+            if (authTokenTypes.isEmpty()) {
+                grantsForAccount.remove(uid);
             }
         }
     }
@@ -5641,6 +5745,7 @@ public class AccountManagerService
                 long accountId = accounts.accountsDb.findDeAccountId(account);
                 if (accountId >= 0) {
                     accounts.accountsDb.insertGrant(accountId, authTokenType, uid);
+                    writeGrantIntoCacheLocked(accounts, account, authTokenType, uid, true);
                 }
                 cancelNotification(
                         getCredentialPermissionNotificationId(account, authTokenType, uid),
@@ -5684,6 +5789,7 @@ public class AccountManagerService
                 } finally {
                     accounts.accountsDb.endTransaction();
                 }
+                writeGrantIntoCacheLocked(accounts, account, authTokenType, uid, false);
 
                 cancelNotification(
                         getCredentialPermissionNotificationId(account, authTokenType, uid),
@@ -5719,6 +5825,9 @@ public class AccountManagerService
         accounts.authTokenCache.remove(account);
         accounts.previousNameCache.remove(account);
         accounts.visibilityCache.remove(account);
+        if (accounts.grantsCache != null) {
+            accounts.grantsCache.remove(account);
+        }
     }
 
     /**
@@ -36,9 +36,11 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Persistence layer abstraction for accessing accounts_ce/accounts_de databases.
@@ -174,6 +176,16 @@ class AccountsDb implements AutoCloseable {
             + " WHERE " + AccountsDb.GRANTS_ACCOUNTS_ID
             + "=" + AccountsDb.ACCOUNTS_ID;
 
+    private static final String ALL_GRANTS = ""
+            + "SELECT " + AccountsDb.ACCOUNTS_NAME + ", "
+            + AccountsDb.ACCOUNTS_TYPE + ", "
+            + AccountsDb.GRANTS_GRANTEE_UID + ", "
+            + AccountsDb.GRANTS_AUTH_TOKEN_TYPE
+            + " FROM " + AccountsDb.TABLE_ACCOUNTS
+            + ", " + AccountsDb.TABLE_GRANTS
+            + " WHERE " + AccountsDb.GRANTS_ACCOUNTS_ID
+            + "=" + AccountsDb.ACCOUNTS_ID;
+
     private static final String META_KEY_FOR_AUTHENTICATOR_UID_FOR_TYPE_PREFIX =
             "auth_uid_for_type:";
     private static final String META_KEY_DELIMITER = ":";
@@ -1084,6 +1096,32 @@ class AccountsDb implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns all grants, as a map of account to grantee UID to the granted auth token types.
+     */
+    Map<Account, Map<Integer, Set<String>>> findAllGrants() {
+        SQLiteDatabase db = mDeDatabase.getReadableDatabase();
+        Map<Account, Map<Integer, Set<String>>> results = new HashMap<>();
+        try (Cursor cursor = db.rawQuery(ALL_GRANTS, null)) {
+            while (cursor.moveToNext()) {
+                final Account account = new Account(cursor.getString(0), cursor.getString(1));
+                final int uid = cursor.getInt(2);
+                Map<Integer, Set<String>> grantsForAccount = results.get(account);
+                if (grantsForAccount == null) {
+                    grantsForAccount = new HashMap<>();
+                    results.put(account, grantsForAccount);
+                }
+                Set<String> authTokenTypes = grantsForAccount.get(uid);
+                if (authTokenTypes == null) {
+                    authTokenTypes = new HashSet<>();
+                    grantsForAccount.put(uid, authTokenTypes);
+                }
+                authTokenTypes.add(cursor.getString(3));
+            }
+        }
+        return results;
+    }
+
     private static class PreNDatabaseHelper extends SQLiteOpenHelper {
         private final Context mContext;
         private final int mUserId;
@@ -930,6 +930,13 @@ public class ActivityManagerService extends IActivityManager.Stub
      */
     final SparseArray<UidRecord> mActiveUids = new SparseArray<>();
 
+    /**
+     * Last process state reported for each uid in {@link #mActiveUids}, maintained alongside
+     * it so that callers only reading uid state don't have to take the activity manager lock.
+     */
+    @GuardedBy("mUidProcStateSnapshot")
+    private final SparseIntArray mUidProcStateSnapshot = new SparseIntArray();
+
     /**
      * This is for verifying the UID report flow.
      */
@@ -1068,6 +1075,11 @@ public class ActivityManagerService extends IActivityManager.Stub
 
     final ProviderMap mProviderMap;
 
+    /**
+     * MIME types recently returned by content providers for getProviderMimeType().
+     */
+    final ProviderMimeTypeCache mProviderMimeTypeCache = new ProviderMimeTypeCache();
+
     /**
      * List of content providers who have clients waiting for them.  The
      * application is currently being launched and the provider will be
@@ -2231,7 +2243,11 @@ public class ActivityManagerService extends IActivityManager.Stub
             }
             case SYSTEM_USER_UNLOCK_MSG: {
                 final int userId = msg.arg1;
+                // Restore the recent tasks from disk while the system services handle the
+                // unlock, and only publish them under the lock.
+                mRecentTasks.prefetchUserRecents(userId);
                 mSystemServiceManager.unlockUser(userId);
+                mRecentTasks.waitForPrefetchedUserRecents(userId);
                 synchronized (ActivityManagerService.this) {
                     mRecentTasks.loadUserRecentsLocked(userId);
                 }
@@ -6304,6 +6320,9 @@ public class ActivityManagerService extends IActivityManager.Stub
             return;
         }
 
+        // Enabling or disabling components may change which provider answers for a uri.
+        mProviderMimeTypeCache.invalidatePackage(packageName, userId);
+
         // Determine enable/disable state of the package and its components.
         int enabled = PackageManager.COMPONENT_ENABLED_STATE_DEFAULT;
         for (int i = changedClasses.length - 1; i >= 0; i--) {
@@ -6416,6 +6435,7 @@ public class ActivityManagerService extends IActivityManager.Stub
             }
 
             mAppErrors.resetProcessCrashTimeLocked(packageName == null, appId, userId);
+            mProviderMimeTypeCache.invalidatePackage(packageName, userId);
         }
 
         boolean didSomething = killPackageProcessesLocked(packageName, appId, userId,
@@ -7858,8 +7878,8 @@ public class ActivityManagerService extends IActivityManager.Stub
     // NOTE: this is an internal method used by the OnShellCommand implementation only and should
     // be guarded by permission checking.
     int getUidState(int uid) {
-        synchronized (this) {
-            return getUidStateLocked(uid);
+        synchronized (mUidProcStateSnapshot) {
+            return mUidProcStateSnapshot.get(uid, ActivityManager.PROCESS_STATE_NONEXISTENT);
         }
     }
 
@@ -12090,11 +12110,27 @@ public class ActivityManagerService extends IActivityManager.Stub
             clearedIdentity = true;
             ident = Binder.clearCallingIdentity();
         }
+        // The provider only sees the caller's identity when it can't be cleared, and may answer
+        // differently for it, so only share the types it returns to the system.
+        long cacheGeneration = 0;
+        if (clearedIdentity) {
+            final String type = mProviderMimeTypeCache.get(uri, userId);
+            if (type != null) {
+                Binder.restoreCallingIdentity(ident);
+                return type;
+            }
+            cacheGeneration = mProviderMimeTypeCache.getGeneration();
+        }
         ContentProviderHolder holder = null;
         try {
             holder = getContentProviderExternalUnchecked(name, null, userId);
             if (holder != null) {
-                return holder.provider.getType(uri);
+                final String type = holder.provider.getType(uri);
+                if (clearedIdentity) {
+                    mProviderMimeTypeCache.put(uri, userId, type, holder.info.packageName,
+                            cacheGeneration);
+                }
+                return type;
             }
         } catch (RemoteException e) {
             Log.w(TAG, "Content provider dead retrieving " + uri, e);
@@ -13186,10 +13222,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                     "getUidProcessState");
         }
 
-        synchronized (this) {
-            UidRecord uidRec = mActiveUids.get(uid);
-            return uidRec != null ? uidRec.curProcState : ActivityManager.PROCESS_STATE_NONEXISTENT;
-        }
+        return getUidState(uid);
     }
 
     @Override
@@ -16360,6 +16393,13 @@ public class ActivityManagerService extends IActivityManager.Stub
         needSep = mProviderMap.dumpProvidersLocked(pw, dumpAll, dumpPackage);
         printedAnything |= needSep;
 
+        if (dumpPackage == null) {
+            if (needSep) pw.println();
+            needSep = true;
+            mProviderMimeTypeCache.dump(pw, "  ");
+            printedAnything = true;
+        }
+
         if (mLaunchingProviders.size() > 0) {
             boolean printed = false;
             for (int i=mLaunchingProviders.size()-1; i>=0; i--) {
@@ -17819,6 +17859,8 @@ public class ActivityManagerService extends IActivityManager.Stub
                 cpr.notifyAll();
             }
             mProviderMap.removeProviderByClass(cpr.name, UserHandle.getUserId(cpr.uid));
+            mProviderMimeTypeCache.invalidatePackage(cpr.info.packageName,
+                    UserHandle.getUserId(cpr.uid));
             String names[] = cpr.info.authority.split(";");
             for (int j = 0; j < names.length; j++) {
                 mProviderMap.removeProviderByName(names[j], UserHandle.getUserId(cpr.uid));
@@ -20676,6 +20718,13 @@ public class ActivityManagerService extends IActivityManager.Stub
     }
 
     private void noteUidProcessState(final int uid, final int state) {
+        synchronized (mUidProcStateSnapshot) {
+            if (state == ActivityManager.PROCESS_STATE_NONEXISTENT) {
+                mUidProcStateSnapshot.delete(uid);
+            } else {
+                mUidProcStateSnapshot.put(uid, state);
+            }
+        }
         mBatteryStatsService.noteUidProcessState(uid, state);
         if (mTrackingAssociations) {
             for (int i1=0, N1=mAssociations.size(); i1<N1; i1++) {
@@ -24064,6 +24113,12 @@ public class ActivityManagerService extends IActivityManager.Stub
                 mLastANRState = null;
             }
         }
+
+        @Override
+        public void notifyProviderChanged(String authority, int userId) {
+            // The cache has its own lock, so notifications don't contend on this one.
+            mProviderMimeTypeCache.invalidateAuthority(authority, userId);
+        }
     }
 
     /**
@@ -2781,7 +2781,7 @@ final class ActivityRecord extends ConfigurationContainer implements AppWindowCo
         }
 
         final ActivityManagerService service = stackSupervisor.mService;
-        final ActivityInfo aInfo = stackSupervisor.resolveActivity(intent, resolvedType, 0, null,
+        final ActivityInfo aInfo = stackSupervisor.resolveActivityForRestore(intent, resolvedType,
                 userId);
         if (aInfo == null) {
             throw new XmlPullParserException("restoreActivity resolver error. Intent=" + intent +
@@ -2789,7 +2789,8 @@ final class ActivityRecord extends ConfigurationContainer implements AppWindowCo
         }
         final ActivityRecord r = new ActivityRecord(service, null /* caller */,
                 0 /* launchedFromPid */, launchedFromUid, launchedFromPackage, intent, resolvedType,
-                aInfo, service.getConfiguration(), null /* resultTo */, null /* resultWho */,
+                aInfo, Configuration.EMPTY /* set by TaskRecord.onRestoredLocked() */,
+                null /* resultTo */, null /* resultWho */,
                 0 /* reqCode */, componentSpecified, false /* rootVoiceInteraction */,
                 stackSupervisor, null /* container */, null /* options */, null /* sourceRecord */);
 
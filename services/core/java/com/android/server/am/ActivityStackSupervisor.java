@@ -126,6 +126,7 @@ import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.PackageManagerInternal;
 import android.content.pm.ResolveInfo;
 import android.content.pm.UserInfo;
 import android.content.res.Configuration;
@@ -1322,6 +1323,20 @@ public class ActivityStackSupervisor extends ConfigurationContainer implements D
         return resolveActivity(intent, rInfo, startFlags, profilerInfo);
     }
 
+    /**
+     * Resolves the activity of a task being restored from disk. Unlike
+     * {@link #resolveActivity(Intent, String, int, ProfilerInfo, int)} it doesn't take the AMS
+     * lock, since tasks are restored in the background.
+     */
+    ActivityInfo resolveActivityForRestore(Intent intent, String resolvedType, int userId) {
+        final ResolveInfo rInfo = LocalServices.getService(PackageManagerInternal.class)
+                .resolveIntent(intent, resolvedType, PackageManager.MATCH_INSTANT
+                        | PackageManager.MATCH_DEFAULT_ONLY | ActivityManagerService.STOCK_PM_FLAGS,
+                        userId);
+        // Without start flags or profiler info this doesn't need the lock either.
+        return resolveActivity(intent, rInfo, 0 /* startFlags */, null /* profilerInfo */);
+    }
+
     final boolean realStartActivityLocked(ActivityRecord r, ProcessRecord app,
             boolean andResume, boolean checkConfig) throws RemoteException {
 
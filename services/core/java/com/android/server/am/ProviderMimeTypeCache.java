@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.am;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.LruCache;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Remembers the MIME types content providers returned from
+ * {@link ActivityManagerService#getProviderMimeType}, so that repeated lookups of the same uri
+ * don't each have to call into the provider's process.
+ *
+ * <p>Entries only live for {@link #MAX_AGE_MILLIS}, since a provider may report a different
+ * type for the same uri over time. They are dropped as soon as the provider's process dies or
+ * its package changes, and as soon as a change is notified for any uri of the provider's
+ * authority, since the type of a uri often depends on the data behind it. Has its own lock so
+ * that hits don't need the activity manager lock.
+ */
+final class ProviderMimeTypeCache {
+    /** How long a type is remembered for. */
+    static final long MAX_AGE_MILLIS = 5 * 1000;
+
+    /** The most types remembered at once. */
+    static final int MAX_ENTRIES = 256;
+
+    private static final class Key {
+        final Uri uri;
+        final int userId;
+
+        Key(Uri uri, int userId) {
+            this.uri = uri;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return userId == other.userId && uri.equals(other.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return uri.hashCode() * 31 + userId;
+        }
+    }
+
+    private static final class Entry {
+        final String type;
+        final String packageName;
+        final long expiresAt;
+
+        Entry(String type, String packageName, long expiresAt) {
+            this.type = type;
+            this.packageName = packageName;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Object mLock = new Object();
+
+    // INVARIANT: Guarded by mLock
+    private final LruCache<Key, Entry> mEntries = new LruCache<>(MAX_ENTRIES);
+    private long mGeneration;
+    private int mHits;
+    private int mMisses;
+    private int mExpired;
+    private int mInvalidations;
+
+    /**
+     * Returns the cached type of a uri, or null if it has to be asked from the provider.
+     */
+    String get(Uri uri, int userId) {
+        synchronized (mLock) {
+            final Key key = new Key(uri, userId);
+            final Entry entry = mEntries.get(key);
+            if (entry == null) {
+                mMisses++;
+                return null;
+            }
+            if (entry.expiresAt <= SystemClock.uptimeMillis()) {
+                mEntries.remove(key);
+                mExpired++;
+                mMisses++;
+                return null;
+            }
+            mHits++;
+            return entry.type;
+        }
+    }
+
+    /**
+     * Returns a token to pass to {@link #put} after asking the provider for a type, so that the
+     * answer is dropped if the provider went away in the meantime.
+     */
+    long getGeneration() {
+        synchronized (mLock) {
+            return mGeneration;
+        }
+    }
+
+    void put(Uri uri, int userId, String type, String packageName, long generation) {
+        if (type == null) {
+            return;
+        }
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                return;
+            }
+            mEntries.put(new Key(uri, userId),
+                    new Entry(type, packageName, SystemClock.uptimeMillis() + MAX_AGE_MILLIS));
+        }
+    }
+
+    /**
+     * Drops the types returned by the providers of a package, or of all packages if
+     * {@code packageName} is null.
+     *
+     * @param userId the user the package changed for, or {@link UserHandle#USER_ALL}.
+     */
+    void invalidatePackage(String packageName, int userId) {
+        synchronized (mLock) {
+            mGeneration++;
+            mInvalidations++;
+            for (Map.Entry<Key, Entry> e : mEntries.snapshot().entrySet()) {
+                if ((userId == UserHandle.USER_ALL || e.getKey().userId == userId)
+                        && (packageName == null
+                                || Objects.equals(packageName, e.getValue().packageName))) {
+                    mEntries.remove(e.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the types of the uris of an authority, after a change to its data was notified.
+     *
+     * @param userId the user the change was notified for, or {@link UserHandle#USER_ALL}.
+     */
+    void invalidateAuthority(String authority, int userId) {
+        synchronized (mLock) {
+            mGeneration++;
+            mInvalidations++;
+            for (Key key : mEntries.snapshot().keySet()) {
+                if ((userId == UserHandle.USER_ALL || key.userId == userId)
+                        && Objects.equals(authority, key.uri.getAuthority())) {
+                    mEntries.remove(key);
+                }
+            }
+        }
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        synchronized (mLock) {
+            final int lookups = mHits + mMisses;
+            pw.print(prefix); pw.print("MIME type cache: "); pw.print(mEntries.size());
+                    pw.print(" entries, "); pw.print(mHits); pw.print(" hits / ");
+                    pw.print(lookups); pw.print(" lookups");
+            if (lookups > 0) {
+                pw.print(" ("); pw.print(mHits * 100L / lookups); pw.print("%)");
+            }
+            pw.println();
+            pw.print(prefix); pw.print("  expired="); pw.print(mExpired);
+                    pw.print(" invalidations="); pw.print(mInvalidations);
+                    pw.print(" evicted="); pw.println(mEntries.evictionCount());
+        }
+    }
+}
@@ -131,6 +131,27 @@ class RecentTasks extends ArrayList<TaskRecord> {
         }
     }
 
+    /**
+     * Starts reading and parsing the persisted recent tasks of {@code userId} in the background,
+     * so that a following {@link #loadUserRecentsLocked} only has to publish them while holding
+     * the AMS lock. Must not be called with the AMS lock held.
+     *
+     * @param userId the user Id
+     */
+    void prefetchUserRecents(int userId) {
+        mTaskPersister.prefetchTasksForUser(userId);
+    }
+
+    /**
+     * Waits for the recent tasks started by {@link #prefetchUserRecents} to be parsed. Must not be
+     * called with the AMS lock held.
+     *
+     * @param userId the user Id
+     */
+    void waitForPrefetchedUserRecents(int userId) {
+        mTaskPersister.waitForPrefetchedTasks(userId);
+    }
+
     private void loadPersistedTaskIdsForUserLocked(int userId) {
         // An empty instead of a null set here means that no persistent taskIds were present
         // on file when we loaded them.
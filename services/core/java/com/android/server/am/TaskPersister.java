@@ -31,7 +31,9 @@ import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 import android.util.Xml;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.ConcurrentUtils;
 import com.android.internal.util.FastXmlSerializer;
 import com.android.internal.util.XmlUtils;
 import libcore.io.IoUtils;
@@ -53,6 +55,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static android.app.ActivityManager.StackId.HOME_STACK_ID;
 import static android.app.ActivityManager.StackId.INVALID_STACK_ID;
@@ -86,6 +93,9 @@ public class TaskPersister {
 
     private static final String TAG_TASK = "task";
 
+    /** Number of threads used to restore task files ahead of publishing them. */
+    private static final int TASK_FILE_READER_THREADS = 4;
+
     private final ActivityManagerService mService;
     private final ActivityStackSupervisor mStackSupervisor;
     private final RecentTasks mRecentTasks;
@@ -94,6 +104,21 @@ public class TaskPersister {
     // To lock file operations in TaskPersister
     private final Object mIoLock = new Object();
 
+    // Guards the prefetched task files and the pool restoring them. Taken with the AMS lock held,
+    // so the AMS lock must never be taken while holding it.
+    private final Object mPrefetchLock = new Object();
+
+    /**
+     * Task files of a user being read and parsed ahead of {@link #restoreTasksForUserLocked}, so
+     * that the disk reads and the XML parsing happen without the AMS lock held.
+     */
+    @GuardedBy("mPrefetchLock")
+    private final SparseArray<ArrayList<TaskFile>> mPrefetchedTaskFiles = new SparseArray<>();
+
+    /** Pool used to restore task files in parallel, only alive while prefetches are outstanding. */
+    @GuardedBy("mPrefetchLock")
+    private ExecutorService mTaskFileReader;
+
     /**
      * Value determines write delay mode as follows: < 0 We are Flushing. No delays between writes
      * until the image queue is drained and all tasks needing persisting are written to disk. There
@@ -125,6 +150,29 @@ public class TaskPersister {
         }
     }
 
+    /** A task file of a user, and the task being restored from it if it was prefetched. */
+    private static class TaskFile {
+        final File mFile;
+        final int mTaskId;
+        Future<TaskRecord> mRestoredTask;
+        private final AtomicBoolean mClaimed = new AtomicBoolean();
+
+        TaskFile(File file, int taskId) {
+            mFile = file;
+            mTaskId = taskId;
+        }
+
+        /**
+         * Claims the file for restoring, so that it is only parsed once: either by the prefetch
+         * or under the lock, whichever gets to it first.
+         *
+         * @return true if the caller should parse the file, false if the prefetch already does.
+         */
+        boolean claim() {
+            return mClaimed.compareAndSet(false, true);
+        }
+    }
+
     ArrayList<WriteQueueItem> mWriteQueue = new ArrayList<WriteQueueItem>();
 
     TaskPersister(File systemDir, ActivityStackSupervisor stackSupervisor,
@@ -251,6 +299,18 @@ public class TaskPersister {
 
     void unloadUserDataFromMemory(int userId) {
         mTaskIdsInFile.delete(userId);
+        synchronized (mPrefetchLock) {
+            // The user is stopping: drop tasks that were never published, they would be stale by
+            // the next load.
+            final ArrayList<TaskFile> taskFiles = mPrefetchedTaskFiles.get(userId);
+            if (taskFiles != null) {
+                mPrefetchedTaskFiles.remove(userId);
+                for (int i = taskFiles.size() - 1; i >= 0; --i) {
+                    taskFiles.get(i).mRestoredTask.cancel(false /* mayInterruptIfRunning */);
+                }
+                shutdownIdleTaskFileReader();
+            }
+        }
     }
 
     void wakeup(TaskRecord task, boolean flush) {
@@ -411,103 +471,218 @@ public class TaskPersister {
         return null;
     }
 
-    List<TaskRecord> restoreTasksForUserLocked(final int userId, SparseBooleanArray preaddedTasks) {
-        final ArrayList<TaskRecord> tasks = new ArrayList<TaskRecord>();
-        ArraySet<Integer> recoveredTaskIds = new ArraySet<Integer>();
+    /**
+     * Starts restoring the tasks of {@code userId} from disk in the background. Should not be
+     * called with the AMS lock held. The tasks are published by the next call to
+     * {@link #restoreTasksForUserLocked} for the same user.
+     */
+    void prefetchTasksForUser(int userId) {
+        final ArrayList<TaskFile> taskFiles = listTaskFilesForUser(userId);
+        synchronized (mPrefetchLock) {
+            if (mPrefetchedTaskFiles.get(userId) != null) {
+                return;
+            }
+            if (mTaskFileReader == null) {
+                mTaskFileReader = ConcurrentUtils.newFixedThreadPool(TASK_FILE_READER_THREADS,
+                        "TaskFileReader", Process.THREAD_PRIORITY_FOREGROUND);
+            }
+            for (int i = 0; i < taskFiles.size(); ++i) {
+                final TaskFile taskFile = taskFiles.get(i);
+                taskFile.mRestoredTask = mTaskFileReader.submit(
+                        new Callable<TaskRecord>() {
+                            @Override
+                            public TaskRecord call() {
+                                return taskFile.claim() ? restoreTaskFile(taskFile.mFile) : null;
+                            }
+                        });
+            }
+            mPrefetchedTaskFiles.put(userId, taskFiles);
+        }
+    }
+
+    /**
+     * Waits for the tasks started by {@link #prefetchTasksForUser} to be restored, so that
+     * {@link #restoreTasksForUserLocked} doesn't wait for them with the AMS lock held.
+     */
+    void waitForPrefetchedTasks(int userId) {
+        final ArrayList<TaskFile> taskFiles;
+        synchronized (mPrefetchLock) {
+            taskFiles = mPrefetchedTaskFiles.get(userId);
+        }
+        if (taskFiles == null) {
+            return;
+        }
+        try {
+            for (int i = 0; i < taskFiles.size(); ++i) {
+                ConcurrentUtils.waitForFutureNoInterrupt(taskFiles.get(i).mRestoredTask,
+                        "Restoring task file");
+            }
+        } catch (CancellationException e) {
+            // The user was stopped in the meantime.
+        }
+    }
 
-        File userTasksDir = getUserTasksDir(userId);
+    @GuardedBy("mPrefetchLock")
+    private void shutdownIdleTaskFileReader() {
+        if (mPrefetchedTaskFiles.size() == 0 && mTaskFileReader != null) {
+            // Already submitted restores still complete; don't keep idle threads around.
+            mTaskFileReader.shutdown();
+            mTaskFileReader = null;
+        }
+    }
 
-        File[] recentFiles = userTasksDir.listFiles();
+    private ArrayList<TaskFile> listTaskFilesForUser(int userId) {
+        final ArrayList<TaskFile> taskFiles = new ArrayList<>();
+        final File userTasksDir = getTasksDirForUser(userId);
+        final File[] recentFiles = userTasksDir.listFiles();
         if (recentFiles == null) {
-            Slog.e(TAG, "restoreTasksForUserLocked: Unable to list files from " + userTasksDir);
-            return tasks;
+            Slog.e(TAG, "listTaskFilesForUser: Unable to list files from " + userTasksDir);
+            return taskFiles;
         }
-
         for (int taskNdx = 0; taskNdx < recentFiles.length; ++taskNdx) {
-            File taskFile = recentFiles[taskNdx];
-            if (DEBUG) {
-                Slog.d(TAG, "restoreTasksForUserLocked: userId=" + userId
-                        + ", taskFile=" + taskFile.getName());
-            }
-
-            if (!taskFile.getName().endsWith(TASK_FILENAME_SUFFIX)) {
+            final File taskFile = recentFiles[taskNdx];
+            final String fileName = taskFile.getName();
+            if (!fileName.endsWith(TASK_FILENAME_SUFFIX)) {
                 continue;
             }
             try {
-                final int taskId = Integer.parseInt(taskFile.getName().substring(
-                        0 /* beginIndex */,
-                        taskFile.getName().length() - TASK_FILENAME_SUFFIX.length()));
-                if (preaddedTasks.get(taskId, false)) {
-                    Slog.w(TAG, "Task #" + taskId +
-                            " has already been created so we don't restore again");
-                    continue;
-                }
+                taskFiles.add(new TaskFile(taskFile, Integer.parseInt(fileName.substring(
+                        0 /* beginIndex */, fileName.length() - TASK_FILENAME_SUFFIX.length()))));
             } catch (NumberFormatException e) {
                 Slog.w(TAG, "Unexpected task file name", e);
-                continue;
             }
+        }
+        return taskFiles;
+    }
 
-            BufferedReader reader = null;
-            boolean deleteFile = false;
-            try {
-                reader = new BufferedReader(new FileReader(taskFile));
-                final XmlPullParser in = Xml.newPullParser();
-                in.setInput(reader);
-
-                int event;
-                while (((event = in.next()) != XmlPullParser.END_DOCUMENT) &&
-                        event != XmlPullParser.END_TAG) {
-                    final String name = in.getName();
-                    if (event == XmlPullParser.START_TAG) {
-                        if (DEBUG) Slog.d(TAG, "restoreTasksForUserLocked: START_TAG name=" + name);
-                        if (TAG_TASK.equals(name)) {
-                            final TaskRecord task = TaskRecord.restoreFromXml(in, mStackSupervisor);
-                            if (DEBUG) Slog.d(TAG, "restoreTasksForUserLocked: restored task="
-                                    + task);
-                            if (task != null) {
-                                // XXX Don't add to write queue... there is no reason to write
-                                // out the stuff we just read, if we don't write it we will
-                                // read the same thing again.
-                                // mWriteQueue.add(new TaskWriteQueueItem(task));
-
-                                final int taskId = task.taskId;
-                                if (mStackSupervisor.anyTaskForIdLocked(taskId,
-                                        MATCH_TASK_IN_STACKS_OR_RECENT_TASKS,
-                                        INVALID_STACK_ID) != null) {
-                                    // Should not happen.
-                                    Slog.wtf(TAG, "Existing task with taskId " + taskId + "found");
-                                } else if (userId != task.userId) {
-                                    // Should not happen.
-                                    Slog.wtf(TAG, "Task with userId " + task.userId + " found in "
-                                            + userTasksDir.getAbsolutePath());
-                                } else {
-                                    // Looks fine.
-                                    mStackSupervisor.setNextTaskIdForUserLocked(taskId, userId);
-                                    task.isPersistable = true;
-                                    tasks.add(task);
-                                    recoveredTaskIds.add(taskId);
-                                }
-                            } else {
-                                Slog.e(TAG, "restoreTasksForUserLocked: Unable to restore taskFile="
-                                        + taskFile + ": " + fileToString(taskFile));
-                            }
+    /** Returns the directory the tasks of {@code userId} are restored from. */
+    @VisibleForTesting
+    File getTasksDirForUser(int userId) {
+        return getUserTasksDir(userId);
+    }
+
+    /**
+     * Reads and parses a task file, deleting it if it is corrupt. Doesn't need the AMS lock: the
+     * task isn't known to the rest of the system until {@link #restoreTasksForUserLocked}
+     * publishes it.
+     *
+     * @return the restored task, or null if the file couldn't be restored.
+     */
+    private TaskRecord restoreTaskFile(File taskFile) {
+        if (DEBUG) Slog.d(TAG, "restoreTaskFile: taskFile=" + taskFile.getName());
+        TaskRecord restoredTask = null;
+        BufferedReader reader = null;
+        boolean deleteFile = false;
+        try {
+            reader = new BufferedReader(new FileReader(taskFile));
+            final XmlPullParser in = Xml.newPullParser();
+            in.setInput(reader);
+
+            int event;
+            while (((event = in.next()) != XmlPullParser.END_DOCUMENT) &&
+                    event != XmlPullParser.END_TAG) {
+                final String name = in.getName();
+                if (event == XmlPullParser.START_TAG) {
+                    if (DEBUG) Slog.d(TAG, "restoreTaskFile: START_TAG name=" + name);
+                    if (TAG_TASK.equals(name)) {
+                        final TaskRecord task = TaskRecord.restoreFromXml(in, mStackSupervisor);
+                        if (DEBUG) Slog.d(TAG, "restoreTaskFile: restored task=" + task);
+                        if (task != null) {
+                            restoredTask = task;
                         } else {
-                            Slog.wtf(TAG, "restoreTasksForUserLocked: Unknown xml event=" + event
-                                    + " name=" + name);
+                            Slog.e(TAG, "restoreTaskFile: Unable to restore taskFile="
+                                    + taskFile + ": " + fileToString(taskFile));
                         }
+                    } else {
+                        Slog.wtf(TAG, "restoreTaskFile: Unknown xml event=" + event
+                                + " name=" + name);
                     }
-                    XmlUtils.skipCurrentTag(in);
                 }
-            } catch (Exception e) {
-                Slog.wtf(TAG, "Unable to parse " + taskFile + ". Error ", e);
-                Slog.e(TAG, "Failing file: " + fileToString(taskFile));
-                deleteFile = true;
-            } finally {
-                IoUtils.closeQuietly(reader);
-                if (deleteFile) {
-                    if (DEBUG) Slog.d(TAG, "Deleting file=" + taskFile.getName());
-                    taskFile.delete();
+                XmlUtils.skipCurrentTag(in);
+            }
+        } catch (Exception e) {
+            Slog.wtf(TAG, "Unable to parse " + taskFile + ". Error ", e);
+            Slog.e(TAG, "Failing file: " + fileToString(taskFile));
+            deleteFile = true;
+        } finally {
+            IoUtils.closeQuietly(reader);
+            if (deleteFile) {
+                if (DEBUG) Slog.d(TAG, "Deleting file=" + taskFile.getName());
+                taskFile.delete();
+            }
+        }
+        return restoredTask;
+    }
+
+    List<TaskRecord> restoreTasksForUserLocked(final int userId, SparseBooleanArray preaddedTasks) {
+        final ArrayList<TaskRecord> tasks = new ArrayList<TaskRecord>();
+        ArraySet<Integer> recoveredTaskIds = new ArraySet<Integer>();
+
+        final long startTime = SystemClock.uptimeMillis();
+        File userTasksDir = getTasksDirForUser(userId);
+        ArrayList<TaskFile> taskFiles;
+        synchronized (mPrefetchLock) {
+            taskFiles = mPrefetchedTaskFiles.get(userId);
+            if (taskFiles != null) {
+                mPrefetchedTaskFiles.remove(userId);
+                shutdownIdleTaskFileReader();
+            }
+        }
+        if (taskFiles == null) {
+            taskFiles = listTaskFilesForUser(userId);
+        }
+        int restoredUnderLock = 0;
+
+        for (int taskNdx = 0; taskNdx < taskFiles.size(); ++taskNdx) {
+            final TaskFile taskFile = taskFiles.get(taskNdx);
+            // A prefetch that already started parsing the file is waited for, never duplicated.
+            // Restoring doesn't take the AMS lock, so waiting for it here can't deadlock.
+            final boolean claimed = taskFile.claim();
+            if (preaddedTasks.get(taskFile.mTaskId, false)) {
+                if (!claimed) {
+                    // Let the prefetch finish, it may still delete the file if it is corrupt.
+                    ConcurrentUtils.waitForFutureNoInterrupt(taskFile.mRestoredTask,
+                            "Restoring task file");
                 }
+                Slog.w(TAG, "Task #" + taskFile.mTaskId +
+                        " has already been created so we don't restore again");
+                continue;
+            }
+
+            final TaskRecord task;
+            if (claimed) {
+                // Not prefetched, or the prefetch didn't get to the file yet.
+                task = restoreTaskFile(taskFile.mFile);
+                restoredUnderLock++;
+            } else {
+                task = ConcurrentUtils.waitForFutureNoInterrupt(taskFile.mRestoredTask,
+                        "Restoring task file");
+            }
+            if (task == null) {
+                continue;
+            }
+
+            // XXX Don't add to write queue... there is no reason to write
+            // out the stuff we just read, if we don't write it we will
+            // read the same thing again.
+            // mWriteQueue.add(new TaskWriteQueueItem(task));
+
+            final int taskId = task.taskId;
+            if (mStackSupervisor.anyTaskForIdLocked(taskId,
+                    MATCH_TASK_IN_STACKS_OR_RECENT_TASKS, INVALID_STACK_ID) != null) {
+                // Should not happen.
+                Slog.wtf(TAG, "Existing task with taskId " + taskId + "found");
+            } else if (userId != task.userId) {
+                // Should not happen.
+                Slog.wtf(TAG, "Task with userId " + task.userId + " found in "
+                        + userTasksDir.getAbsolutePath());
+            } else {
+                // Looks fine.
+                mStackSupervisor.setNextTaskIdForUserLocked(taskId, userId);
+                task.onRestoredLocked();
+                task.isPersistable = true;
+                tasks.add(task);
+                recoveredTaskIds.add(taskId);
             }
         }
 
@@ -535,6 +710,10 @@ public class TaskPersister {
                 }
             }
         });
+        final long now = SystemClock.uptimeMillis();
+        Slog.i(TAG, "Restored " + tasks.size() + " tasks for user " + userId + " in "
+                + (now - startTime) + "ms (" + restoredUnderLock + " of " + taskFiles.size()
+                + " files parsed under the lock)");
         return tasks;
     }
 
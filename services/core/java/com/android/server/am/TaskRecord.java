@@ -312,6 +312,8 @@ final class TaskRecord extends ConfigurationContainer implements TaskWindowConta
     // The information is persisted and used to determine the appropriate stack to launch the
     // task into on restore.
     Rect mLastNonFullscreenBounds = null;
+    // Bounds read by restoreFromXml(), until applyRestoredBounds() is called.
+    private Rect mRestoredBounds;
     // Minimal width and height of this task when it's resizeable. -1 means it should use the
     // default minimal width/height.
     int mMinWidth;
@@ -434,7 +436,7 @@ final class TaskRecord extends ConfigurationContainer implements TaskWindowConta
         mPrivileged = privileged;
         mMinWidth = minWidth;
         mMinHeight = minHeight;
-        mService.mTaskChangeNotificationController.notifyTaskCreated(_taskId, realActivity);
+        // Restored tasks are reported as created by onRestoredLocked() once published.
     }
 
     TaskWindowContainerController getWindowContainerController() {
@@ -1977,7 +1979,7 @@ final class TaskRecord extends ConfigurationContainer implements TaskWindowConta
                 taskAffiliationColor, callingUid, callingPackage, resizeMode,
                 supportsPictureInPicture, privileged, realActivitySuspended, userSetupComplete,
                 minWidth, minHeight);
-        task.updateOverrideConfiguration(bounds);
+        task.mRestoredBounds = bounds;
 
         for (int activityNdx = activities.size() - 1; activityNdx >=0; --activityNdx) {
             activities.get(activityNdx).setTask(task);
@@ -1987,6 +1989,21 @@ final class TaskRecord extends ConfigurationContainer implements TaskWindowConta
         return task;
     }
 
+    /**
+     * Finishes restoring a task read by {@link #restoreFromXml} when it is published: applies
+     * its bounds and the global configuration, and reports it as created. Kept apart from
+     * restoring from XML, which happens without the AMS lock held.
+     */
+    void onRestoredLocked() {
+        updateOverrideConfiguration(mRestoredBounds);
+        mRestoredBounds = null;
+        final Configuration config = mService.getConfiguration();
+        for (int activityNdx = mActivities.size() - 1; activityNdx >= 0; --activityNdx) {
+            mActivities.get(activityNdx).setLastReportedGlobalConfiguration(config);
+        }
+        mService.mTaskChangeNotificationController.notifyTaskCreated(taskId, realActivity);
+    }
+
     private void adjustForMinimalTaskDimensions(Rect bounds) {
         if (bounds == null) {
             return;
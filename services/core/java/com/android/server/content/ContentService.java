@@ -48,6 +48,7 @@ import android.os.Bundle;
 import android.os.FactoryTest;
 import android.os.IBinder;
 import android.os.Parcel;
+import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemProperties;
 import android.os.UserHandle;
@@ -63,6 +64,7 @@ import com.android.internal.annotations.GuardedBy;
 import com.android.internal.util.DumpUtils;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.server.LocalServices;
+import com.android.server.ServiceThread;
 import com.android.server.SystemService;
 
 import java.io.FileDescriptor;
@@ -113,6 +115,7 @@ public final class ContentService extends IContentService.Stub {
     private boolean mFactoryTest;
 
     private final ObserverNode mRootNode = new ObserverNode("");
+    private final ObserverDispatcher mObserverDispatcher;
 
     private SyncManager mSyncManager = null;
     private final Object mSyncManagerLock = new Object();
@@ -209,6 +212,7 @@ public final class ContentService extends IContentService.Stub {
                 pw.print(" Total number of nodes: "); pw.println(counts[0]);
                 pw.print(" Total number of observers: "); pw.println(counts[1]);
             }
+            mObserverDispatcher.dump(pw);
 
             synchronized (mCache) {
                 pw.println();
@@ -246,6 +250,11 @@ public final class ContentService extends IContentService.Stub {
         mContext = context;
         mFactoryTest = factoryTest;
 
+        final ServiceThread observerThread = new ServiceThread("ContentObserverDispatcher",
+                Process.THREAD_PRIORITY_FOREGROUND, false /*allowIo*/);
+        observerThread.start();
+        mObserverDispatcher = new ObserverDispatcher(mRootNode, observerThread.getLooper());
+
         // Let the package manager query for the sync adapters for a given authority
         // as we grant default permissions to sync adapters for specific authorities.
         PackageManagerInternal packageManagerInternal = LocalServices.getService(
@@ -316,7 +325,7 @@ public final class ContentService extends IContentService.Stub {
 
         synchronized (mRootNode) {
             mRootNode.addObserverLocked(uri, observer, notifyForDescendants, mRootNode,
-                    uid, pid, userHandle);
+                    uid, pid, userHandle, targetSdkVersion);
             if (false) Log.v(TAG, "Registered observer " + observer + " at " + uri +
                     " with notifyForDescendants " + notifyForDescendants);
         }
@@ -392,28 +401,7 @@ public final class ContentService extends IContentService.Stub {
             }
             final int numCalls = calls.size();
             for (int i=0; i<numCalls; i++) {
-                ObserverCall oc = calls.get(i);
-                try {
-                    oc.mObserver.onChange(oc.mSelfChange, uri, userHandle);
-                    if (DEBUG) Slog.d(TAG, "Notified " + oc.mObserver + " of " + "update at "
-                            + uri);
-                } catch (RemoteException ex) {
-                    synchronized (mRootNode) {
-                        Log.w(TAG, "Found dead observer, removing");
-                        IBinder binder = oc.mObserver.asBinder();
-                        final ArrayList<ObserverNode.ObserverEntry> list
-                                = oc.mNode.mObservers;
-                        int numList = list.size();
-                        for (int j=0; j<numList; j++) {
-                            ObserverNode.ObserverEntry oe = list.get(j);
-                            if (oe.observer.asBinder() == binder) {
-                                list.remove(j);
-                                j--;
-                                numList--;
-                            }
-                        }
-                    }
-                }
+                mObserverDispatcher.dispatch(calls.get(i), uri, userHandle);
             }
             if ((flags&ContentResolver.NOTIFY_SYNC_TO_NETWORK) != 0) {
                 SyncManager syncManager = getSyncManager();
@@ -427,6 +415,8 @@ public final class ContentService extends IContentService.Stub {
                 final String providerPackageName = getProviderPackageName(uri);
                 invalidateCacheLocked(userHandle, providerPackageName, uri);
             }
+            LocalServices.getService(ActivityManagerInternal.class)
+                    .notifyProviderChanged(uri.getAuthority(), userHandle);
         } finally {
             restoreCallingIdentity(identityToken);
         }
@@ -459,12 +449,15 @@ public final class ContentService extends IContentService.Stub {
         final IContentObserver mObserver;
         final boolean mSelfChange;
         final int mObserverUserId;
+        final boolean mCollapseDescendants;
 
-        ObserverCall(ObserverNode node, IContentObserver observer, boolean selfChange, int observerUserId) {
+        ObserverCall(ObserverNode node, IContentObserver observer, boolean selfChange,
+                int observerUserId, boolean collapseDescendants) {
             mNode = node;
             mObserver = observer;
             mSelfChange = selfChange;
             mObserverUserId = observerUserId;
+            mCollapseDescendants = collapseDescendants;
         }
     }
 
@@ -1217,15 +1210,17 @@ public final class ContentService extends IContentService.Stub {
             public final int pid;
             public final boolean notifyForDescendants;
             private final int userHandle;
+            private final int targetSdkVersion;
             private final Object observersLock;
 
             public ObserverEntry(IContentObserver o, boolean n, Object observersLock,
-                                 int _uid, int _pid, int _userHandle) {
+                                 int _uid, int _pid, int _userHandle, int _targetSdkVersion) {
                 this.observersLock = observersLock;
                 observer = o;
                 uid = _uid;
                 pid = _pid;
                 userHandle = _userHandle;
+                targetSdkVersion = _targetSdkVersion;
                 notifyForDescendants = n;
                 try {
                     observer.asBinder().linkToDeath(this, 0);
@@ -1258,7 +1253,9 @@ public final class ContentService extends IContentService.Stub {
         public static final int DELETE_TYPE = 2;
 
         private String mName;
-        private ArrayList<ObserverNode> mChildren = new ArrayList<ObserverNode>();
+        // Children keyed by their uri segment, so that finding the path of a uri does not
+        // scan the siblings at each level.
+        private ArrayMap<String, ObserverNode> mChildren = new ArrayMap<String, ObserverNode>();
         private ArrayList<ObserverEntry> mObservers = new ArrayList<ObserverEntry>();
 
         public ObserverNode(String name) {
@@ -1290,7 +1287,7 @@ public final class ContentService extends IContentService.Stub {
                 }
                 for (int i=0; i<mChildren.size(); i++) {
                     counts[0]++;
-                    mChildren.get(i).dumpLocked(fd, pw, args, innerName, prefix,
+                    mChildren.valueAt(i).dumpLocked(fd, pw, args, innerName, prefix,
                             counts, pidCounts);
                 }
             }
@@ -1319,17 +1316,25 @@ public final class ContentService extends IContentService.Stub {
         public void addObserverLocked(Uri uri, IContentObserver observer,
                                       boolean notifyForDescendants, Object observersLock,
                                       int uid, int pid, int userHandle) {
+            addObserverLocked(uri, observer, notifyForDescendants, observersLock,
+                    uid, pid, userHandle, Build.VERSION_CODES.CUR_DEVELOPMENT);
+        }
+
+        // Invariant:  userHandle is either a hard user number or is USER_ALL
+        public void addObserverLocked(Uri uri, IContentObserver observer,
+                                      boolean notifyForDescendants, Object observersLock,
+                                      int uid, int pid, int userHandle, int targetSdkVersion) {
             addObserverLocked(uri, 0, observer, notifyForDescendants, observersLock,
-                    uid, pid, userHandle);
+                    uid, pid, userHandle, targetSdkVersion);
         }
 
         private void addObserverLocked(Uri uri, int index, IContentObserver observer,
                                        boolean notifyForDescendants, Object observersLock,
-                                       int uid, int pid, int userHandle) {
+                                       int uid, int pid, int userHandle, int targetSdkVersion) {
             // If this is the leaf node add the observer
             if (index == countUriSegments(uri)) {
                 mObservers.add(new ObserverEntry(observer, notifyForDescendants, observersLock,
-                        uid, pid, userHandle));
+                        uid, pid, userHandle, targetSdkVersion));
                 return;
             }
 
@@ -1338,29 +1343,22 @@ public final class ContentService extends IContentService.Stub {
             if (segment == null) {
                 throw new IllegalArgumentException("Invalid Uri (" + uri + ") used for observer");
             }
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (node.mName.equals(segment)) {
-                    node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
-                            observersLock, uid, pid, userHandle);
-                    return;
-                }
+            ObserverNode node = mChildren.get(segment);
+            if (node == null) {
+                // No child found, create one
+                node = new ObserverNode(segment);
+                mChildren.put(segment, node);
             }
-
-            // No child found, create one
-            ObserverNode node = new ObserverNode(segment);
-            mChildren.add(node);
             node.addObserverLocked(uri, index + 1, observer, notifyForDescendants,
-                    observersLock, uid, pid, userHandle);
+                    observersLock, uid, pid, userHandle, targetSdkVersion);
         }
 
         public boolean removeObserverLocked(IContentObserver observer) {
             int size = mChildren.size();
             for (int i = 0; i < size; i++) {
-                boolean empty = mChildren.get(i).removeObserverLocked(observer);
+                boolean empty = mChildren.valueAt(i).removeObserverLocked(observer);
                 if (empty) {
-                    mChildren.remove(i);
+                    mChildren.removeAt(i);
                     i--;
                     size--;
                 }
@@ -1427,7 +1425,8 @@ public final class ContentService extends IContentService.Stub {
                             + " flags=" + Integer.toHexString(flags)
                             + " desc=" + entry.notifyForDescendants);
                     calls.add(new ObserverCall(this, entry.observer, selfChange,
-                            UserHandle.getUserId(entry.uid)));
+                            UserHandle.getUserId(entry.uid),
+                            entry.targetSdkVersion > Build.VERSION_CODES.O));
                 }
             }
         }
@@ -1454,17 +1453,19 @@ public final class ContentService extends IContentService.Stub {
                         flags, targetUserHandle, calls);
             }
 
-            int N = mChildren.size();
-            for (int i = 0; i < N; i++) {
-                ObserverNode node = mChildren.get(i);
-                if (segment == null || node.mName.equals(segment)) {
+            if (segment != null) {
+                ObserverNode node = mChildren.get(segment);
+                if (node != null) {
                     // We found the child,
                     node.collectObserversLocked(uri, index + 1, observer,
                             observerWantsSelfNotifications, flags, targetUserHandle, calls);
-                    if (segment != null) {
-                        break;
-                    }
                 }
+                return;
+            }
+            int N = mChildren.size();
+            for (int i = 0; i < N; i++) {
+                mChildren.valueAt(i).collectObserversLocked(uri, index + 1, observer,
+                        observerWantsSelfNotifications, flags, targetUserHandle, calls);
             }
         }
     }
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.Slog;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.content.ContentService.ObserverCall;
+import com.android.server.content.ContentService.ObserverNode;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Delivers content change notifications to observers in batches.
+ * <p>
+ * The notifications for an observer are queued and delivered together, with a single binder
+ * transaction, at most once per {@link #COALESCE_WINDOW_MILLIS}. A notification that arrives
+ * after a quiet period is delivered right away. For observers of apps targeting a release after
+ * O, a queued notification also absorbs the notifications queued for the same uri or one of its
+ * descendants, since the observer is going to be told that the whole subtree changed.
+ */
+final class ObserverDispatcher {
+    private static final String TAG = ContentService.TAG;
+
+    @VisibleForTesting
+    static final long COALESCE_WINDOW_MILLIS = 20;
+
+    private final ObserverNode mRootNode;
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final ArrayMap<IBinder, ArrayList<PendingBatch>> mPending = new ArrayMap<>();
+    @GuardedBy("mLock")
+    private boolean mFlushScheduled;
+    @GuardedBy("mLock")
+    private long mLastFlushTime = -COALESCE_WINDOW_MILLIS;
+
+    @GuardedBy("mLock")
+    private long mReceivedCount;
+    @GuardedBy("mLock")
+    private long mCoalescedCount;
+    @GuardedBy("mLock")
+    private long mDeliveredCount;
+    @GuardedBy("mLock")
+    private long mTransactionCount;
+    @GuardedBy("mLock")
+    private long mDeadObserverCount;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param rootNode The root of the observer tree, which also guards it. Dead observers are
+     * removed from it.
+     * @param looper The looper of the thread on which to deliver the notifications.
+     */
+    ObserverDispatcher(ObserverNode rootNode, Looper looper) {
+        mRootNode = rootNode;
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Queues the notification of a change to an observer.
+     *
+     * @param call The observer to notify, as collected from the observer tree.
+     * @param uri The uri that changed.
+     * @param userId The user whose view of the provider changed.
+     */
+    void dispatch(ObserverCall call, Uri uri, int userId) {
+        synchronized (mLock) {
+            mReceivedCount++;
+            final IBinder binder = call.mObserver.asBinder();
+            ArrayList<PendingBatch> batches = mPending.get(binder);
+            if (batches == null) {
+                batches = new ArrayList<>(1);
+                mPending.put(binder, batches);
+            }
+            PendingBatch batch = null;
+            for (int i = 0; i < batches.size(); i++) {
+                final PendingBatch b = batches.get(i);
+                if (b.mSelfChange == call.mSelfChange && b.mUserId == userId) {
+                    batch = b;
+                    break;
+                }
+            }
+            if (batch == null) {
+                batch = new PendingBatch(call.mObserver, call.mSelfChange, userId,
+                        call.mCollapseDescendants);
+                batches.add(batch);
+            }
+            mCoalescedCount += batch.add(uri);
+
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                final long delay = mLastFlushTime + COALESCE_WINDOW_MILLIS
+                        - SystemClock.uptimeMillis();
+                mHandler.postDelayed(mFlush, Math.max(0, delay));
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void flush() {
+        final ArrayList<PendingBatch> batches = new ArrayList<>();
+        synchronized (mLock) {
+            mFlushScheduled = false;
+            mLastFlushTime = SystemClock.uptimeMillis();
+            for (int i = 0; i < mPending.size(); i++) {
+                batches.addAll(mPending.valueAt(i));
+            }
+            mPending.clear();
+        }
+
+        int delivered = 0;
+        int dead = 0;
+        final int numBatches = batches.size();
+        for (int i = 0; i < numBatches; i++) {
+            final PendingBatch batch = batches.get(i);
+            final int numUris = batch.mUris.size();
+            try {
+                if (numUris == 1) {
+                    batch.mObserver.onChange(batch.mSelfChange, batch.mUris.get(0),
+                            batch.mUserId);
+                } else {
+                    batch.mObserver.onChangeBatch(batch.mSelfChange,
+                            batch.mUris.toArray(new Uri[numUris]), batch.mUserId);
+                }
+                delivered += numUris;
+                if (ContentService.DEBUG) Slog.d(TAG, "Notified " + batch.mObserver + " of "
+                        + numUris + " updates");
+            } catch (RemoteException ex) {
+                dead++;
+                synchronized (mRootNode) {
+                    Log.w(TAG, "Found dead observer, removing");
+                    mRootNode.removeObserverLocked(batch.mObserver);
+                }
+            }
+        }
+
+        synchronized (mLock) {
+            mDeliveredCount += delivered;
+            mTransactionCount += numBatches - dead;
+            mDeadObserverCount += dead;
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            int pending = 0;
+            for (int i = 0; i < mPending.size(); i++) {
+                final List<PendingBatch> batches = mPending.valueAt(i);
+                for (int j = 0; j < batches.size(); j++) {
+                    pending += batches.get(j).mUris.size();
+                }
+            }
+            pw.print(" Observer notifications: "); pw.print(mReceivedCount);
+            pw.print(" received, "); pw.print(mCoalescedCount);
+            pw.print(" coalesced, "); pw.print(mDeliveredCount);
+            pw.print(" delivered in "); pw.print(mTransactionCount);
+            pw.print(" transactions, "); pw.print(mDeadObserverCount);
+            pw.print(" dead observers, "); pw.print(pending);
+            pw.println(" pending");
+        }
+    }
+
+    /**
+     * The notifications queued for an observer with the same self change and user.
+     */
+    private static final class PendingBatch {
+        final IContentObserver mObserver;
+        final boolean mSelfChange;
+        final int mUserId;
+        final boolean mCollapseDescendants;
+        final ArrayList<Uri> mUris = new ArrayList<>();
+
+        // The keys of the queued uris, and the number of queued uris under each of their
+        // prefixes, so that covered uris are found without scanning the queue. Only used when
+        // collapsing descendants.
+        private HashSet<String> mKeys;
+        private HashMap<String, Integer> mPrefixCounts;
+
+        PendingBatch(IContentObserver observer, boolean selfChange, int userId,
+                boolean collapseDescendants) {
+            mObserver = observer;
+            mSelfChange = selfChange;
+            mUserId = userId;
+            mCollapseDescendants = collapseDescendants;
+            if (collapseDescendants) {
+                mKeys = new HashSet<>();
+                mPrefixCounts = new HashMap<>();
+            }
+        }
+
+        /**
+         * Queues a uri.
+         *
+         * @return The number of notifications absorbed by the queue.
+         */
+        int add(Uri uri) {
+            final String[] prefixes = mCollapseDescendants ? getPrefixKeys(uri) : null;
+            if (prefixes == null) {
+                mUris.add(uri);
+                return 0;
+            }
+
+            // Drop the uri if it or one of its ancestors is already queued.
+            for (String prefix : prefixes) {
+                if (mKeys.contains(prefix)) {
+                    return 1;
+                }
+            }
+
+            // Replace the queued descendants of the uri.
+            final String key = prefixes[prefixes.length - 1];
+            int absorbed = 0;
+            if (mPrefixCounts.containsKey(key)) {
+                for (int i = mUris.size() - 1; i >= 0; i--) {
+                    final String[] queued = getPrefixKeys(mUris.get(i));
+                    if (queued != null && queued.length > prefixes.length
+                            && queued[prefixes.length - 1].equals(key)) {
+                        mUris.remove(i);
+                        removeKeys(queued);
+                        absorbed++;
+                    }
+                }
+            }
+
+            mUris.add(uri);
+            mKeys.add(key);
+            for (String prefix : prefixes) {
+                final Integer count = mPrefixCounts.get(prefix);
+                mPrefixCounts.put(prefix, count == null ? 1 : count + 1);
+            }
+            return absorbed;
+        }
+
+        private void removeKeys(String[] prefixes) {
+            mKeys.remove(prefixes[prefixes.length - 1]);
+            for (String prefix : prefixes) {
+                final int count = mPrefixCounts.get(prefix);
+                if (count == 1) {
+                    mPrefixCounts.remove(prefix);
+                } else {
+                    mPrefixCounts.put(prefix, count - 1);
+                }
+            }
+        }
+
+        /**
+         * Returns the keys of the uri and of its ancestors, from the authority down to the uri
+         * itself, or null if the uri cannot be collapsed.
+         */
+        private static String[] getPrefixKeys(Uri uri) {
+            final String authority = uri.getAuthority();
+            if (authority == null || uri.getQuery() != null || uri.getFragment() != null) {
+                return null;
+            }
+            final List<String> segments = uri.getPathSegments();
+            final String[] keys = new String[segments.size() + 1];
+            final StringBuilder key = new StringBuilder(authority);
+            keys[0] = key.toString();
+            for (int i = 0; i < segments.size(); i++) {
+                key.append('/').append(segments.get(i));
+                keys[i + 1] = key.toString();
+            }
+            return keys;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.accounts.Account;
+import android.util.ArrayMap;
+
+import java.io.PrintWriter;
+import java.util.Objects;
+
+/**
+ * Groups deferred one-off syncs so that they wake the device together instead of one by one.
+ *
+ * <p>Syncs for the same account and network requirement that are scheduled to run at about the
+ * same time share a window: the first one opens it, and the following ones are pushed back to
+ * its start time as long as this delays them by no more than {@link #MAX_BATCH_DELAY_MILLIS}.
+ * New windows start on a {@link #BATCH_ALIGNMENT_MILLIS} boundary so that syncs for different
+ * accounts also tend to land on the same wakeup.
+ *
+ * <p>Also decides how many syncs may run at once given the current device load.
+ *
+ * <p>Only accessed from the sync handler thread, apart from {@link #dump}.
+ */
+class SyncBatcher {
+    /** The most a sync is pushed back past its requested start time to join a batch. */
+    static final long MAX_BATCH_DELAY_MILLIS = 60 * 1000; // 1 minute
+
+    /** New batch windows start on a multiple of this, in elapsed realtime. */
+    static final long BATCH_ALIGNMENT_MILLIS = 10 * 1000; // 10 seconds
+
+    /** Bounds of the number of syncs that may run at once when the device isn't constrained. */
+    static final int MIN_CONCURRENT_SYNCS = 2;
+    static final int MAX_CONCURRENT_SYNCS = 8;
+
+    private static final class BatchKey {
+        final Account account;
+        final int userId;
+        final int networkType;
+
+        BatchKey(Account account, int userId, int networkType) {
+            this.account = account;
+            this.userId = userId;
+            this.networkType = networkType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BatchKey)) {
+                return false;
+            }
+            final BatchKey other = (BatchKey) o;
+            return userId == other.userId && networkType == other.networkType
+                    && Objects.equals(account, other.account);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Objects.hashCode(account) * 31 + userId) * 31 + networkType;
+        }
+    }
+
+    /** Start time, in elapsed realtime, of the open window of each account and network. */
+    private final ArrayMap<BatchKey, Long> mWindows = new ArrayMap<>();
+
+    private int mWindowsOpened;
+    private int mSyncsBatched;
+    private int mSyncsDeferredForLoad;
+
+    /**
+     * Returns the delay to schedule the given sync with so that it joins a batch.
+     *
+     * @param op the sync being scheduled.
+     * @param networkType the network type the sync's job requires.
+     * @param minDelay the earliest the sync may run, relative to {@code now}.
+     * @param now the current elapsed realtime.
+     */
+    long getBatchedDelay(SyncOperation op, int networkType, long minDelay, long now) {
+        // Syncs that should run as soon as possible aren't worth saving a wakeup for.
+        if (minDelay <= 0 || op.isPeriodic || op.isExpedited() || op.isInitialization()
+                || op.isManual()) {
+            return minDelay;
+        }
+        pruneWindows(now);
+
+        final long earliest = now + minDelay;
+        final BatchKey key = new BatchKey(op.target.account, op.target.userId, networkType);
+        final Long start = mWindows.get(key);
+        if (start != null && start >= earliest && start - earliest <= MAX_BATCH_DELAY_MILLIS) {
+            mSyncsBatched++;
+            return start - now;
+        }
+
+        final long aligned = (earliest + BATCH_ALIGNMENT_MILLIS - 1)
+                / BATCH_ALIGNMENT_MILLIS * BATCH_ALIGNMENT_MILLIS;
+        mWindows.put(key, aligned);
+        mWindowsOpened++;
+        return aligned - now;
+    }
+
+    private void pruneWindows(long now) {
+        for (int i = mWindows.size() - 1; i >= 0; i--) {
+            if (mWindows.valueAt(i) < now) {
+                mWindows.removeAt(i);
+            }
+        }
+    }
+
+    /** Records that a sync was pushed back because too many were already running. */
+    void noteDeferredForLoad() {
+        mSyncsDeferredForLoad++;
+    }
+
+    /**
+     * Returns how many syncs may run at once. Expedited, initialization and manual syncs are
+     * not held to this limit.
+     *
+     * @param cpuCount the number of processors available.
+     * @param lowRam whether this is a low-RAM device.
+     * @param powerSave whether battery saver is on.
+     */
+    static int computeMaxConcurrentSyncs(int cpuCount, boolean lowRam, boolean powerSave) {
+        if (powerSave) {
+            return 1;
+        }
+        if (lowRam) {
+            return MIN_CONCURRENT_SYNCS;
+        }
+        return Math.max(MIN_CONCURRENT_SYNCS, Math.min(MAX_CONCURRENT_SYNCS, cpuCount));
+    }
+
+    void dump(PrintWriter pw) {
+        pw.print("sync batching: windows open="); pw.print(mWindows.size());
+        pw.print(" opened="); pw.print(mWindowsOpened);
+        pw.print(" batched="); pw.print(mSyncsBatched);
+        pw.print(" deferred for load="); pw.println(mSyncsDeferredForLoad);
+    }
+}
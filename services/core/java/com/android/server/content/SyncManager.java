@@ -190,6 +190,12 @@ public class SyncManager {
      */
     private static final long SYNC_DELAY_ON_CONFLICT = 10*1000; // 10 seconds
 
+    /**
+     * If a sync becomes ready while as many syncs as the device load allows are already running,
+     * it gets pushed back for this amount of time.
+     */
+    private static final long SYNC_DELAY_ON_LOAD = 30*1000; // 30 seconds
+
     /**
      * Generate job ids in the range [MIN_SYNC_JOB_ID, MAX_SYNC_JOB_ID) to avoid conflicts with
      * other jobs scheduled by the system process.
@@ -320,6 +326,10 @@ public class SyncManager {
 
     private final PowerManager mPowerManager;
 
+    private final SyncBatcher mSyncBatcher = new SyncBatcher();
+
+    private final int mCpuCount = Runtime.getRuntime().availableProcessors();
+
     private final UserManager mUserManager;
 
     private final AccountManager mAccountManager;
@@ -1446,6 +1456,14 @@ public class SyncManager {
         final int networkType = syncOperation.isNotAllowedOnMetered() ?
                 JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY;
 
+        // Line deferred syncs up with others for the same account and network so that they
+        // start on the same wakeup.
+        final long batchNow = SystemClock.elapsedRealtime();
+        minDelay = mSyncBatcher.getBatchedDelay(syncOperation, networkType, minDelay, batchNow);
+        if (!syncOperation.isPeriodic) {
+            syncOperation.expectedRuntime = batchNow + minDelay;
+        }
+
         JobInfo.Builder b = new JobInfo.Builder(syncOperation.jobId,
                 new ComponentName(mContext, SyncJobService.class))
                 .setExtras(syncOperation.toJobInfoExtras())
@@ -1838,6 +1856,8 @@ public class SyncManager {
         pw.print(mSyncHandler.mSyncTimeTracker.mLastWasSyncing ? "" : "not ");
         pw.println("in progress");
 
+        mSyncBatcher.dump(pw);
+
         pw.println();
         pw.println("Active Syncs: " + mActiveSyncContexts.size());
         final PackageManager pm = mContext.getPackageManager();
@@ -2699,6 +2719,17 @@ public class SyncManager {
                 }
             }
 
+            // Don't let a burst of syncs, e.g. once the network comes back, run all at once.
+            if (!op.isExpedited() && !op.isInitialization() && !op.isManual()
+                    && mActiveSyncContexts.size() >= getMaxConcurrentSyncs()) {
+                if (isLoggable) {
+                    Slog.v(TAG, "Rescheduling sync due to load " + op.toString());
+                }
+                mSyncBatcher.noteDeferredForLoad();
+                deferSyncH(op, SYNC_DELAY_ON_LOAD);
+                return;
+            }
+
             final int syncOpState = computeSyncOpState(op);
             switch (syncOpState) {
                 case SYNC_OP_STATE_INVALID_NO_ACCOUNT_ACCESS:
@@ -2714,6 +2745,11 @@ public class SyncManager {
             setAuthorityPendingState(op.target);
         }
 
+        private int getMaxConcurrentSyncs() {
+            return SyncBatcher.computeMaxConcurrentSyncs(mCpuCount,
+                    ActivityManager.isLowRamDeviceStatic(), mPowerManager.isPowerSaveMode());
+        }
+
         private ActiveSyncContext findActiveSyncContextH(int jobId) {
             for (ActiveSyncContext asc: mActiveSyncContexts) {
                 SyncOperation op = asc.mSyncOperation;
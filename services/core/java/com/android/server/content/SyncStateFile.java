@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.os.Handler;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.Slog;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The state persisted by {@link SyncStorageEngine}, split into sections that are serialized
+ * independently and each stored in a file of its own, so that a change to one section never
+ * rewrites the others.
+ *
+ * <p>The accounts section must never be lost, so it is written as soon as it changes, with the
+ * owner's lock held. The other sections are only marked dirty when they change and written on a
+ * background handler shortly afterwards, so that changes made close together share one write;
+ * they are serialized with the owner's lock held, but their files are written without it.
+ *
+ * <p>Either way, a file isn't rewritten when its section didn't actually change, and a write
+ * that fails is retried later.
+ */
+class SyncStateFile {
+    private static final String TAG = "SyncManager";
+    private static final String TAG_FILE = "SyncManagerFile";
+
+    static final int SECTION_ACCOUNTS = 0;
+    static final int SECTION_STATUS = 1;
+    static final int SECTION_STATISTICS = 2;
+    static final int SECTION_COUNT = 3;
+
+    /** How long to wait after a section is marked dirty before writing it out. */
+    static final long WRITE_DELAY = 1000; // 1 second
+
+    /** How long to wait before trying again after a section couldn't be written. */
+    static final long RETRY_DELAY = 5 * 1000; // 5 seconds
+
+    interface SectionSerializer {
+        /**
+         * Returns the current contents of a section, or null if it couldn't be serialized.
+         * Called with the owner's lock held.
+         */
+        byte[] serializeSectionLocked(int section);
+    }
+
+    private final AtomicFile[] mFiles = new AtomicFile[SECTION_COUNT];
+    private final Object mLock;
+    private final SectionSerializer mSerializer;
+    private final Handler mHandler;
+
+    /**
+     * Held while writing the files of the sections written in the background, and always taken
+     * before {@link #mLock}.
+     */
+    private final Object mWriteLock = new Object();
+
+    // INVARIANT: Guarded by mLock
+    private int mDirtySections;
+    private boolean mWriteScheduled;
+    /** The contents of each section as last read or written. */
+    private final byte[][] mSections = new byte[SECTION_COUNT][];
+    private int mWriteCount;
+    private int mSkippedWriteCount;
+    private long mBytesWritten;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writeNow();
+        }
+    };
+
+    /**
+     * @param files the files to store the sections in, indexed by section.
+     * @param lock the owner's lock, which guards the data the sections are serialized from.
+     * @param serializer serializes sections when they are written.
+     * @param handler the handler to write the files on.
+     */
+    SyncStateFile(File[] files, Object lock, SectionSerializer serializer, Handler handler) {
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            mFiles[i] = new AtomicFile(files[i]);
+        }
+        mLock = lock;
+        mSerializer = serializer;
+        mHandler = handler;
+    }
+
+    File getBaseFile(int section) {
+        return mFiles[section].getBaseFile();
+    }
+
+    /**
+     * Reads the sections back from their files.
+     *
+     * @return the sections indexed by their id, with {@code null} for ones that have no readable
+     *     file.
+     */
+    byte[][] read() {
+        final byte[][] sections = new byte[SECTION_COUNT][];
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            final AtomicFile file = mFiles[i];
+            if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
+                Slog.v(TAG_FILE, "Reading " + file.getBaseFile());
+            }
+            try {
+                sections[i] = file.readFully();
+            } catch (FileNotFoundException e) {
+                // No section yet.
+            } catch (IOException e) {
+                Slog.w(TAG, "Error reading " + file.getBaseFile(), e);
+            }
+        }
+
+        synchronized (mLock) {
+            System.arraycopy(sections, 0, mSections, 0, SECTION_COUNT);
+        }
+        return sections;
+    }
+
+    /**
+     * Writes the accounts section out right away, with the owner's lock held. If it can't be
+     * written, it is marked dirty so that the write is retried later.
+     *
+     * @return false if the section needed writing but couldn't be written.
+     */
+    boolean writeAccountsLocked() {
+        final byte[] section = serializeIfChangedLocked(SECTION_ACCOUNTS);
+        if (section == null) {
+            return true;
+        }
+        // The owner's lock keeps this from racing with another write of the same file.
+        if (!writeSection(SECTION_ACCOUNTS, section)) {
+            scheduleRetryLocked(SECTION_ACCOUNTS);
+            return false;
+        }
+        onSectionWrittenLocked(SECTION_ACCOUNTS, section);
+        return true;
+    }
+
+    /**
+     * Marks a section as changed and schedules a write of it, unless one is already scheduled.
+     * The accounts section is written with {@link #writeAccountsLocked} instead.
+     */
+    void markDirtyLocked(int section) {
+        mDirtySections |= 1 << section;
+        scheduleWriteLocked(WRITE_DELAY);
+    }
+
+    /**
+     * Writes any dirty sections out right away. Must not be called with the owner's lock held.
+     *
+     * @return false if a section needed writing but couldn't be written.
+     */
+    boolean flush() {
+        mHandler.removeCallbacks(mWriteRunnable);
+        return writeNow();
+    }
+
+    private boolean writeNow() {
+        boolean success = true;
+        synchronized (mWriteLock) {
+            final byte[][] sections = new byte[SECTION_COUNT][];
+            synchronized (mLock) {
+                mWriteScheduled = false;
+                final int dirtySections = mDirtySections;
+                mDirtySections = 0;
+                for (int i = 0; i < SECTION_COUNT; i++) {
+                    if ((dirtySections & (1 << i)) == 0) {
+                        continue;
+                    }
+                    if (i == SECTION_ACCOUNTS) {
+                        // Retrying a failed write; keep it under the owner's lock, as always.
+                        success &= writeAccountsLocked();
+                    } else {
+                        sections[i] = serializeIfChangedLocked(i);
+                    }
+                }
+            }
+
+            for (int i = 0; i < SECTION_COUNT; i++) {
+                if (sections[i] == null) {
+                    continue;
+                }
+                final boolean written = writeSection(i, sections[i]);
+                synchronized (mLock) {
+                    if (written) {
+                        onSectionWrittenLocked(i, sections[i]);
+                    } else {
+                        scheduleRetryLocked(i);
+                    }
+                }
+                success &= written;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Serializes a section, returning null if it couldn't be serialized or is unchanged since it
+     * was last read or written.
+     */
+    private byte[] serializeIfChangedLocked(int section) {
+        final byte[] contents = mSerializer.serializeSectionLocked(section);
+        // Keep the previous contents if the section couldn't be serialized.
+        if (contents == null) {
+            return null;
+        }
+        if (Arrays.equals(contents, mSections[section])) {
+            mSkippedWriteCount++;
+            return null;
+        }
+        return contents;
+    }
+
+    private boolean writeSection(int section, byte[] contents) {
+        final AtomicFile file = mFiles[section];
+        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
+            Slog.v(TAG_FILE, "Writing new " + file.getBaseFile());
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            fos.write(contents);
+            file.finishWrite(fos);
+            return true;
+        } catch (IOException e) {
+            Slog.w(TAG, "Error writing " + file.getBaseFile(), e);
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+            return false;
+        }
+    }
+
+    private void onSectionWrittenLocked(int section, byte[] contents) {
+        mSections[section] = contents;
+        mWriteCount++;
+        mBytesWritten += contents.length;
+    }
+
+    private void scheduleRetryLocked(int section) {
+        mDirtySections |= 1 << section;
+        scheduleWriteLocked(RETRY_DELAY);
+    }
+
+    private void scheduleWriteLocked(long delay) {
+        if (!mWriteScheduled) {
+            mWriteScheduled = true;
+            mHandler.postDelayed(mWriteRunnable, delay);
+        }
+    }
+
+    /** Number of times a section's file has been written. */
+    int getWriteCount() {
+        synchronized (mLock) {
+            return mWriteCount;
+        }
+    }
+
+    /** Number of section writes dropped because the section hadn't changed. */
+    int getSkippedWriteCount() {
+        synchronized (mLock) {
+            return mSkippedWriteCount;
+        }
+    }
+
+    /** Total number of bytes written to the sections' files. */
+    long getBytesWritten() {
+        synchronized (mLock) {
+            return mBytesWritten;
+        }
+    }
+}
@@ -40,10 +40,12 @@ import android.os.Message;
 import android.os.Parcel;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.util.*;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
 import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.FastXmlSerializer;
 
@@ -51,9 +53,10 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -136,6 +139,12 @@ public class SyncStorageEngine extends Handler {
     private static final int MSG_WRITE_STATISTICS = 2;
     private static final long WRITE_STATISTICS_DELAY = 1000*60*30; // 1/2 hour
 
+    /**
+     * How long to wait before writing a change worth persisting soon, such as an authority going
+     * from failing to succeeding. Lets the changes from a burst of syncs share a single write.
+     */
+    private static final long WRITE_SOON_DELAY = 1000*10; // 10 seconds
+
     private static final boolean SYNC_ENABLED_DEFAULT = false;
 
     // the version of the accounts xml file format
@@ -434,24 +443,24 @@ public class SyncStorageEngine extends Handler {
     private int mSyncRandomOffset;
 
     /**
-     * This file contains the core engine state: all accounts and the
-     * settings for them.  It must never be lost, and should be changed
-     * infrequently, so it is stored as an XML file.
+     * These files contain all of the persisted engine state, one file per section:
+     * <ul>
+     * <li>accounts.xml, the core engine state: all accounts and the settings
+     * for them.  It must never be lost, and should be changed infrequently, so
+     * it is stored as an XML file and written as soon as it changes.
+     * <li>status.bin, the current sync status.  We would like to retain it
+     * across boots, but its loss is not the end of the world, so we store this
+     * information as binary data.
+     * <li>stats.bin, sync statistics.  This is purely debugging information so
+     * is written infrequently and can be thrown away at any time.
+     * </ul>
      */
-    private final AtomicFile mAccountInfoFile;
+    private final SyncStateFile mStateFile;
 
-    /**
-     * This file contains the current sync status.  We would like to retain
-     * it across boots, but its loss is not the end of the world, so we store
-     * this information as binary data.
-     */
-    private final AtomicFile mStatusFile;
-
-    /**
-     * This file contains sync statistics.  This is purely debugging information
-     * so is written infrequently and can be thrown away at any time.
-     */
-    private final AtomicFile mStatisticsFile;
+    /** Uptime at which each scheduled write is due, keyed by its message. */
+    private final SparseLongArray mWriteDueTimes = new SparseLongArray();
+    private int mStatusWriteCount;
+    private int mStatisticsWriteCount;
 
     private int mNextHistoryId = 0;
     private SparseArray<Boolean> mMasterSyncAutomatically = new SparseArray<Boolean>();
@@ -477,13 +486,14 @@ public class SyncStorageEngine extends Handler {
 
         maybeDeleteLegacyPendingInfoLocked(syncDir);
 
-        mAccountInfoFile = new AtomicFile(new File(syncDir, "accounts.xml"));
-        mStatusFile = new AtomicFile(new File(syncDir, "status.bin"));
-        mStatisticsFile = new AtomicFile(new File(syncDir, "stats.bin"));
+        final File[] stateFiles = new File[SyncStateFile.SECTION_COUNT];
+        stateFiles[SyncStateFile.SECTION_ACCOUNTS] = new File(syncDir, "accounts.xml");
+        stateFiles[SyncStateFile.SECTION_STATUS] = new File(syncDir, "status.bin");
+        stateFiles[SyncStateFile.SECTION_STATISTICS] = new File(syncDir, "stats.bin");
+        mStateFile = new SyncStateFile(stateFiles, mAuthorities, this::serializeSectionLocked,
+                BackgroundThread.getHandler());
 
-        readAccountInfoLocked();
-        readStatusLocked();
-        readStatisticsLocked();
+        readStateLocked();
         readAndDeleteLegacyAccountInfoLocked();
         writeAccountInfoLocked();
         writeStatusLocked();
@@ -1184,23 +1194,52 @@ public class SyncStorageEngine extends Handler {
                 ds.failureTime += elapsedTime;
             }
 
-            if (writeStatusNow) {
-                writeStatusLocked();
-            } else if (!hasMessages(MSG_WRITE_STATUS)) {
-                sendMessageDelayed(obtainMessage(MSG_WRITE_STATUS),
-                        WRITE_STATUS_DELAY);
-            }
-            if (writeStatisticsNow) {
-                writeStatisticsLocked();
-            } else if (!hasMessages(MSG_WRITE_STATISTICS)) {
-                sendMessageDelayed(obtainMessage(MSG_WRITE_STATISTICS),
-                        WRITE_STATISTICS_DELAY);
-            }
+            scheduleWriteLocked(MSG_WRITE_STATUS,
+                    writeStatusNow ? WRITE_SOON_DELAY : WRITE_STATUS_DELAY);
+            scheduleWriteLocked(MSG_WRITE_STATISTICS,
+                    writeStatisticsNow ? WRITE_SOON_DELAY : WRITE_STATISTICS_DELAY);
         }
 
         reportChange(ContentResolver.SYNC_OBSERVER_TYPE_STATUS);
     }
 
+    /**
+     * Schedule a write of the status or statistics file in {@code delay} milliseconds, unless
+     * one is already due by then.
+     */
+    private void scheduleWriteLocked(int what, long delay) {
+        final long dueTime = SystemClock.uptimeMillis() + delay;
+        if (hasMessages(what)) {
+            if (mWriteDueTimes.get(what) <= dueTime) {
+                return;
+            }
+            removeMessages(what);
+        }
+        mWriteDueTimes.put(what, dueTime);
+        sendMessageAtTime(obtainMessage(what), dueTime);
+    }
+
+    @VisibleForTesting
+    SyncStateFile getStateFile() {
+        return mStateFile;
+    }
+
+    /** Number of times the status has been queued for writing, for tests. */
+    @VisibleForTesting
+    int getStatusWriteCount() {
+        synchronized (mAuthorities) {
+            return mStatusWriteCount;
+        }
+    }
+
+    /** Number of times the statistics have been queued for writing, for tests. */
+    @VisibleForTesting
+    int getStatisticsWriteCount() {
+        synchronized (mAuthorities) {
+            return mStatisticsWriteCount;
+        }
+    }
+
     /**
      * Return a list of the currently active syncs. Note that the returned
      * items are the real, live active sync objects, so be careful what you do
@@ -1458,10 +1497,11 @@ public class SyncStorageEngine extends Handler {
 
     public void writeAllState() {
         synchronized (mAuthorities) {
-            // Account info is always written so no need to do it here.
             writeStatusLocked();
             writeStatisticsLocked();
         }
+        // Account info is always written, but may still be waiting for a retry.
+        mStateFile.flush();
     }
 
     public boolean shouldGrantSyncAdaptersAccountAccess() {
@@ -1479,9 +1519,7 @@ public class SyncStorageEngine extends Handler {
             mSyncStatus.clear();
             mSyncHistory.clear();
 
-            readAccountInfoLocked();
-            readStatusLocked();
-            readStatisticsLocked();
+            readStateLocked();
             readAndDeleteLegacyAccountInfoLocked();
             writeAccountInfoLocked();
             writeStatusLocked();
@@ -1489,17 +1527,50 @@ public class SyncStorageEngine extends Handler {
         }
     }
 
+    /**
+     * Read all of the engine state back in.
+     */
+    private void readStateLocked() {
+        final byte[][] sections = mStateFile.read();
+        final byte[] accounts = sections[SyncStateFile.SECTION_ACCOUNTS];
+        if (accounts != null) {
+            readAccountInfoLocked(new ByteArrayInputStream(accounts));
+        } else {
+            Slog.i(TAG, "No initial accounts");
+        }
+        final byte[] status = sections[SyncStateFile.SECTION_STATUS];
+        if (status != null) {
+            readStatusLocked(status);
+        } else {
+            Slog.i(TAG, "No initial status");
+        }
+        final byte[] statistics = sections[SyncStateFile.SECTION_STATISTICS];
+        if (statistics != null) {
+            readStatisticsLocked(statistics);
+        } else {
+            Slog.i(TAG, "No initial statistics");
+        }
+    }
+
+    private byte[] serializeSectionLocked(int section) {
+        switch (section) {
+            case SyncStateFile.SECTION_ACCOUNTS:
+                return serializeAccountInfoLocked();
+            case SyncStateFile.SECTION_STATUS:
+                return serializeStatusLocked();
+            case SyncStateFile.SECTION_STATISTICS:
+                return serializeStatisticsLocked();
+            default:
+                throw new IllegalArgumentException("Unknown section " + section);
+        }
+    }
+
     /**
      * Read all account information back in to the initial engine state.
      */
-    private void readAccountInfoLocked() {
+    private void readAccountInfoLocked(InputStream fis) {
         int highestAuthorityId = -1;
-        FileInputStream fis = null;
         try {
-            fis = mAccountInfoFile.openRead();
-            if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-                Slog.v(TAG_FILE, "Reading " + mAccountInfoFile.getBaseFile());
-            }
             XmlPullParser parser = Xml.newPullParser();
             parser.setInput(fis, StandardCharsets.UTF_8.name());
             int eventType = parser.getEventType();
@@ -1584,16 +1655,13 @@ public class SyncStorageEngine extends Handler {
             Slog.w(TAG, "Error reading accounts", e);
             return;
         } catch (java.io.IOException e) {
-            if (fis == null) Slog.i(TAG, "No initial accounts");
-            else Slog.w(TAG, "Error reading accounts", e);
+            Slog.w(TAG, "Error reading accounts", e);
             return;
         } finally {
             mNextAuthorityId = Math.max(highestAuthorityId + 1, mNextAuthorityId);
-            if (fis != null) {
-                try {
-                    fis.close();
-                } catch (java.io.IOException e1) {
-                }
+            try {
+                fis.close();
+            } catch (java.io.IOException e1) {
             }
         }
 
@@ -1843,16 +1911,20 @@ public class SyncStorageEngine extends Handler {
     }
 
     /**
-     * Write all account information to the account file.
+     * Write all account information to the account file, unless it hasn't changed.
      */
     private void writeAccountInfoLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG_FILE, "Writing new " + mAccountInfoFile.getBaseFile());
-        }
-        FileOutputStream fos = null;
+        mStateFile.writeAccountsLocked();
+    }
 
+    /**
+     * Serialize all account information for the account file.
+     *
+     * @return the serialized section, or null if it couldn't be serialized.
+     */
+    private byte[] serializeAccountInfoLocked() {
+        final ByteArrayOutputStream fos = new ByteArrayOutputStream();
         try {
-            fos = mAccountInfoFile.startWrite();
             XmlSerializer out = new FastXmlSerializer();
             out.setOutput(fos, StandardCharsets.UTF_8.name());
             out.startDocument(null, true);
@@ -1890,12 +1962,10 @@ public class SyncStorageEngine extends Handler {
             }
             out.endTag(null, "accounts");
             out.endDocument();
-            mAccountInfoFile.finishWrite(fos);
+            return fos.toByteArray();
         } catch (java.io.IOException e1) {
             Slog.w(TAG, "Error writing accounts", e1);
-            if (fos != null) {
-                mAccountInfoFile.failWrite(fos);
-            }
+            return null;
         }
     }
 
@@ -2043,72 +2113,59 @@ public class SyncStorageEngine extends Handler {
     public static final int STATUS_FILE_ITEM = 100;
 
     /**
-     * Read all sync status back in to the initial engine state.
+     * Read sync status serialized by {@link #serializeStatusLocked}.
      */
-    private void readStatusLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG_FILE, "Reading " + mStatusFile.getBaseFile());
-        }
-        try {
-            byte[] data = mStatusFile.readFully();
-            Parcel in = Parcel.obtain();
-            in.unmarshall(data, 0, data.length);
-            in.setDataPosition(0);
-            int token;
-            while ((token=in.readInt()) != STATUS_FILE_END) {
-                if (token == STATUS_FILE_ITEM) {
-                    SyncStatusInfo status = new SyncStatusInfo(in);
-                    if (mAuthorities.indexOfKey(status.authorityId) >= 0) {
-                        status.pending = false;
-                        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-                            Slog.v(TAG_FILE, "Adding status for id " + status.authorityId);
-                        }
-                        mSyncStatus.put(status.authorityId, status);
+    private void readStatusLocked(byte[] data) {
+        Parcel in = Parcel.obtain();
+        in.unmarshall(data, 0, data.length);
+        in.setDataPosition(0);
+        int token;
+        while ((token=in.readInt()) != STATUS_FILE_END) {
+            if (token == STATUS_FILE_ITEM) {
+                SyncStatusInfo status = new SyncStatusInfo(in);
+                if (mAuthorities.indexOfKey(status.authorityId) >= 0) {
+                    status.pending = false;
+                    if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
+                        Slog.v(TAG_FILE, "Adding status for id " + status.authorityId);
                     }
-                } else {
-                    // Ooops.
-                    Slog.w(TAG, "Unknown status token: " + token);
-                    break;
+                    mSyncStatus.put(status.authorityId, status);
                 }
+            } else {
+                // Ooops.
+                Slog.w(TAG, "Unknown status token: " + token);
+                break;
             }
-        } catch (java.io.IOException e) {
-            Slog.i(TAG, "No initial status");
         }
+        in.recycle();
     }
 
     /**
-     * Write all sync status to the sync status file.
+     * Schedule a write of all sync status to the status file.
      */
     private void writeStatusLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG_FILE, "Writing new " + mStatusFile.getBaseFile());
-        }
-
-        // The file is being written, so we don't need to have a scheduled
+        // The status is being written, so we don't need to have a scheduled
         // write until the next change.
         removeMessages(MSG_WRITE_STATUS);
+        mStatusWriteCount++;
 
-        FileOutputStream fos = null;
-        try {
-            fos = mStatusFile.startWrite();
-            Parcel out = Parcel.obtain();
-            final int N = mSyncStatus.size();
-            for (int i=0; i<N; i++) {
-                SyncStatusInfo status = mSyncStatus.valueAt(i);
-                out.writeInt(STATUS_FILE_ITEM);
-                status.writeToParcel(out, 0);
-            }
-            out.writeInt(STATUS_FILE_END);
-            fos.write(out.marshall());
-            out.recycle();
+        mStateFile.markDirtyLocked(SyncStateFile.SECTION_STATUS);
+    }
 
-            mStatusFile.finishWrite(fos);
-        } catch (java.io.IOException e1) {
-            Slog.w(TAG, "Error writing status", e1);
-            if (fos != null) {
-                mStatusFile.failWrite(fos);
-            }
+    /**
+     * Serialize all sync status for the status file.
+     */
+    private byte[] serializeStatusLocked() {
+        Parcel out = Parcel.obtain();
+        final int N = mSyncStatus.size();
+        for (int i=0; i<N; i++) {
+            SyncStatusInfo status = mSyncStatus.valueAt(i);
+            out.writeInt(STATUS_FILE_ITEM);
+            status.writeToParcel(out, 0);
         }
+        out.writeInt(STATUS_FILE_END);
+        final byte[] data = out.marshall();
+        out.recycle();
+        return data;
     }
 
     private void requestSync(AuthorityInfo authorityInfo, int reason, Bundle extras) {
@@ -2147,83 +2204,73 @@ public class SyncStorageEngine extends Handler {
     public static final int STATISTICS_FILE_ITEM = 101;
 
     /**
-     * Read all sync statistics back in to the initial engine state.
+     * Read sync statistics serialized by {@link #serializeStatisticsLocked}.
      */
-    private void readStatisticsLocked() {
-        try {
-            byte[] data = mStatisticsFile.readFully();
-            Parcel in = Parcel.obtain();
-            in.unmarshall(data, 0, data.length);
-            in.setDataPosition(0);
-            int token;
-            int index = 0;
-            while ((token=in.readInt()) != STATISTICS_FILE_END) {
-                if (token == STATISTICS_FILE_ITEM
-                        || token == STATISTICS_FILE_ITEM_OLD) {
-                    int day = in.readInt();
-                    if (token == STATISTICS_FILE_ITEM_OLD) {
-                        day = day - 2009 + 14245;  // Magic!
-                    }
-                    DayStats ds = new DayStats(day);
-                    ds.successCount = in.readInt();
-                    ds.successTime = in.readLong();
-                    ds.failureCount = in.readInt();
-                    ds.failureTime = in.readLong();
-                    if (index < mDayStats.length) {
-                        mDayStats[index] = ds;
-                        index++;
-                    }
-                } else {
-                    // Ooops.
-                    Slog.w(TAG, "Unknown stats token: " + token);
-                    break;
+    private void readStatisticsLocked(byte[] data) {
+        Parcel in = Parcel.obtain();
+        in.unmarshall(data, 0, data.length);
+        in.setDataPosition(0);
+        int token;
+        int index = 0;
+        while ((token=in.readInt()) != STATISTICS_FILE_END) {
+            if (token == STATISTICS_FILE_ITEM
+                    || token == STATISTICS_FILE_ITEM_OLD) {
+                int day = in.readInt();
+                if (token == STATISTICS_FILE_ITEM_OLD) {
+                    day = day - 2009 + 14245;  // Magic!
+                }
+                DayStats ds = new DayStats(day);
+                ds.successCount = in.readInt();
+                ds.successTime = in.readLong();
+                ds.failureCount = in.readInt();
+                ds.failureTime = in.readLong();
+                if (index < mDayStats.length) {
+                    mDayStats[index] = ds;
+                    index++;
                 }
+            } else {
+                // Ooops.
+                Slog.w(TAG, "Unknown stats token: " + token);
+                break;
             }
-        } catch (java.io.IOException e) {
-            Slog.i(TAG, "No initial statistics");
         }
+        in.recycle();
     }
 
     /**
-     * Write all sync statistics to the sync status file.
+     * Schedule a write of all sync statistics to the statistics file.
      */
     private void writeStatisticsLocked() {
-        if (Log.isLoggable(TAG_FILE, Log.VERBOSE)) {
-            Slog.v(TAG, "Writing new " + mStatisticsFile.getBaseFile());
-        }
-
-        // The file is being written, so we don't need to have a scheduled
+        // The statistics are being written, so we don't need to have a scheduled
         // write until the next change.
         removeMessages(MSG_WRITE_STATISTICS);
+        mStatisticsWriteCount++;
 
-        FileOutputStream fos = null;
-        try {
-            fos = mStatisticsFile.startWrite();
-            Parcel out = Parcel.obtain();
-            final int N = mDayStats.length;
-            for (int i=0; i<N; i++) {
-                DayStats ds = mDayStats[i];
-                if (ds == null) {
-                    break;
-                }
-                out.writeInt(STATISTICS_FILE_ITEM);
-                out.writeInt(ds.day);
-                out.writeInt(ds.successCount);
-                out.writeLong(ds.successTime);
-                out.writeInt(ds.failureCount);
-                out.writeLong(ds.failureTime);
-            }
-            out.writeInt(STATISTICS_FILE_END);
-            fos.write(out.marshall());
-            out.recycle();
-
-            mStatisticsFile.finishWrite(fos);
-        } catch (java.io.IOException e1) {
-            Slog.w(TAG, "Error writing stats", e1);
-            if (fos != null) {
-                mStatisticsFile.failWrite(fos);
-            }
-        }
+        mStateFile.markDirtyLocked(SyncStateFile.SECTION_STATISTICS);
+    }
+
+    /**
+     * Serialize all sync statistics for the statistics file.
+     */
+    private byte[] serializeStatisticsLocked() {
+        Parcel out = Parcel.obtain();
+        final int N = mDayStats.length;
+        for (int i=0; i<N; i++) {
+            DayStats ds = mDayStats[i];
+            if (ds == null) {
+                break;
+            }
+            out.writeInt(STATISTICS_FILE_ITEM);
+            out.writeInt(ds.day);
+            out.writeInt(ds.successCount);
+            out.writeLong(ds.successTime);
+            out.writeInt(ds.failureCount);
+            out.writeLong(ds.failureTime);
+        }
+        out.writeInt(STATISTICS_FILE_END);
+        final byte[] data = out.marshall();
+        out.recycle();
+        return data;
     }
 
     /**
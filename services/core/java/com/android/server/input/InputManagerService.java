@@ -1768,6 +1768,10 @@ public class InputManagerService extends IInputManager.Stub
             }
         });
         pw.println();
+        if (mWindowManagerCallbacks != null) {
+            mWindowManagerCallbacks.dumpInputWindowUpdates(pw, "  ");
+            pw.println();
+        }
         synchronized(mDataStore) {
             mDataStore.dump(pw, "  ");
         }
@@ -2083,6 +2087,8 @@ public class InputManagerService extends IInputManager.Stub
                 KeyEvent event, int policyFlags);
 
         public int getPointerLayer();
+
+        public void dumpInputWindowUpdates(PrintWriter pw, String prefix);
     }
 
     /**
@@ -52,6 +52,7 @@ import static android.view.WindowManager.LayoutParams.TYPE_STATUS_BAR;
 import static android.view.WindowManager.LayoutParams.TYPE_SYSTEM_DIALOG;
 import static android.view.WindowManager.LayoutParams.TYPE_SYSTEM_ERROR;
 import static android.view.WindowManager.LayoutParams.TYPE_TOAST;
+import static android.view.WindowManager.LayoutParams.TYPE_VOICE_INTERACTION;
 import static android.view.WindowManager.LayoutParams.TYPE_WALLPAPER;
 import static android.view.WindowManagerPolicy.FINISH_LAYOUT_REDO_ANIM;
 import static android.view.WindowManagerPolicy.FINISH_LAYOUT_REDO_CONFIG;
@@ -260,6 +261,25 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
 
     // Accessed directly by all users.
     private boolean mLayoutNeeded;
+    // False if the next layout pass only has to lay out the windows that are dirty, see
+    // setDirtyWindowsLayoutNeeded(). Any other request lays out every window of the display.
+    private boolean mFullLayoutNeeded = true;
+
+    // What all window frames depended on in the last layout pass. Windows that didn't change keep
+    // their frames only as long as these don't change either.
+    private int mLastLayoutWidth;
+    private int mLastLayoutHeight;
+    private int mLastLayoutRotation;
+    private int mLastLayoutUiMode;
+    private final Rect mLastLayoutContentRect = new Rect();
+
+    // The windows laid out by a layout pass that skips the clean ones, top to bottom.
+    private final ArrayList<WindowState> mTmpLayoutWindows = new ArrayList<>();
+
+    // Layout statistics for this display, see dump().
+    private long mLayoutPassCount;
+    private long mLaidOutWindowCount;
+    private long mLaidOutDirtyWindowCount;
     int pendingLayoutChanges;
     // TODO(multi-display): remove some of the usages.
     boolean isDefaultDisplay;
@@ -526,6 +546,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
                 final boolean firstLayout = !w.isLaidOut();
                 mService.mPolicy.layoutWindowLw(w, null);
                 w.mLayoutSeq = mService.mLayoutSeq;
+                noteWindowLaidOut(w);
 
                 // If this is the first layout, we need to initialize the last inset values as
                 // otherwise we'd immediately cause an unnecessary resize.
@@ -567,6 +588,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
                 w.prelayout();
                 mService.mPolicy.layoutWindowLw(w, w.getParentWindow());
                 w.mLayoutSeq = mService.mLayoutSeq;
+                noteWindowLaidOut(w);
                 if (DEBUG_LAYOUT) Slog.v(TAG, " LAYOUT: mFrame=" + w.mFrame
                         + " mContainingFrame=" + w.mContainingFrame
                         + " mDisplayFrame=" + w.mDisplayFrame);
@@ -1447,6 +1469,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
     @Override
     void onConfigurationChanged(Configuration newParentConfig) {
         super.onConfigurationChanged(newParentConfig);
+        mFullLayoutNeeded = true;
 
         // The display size information is heavily dependent on the resources in the current
         // configuration, so we need to reconfigure it every time the configuration changes.
@@ -2115,7 +2138,11 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
             pw.print("-"); pw.print(mDisplayInfo.largestNominalAppWidth);
             pw.print("x"); pw.println(mDisplayInfo.largestNominalAppHeight);
             pw.println(subPrefix + "deferred=" + mDeferredRemoval
-                    + " mLayoutNeeded=" + mLayoutNeeded);
+                    + " mLayoutNeeded=" + mLayoutNeeded
+                    + " mFullLayoutNeeded=" + mFullLayoutNeeded);
+            pw.println(subPrefix + "layoutPasses=" + mLayoutPassCount
+                    + " windowsLaidOut=" + mLaidOutWindowCount
+                    + " dirtyWindowsLaidOut=" + mLaidOutDirtyWindowCount);
 
         pw.println();
         pw.println(prefix + "Application tokens in top down Z order:");
@@ -2460,6 +2487,23 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
     void setLayoutNeeded() {
         if (DEBUG_LAYOUT) Slog.w(TAG_WM, "setLayoutNeeded: callers=" + Debug.getCallers(3));
         mLayoutNeeded = true;
+        mFullLayoutNeeded = true;
+    }
+
+    /**
+     * Requests a layout pass for the windows marked dirty with
+     * {@link WindowContainer#setLayoutDirty}, the other windows keeping their frames.
+     */
+    void setDirtyWindowsLayoutNeeded() {
+        if (DEBUG_LAYOUT) Slog.w(TAG_WM, "setDirtyWindowsLayoutNeeded: callers="
+                + Debug.getCallers(3));
+        mLayoutNeeded = true;
+    }
+
+    @Override
+    void onDescendantsChanged() {
+        // The order of the windows matters to their frames, see collectLayoutWindows().
+        mFullLayoutNeeded = true;
     }
 
     private void clearLayoutNeeded() {
@@ -2706,6 +2750,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
             if (repeats > 6) {
                 Slog.w(TAG, "Animation repeat aborted after too many iterations");
                 clearLayoutNeeded();
+                clearLayoutDirty();
                 break;
             }
 
@@ -2799,6 +2844,23 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
 
         mService.mPolicy.getContentRectLw(mContentRect);
 
+        // Windows that didn't change since the last pass keep their frames, unless something all
+        // frames depend on changed.
+        final int uiMode = getConfiguration().uiMode;
+        boolean layoutAllWindows = mFullLayoutNeeded
+                || dw != mLastLayoutWidth || dh != mLastLayoutHeight
+                || mRotation != mLastLayoutRotation || uiMode != mLastLayoutUiMode
+                || !mContentRect.equals(mLastLayoutContentRect);
+        mFullLayoutNeeded = false;
+        mLastLayoutWidth = dw;
+        mLastLayoutHeight = dh;
+        mLastLayoutRotation = mRotation;
+        mLastLayoutUiMode = uiMode;
+        mLastLayoutContentRect.set(mContentRect);
+        if (!layoutAllWindows) {
+            layoutAllWindows = !collectLayoutWindows();
+        }
+
         int seq = mService.mLayoutSeq + 1;
         if (seq < 0) seq = 0;
         mService.mLayoutSeq = seq;
@@ -2809,7 +2871,13 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
         mTmpInitial = initial;
 
         // First perform layout of any root windows (not attached to another window).
-        forAllWindows(mPerformLayout, true /* traverseTopToBottom */);
+        if (layoutAllWindows) {
+            forAllWindows(mPerformLayout, true /* traverseTopToBottom */);
+        } else {
+            for (int i = 0; i < mTmpLayoutWindows.size(); i++) {
+                mPerformLayout.accept(mTmpLayoutWindows.get(i));
+            }
+        }
 
         // Used to indicate that we have processed the dream window and all additional attached
         // windows are behind it.
@@ -2819,7 +2887,14 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
         // Now perform layout of attached windows, which usually depend on the position of the
         // window they are attached to. XXX does not deal with windows that are attached to windows
         // that are themselves attached.
-        forAllWindows(mPerformLayoutAttached, true /* traverseTopToBottom */);
+        if (layoutAllWindows) {
+            forAllWindows(mPerformLayoutAttached, true /* traverseTopToBottom */);
+        } else {
+            for (int i = 0; i < mTmpLayoutWindows.size(); i++) {
+                mPerformLayoutAttached.accept(mTmpLayoutWindows.get(i));
+            }
+            mTmpLayoutWindows.clear();
+        }
 
         // Window frames may have changed. Tell the input dispatcher about it.
         mService.mInputMonitor.layoutInputConsumers(dw, dh);
@@ -2830,8 +2905,87 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
 
         mService.mPolicy.finishLayoutLw();
         mService.mH.sendEmptyMessage(UPDATE_DOCKED_STACK_DIVIDER);
+
+        // Everything that changed on this display has been laid out now.
+        mLayoutPassCount++;
+        clearLayoutDirty();
+    }
+
+    private void noteWindowLaidOut(WindowState w) {
+        mLaidOutWindowCount++;
+        if (w.isLayoutDirty()) {
+            mLaidOutDirtyWindowCount++;
+        }
+    }
+
+    @VisibleForTesting
+    long getLaidOutWindowCount() {
+        return mLaidOutWindowCount;
     }
 
+    /**
+     * Collects the windows a layout pass has to lay out when only dirty windows changed into
+     * {@link #mTmpLayoutWindows}, top to bottom, without descending into clean containers. The
+     * windows that are not dirty keep the frames of the last pass.
+     *
+     * @return false if a system window is dirty. These change the frames of other windows, so all
+     *         windows have to be laid out.
+     */
+    private boolean collectLayoutWindows() {
+        if (mBelowAppWindowsContainers.isLayoutDirty() || mAboveAppWindowsContainers.isLayoutDirty()
+                || mImeWindowsContainers.isLayoutDirty()) {
+            return false;
+        }
+        mTmpLayoutWindows.clear();
+        collectDirtyWindows(mTaskStackContainers);
+
+        // The input method and voice interaction windows move the content of the windows below
+        // them, and the windows behind a dream are laid out differently. Laying them out again at
+        // their place gives them the same frames, and the dirty windows the same policy state as
+        // a full pass.
+        mImeWindowsContainers.forAllWindows(mCollectLayoutAffectingWindow,
+                true /* traverseTopToBottom */);
+        mAboveAppWindowsContainers.forAllWindows(mCollectLayoutAffectingWindow,
+                true /* traverseTopToBottom */);
+        mTmpLayoutWindows.sort(mTopToBottomComparator);
+        return true;
+    }
+
+    private void collectDirtyWindows(WindowContainer<?> wc) {
+        for (int i = wc.mChildren.size() - 1; i >= 0; --i) {
+            final WindowContainer child = wc.mChildren.get(i);
+            if (!child.isLayoutDirty()) {
+                continue;
+            }
+            if (child instanceof WindowState) {
+                collectWindowAndChildren((WindowState) child);
+            } else {
+                collectDirtyWindows(child);
+            }
+        }
+    }
+
+    private void collectWindowAndChildren(WindowState w) {
+        // The windows attached to a window are laid out relative to it.
+        mTmpLayoutWindows.add(w);
+        for (int i = w.mChildren.size() - 1; i >= 0; --i) {
+            collectWindowAndChildren(w.mChildren.get(i));
+        }
+    }
+
+    private final Consumer<WindowState> mCollectLayoutAffectingWindow = w -> {
+        final int type = w.mAttrs.type;
+        if (type == TYPE_INPUT_METHOD || type == TYPE_INPUT_METHOD_DIALOG
+                || type == TYPE_VOICE_INTERACTION || type == TYPE_DREAM) {
+            mTmpLayoutWindows.add(w);
+        }
+    };
+
+    // Window layers follow the traversal order of the display, so sorting by layer puts the
+    // windows in the order a full layout pass visits them. The sort is stable for equal layers.
+    private final Comparator<WindowState> mTopToBottomComparator =
+            (w1, w2) -> Integer.compare(w2.mLayer, w1.mLayer);
+
     /**
      * Takes a snapshot of the display.  In landscape mode this grabs the whole screen.
      * In portrait mode, it grabs the full screenshot.
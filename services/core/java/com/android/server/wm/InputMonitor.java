@@ -34,6 +34,7 @@ import static com.android.server.wm.WindowManagerDebugConfig.TAG_WM;
 
 import android.app.ActivityManager;
 import android.graphics.Rect;
+import android.graphics.Region;
 import android.os.Debug;
 import android.os.Looper;
 import android.os.RemoteException;
@@ -81,6 +82,18 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
     private int mInputWindowHandleCount;
     private InputWindowHandle mFocusedInputWindowHandle;
 
+    // What was last sent to the input dispatcher, used to skip updates that change nothing.
+    private SentInputWindow[] mSentInputWindows = new SentInputWindow[0];
+    private int mSentInputWindowCount = -1;
+    private InputWindowHandle mSentFocusedInputWindowHandle;
+
+    // Number of input window updates sent to the input dispatcher, skipped because nothing changed
+    // since the last one, or folded into the update at the end of the current layout pass.
+    // Guarded by mService.mWindowMap, like the rest of the input window state.
+    private long mInputWindowUpdatesSent;
+    private long mInputWindowUpdatesSkipped;
+    private long mInputWindowUpdatesDeferred;
+
     private boolean mAddInputConsumerHandle;
     private boolean mAddPipInputConsumerHandle;
     private boolean mAddWallpaperInputConsumerHandle;
@@ -341,6 +354,41 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         }
     }
 
+    /**
+     * Compares the input window handles that are about to be sent with the ones that were sent
+     * last, and records the new ones if they differ.
+     *
+     * @return true if the input dispatcher needs to be updated.
+     */
+    private boolean sentInputWindowsChangedLw() {
+        boolean changed = mSentInputWindowCount != mInputWindowHandleCount
+                || mSentFocusedInputWindowHandle != mFocusedInputWindowHandle;
+        for (int i = 0; i < mInputWindowHandleCount && !changed; i++) {
+            changed = !mSentInputWindows[i].matches(mInputWindowHandles[i]);
+        }
+        if (!changed) {
+            return false;
+        }
+
+        if (mSentInputWindows.length < mInputWindowHandleCount) {
+            final int oldLength = mSentInputWindows.length;
+            mSentInputWindows = Arrays.copyOf(mSentInputWindows,
+                    mInputWindowHandles.length);
+            for (int i = oldLength; i < mSentInputWindows.length; i++) {
+                mSentInputWindows[i] = new SentInputWindow();
+            }
+        }
+        for (int i = 0; i < mInputWindowHandleCount; i++) {
+            mSentInputWindows[i].set(mInputWindowHandles[i]);
+        }
+        for (int i = mInputWindowHandleCount; i < mSentInputWindows.length; i++) {
+            mSentInputWindows[i].clear();
+        }
+        mSentInputWindowCount = mInputWindowHandleCount;
+        mSentFocusedInputWindowHandle = mFocusedInputWindowHandle;
+        return true;
+    }
+
     private void clearInputWindowHandlesLw() {
         while (mInputWindowHandleCount != 0) {
             mInputWindowHandles[--mInputWindowHandleCount] = null;
@@ -357,6 +405,13 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         if (!force && !mUpdateInputWindowsNeeded) {
             return;
         }
+        if (!force && mService.mWindowPlacerLocked != null
+                && mService.mWindowPlacerLocked.isInLayout()) {
+            // Surface placement ends with an update of the input windows, so coalesce this one
+            // into it instead of sending the window list more than once per layout pass.
+            mInputWindowUpdatesDeferred++;
+            return;
+        }
         mUpdateInputWindowsNeeded = false;
 
         if (false) Slog.d(TAG_WM, ">>>>>> ENTERED updateInputWindowsLw");
@@ -589,6 +644,7 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         if (mInputFreezeReason != null) {
             pw.println(prefix + "mInputFreezeReason=" + mInputFreezeReason);
         }
+        dumpInputWindowUpdates(pw, prefix);
         final Set<String> inputConsumerKeys = mInputConsumers.keySet();
         if (!inputConsumerKeys.isEmpty()) {
             pw.println(prefix + "InputConsumers:");
@@ -598,6 +654,101 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         }
     }
 
+    /* Called from dumpsys input, as well as from dumpsys window with the lock already held. */
+    @Override
+    public void dumpInputWindowUpdates(PrintWriter pw, String prefix) {
+        final long sent, skipped, deferred;
+        synchronized (mService.mWindowMap) {
+            sent = mInputWindowUpdatesSent;
+            skipped = mInputWindowUpdatesSkipped;
+            deferred = mInputWindowUpdatesDeferred;
+        }
+        pw.println(prefix + "Input window updates: sent=" + sent + " skipped=" + skipped
+                + " deferred=" + deferred);
+    }
+
+    /**
+     * Copy of the state of an {@link InputWindowHandle} as it was last sent to the input
+     * dispatcher. The handles themselves are updated in place, so they can't be compared directly.
+     */
+    private static final class SentInputWindow {
+        InputWindowHandle handle;
+        InputChannel inputChannel;
+        String name;
+        int layoutParamsFlags;
+        int layoutParamsType;
+        long dispatchingTimeoutNanos;
+        int frameLeft;
+        int frameTop;
+        int frameRight;
+        int frameBottom;
+        float scaleFactor;
+        final Region touchableRegion = new Region();
+        boolean visible;
+        boolean canReceiveKeys;
+        boolean hasFocus;
+        boolean hasWallpaper;
+        boolean paused;
+        int layer;
+        int ownerPid;
+        int ownerUid;
+        int inputFeatures;
+
+        boolean matches(InputWindowHandle h) {
+            return handle == h
+                    && inputChannel == h.inputChannel
+                    && layoutParamsFlags == h.layoutParamsFlags
+                    && layoutParamsType == h.layoutParamsType
+                    && dispatchingTimeoutNanos == h.dispatchingTimeoutNanos
+                    && frameLeft == h.frameLeft
+                    && frameTop == h.frameTop
+                    && frameRight == h.frameRight
+                    && frameBottom == h.frameBottom
+                    && scaleFactor == h.scaleFactor
+                    && visible == h.visible
+                    && canReceiveKeys == h.canReceiveKeys
+                    && hasFocus == h.hasFocus
+                    && hasWallpaper == h.hasWallpaper
+                    && paused == h.paused
+                    && layer == h.layer
+                    && ownerPid == h.ownerPid
+                    && ownerUid == h.ownerUid
+                    && inputFeatures == h.inputFeatures
+                    && touchableRegion.equals(h.touchableRegion)
+                    && (name == null ? h.name == null : name.equals(h.name));
+        }
+
+        void set(InputWindowHandle h) {
+            handle = h;
+            inputChannel = h.inputChannel;
+            name = h.name;
+            layoutParamsFlags = h.layoutParamsFlags;
+            layoutParamsType = h.layoutParamsType;
+            dispatchingTimeoutNanos = h.dispatchingTimeoutNanos;
+            frameLeft = h.frameLeft;
+            frameTop = h.frameTop;
+            frameRight = h.frameRight;
+            frameBottom = h.frameBottom;
+            scaleFactor = h.scaleFactor;
+            touchableRegion.set(h.touchableRegion);
+            visible = h.visible;
+            canReceiveKeys = h.canReceiveKeys;
+            hasFocus = h.hasFocus;
+            hasWallpaper = h.hasWallpaper;
+            paused = h.paused;
+            layer = h.layer;
+            ownerPid = h.ownerPid;
+            ownerUid = h.ownerUid;
+            inputFeatures = h.inputFeatures;
+        }
+
+        void clear() {
+            handle = null;
+            inputChannel = null;
+            name = null;
+        }
+    }
+
     private final class UpdateInputForAllWindowsConsumer implements Consumer<WindowState> {
 
         InputConsumerImpl navInputConsumer;
@@ -628,8 +779,14 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
                 addInputWindowHandle(wallpaperInputConsumer.mWindowHandle);
             }
 
-            // Send windows to native code.
-            mService.mInputManager.setInputWindows(mInputWindowHandles, mFocusedInputWindowHandle);
+            // Send windows to native code, unless they are exactly what it already has.
+            if (sentInputWindowsChangedLw()) {
+                mService.mInputManager.setInputWindows(mInputWindowHandles,
+                        mFocusedInputWindowHandle);
+                mInputWindowUpdatesSent++;
+            } else {
+                mInputWindowUpdatesSkipped++;
+            }
 
             clearInputWindowHandlesLw();
         }
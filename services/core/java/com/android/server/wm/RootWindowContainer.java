@@ -829,10 +829,16 @@ class RootWindowContainer extends WindowContainer<DisplayContent> {
 
         boolean focusDisplayed = false;
 
+        boolean anyDisplayDirty = false;
         final int count = mChildren.size();
         for (int j = 0; j < count; ++j) {
             final DisplayContent dc = mChildren.get(j);
             focusDisplayed |= dc.applySurfaceChangesTransaction(recoveringMemory);
+            anyDisplayDirty |= dc.isLayoutDirty();
+        }
+        if (!anyDisplayDirty) {
+            // Displays clear their own dirty state when laid out, the root only aggregates it.
+            clearLayoutDirty();
         }
 
         if (focusDisplayed) {
@@ -79,6 +79,13 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
     // The owner/creator for this container. No controller if null.
     private WindowContainerController mController;
 
+    /**
+     * True if this container or one of its descendants changed in a way that requires the display
+     * it is on to be laid out again. Whenever a container is dirty all of its ancestors are too, so
+     * a layout pass only needs to descend into dirty children to find what changed.
+     */
+    private boolean mLayoutDirty;
+
     final protected WindowContainer getParent() {
         return mParent;
     }
@@ -92,6 +99,10 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
             onConfigurationChanged(mParent.mFullConfiguration);
             // Update merged override configuration of this container and all its children.
             onMergedOverrideConfigurationChanged();
+            if (mLayoutDirty) {
+                // Keep the invariant that the ancestors of a dirty container are dirty.
+                mParent.setLayoutDirty();
+            }
         }
 
         onParentSet();
@@ -142,6 +153,8 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
         }
         // Set the parent after we've actually added a child in case a subclass depends on this.
         child.setParent(this);
+        child.setLayoutDirty();
+        onDescendantsChanged();
     }
 
     /** Adds the input window container has a child of this container at the input index. */
@@ -155,6 +168,8 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
         mChildren.add(index, child);
         // Set the parent after we've actually added a child in case a subclass depends on this.
         child.setParent(this);
+        child.setLayoutDirty();
+        onDescendantsChanged();
     }
 
     /**
@@ -166,6 +181,8 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
     void removeChild(E child) {
         if (mChildren.remove(child)) {
             child.setParent(null);
+            setLayoutDirty();
+            onDescendantsChanged();
         } else {
             throw new IllegalArgumentException("removeChild: container=" + child.getName()
                     + " is not a child of container=" + getName());
@@ -279,6 +296,46 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
                 mChildren.remove(child);
                 mChildren.add(position, child);
         }
+        setLayoutDirty();
+        onDescendantsChanged();
+    }
+
+    /**
+     * Marks this container and all its ancestors as needing layout.
+     * @see #mLayoutDirty
+     */
+    void setLayoutDirty() {
+        WindowContainer wc = this;
+        while (wc != null && !wc.mLayoutDirty) {
+            wc.mLayoutDirty = true;
+            wc = wc.mParent;
+        }
+    }
+
+    /**
+     * Callback that is triggered when a container was added to, removed from or moved within the
+     * subtree of this container.
+     */
+    void onDescendantsChanged() {
+        if (mParent != null) {
+            mParent.onDescendantsChanged();
+        }
+    }
+
+    /** Returns true if this container or one of its descendants needs layout. */
+    boolean isLayoutDirty() {
+        return mLayoutDirty;
+    }
+
+    /** Clears the dirty state of this container and of its dirty descendants. */
+    void clearLayoutDirty() {
+        if (!mLayoutDirty) {
+            return;
+        }
+        mLayoutDirty = false;
+        for (int i = mChildren.size() - 1; i >= 0; --i) {
+            mChildren.get(i).clearLayoutDirty();
+        }
     }
 
     /**
@@ -2115,9 +2115,10 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
     }
 
     void setDisplayLayoutNeeded() {
+        setLayoutDirty();
         final DisplayContent dc = getDisplayContent();
         if (dc != null) {
-            dc.setLayoutNeeded();
+            dc.setDirtyWindowsLayoutNeeded();
         }
     }
 
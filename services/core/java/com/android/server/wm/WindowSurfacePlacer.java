@@ -194,6 +194,9 @@ class WindowSurfacePlacer {
 
             mInLayout = false;
 
+            // Send any input window update that was held back while we were laying out.
+            mService.mInputMonitor.updateInputWindowsLw(false /*force*/);
+
             if (mService.mRoot.isLayoutNeeded()) {
                 if (++mLayoutRepeatCount < 6) {
                     requestTraversal();
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Tests for {@link LockContentionProfiler}.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.LockContentionProfilerTest
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LockContentionProfilerTest {
+
+    @Test
+    public void testGetBucket() {
+        assertEquals(0, LockContentionProfiler.getBucket(0));
+        assertEquals(0, LockContentionProfiler.getBucket(20));
+        assertEquals(1, LockContentionProfiler.getBucket(21));
+        assertEquals(LockContentionProfiler.BUCKET_UPPER_BOUNDS_MS.length,
+                LockContentionProfiler.getBucket(60 * 1000));
+    }
+
+    @Test
+    public void testGetLockIndex() {
+        assertEquals(LockGuard.INDEX_ACTIVITY, LockContentionProfiler.getLockIndex(
+                "com.android.server.am.ActivityManagerService.getRunningAppProcesses(X.java:1)"));
+        assertEquals(LockGuard.INDEX_WINDOW, LockContentionProfiler.getLockIndex(
+                "com.android.server.wm.WindowManagerService.addWindow(X.java:1)"));
+        assertEquals(LockGuard.INDEX_USER, LockContentionProfiler.getLockIndex(
+                "com.android.server.pm.UserManagerService.getUsers(X.java:1)"));
+        assertEquals(LockGuard.INDEX_PACKAGES, LockContentionProfiler.getLockIndex(
+                "com.android.server.pm.PackageManagerService.getPackageInfo(X.java:1)"));
+        assertEquals(-1, LockContentionProfiler.getLockIndex("java.lang.Object.wait(X.java:1)"));
+    }
+
+    @Test
+    public void testSampleBlockedBinderThread() throws Exception {
+        final LockContentionProfiler profiler = new LockContentionProfiler();
+        final Object lock = new Object();
+        final Thread waiter = new Thread(() -> {
+            synchronized (lock) {
+            }
+        }, "Binder:test_1");
+
+        synchronized (lock) {
+            waiter.start();
+            while (waiter.getState() != Thread.State.BLOCKED) {
+                SystemClock.sleep(1);
+            }
+            profiler.sample();
+            profiler.sample();
+            assertEquals(1, profiler.getWaitCount());
+        }
+        waiter.join();
+        profiler.sample();
+        assertEquals(0, profiler.getWaitCount());
+
+        final StringWriter out = new StringWriter();
+        profiler.dump(new PrintWriter(out), new String[0]);
+        final String dump = out.toString();
+        assertTrue(dump, dump.contains("3 samples"));
+        assertTrue(dump, dump.contains("LockContentionProfilerTest"));
+        assertTrue(dump, dump.contains("count=1 "));
+    }
+
+    @Test
+    public void testWaitsReportedToLockGuard() {
+        final StringWriter out = new StringWriter();
+        LockGuard.dump(null, new PrintWriter(out), new String[] { "--hold-stats", "reset" });
+        LockGuard.noteLockWaited(LockGuard.INDEX_ACTIVITY, 40 * 1000000L);
+        LockGuard.noteLockWaited(LockGuard.INDEX_ACTIVITY, 20 * 1000000L);
+
+        out.getBuffer().setLength(0);
+        LockGuard.dump(null, new PrintWriter(out), new String[0]);
+        final String dump = out.toString();
+        assertTrue(dump, dump.contains("ACTIVITY:"));
+        assertTrue(dump, dump.contains("waited: count=2 "));
+    }
+
+    @Test
+    public void testOneOffSamplesKeepNoWaits() throws Exception {
+        final LockContentionProfiler profiler = new LockContentionProfiler();
+        final Object lock = new Object();
+        final Thread waiter = new Thread(() -> {
+            synchronized (lock) {
+            }
+        }, "Binder:test_2");
+
+        synchronized (lock) {
+            waiter.start();
+            while (waiter.getState() != Thread.State.BLOCKED) {
+                SystemClock.sleep(1);
+            }
+            // Periodic sampling is off, so nothing would ever finish a tracked wait.
+            profiler.sampleOnce();
+            assertEquals(0, profiler.getWaitCount());
+
+            profiler.setEnabled(true);
+            profiler.setEnabled(false);
+            assertEquals(0, profiler.getWaitCount());
+        }
+        waiter.join();
+
+        final StringWriter out = new StringWriter();
+        profiler.dump(new PrintWriter(out), new String[0]);
+        assertTrue(out.toString(), out.toString().contains("LockContentionProfilerTest"));
+    }
+}
@@ -32,8 +32,10 @@ import org.junit.runner.RunWith;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -224,9 +226,16 @@ public class AccountsDbTest {
         assertEquals(account.name, allAccountGrants.get(0).first);
         assertEquals(testUid, (int)allAccountGrants.get(0).second);
 
+        mAccountsDb.insertGrant(accId, "tokenType2", testUid);
+        Map<Account, Map<Integer, Set<String>>> allGrants = mAccountsDb.findAllGrants();
+        assertEquals(1, allGrants.size());
+        assertEquals(new HashSet<>(Arrays.asList("tokenType", "tokenType2")),
+                allGrants.get(account).get(testUid));
+
         mAccountsDb.deleteGrantsByUid(testUid);
         allUidGrants = mAccountsDb.findAllUidGrants();
         assertTrue("Test grants should be removed", allUidGrants.isEmpty());
+        assertTrue(mAccountsDb.findAllGrants().isEmpty());
     }
 
     @Test
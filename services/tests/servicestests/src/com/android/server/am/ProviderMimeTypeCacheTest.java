@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+import android.os.UserHandle;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Test class for {@link ProviderMimeTypeCache}.
+ *
+ * Run: adb shell am instrument -e class com.android.server.am.ProviderMimeTypeCacheTest -w \
+ *     com.android.frameworks.servicestests/android.support.test.runner.AndroidJUnitRunner
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProviderMimeTypeCacheTest {
+    private static final Uri IMAGE_URI = Uri.parse("content://media/external/images/media/1");
+    private static final Uri DOC_URI = Uri.parse("content://com.example.docs/document/1");
+    private static final String MEDIA_PACKAGE = "com.android.providers.media";
+    private static final String DOCS_PACKAGE = "com.example.docs";
+
+    private ProviderMimeTypeCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new ProviderMimeTypeCache();
+    }
+
+    private void put(Uri uri, int userId, String type, String packageName) {
+        mCache.put(uri, userId, type, packageName, mCache.getGeneration());
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        assertNull(mCache.get(IMAGE_URI, 0));
+        put(IMAGE_URI, 0, "image/jpeg", MEDIA_PACKAGE);
+        assertEquals("image/jpeg", mCache.get(IMAGE_URI, 0));
+        // Types are kept per user.
+        assertNull(mCache.get(IMAGE_URI, 10));
+
+        // Unknown types aren't remembered.
+        put(DOC_URI, 0, null, DOCS_PACKAGE);
+        assertNull(mCache.get(DOC_URI, 0));
+    }
+
+    @Test
+    public void testInvalidatePackage() {
+        put(IMAGE_URI, 0, "image/jpeg", MEDIA_PACKAGE);
+        put(IMAGE_URI, 10, "image/jpeg", MEDIA_PACKAGE);
+        put(DOC_URI, 0, "text/plain", DOCS_PACKAGE);
+
+        mCache.invalidatePackage(MEDIA_PACKAGE, 0);
+        assertNull(mCache.get(IMAGE_URI, 0));
+        assertEquals("image/jpeg", mCache.get(IMAGE_URI, 10));
+        assertEquals("text/plain", mCache.get(DOC_URI, 0));
+
+        mCache.invalidatePackage(null, UserHandle.USER_ALL);
+        assertNull(mCache.get(IMAGE_URI, 10));
+        assertNull(mCache.get(DOC_URI, 0));
+    }
+
+    @Test
+    public void testInvalidateAuthority() {
+        final Uri otherImageUri = Uri.parse("content://media/external/images/media/2");
+        put(IMAGE_URI, 0, "image/jpeg", MEDIA_PACKAGE);
+        put(otherImageUri, 0, "image/png", MEDIA_PACKAGE);
+        put(IMAGE_URI, 10, "image/jpeg", MEDIA_PACKAGE);
+        put(DOC_URI, 0, "text/plain", DOCS_PACKAGE);
+
+        // A change to one uri may change the type of any other uri of the authority.
+        mCache.invalidateAuthority("media", 0);
+        assertNull(mCache.get(IMAGE_URI, 0));
+        assertNull(mCache.get(otherImageUri, 0));
+        assertEquals("image/jpeg", mCache.get(IMAGE_URI, 10));
+        assertEquals("text/plain", mCache.get(DOC_URI, 0));
+
+        mCache.invalidateAuthority("media", UserHandle.USER_ALL);
+        assertNull(mCache.get(IMAGE_URI, 10));
+    }
+
+    @Test
+    public void testDropsAnswersFromBeforeInvalidation() {
+        final long generation = mCache.getGeneration();
+        // The provider's process dies while it's being asked.
+        mCache.invalidatePackage(MEDIA_PACKAGE, 0);
+        mCache.put(IMAGE_URI, 0, "image/jpeg", MEDIA_PACKAGE, generation);
+        assertNull(mCache.get(IMAGE_URI, 0));
+    }
+
+    @Test
+    public void testDumpHitRate() {
+        put(IMAGE_URI, 0, "image/jpeg", MEDIA_PACKAGE);
+        mCache.get(IMAGE_URI, 0);
+        mCache.get(IMAGE_URI, 0);
+        mCache.get(IMAGE_URI, 0);
+        mCache.get(DOC_URI, 0);
+
+        final StringWriter out = new StringWriter();
+        mCache.dump(new PrintWriter(out), "");
+        assertTrue(out.toString(), out.toString().contains("3 hits / 4 lookups (75%)"));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.am;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.os.FileUtils;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Measures the time the AMS lock is held while restoring the recent tasks of a user on unlock,
+ * with and without the tasks being prefetched.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.am.TaskPersisterPerfTests
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class TaskPersisterPerfTests extends ActivityTestsBase {
+    private static final String TAG = "TaskPersisterPerfTests";
+
+    private static final String COMPONENT = "com.android.frameworks.servicestests/.Activity";
+    private static final int TASK_COUNT = 100;
+    private static final int ITERATIONS = 10;
+
+    private File mTasksDir;
+    private ActivityManagerService mService;
+    private TaskPersister mTaskPersister;
+
+    @Before
+    public void setUpTaskPersister() throws Exception {
+        final File filesDir = InstrumentationRegistry.getContext().getFilesDir();
+        mTasksDir = new File(filesDir, "task_persister_perf");
+        mTasksDir.mkdirs();
+        mService = createActivityManagerService();
+        mTaskPersister = new TaskPersister(filesDir, mService.mStackSupervisor, mService,
+                mService.mRecentTasks) {
+            @Override
+            File getTasksDirForUser(int userId) {
+                return mTasksDir;
+            }
+        };
+    }
+
+    @After
+    public void tearDownTaskPersister() {
+        FileUtils.deleteContents(mTasksDir);
+        mTasksDir.delete();
+    }
+
+    private void writeTaskFiles() throws IOException {
+        for (int taskId = 1; taskId <= TASK_COUNT; taskId++) {
+            try (FileWriter writer = new FileWriter(new File(mTasksDir, taskId + "_task.xml"))) {
+                writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>"
+                        + "<task task_id=\"" + taskId + "\" real_activity=\"" + COMPONENT
+                        + "\" user_id=\"0\" effective_uid=\"" + Process.myUid()
+                        + "\" task_affiliation=\"" + taskId
+                        + "\" prev_affiliation=\"-1\" next_affiliation=\"-1\" last_time_moved=\""
+                        + taskId + "\">"
+                        + "<intent action=\"android.intent.action.MAIN\" component=\"" + COMPONENT
+                        + "\" flags=\"10000000\" />"
+                        + "</task>");
+            }
+        }
+    }
+
+    private long restoreTasksLocked() {
+        synchronized (mService) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            final List<TaskRecord> tasks = mTaskPersister.restoreTasksForUserLocked(0 /* userId */,
+                    new SparseBooleanArray());
+            final long lockedNanos = SystemClock.elapsedRealtimeNanos() - start;
+            assertEquals(TASK_COUNT, tasks.size());
+            return lockedNanos;
+        }
+    }
+
+    @Test
+    public void testRestoreTasks_prefetchedAndNot() throws Exception {
+        writeTaskFiles();
+
+        // Everything read and parsed under the lock, as before prefetching.
+        long lockedNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            lockedNanos += restoreTasksLocked();
+        }
+
+        // Read and parsed in the background while the unlock is handled, published under the lock.
+        long prefetchedLockedNanos = 0;
+        long prefetchedTotalNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            mTaskPersister.prefetchTasksForUser(0 /* userId */);
+            mTaskPersister.waitForPrefetchedTasks(0 /* userId */);
+            prefetchedLockedNanos += restoreTasksLocked();
+            prefetchedTotalNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        Log.i(TAG, "tasks=" + TASK_COUNT
+                + " lockedUs=" + (lockedNanos / ITERATIONS / 1000)
+                + " prefetchedLockedUs=" + (prefetchedLockedNanos / ITERATIONS / 1000)
+                + " prefetchedTotalUs=" + (prefetchedTotalNanos / ITERATIONS / 1000));
+    }
+
+    @Test
+    public void testStoppedUserDropsPrefetch() throws Exception {
+        writeTaskFiles();
+        mTaskPersister.prefetchTasksForUser(0 /* userId */);
+        mTaskPersister.unloadUserDataFromMemory(0 /* userId */);
+        // Nothing left to wait for; the next restore reads the files again.
+        mTaskPersister.waitForPrefetchedTasks(0 /* userId */);
+        restoreTasksLocked();
+    }
+}
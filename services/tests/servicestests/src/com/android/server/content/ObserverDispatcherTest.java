@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.database.IContentObserver;
+import android.net.Uri;
+import android.os.HandlerThread;
+import android.os.UserHandle;
+import android.test.AndroidTestCase;
+
+import com.android.server.content.ContentService.ObserverCall;
+import com.android.server.content.ContentService.ObserverNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ObserverDispatcherTest extends AndroidTestCase {
+    static class TestObserver extends IContentObserver.Stub {
+        final List<Uri> mUris = new ArrayList<>();
+        int mTransactions;
+        CountDownLatch mLatch = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onChange(boolean selfUpdate, Uri uri, int userId) {
+            mUris.add(uri);
+            mTransactions++;
+            mLatch.countDown();
+        }
+
+        @Override
+        public synchronized void onChangeBatch(boolean selfUpdate, Uri[] uris, int userId) {
+            mUris.addAll(Arrays.asList(uris));
+            mTransactions++;
+            mLatch.countDown();
+        }
+    }
+
+    private HandlerThread mThread;
+    private ObserverNode mRoot;
+    private ObserverDispatcher mDispatcher;
+    private int mUserId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("ObserverDispatcherTest");
+        mThread.start();
+        mRoot = new ObserverNode("");
+        mDispatcher = new ObserverDispatcher(mRoot, mThread.getLooper());
+        mUserId = UserHandle.myUserId();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private void dispatchAll(TestObserver observer, boolean collapse, String... uris)
+            throws Exception {
+        // Deliver a first notification so that the following ones fall in the same window.
+        observer.mLatch = new CountDownLatch(1);
+        mDispatcher.dispatch(new ObserverCall(mRoot, observer, false, mUserId, collapse),
+                Uri.parse("content://warmup"), mUserId);
+        assertTrue(observer.mLatch.await(5, TimeUnit.SECONDS));
+        synchronized (observer) {
+            observer.mUris.clear();
+            observer.mTransactions = 0;
+            observer.mLatch = new CountDownLatch(1);
+        }
+        for (String uri : uris) {
+            mDispatcher.dispatch(new ObserverCall(mRoot, observer, false, mUserId, collapse),
+                    Uri.parse(uri), mUserId);
+        }
+        assertTrue(observer.mLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testBatchesNotifications() throws Exception {
+        final TestObserver observer = new TestObserver();
+        dispatchAll(observer, false, "content://c/a", "content://c/a/1", "content://c/a");
+
+        synchronized (observer) {
+            assertEquals(1, observer.mTransactions);
+            assertEquals(Arrays.asList(Uri.parse("content://c/a"), Uri.parse("content://c/a/1"),
+                    Uri.parse("content://c/a")), observer.mUris);
+        }
+    }
+
+    public void testCollapsesDescendants() throws Exception {
+        final TestObserver observer = new TestObserver();
+        dispatchAll(observer, true, "content://c/a/1", "content://c/b/1", "content://c/a",
+                "content://c/a/2", "content://c/a", "content://c/b");
+
+        synchronized (observer) {
+            assertEquals(1, observer.mTransactions);
+            assertEquals(Arrays.asList(Uri.parse("content://c/a"), Uri.parse("content://c/b")),
+                    observer.mUris);
+        }
+    }
+
+    public void testKeepsSiblingsAndOtherAuthorities() throws Exception {
+        final TestObserver observer = new TestObserver();
+        dispatchAll(observer, true, "content://c/a/1", "content://c/a/2", "content://d/a",
+                "content://c/ab");
+
+        synchronized (observer) {
+            assertEquals(4, observer.mUris.size());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.accounts.Account;
+import android.app.job.JobInfo;
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Simulates bursts of deferred syncs and counts the wakeups they would take.
+ */
+public class SyncBatcherTest extends AndroidTestCase {
+    private static final int ACCOUNTS = 10;
+    private static final int AUTHORITIES = 8;
+    private static final long NOW = 1000 * 1000;
+
+    private SyncBatcher mBatcher;
+
+    @Override
+    public void setUp() {
+        mBatcher = new SyncBatcher();
+    }
+
+    private static SyncOperation newSync(int account, int authority, Bundle extras) {
+        return new SyncOperation(new Account("account" + account, "type"), 0 /* userId */,
+                0 /* owningUid */, "foo", SyncOperation.REASON_PERIODIC,
+                SyncStorageEngine.SOURCE_LOCAL, "authority" + authority, extras,
+                false /* allowParallelSyncs */);
+    }
+
+    @SmallTest
+    public void testBurstSharesWakeups() {
+        final Random random = new Random(42);
+        final Set<Long> unbatchedWakeups = new HashSet<>();
+        final Set<Long> batchedWakeups = new HashSet<>();
+        for (int account = 0; account < ACCOUNTS; account++) {
+            for (int authority = 0; authority < AUTHORITIES; authority++) {
+                // Delays such as local change delays and backoffs, spread over two minutes.
+                final long minDelay = 1000 + random.nextInt(2 * 60 * 1000);
+                final long delay = mBatcher.getBatchedDelay(
+                        newSync(account, authority, new Bundle()),
+                        JobInfo.NETWORK_TYPE_ANY, minDelay, NOW);
+                assertTrue(delay >= minDelay);
+                assertTrue(delay - minDelay
+                        <= SyncBatcher.MAX_BATCH_DELAY_MILLIS + SyncBatcher.BATCH_ALIGNMENT_MILLIS);
+                unbatchedWakeups.add(NOW + minDelay);
+                batchedWakeups.add(NOW + delay);
+            }
+        }
+        assertEquals(ACCOUNTS * AUTHORITIES, unbatchedWakeups.size());
+        // Windows are aligned, so the whole burst fits in a handful of wakeups.
+        assertTrue("wakeups: " + batchedWakeups.size(),
+                batchedWakeups.size() <= 2 * 60 * 1000 / SyncBatcher.BATCH_ALIGNMENT_MILLIS + 1);
+    }
+
+    @SmallTest
+    public void testSameAccountJoinsWindow() {
+        final long first = mBatcher.getBatchedDelay(newSync(0, 0, new Bundle()),
+                JobInfo.NETWORK_TYPE_ANY, 45 * 1000, NOW);
+        final long second = mBatcher.getBatchedDelay(newSync(0, 1, new Bundle()),
+                JobInfo.NETWORK_TYPE_ANY, 5 * 1000, NOW);
+        assertEquals(first, second);
+
+        // A sync needing an unmetered network doesn't wait for the same wakeup.
+        final long unmetered = mBatcher.getBatchedDelay(newSync(0, 2, new Bundle()),
+                JobInfo.NETWORK_TYPE_UNMETERED, 5 * 1000, NOW);
+        assertTrue(unmetered < first);
+    }
+
+    @SmallTest
+    public void testUrgentSyncsNotDelayed() {
+        mBatcher.getBatchedDelay(newSync(0, 0, new Bundle()), JobInfo.NETWORK_TYPE_ANY,
+                45 * 1000, NOW);
+
+        final Bundle expedited = new Bundle();
+        expedited.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        assertEquals(5 * 1000, mBatcher.getBatchedDelay(newSync(0, 1, expedited),
+                JobInfo.NETWORK_TYPE_ANY, 5 * 1000, NOW));
+
+        final Bundle manual = new Bundle();
+        manual.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        assertEquals(5 * 1000, mBatcher.getBatchedDelay(newSync(0, 1, manual),
+                JobInfo.NETWORK_TYPE_ANY, 5 * 1000, NOW));
+
+        assertEquals(0, mBatcher.getBatchedDelay(newSync(0, 1, new Bundle()),
+                JobInfo.NETWORK_TYPE_ANY, 0, NOW));
+    }
+
+    @SmallTest
+    public void testMaxConcurrentSyncs() {
+        assertEquals(4, SyncBatcher.computeMaxConcurrentSyncs(4, false, false));
+        assertEquals(SyncBatcher.MIN_CONCURRENT_SYNCS,
+                SyncBatcher.computeMaxConcurrentSyncs(1, false, false));
+        assertEquals(SyncBatcher.MAX_CONCURRENT_SYNCS,
+                SyncBatcher.computeMaxConcurrentSyncs(32, false, false));
+        assertEquals(SyncBatcher.MIN_CONCURRENT_SYNCS,
+                SyncBatcher.computeMaxConcurrentSyncs(8, true, false));
+        assertEquals(1, SyncBatcher.computeMaxConcurrentSyncs(8, false, true));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.content;
+
+import android.os.Handler;
+import android.os.FileUtils;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class SyncStateFileTest extends AndroidTestCase {
+    private final Object mLock = new Object();
+    private final byte[][] mContents = new byte[SyncStateFile.SECTION_COUNT][];
+
+    private HandlerThread mThread;
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("SyncStateFileTest");
+        mThread.start();
+        mDir = new File(getContext().getFilesDir(), "sync_state_test");
+        FileUtils.deleteContentsAndDir(mDir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        FileUtils.deleteContentsAndDir(mDir);
+        super.tearDown();
+    }
+
+    private SyncStateFile newStateFile() {
+        final File[] files = new File[SyncStateFile.SECTION_COUNT];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(mDir, "section" + i);
+        }
+        return new SyncStateFile(files, mLock, section -> mContents[section],
+                new Handler(mThread.getLooper()));
+    }
+
+    private void setSection(SyncStateFile stateFile, int section, byte[] contents) {
+        synchronized (mLock) {
+            mContents[section] = contents;
+            stateFile.markDirtyLocked(section);
+        }
+    }
+
+    private boolean setAccounts(SyncStateFile stateFile, byte[] contents) {
+        synchronized (mLock) {
+            mContents[SyncStateFile.SECTION_ACCOUNTS] = contents;
+            return stateFile.writeAccountsLocked();
+        }
+    }
+
+    @SmallTest
+    public void testMissingFiles() {
+        final byte[][] sections = newStateFile().read();
+        for (byte[] section : sections) {
+            assertNull(section);
+        }
+    }
+
+    @SmallTest
+    public void testRoundTrip() {
+        final SyncStateFile stateFile = newStateFile();
+        assertTrue(setAccounts(stateFile, new byte[] { 1, 2, 3 }));
+        setSection(stateFile, SyncStateFile.SECTION_STATISTICS, new byte[] { 4 });
+        assertTrue(stateFile.flush());
+        assertEquals(2, stateFile.getWriteCount());
+        assertEquals(4, stateFile.getBytesWritten());
+
+        final byte[][] sections = newStateFile().read();
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3 },
+                sections[SyncStateFile.SECTION_ACCOUNTS]));
+        assertNull(sections[SyncStateFile.SECTION_STATUS]);
+        assertTrue(Arrays.equals(new byte[] { 4 }, sections[SyncStateFile.SECTION_STATISTICS]));
+    }
+
+    @SmallTest
+    public void testAccountsWrittenRightAway() {
+        final SyncStateFile stateFile = newStateFile();
+        assertTrue(setAccounts(stateFile, new byte[] { 1 }));
+        assertEquals(1, stateFile.getWriteCount());
+        assertTrue(Arrays.equals(new byte[] { 1 },
+                newStateFile().read()[SyncStateFile.SECTION_ACCOUNTS]));
+    }
+
+    @SmallTest
+    public void testOnlyChangedSectionsWritten() {
+        final SyncStateFile stateFile = newStateFile();
+        setSection(stateFile, SyncStateFile.SECTION_STATUS, new byte[] { 1 });
+        setSection(stateFile, SyncStateFile.SECTION_STATISTICS, new byte[] { 2 });
+        assertTrue(stateFile.flush());
+        assertEquals(2, stateFile.getWriteCount());
+
+        // Marked dirty but unchanged.
+        setSection(stateFile, SyncStateFile.SECTION_STATUS, new byte[] { 1 });
+        assertTrue(stateFile.flush());
+        assertEquals(2, stateFile.getWriteCount());
+        assertEquals(1, stateFile.getSkippedWriteCount());
+
+        // Only the file of the section that changed is written.
+        final long lastModified = stateFile.getBaseFile(SyncStateFile.SECTION_STATUS)
+                .lastModified();
+        setSection(stateFile, SyncStateFile.SECTION_STATISTICS, new byte[] { 3 });
+        assertTrue(stateFile.flush());
+        assertEquals(3, stateFile.getWriteCount());
+        assertEquals(lastModified,
+                stateFile.getBaseFile(SyncStateFile.SECTION_STATUS).lastModified());
+
+        // A section that fails to serialize keeps its previous contents.
+        setSection(stateFile, SyncStateFile.SECTION_STATUS, null);
+        assertTrue(stateFile.flush());
+        assertEquals(3, stateFile.getWriteCount());
+        final byte[][] sections = newStateFile().read();
+        assertTrue(Arrays.equals(new byte[] { 1 }, sections[SyncStateFile.SECTION_STATUS]));
+    }
+
+    @SmallTest
+    public void testCoalescesWrites() throws Exception {
+        final SyncStateFile stateFile = newStateFile();
+        for (int i = 0; i < 50; i++) {
+            setSection(stateFile, SyncStateFile.SECTION_STATUS, new byte[] { (byte) i });
+            setSection(stateFile, SyncStateFile.SECTION_STATISTICS, new byte[] { (byte) -i });
+        }
+        Thread.sleep(SyncStateFile.WRITE_DELAY * 3);
+        assertEquals(2, stateFile.getWriteCount());
+        final byte[][] sections = newStateFile().read();
+        assertTrue(Arrays.equals(new byte[] { 49 }, sections[SyncStateFile.SECTION_STATUS]));
+    }
+
+    @MediumTest
+    public void testFailedAccountsWriteIsRetried() throws Exception {
+        // A file in place of the directory makes writes fail.
+        mDir.getParentFile().mkdirs();
+        assertTrue(mDir.createNewFile());
+
+        final SyncStateFile stateFile = newStateFile();
+        assertFalse(setAccounts(stateFile, new byte[] { 1 }));
+        assertEquals(0, stateFile.getWriteCount());
+
+        assertTrue(mDir.delete());
+        Thread.sleep(SyncStateFile.RETRY_DELAY + SyncStateFile.WRITE_DELAY);
+        assertEquals(1, stateFile.getWriteCount());
+        assertTrue(Arrays.equals(new byte[] { 1 },
+                newStateFile().read()[SyncStateFile.SECTION_ACCOUNTS]));
+    }
+}
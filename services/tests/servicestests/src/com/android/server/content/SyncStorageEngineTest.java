@@ -32,6 +32,7 @@ import android.test.mock.MockContext;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
 
 import com.android.server.content.SyncStorageEngine.EndPoint;
 
@@ -104,6 +105,87 @@ public class SyncStorageEngineTest extends AndroidTestCase {
         engine.stopSyncEvent(historyId, time1 - time0, "yay", 0, 0);
     }
 
+    /**
+     * Simulates a burst of syncs that all go from failing to succeeding, as happens when the
+     * network comes back, and checks that their status changes share a single write.
+     */
+    @SmallTest
+    public void testStatusWritesCoalesced() throws Exception {
+        final int authorities = 20;
+        final SyncOperation[] ops = new SyncOperation[authorities];
+        for (int i = 0; i < authorities; i++) {
+            engine.setIsSyncable(account1, DEFAULT_USER, authority1 + i, 0);
+            ops[i] = new SyncOperation(account1, DEFAULT_USER, 0, "foo",
+                    SyncOperation.REASON_PERIODIC, SyncStorageEngine.SOURCE_LOCAL,
+                    authority1 + i, Bundle.EMPTY, true);
+        }
+        final int statusWrites = engine.getStatusWriteCount();
+        final int statisticsWrites = engine.getStatisticsWriteCount();
+
+        for (String result : new String[] { "failed", SyncStorageEngine.MESG_SUCCESS }) {
+            for (SyncOperation op : ops) {
+                long historyId = engine.insertStartSyncEvent(op, System.currentTimeMillis());
+                engine.stopSyncEvent(historyId, 10, result, 0, 0);
+            }
+        }
+        assertEquals(statusWrites, engine.getStatusWriteCount());
+        assertEquals(statisticsWrites, engine.getStatisticsWriteCount());
+
+        engine.writeAllState();
+        assertEquals(statusWrites + 1, engine.getStatusWriteCount());
+        assertEquals(statisticsWrites + 1, engine.getStatisticsWriteCount());
+    }
+
+    /**
+     * Measures how much gets written for a burst of sync results, which used to rewrite
+     * status.bin and stats.bin for each sync, and checks that accounts.xml isn't touched.
+     */
+    @LargeTest
+    public void testWriteVolume() throws Exception {
+        final int authorities = 20;
+        final SyncOperation[] ops = new SyncOperation[authorities];
+        for (int i = 0; i < authorities; i++) {
+            engine.setIsSyncable(account1, DEFAULT_USER, authority1 + i, 1);
+            ops[i] = new SyncOperation(account1, DEFAULT_USER, 0, "foo",
+                    SyncOperation.REASON_PERIODIC, SyncStorageEngine.SOURCE_LOCAL,
+                    authority1 + i, Bundle.EMPTY, true);
+        }
+        final SyncStateFile stateFile = engine.getStateFile();
+        stateFile.flush();
+        final int writes = stateFile.getWriteCount();
+        final long bytes = stateFile.getBytesWritten();
+        final File accountsFile = stateFile.getBaseFile(SyncStateFile.SECTION_ACCOUNTS);
+        final long accountsModified = accountsFile.lastModified();
+
+        for (SyncOperation op : ops) {
+            long historyId = engine.insertStartSyncEvent(op, System.currentTimeMillis());
+            engine.stopSyncEvent(historyId, 10, SyncStorageEngine.MESG_SUCCESS, 0, 0);
+        }
+        engine.writeAllState();
+
+        final int burstWrites = stateFile.getWriteCount() - writes;
+        Log.i("SyncStorageEngineTest", authorities + " sync results: " + burstWrites
+                + " writes, " + (stateFile.getBytesWritten() - bytes) + " bytes");
+        assertTrue(burstWrites <= 2);
+        assertEquals(accountsModified, accountsFile.lastModified());
+    }
+
+    /**
+     * Checks that settings changes reach accounts.xml without waiting for a deferred write.
+     */
+    @MediumTest
+    public void testAccountsWrittenRightAway() throws Exception {
+        engine.setIsSyncable(account1, DEFAULT_USER, authority1, 0);
+        engine.setSyncAutomatically(account1, DEFAULT_USER, authority1, true);
+
+        // A new instance reads the files as they are, without anything being flushed.
+        SyncStorageEngine engine2 = SyncStorageEngine.newTestInstance(
+                new TestContext(new MockContentResolver(), getContext()));
+        assertEquals(0, engine2.getIsSyncable(account1, DEFAULT_USER, authority1));
+        assertEquals(true, engine2.getSyncAutomatically(account1, DEFAULT_USER, authority1));
+        assertTrue(new File(getSyncDir(), "accounts.xml").exists());
+    }
+
     @LargeTest
     public void testAuthorityPersistence() throws Exception {
         final Account account1 = new Account("a@example.com", "example.type");
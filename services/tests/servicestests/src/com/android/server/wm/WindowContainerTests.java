@@ -101,6 +101,37 @@ public class WindowContainerTests extends WindowTestsBase {
         assertTrue(layer0.mOnParentSetCalled);
     }
 
+    @Test
+    public void testLayoutDirty() throws Exception {
+        final TestWindowContainerBuilder builder = new TestWindowContainerBuilder();
+        final TestWindowContainer root = builder.setLayer(0).build();
+        final TestWindowContainer child1 = root.addChildWindow();
+        final TestWindowContainer child2 = root.addChildWindow();
+        final TestWindowContainer child11 = child1.addChildWindow();
+
+        // Adding children dirties them and their ancestors.
+        assertTrue(root.isLayoutDirty());
+        assertTrue(child11.isLayoutDirty());
+
+        root.clearLayoutDirty();
+        assertFalse(root.isLayoutDirty());
+        assertFalse(child1.isLayoutDirty());
+        assertFalse(child2.isLayoutDirty());
+        assertFalse(child11.isLayoutDirty());
+
+        // A change only dirties the path to the root, not the siblings.
+        child11.setLayoutDirty();
+        assertTrue(root.isLayoutDirty());
+        assertTrue(child1.isLayoutDirty());
+        assertTrue(child11.isLayoutDirty());
+        assertFalse(child2.isLayoutDirty());
+
+        root.clearLayoutDirty();
+        root.positionChildAt(POSITION_BOTTOM, child2, false /* includingParents */);
+        assertTrue(root.isLayoutDirty());
+        assertFalse(child1.isLayoutDirty());
+    }
+
     @Test
     public void testAdd_AlreadyHasParent() throws Exception {
         final TestWindowContainerBuilder builder = new TestWindowContainerBuilder();
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.wm;
+
+import static android.view.WindowManager.LayoutParams.TYPE_APPLICATION;
+import static android.view.WindowManager.LayoutParams.TYPE_BASE_APPLICATION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.os.SystemClock;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Measures the time spent in surface placement with many windows spread over several displays,
+ * when all of them are laid out and when a single one changed, and checks that layout dirty
+ * state is tracked per display and window.
+ *
+ * Build/Install/Run:
+ *  bit FrameworksServicesTests:com.android.server.wm.WindowSurfacePlacerPerfTests
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class WindowSurfacePlacerPerfTests extends WindowTestsBase {
+    private static final String TAG = "WindowSurfacePlacerPerfTests";
+
+    private static final int DISPLAY_COUNT = 3;
+    private static final int WINDOWS_PER_DISPLAY = 40;
+    private static final int ITERATIONS = 50;
+
+    /** Creates a window that layout passes don't skip as gone, like one the client relaid out. */
+    private WindowState createVisibleWindow(WindowState parent, int type, DisplayContent dc,
+            String name) {
+        final WindowState w = parent == null ? createWindow(null, type, dc, name)
+                : createWindow(parent, type, name);
+        w.mRelayoutCalled = true;
+        return w;
+    }
+
+    private static long getLaidOutWindowCount(ArrayList<DisplayContent> displays) {
+        long count = 0;
+        for (DisplayContent dc : displays) {
+            count += dc.getLaidOutWindowCount();
+        }
+        return count;
+    }
+
+    @Test
+    public void testSurfacePlacement_manyWindowsManyDisplays() throws Exception {
+        final ArrayList<DisplayContent> displays = new ArrayList<>();
+        final ArrayList<WindowState> windows = new ArrayList<>();
+        synchronized (sWm.mWindowMap) {
+            displays.add(mDisplayContent);
+            for (int i = 1; i < DISPLAY_COUNT; i++) {
+                displays.add(createNewDisplay());
+            }
+            for (DisplayContent dc : displays) {
+                for (int i = 0; i < WINDOWS_PER_DISPLAY; i++) {
+                    final WindowState app = createVisibleWindow(null, TYPE_BASE_APPLICATION, dc,
+                            "app" + i);
+                    windows.add(app);
+                    windows.add(createVisibleWindow(app, TYPE_APPLICATION, dc, "child" + i));
+                }
+            }
+            sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+        }
+
+        // Full relayout: every window on every display is laid out.
+        long fullNanos = 0;
+        long fullLaidOut = 0;
+        // Single change: only one window, and the one attached to it, are laid out.
+        long singleNanos = 0;
+        long singleLaidOut = 0;
+        final WindowState changed = windows.get(windows.size() / 2);
+        for (int i = 0; i < ITERATIONS; i++) {
+            synchronized (sWm.mWindowMap) {
+                for (DisplayContent dc : displays) {
+                    dc.setLayoutNeeded();
+                }
+                long laidOut = getLaidOutWindowCount(displays);
+                long start = SystemClock.elapsedRealtimeNanos();
+                sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+                fullNanos += SystemClock.elapsedRealtimeNanos() - start;
+                fullLaidOut += getLaidOutWindowCount(displays) - laidOut;
+
+                changed.setDisplayLayoutNeeded();
+                assertTrue(changed.getDisplayContent().isLayoutDirty());
+                laidOut = getLaidOutWindowCount(displays);
+                start = SystemClock.elapsedRealtimeNanos();
+                sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+                singleNanos += SystemClock.elapsedRealtimeNanos() - start;
+                singleLaidOut += getLaidOutWindowCount(displays) - laidOut;
+                assertFalse(changed.isLayoutDirty());
+            }
+        }
+        assertTrue(fullLaidOut >= windows.size() * ITERATIONS);
+        assertTrue(singleLaidOut < fullLaidOut);
+
+        Log.i(TAG, "windows=" + windows.size() + " displays=" + DISPLAY_COUNT
+                + " fullPlacementUs=" + (fullNanos / ITERATIONS / 1000)
+                + " fullWindowsLaidOut=" + (fullLaidOut / ITERATIONS)
+                + " singleChangePlacementUs=" + (singleNanos / ITERATIONS / 1000)
+                + " singleChangeWindowsLaidOut=" + (singleLaidOut / ITERATIONS));
+    }
+
+    @Test
+    public void testLayoutDirty_onlyChangedDisplay() throws Exception {
+        synchronized (sWm.mWindowMap) {
+            final DisplayContent otherDisplay = createNewDisplay();
+            final WindowState window = createWindow(null, TYPE_BASE_APPLICATION, mDisplayContent,
+                    "window");
+            final WindowState otherWindow = createWindow(null, TYPE_BASE_APPLICATION,
+                    otherDisplay, "otherWindow");
+            sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+            assertFalse(mDisplayContent.isLayoutDirty());
+            assertFalse(otherDisplay.isLayoutDirty());
+
+            window.setDisplayLayoutNeeded();
+            assertTrue(mDisplayContent.isLayoutDirty());
+            assertTrue(mDisplayContent.isLayoutNeeded());
+            assertFalse(otherDisplay.isLayoutDirty());
+            assertFalse(otherWindow.isLayoutDirty());
+        }
+    }
+
+    @Test
+    public void testLayout_onlyDirtyWindowsLaidOut() throws Exception {
+        synchronized (sWm.mWindowMap) {
+            final WindowState dirty = createVisibleWindow(null, TYPE_BASE_APPLICATION,
+                    mDisplayContent, "dirty");
+            final WindowState attached = createVisibleWindow(dirty, TYPE_APPLICATION,
+                    mDisplayContent, "attached");
+            final WindowState clean = createVisibleWindow(null, TYPE_BASE_APPLICATION,
+                    mDisplayContent, "clean");
+            sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+            final int cleanLayoutSeq = clean.mLayoutSeq;
+
+            // The clean window keeps the frames of the last pass.
+            dirty.setDisplayLayoutNeeded();
+            sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+            assertEquals(sWm.mLayoutSeq, dirty.mLayoutSeq);
+            assertEquals(sWm.mLayoutSeq, attached.mLayoutSeq);
+            assertEquals(cleanLayoutSeq, clean.mLayoutSeq);
+
+            // Anything else that requests layout lays out every window.
+            mDisplayContent.setLayoutNeeded();
+            sWm.mRoot.performSurfacePlacement(false /* recoveringMemory */);
+            assertEquals(sWm.mLayoutSeq, clean.mLayoutSeq);
+            assertNotEquals(cleanLayoutSeq, clean.mLayoutSeq);
+        }
+    }
+}
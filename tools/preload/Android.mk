@@ -14,7 +14,8 @@ LOCAL_SRC_FILES := \
 	Proc.java \
 	Record.java \
 	Root.java \
-	WritePreloadedClassFile.java
+	WritePreloadedClassFile.java \
+	WritePreloadedClassGroupsFile.java
 
 LOCAL_MODULE:= preload
 
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes /frameworks/base/preloaded-classes-groups, the profile of static
+ * initializer dependencies used by
+ * com.android.internal.os.ParallelClassPreloader.
+ *
+ * Each line lists preloaded classes whose static initializers, in any recorded
+ * process, initialized one another (directly or transitively). Classes on
+ * different lines can be initialized concurrently. Preloaded classes whose
+ * initialization was never recorded are left out, so the zygote initializes
+ * them serially.
+ */
+public class WritePreloadedClassGroupsFile {
+
+    static final String PRELOADED_CLASS_GROUPS_FILE
+            = "frameworks/base/preloaded-classes-groups";
+
+    public static void main(String[] args) throws IOException,
+            ClassNotFoundException {
+        if (args.length != 1) {
+            System.err.println("Usage: WritePreloadedClassGroupsFile [compiled log]");
+            System.exit(-1);
+        }
+        Root root = Root.fromFile(args[0]);
+
+        List<String> preloaded = readPreloadedClasses();
+        Map<String, String> parents = new HashMap<String, String>();
+
+        for (String name : preloaded) {
+            LoadedClass loadedClass = root.loadedClasses.get(name);
+            if (loadedClass == null || loadedClass.initializations.isEmpty()) {
+                continue;
+            }
+            find(parents, name);
+            for (Operation init : loadedClass.initializations) {
+                unionSubops(parents, name, init);
+            }
+        }
+
+        // Group preloaded classes by their representative, in preload order.
+        Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+        for (String name : preloaded) {
+            if (!parents.containsKey(name)) {
+                continue;
+            }
+            String representative = find(parents, name);
+            List<String> group = groups.get(representative);
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.put(representative, group);
+            }
+            group.add(name);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(PRELOADED_CLASS_GROUPS_FILE),
+                Charset.forName("US-ASCII")));
+        out.write("# Groups of preloaded classes whose static initializers depend on\n");
+        out.write("# each other. Used by com.android.internal.os.ParallelClassPreloader.\n");
+        out.write("# Automatically generated by frameworks/base/tools/preload/"
+                + WritePreloadedClassGroupsFile.class.getSimpleName() + ".java.\n");
+        int largest = 0;
+        for (List<String> group : groups.values()) {
+            StringBuilder line = new StringBuilder();
+            for (String name : group) {
+                if (line.length() > 0) {
+                    line.append(' ');
+                }
+                line.append(name);
+            }
+            out.write(line.append('\n').toString());
+            largest = Math.max(largest, group.size());
+        }
+        out.close();
+
+        System.out.println(groups.size() + " groups written, the largest has "
+                + largest + " classes.");
+    }
+
+    private static List<String> readPreloadedClasses() throws IOException {
+        List<String> classes = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(Policy.PRELOADED_CLASS_FILE),
+                Charset.forName("US-ASCII")));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("#") || line.equals("")) {
+                    continue;
+                }
+                classes.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        return classes;
+    }
+
+    /** Puts every class initialized during the given operation in the same group as name. */
+    private static void unionSubops(Map<String, String> parents, String name,
+            Operation operation) {
+        for (Operation subop : operation.subops) {
+            union(parents, name, subop.loadedClass.name);
+            unionSubops(parents, name, subop);
+        }
+    }
+
+    private static String find(Map<String, String> parents, String name) {
+        String parent = parents.get(name);
+        if (parent == null) {
+            parents.put(name, name);
+            return name;
+        }
+        if (parent.equals(name)) {
+            return name;
+        }
+        String root = find(parents, parent);
+        parents.put(name, root);
+        return root;
+    }
+
+    private static void union(Map<String, String> parents, String a, String b) {
+        String rootA = find(parents, a);
+        String rootB = find(parents, b);
+        if (!rootA.equals(rootB)) {
+            parents.put(rootB, rootA);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+#!/bin/bash
+#
+# Copyright (C) 2017 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Compares zygote preload phase timings with serial and parallel class
+# preloading on a connected userdebug/eng device.
+#
+# Usage: compare-parallel-preload.sh [iterations]
+#
+# The device needs /system/etc/preloaded-classes-groups, generated with
+# WritePreloadedClassGroupsFile, for parallel preloading to take effect.
+
+ITERATIONS=${1:-5}
+PHASES="PreloadClasses PreloadClassesParallelLoad PreloadClassesParallelInit \
+PreloadClassesSerialInit PreloadResources ZygotePreload"
+
+adb root > /dev/null && adb wait-for-device
+
+function run_mode() {
+    local parallel=$1
+    local out=$2
+    adb shell setprop persist.zygote.parallel_preload $parallel
+    : > $out
+    for i in $(seq 1 $ITERATIONS); do
+        adb logcat -c
+        adb shell stop
+        adb shell start
+        # Wait for the primary zygote to finish preloading.
+        until adb logcat -d -s Zygote32Timing Zygote64Timing | grep -q "ZygotePreload took"; do
+            sleep 1
+        done
+        adb logcat -d -s Zygote32Timing Zygote64Timing | grep "took to complete" >> $out
+    done
+}
+
+function report() {
+    local out=$1
+    for phase in $PHASES; do
+        grep " $phase took" $out | sed -e 's/.*: \([0-9]*\)ms/\1/' | \
+            awk -v phase=$phase '{ sum += $1; n++ }
+                END { if (n > 0) printf "  %-28s %6.1f ms (n=%d)\n", phase, sum / n, n }'
+    done
+}
+
+SERIAL=$(mktemp)
+PARALLEL=$(mktemp)
+run_mode false $SERIAL
+run_mode true $PARALLEL
+adb shell setprop persist.zygote.parallel_preload false
+
+echo "Serial preload:"
+report $SERIAL
+echo "Parallel preload:"
+report $PARALLEL
+rm -f $SERIAL $PARALLEL